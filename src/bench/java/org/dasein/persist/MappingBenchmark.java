@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.persist.annotations.IndexType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures converting {@link PersistentObject} between its object, map, and JSON forms. None of these paths
+ * talk to the data store, so the cache is never connected to anything.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class MappingBenchmark {
+    private PersistentCache<PersistentObject> cache;
+    private String                            json;
+    private PersistentObject                  item;
+    private JSONMapped                        mapped;
+    private Map<String,Object>                state;
+    private String                            version;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws PersistenceException {
+        cache = (PersistentCache<PersistentObject>)PersistentCache.getCache(PersistentObject.class);
+        version = cache.getSchemaVersion();
+        mapped = JSONMapped.getInstance(System.currentTimeMillis(), "benchmark");
+        state = new HashMap<String,Object>();
+        state.put("keyField", 42L);
+        state.put("name", "Benchmark Object");
+        state.put("description", "An object with a representative mix of field types");
+        state.put("amount", 1234.56);
+        state.put("currency", Currency.getInstance("USD"));
+        state.put("indexType", IndexType.SECONDARY);
+        state.put("otherObject", 7L);
+        state.put("mapped", mapped);
+        state.put("indexA", "a");
+        state.put("indexB", "b");
+        state.put("indexC", "c");
+        item = cache.toTargetFromMap(version, state);
+        json = cache.toDataStoreJSONFromCurrentState(state);
+    }
+
+    @Benchmark
+    public Object mapValue() throws PersistenceException {
+        return cache.mapValue("currency", "USD", Currency.class, null);
+    }
+
+    @Benchmark
+    public PersistentObject toTargetFromMap() throws PersistenceException {
+        return cache.toTargetFromMap(version, state);
+    }
+
+    @Benchmark
+    public PersistentObject toTargetFromJSON() throws PersistenceException {
+        return cache.toTargetFromJSON(version, json);
+    }
+
+    @Benchmark
+    public String toDataStoreJSONFromCurrentState() {
+        return cache.toDataStoreJSONFromCurrentState(state);
+    }
+
+    /**
+     * Serializes an {@link org.dasein.persist.annotations.AutoJSON} value, which is how embedded objects are
+     * written by {@link #toDataStoreJSONFromCurrentState()}.
+     */
+    @Benchmark
+    public Object autoJSON() {
+        return cache.toJSONValue(mapped);
+    }
+
+    @Benchmark
+    public Map<String,Object> mementoSave() throws PersistenceException {
+        Memento<PersistentObject> memento = new Memento<PersistentObject>(item);
+
+        memento.save(Collections.<String,Object>emptyMap());
+        return memento.getState();
+    }
+
+    @Benchmark
+    public PersistentObject mementoLoad() throws PersistenceException {
+        PersistentObject ob = new PersistentObject();
+
+        new Memento<PersistentObject>(ob).load(state);
+        return ob;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.persist.PersistentObject;
+import org.dasein.persist.annotations.IndexType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures binding query parameters and reading column values for {@link PersistentObject}. The statement
+ * and result set are stand-ins that discard parameters and return a fixed row, so only the mapping code is
+ * measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoaderBenchmark {
+    /**
+     * A stand-in for a JDBC object that answers each getter from a row of values and ignores everything else.
+     */
+    static private class Row implements InvocationHandler {
+        private final Object[] values;
+        private Object         last = null;
+
+        public Row(Object ... values) {
+            this.values = values;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Class<?> type = method.getReturnType();
+
+            if( name.equals("wasNull") ) {
+                return (last == null);
+            }
+            if( name.startsWith("get") && args != null && args.length == 1 && args[0] instanceof Integer ) {
+                int i = (Integer)args[0];
+
+                last = (i > 0 && i <= values.length ? values[i-1] : null);
+                if( type.isPrimitive() && !(last instanceof Number) ) {
+                    throw new SQLException("Not a number: " + last);
+                }
+                if( type.equals(String.class) ) {
+                    return (last == null ? null : last.toString());
+                }
+                if( type.equals(long.class) ) {
+                    return ((Number)last).longValue();
+                }
+                if( type.equals(int.class) ) {
+                    return ((Number)last).intValue();
+                }
+                if( type.equals(short.class) ) {
+                    return ((Number)last).shortValue();
+                }
+                if( type.equals(byte.class) ) {
+                    return ((Number)last).byteValue();
+                }
+                if( type.equals(double.class) ) {
+                    return ((Number)last).doubleValue();
+                }
+                if( type.equals(float.class) ) {
+                    return ((Number)last).floatValue();
+                }
+                if( type.equals(BigDecimal.class) ) {
+                    return (last instanceof Number ? new BigDecimal(last.toString()) : null);
+                }
+                return last;
+            }
+            if( type.equals(boolean.class) ) {
+                return false;
+            }
+            if( type.equals(int.class) ) {
+                return 0;
+            }
+            return null;
+        }
+    }
+
+    static private class PersistentObjectLoader extends Loader {
+        @Override
+        protected void init() {
+            setTarget(PersistentObject.class);
+            setCriteria("name", "indexType", "amount", "currency", "keyField");
+        }
+    }
+
+    private List<String>           columns;
+    private PersistentObjectLoader loader;
+    private Map<String,Object>     params;
+    private ResultSet              results;
+
+    @Setup
+    public void setUp() {
+        HashMap<String,Object> row = new HashMap<String,Object>();
+
+        loader = new PersistentObjectLoader();
+        loader.statement = (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, new Row());
+        columns = loader.getColumns();
+        row.put("keyField", 42L);
+        row.put("name", "Benchmark Object");
+        row.put("description", "An object with a representative mix of field types");
+        row.put("amount", 1234.56);
+        row.put("currency", "USD");
+        row.put("indexType", IndexType.SECONDARY.name());
+        row.put("otherObject", 7L);
+        // the relational readers have no mapping for AutoJSON values, so the embedded object is left NULL
+        row.put("mapped", null);
+        row.put("indexA", "a");
+        row.put("indexB", "b");
+        row.put("indexC", "c");
+        Object[] values = new Object[columns.size()];
+
+        for( int i=0; i<values.length; i++ ) {
+            values[i] = row.get(columns.get(i));
+        }
+        results = (ResultSet)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, new Row(values));
+        params = new HashMap<String,Object>(row);
+        params.put("indexType", IndexType.SECONDARY);
+    }
+
+    /**
+     * Reads every column of one row, as {@link Loader} does for each row of a result set.
+     */
+    @Benchmark
+    public void getValue(Blackhole hole) throws SQLException {
+        for( int i=1; i<=columns.size(); i++ ) {
+            hole.consume(loader.getValue(columns.get(i-1), i, results));
+        }
+    }
+
+    @Benchmark
+    public void prepare() throws SQLException {
+        loader.prepare(params);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist.riak;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.persist.PersistenceException;
+import org.dasein.persist.PersistentObject;
+import org.dasein.persist.SearchTerm;
+import org.dasein.persist.annotations.IndexType;
+import org.dasein.persist.jdbc.AutomatedSql.Operator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures generating the JavaScript map functions Riak runs for searches and counts. The cache is never
+ * connected to a Riak node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapFunctionBenchmark {
+    private RiakCache<PersistentObject> cache;
+    private SearchTerm[]                terms;
+
+    @Setup
+    public void setUp() {
+        cache = new RiakCache<PersistentObject>();
+        terms = new SearchTerm[] {
+                new SearchTerm("name", "Benchmark Object"),
+                new SearchTerm("indexType", IndexType.SECONDARY),
+                new SearchTerm("amount", Operator.GREATER_THAN, 1000.0),
+                new SearchTerm("otherObject", Operator.NOT_EQUAL, 7L)
+        };
+    }
+
+    @Benchmark
+    public String mapFunction() throws PersistenceException {
+        return cache.buildMapFunction(false, terms);
+    }
+
+    @Benchmark
+    public String countFunction() throws PersistenceException {
+        return cache.buildMapFunction(true, terms);
+    }
+}
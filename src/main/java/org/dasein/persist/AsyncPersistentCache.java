@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.util.CachedItem;
+
+/**
+ * <p>
+ * A non-blocking facade over any {@link PersistentCache} implementation. Each operation runs on
+ * an executor and returns a {@link CompletableFuture}, so loads against several caches can be
+ * issued together and joined:
+ * </p>
+ * <pre>
+ * CompletableFuture&lt;Customer&gt; customer = customers.get(customerId);
+ * CompletableFuture&lt;Collection&lt;Order&gt;&gt; orders = orders.find(new SearchTerm("customerId", customerId));
+ * </pre>
+ * <p>
+ * Unless another executor is supplied, work runs on a pool shared by all asynchronous caches with
+ * <code>dasein.persist.async.threads</code> threads (default two per processor, at least four) and a queue of
+ * <code>dasein.persist.async.queueSize</code> operations (default 1000). When the queue is full the operation
+ * runs on the calling thread, which slows callers down rather than growing the number of threads. The pool is
+ * separate from the {@link LoaderExecutor} because operations here wait on collections that loader threads fill.
+ * </p>
+ * <p>
+ * Collections are fully loaded before their future completes. Write operations run in their own
+ * transaction, which is committed before the future completes.
+ * </p>
+ * <p>
+ * A timeout completes the future with a {@link TimeoutException}. Work that has not started by
+ * then is skipped, but work already talking to the database is not interrupted and runs to completion.
+ * </p>
+ */
+public class AsyncPersistentCache<T extends CachedItem> {
+    static private final Logger logger = Logger.getLogger(AsyncPersistentCache.class);
+
+    static private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+
+            t.setName("dasein-persistence - ASYNC TIMEOUTS");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static private volatile ThreadPoolExecutor pool = null;
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    static private @Nonnull Executor getSharedExecutor() {
+        ThreadPoolExecutor executor = pool;
+
+        if( executor == null ) {
+            synchronized( AsyncPersistentCache.class ) {
+                executor = pool;
+                if( executor == null ) {
+                    int threads = Math.max(1, PersistenceConfig.getInt("dasein.persist.async.threads", null, Math.max(4, Runtime.getRuntime().availableProcessors() * 2)));
+                    int queueSize = Math.max(1, PersistenceConfig.getInt("dasein.persist.async.queueSize", null, 1000));
+                    final AtomicInteger count = new AtomicInteger(0);
+
+                    executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r);
+
+                            t.setName("Async-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    pool = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private final PersistentCache<T> cache;
+    private long                     defaultTimeout = 0L;
+    private final Executor           executor;
+
+    /**
+     * Constructs an asynchronous facade that runs its work on the shared asynchronous pool.
+     * @param cache the cache to wrap
+     */
+    public AsyncPersistentCache(@Nonnull PersistentCache<T> cache) {
+        this(cache, getSharedExecutor());
+    }
+
+    /**
+     * Constructs an asynchronous facade that runs its work on the specified executor.
+     * @param cache the cache to wrap
+     * @param executor the executor for cache operations
+     */
+    public AsyncPersistentCache(@Nonnull PersistentCache<T> cache, @Nonnull Executor executor) {
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the wrapped cache
+     */
+    public @Nonnull PersistentCache<T> getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the timeout applied to calls that do not specify their own.
+     * @param timeout the timeout, 0 for none
+     * @param unit the unit of the timeout
+     */
+    public void setDefaultTimeout(long timeout, @Nonnull TimeUnit unit) {
+        defaultTimeout = unit.toMillis(timeout);
+    }
+
+    public @Nonnull CompletableFuture<Long> count() {
+        return count(defaultTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    public @Nonnull CompletableFuture<Long> count(long timeout, @Nonnull TimeUnit unit) {
+        return submit(new Callable<Long>() {
+            public Long call() throws PersistenceException {
+                return cache.count();
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<Long> count(@Nonnull SearchTerm ... terms) {
+        return count(defaultTimeout, TimeUnit.MILLISECONDS, terms);
+    }
+
+    public @Nonnull CompletableFuture<Long> count(long timeout, @Nonnull TimeUnit unit, @Nonnull final SearchTerm ... terms) {
+        return submit(new Callable<Long>() {
+            public Long call() throws PersistenceException {
+                return cache.count(terms);
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<T> create(@Nonnull Map<String,Object> state) {
+        return create(defaultTimeout, TimeUnit.MILLISECONDS, state);
+    }
+
+    public @Nonnull CompletableFuture<T> create(long timeout, @Nonnull TimeUnit unit, @Nonnull final Map<String,Object> state) {
+        return submit(new Callable<T>() {
+            public T call() throws PersistenceException {
+                Transaction xaction = Transaction.getInstance();
+
+                try {
+                    T item = cache.create(xaction, state);
+
+                    xaction.commit();
+                    return item;
+                }
+                finally {
+                    xaction.rollback();
+                }
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<Collection<T>> find(@Nonnull SearchTerm ... terms) {
+        return find(defaultTimeout, TimeUnit.MILLISECONDS, terms);
+    }
+
+    public @Nonnull CompletableFuture<Collection<T>> find(long timeout, @Nonnull TimeUnit unit, @Nonnull final SearchTerm ... terms) {
+        return submit(new Callable<Collection<T>>() {
+            public Collection<T> call() throws PersistenceException {
+                return load(cache.find(terms));
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<Collection<T>> find(@Nonnull SearchTerm[] terms, @Nullable Boolean orderDesc, @Nullable String ... orderFields) {
+        return find(defaultTimeout, TimeUnit.MILLISECONDS, terms, orderDesc, orderFields);
+    }
+
+    public @Nonnull CompletableFuture<Collection<T>> find(long timeout, @Nonnull TimeUnit unit, @Nonnull final SearchTerm[] terms, @Nullable final Boolean orderDesc, @Nullable final String ... orderFields) {
+        return submit(new Callable<Collection<T>>() {
+            public Collection<T> call() throws PersistenceException {
+                return load(cache.find(terms, null, orderDesc, orderFields));
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<T> get(@Nonnull Object keyValue) {
+        return get(keyValue, defaultTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    public @Nonnull CompletableFuture<T> get(@Nonnull final Object keyValue, long timeout, @Nonnull TimeUnit unit) {
+        return submit(new Callable<T>() {
+            public T call() throws PersistenceException {
+                return cache.get(keyValue);
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<Map<Object,T>> getAll(@Nonnull Collection<?> keyValues) {
+        return getAll(keyValues, defaultTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    public @Nonnull CompletableFuture<Map<Object,T>> getAll(@Nonnull final Collection<?> keyValues, long timeout, @Nonnull TimeUnit unit) {
+        return submit(new Callable<Map<Object,T>>() {
+            public Map<Object,T> call() throws PersistenceException {
+                return cache.getAll(keyValues);
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<Collection<T>> list() {
+        return list(defaultTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    public @Nonnull CompletableFuture<Collection<T>> list(long timeout, @Nonnull TimeUnit unit) {
+        return submit(new Callable<Collection<T>>() {
+            public Collection<T> call() throws PersistenceException {
+                return load(cache.list());
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<Void> remove(@Nonnull T item) {
+        return remove(item, defaultTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    public @Nonnull CompletableFuture<Void> remove(@Nonnull final T item, long timeout, @Nonnull TimeUnit unit) {
+        return submit(new Callable<Void>() {
+            public Void call() throws PersistenceException {
+                Transaction xaction = Transaction.getInstance();
+
+                try {
+                    cache.remove(xaction, item);
+                    xaction.commit();
+                    return null;
+                }
+                finally {
+                    xaction.rollback();
+                }
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    public @Nonnull CompletableFuture<Void> update(@Nonnull T item, @Nonnull Map<String,Object> state) {
+        return update(item, state, defaultTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    public @Nonnull CompletableFuture<Void> update(@Nonnull final T item, @Nonnull final Map<String,Object> state, long timeout, @Nonnull TimeUnit unit) {
+        return submit(new Callable<Void>() {
+            public Void call() throws PersistenceException {
+                Transaction xaction = Transaction.getInstance();
+
+                try {
+                    cache.update(xaction, item, state);
+                    xaction.commit();
+                    return null;
+                }
+                finally {
+                    xaction.rollback();
+                }
+            }
+        }, unit.toMillis(timeout));
+    }
+
+    private Collection<T> load(Collection<T> items) {
+        List<T> list = new ArrayList<T>();
+
+        for( T item : items ) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    private <V> CompletableFuture<V> submit(final Callable<V> task, final long timeoutMillis) {
+        final CompletableFuture<V> future = new CompletableFuture<V>();
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if( future.isDone() ) {
+                        return;
+                    }
+                    try {
+                        future.complete(task.call());
+                    }
+                    catch( Throwable t ) {
+                        if( logger.isDebugEnabled() ) {
+                            logger.debug("Asynchronous " + cache.getEntityClassName() + " operation failed: " + t.getMessage(), t);
+                        }
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        }
+        catch( Throwable t ) {
+            future.completeExceptionally(t);
+            return future;
+        }
+        if( timeoutMillis > 0L && !future.isDone() ) {
+            final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+                public void run() {
+                    future.completeExceptionally(new TimeoutException(cache.getEntityClassName() + " operation timed out after " + timeoutMillis + "ms"));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            future.whenComplete(new BiConsumer<V,Throwable>() {
+                public void accept(V value, Throwable t) {
+                    expiry.cancel(false);
+                }
+            });
+        }
+        return future;
+    }
+}
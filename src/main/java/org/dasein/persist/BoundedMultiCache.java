@@ -0,0 +1,490 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+import org.dasein.util.CacheLoader;
+
+/**
+ * <p>
+ * An entity cache that enforces a {@link CachePolicy}. Objects are tracked by primary key in least recently
+ * used order. Keys are spread over up to {@value #MAX_SEGMENTS} segments, each with its own lock and its share
+ * of the size limit, so lookups of different keys rarely wait on one another; recency, and therefore eviction,
+ * is judged within a segment rather than across the whole cache. Each read checks the object it returns for expiry, and each read and load also examines a few of
+ * the least recently used objects, so expired and excess objects are dropped a handful at a time rather than in
+ * a single flush. Caches with an expiry are also swept periodically by the {@link MaintenanceScheduler}.
+ * </p>
+ * <p>
+ * When admission is on, a full cache keeps a compact estimate of how often each key has been asked for, aged
+ * so that old popularity fades. A newly loaded object displaces the least recently used object only if its key
+ * has been asked for more often; otherwise the new object is returned to the caller but not kept.
+ * </p>
+ */
+public class BoundedMultiCache<T> extends MonitoredMultiCache<T> {
+    static private final Logger logger = Logger.getLogger(BoundedMultiCache.class);
+
+    static private final int CLEANUP_BATCH    = 16;
+    static private final int MAX_SEGMENTS     = 16;
+    static private final int MIN_SEGMENT_SIZE = 64;
+
+    static private class Entry<T> {
+        public long             accessed;
+        public SoftReference<T> item;
+        public long             written;
+
+        public Entry(T item, long now) {
+            this.item = new SoftReference<T>(item);
+            this.written = now;
+            this.accessed = now;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters that estimates how often each key has been seen. All counters are
+     * halved once the number of increments reaches ten times the cache size.
+     */
+    static private class FrequencySketch {
+        static private final int[] SEEDS = { 0x97cb3127, 0xb38f1f4d, 0x6a8e5e2b, 0x3c6ef372 };
+
+        private final int   mask;
+        private final int[] table;
+        private final int   sampleSize;
+        private int         additions = 0;
+
+        public FrequencySketch(int maxEntries) {
+            int size = 16;
+
+            while( size < maxEntries && size < (1 << 24) ) {
+                size = size << 1;
+            }
+            table = new int[size];
+            mask = size - 1;
+            sampleSize = 10 * Math.max(1, maxEntries);
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+
+            return ((h ^ (h >>> 16)) & mask);
+        }
+
+        public int frequency(String key) {
+            int hash = key.hashCode();
+            int min = 15;
+
+            for( int row=0; row<4; row++ ) {
+                int count = (table[index(hash, row)] >>> (row << 2)) & 0xf;
+
+                if( count < min ) {
+                    min = count;
+                }
+            }
+            return min;
+        }
+
+        public void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+
+            for( int row=0; row<4; row++ ) {
+                int i = index(hash, row);
+                int shift = row << 2;
+
+                if( ((table[i] >>> shift) & 0xf) < 15 ) {
+                    table[i] += (1 << shift);
+                    added = true;
+                }
+            }
+            if( added && ++additions >= sampleSize ) {
+                for( int i=0; i<table.length; i++ ) {
+                    table[i] = (table[i] >>> 1) & 0x77777777;
+                }
+                additions = additions/2;
+            }
+        }
+    }
+
+    /**
+     * The objects whose keys hash to one segment, in least recently used order, with the segment's share of the
+     * size limit. All access to a segment is synchronized on its entries.
+     */
+    static private class Segment<T> {
+        public final LinkedHashMap<String,Entry<T>> entries = new LinkedHashMap<String,Entry<T>>(16, 0.75f, true);
+        public final int                            maxEntries;
+        public final FrequencySketch                sketch;
+
+        public Segment(int maxEntries, boolean admission) {
+            this.maxEntries = maxEntries;
+            this.sketch = ((maxEntries > 0 && admission) ? new FrequencySketch(maxEntries) : null);
+        }
+    }
+
+    private final AtomicLong         evictions   = new AtomicLong(0L);
+    private final AtomicLong         expirations = new AtomicLong(0L);
+    private final String             keyField;
+    private final CachePolicy        policy;
+    private final AtomicLong         rejections  = new AtomicLong(0L);
+    private final Segment<T>[]       segments;
+    private final ScheduledFuture<?> sweeper;
+
+    /**
+     * Constructs a bounded cache for the specified entity.
+     * @param target the entity class
+     * @param keyField the primary key field
+     * @param policy the limits to enforce
+     * @param statistics the statistics to record lookups in
+     */
+    public BoundedMultiCache(@Nonnull Class<T> target, @Nonnull String keyField, @Nonnull CachePolicy policy, @Nonnull CacheStatistics statistics) {
+        this(target, policy, statistics, keyField);
+    }
+
+    /**
+     * Constructs a bounded cache for the specified entity with several unique keys. Objects are tracked
+     * by the first key.
+     * @param target the entity class
+     * @param policy the limits to enforce
+     * @param statistics the statistics to record lookups in
+     * @param keyFields the unique key fields, the primary key first
+     */
+    public BoundedMultiCache(@Nonnull Class<T> target, @Nonnull CachePolicy policy, @Nonnull CacheStatistics statistics, @Nonnull String ... keyFields) {
+        super(target, statistics, keyFields);
+        this.keyField = keyFields[0];
+        this.policy = policy;
+        this.segments = createSegments(policy);
+        long ttl = Math.min(policy.getExpireAfterWrite() < 1L ? Long.MAX_VALUE : policy.getExpireAfterWrite(), policy.getExpireAfterAccess() < 1L ? Long.MAX_VALUE : policy.getExpireAfterAccess());
+
+        if( ttl < Long.MAX_VALUE ) {
+            // sweep objects that are never read again, which the incremental cleanup may not reach
+            sweeper = MaintenanceScheduler.getInstance().schedule(target.getName() + " cache expiry", new Runnable() {
+                public void run() {
+                    cleanUp();
+                }
+            }, Math.max(1000L, Math.min(ttl, 60000L)));
+        }
+        else {
+            sweeper = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static private <T> Segment<T>[] createSegments(CachePolicy policy) {
+        int max = policy.getMaxEntries();
+        int count = 1;
+
+        // small limits stay in few segments so that each segment's share is still worth ordering
+        while( count < MAX_SEGMENTS && (max < 1 || max/(count*2) >= MIN_SEGMENT_SIZE) ) {
+            count = count*2;
+        }
+        Segment<T>[] segments = new Segment[count];
+
+        for( int i=0; i<count; i++ ) {
+            segments[i] = new Segment<T>(max < 1 ? 0 : max/count + (i < max%count ? 1 : 0), policy.isAdmission());
+        }
+        return segments;
+    }
+
+    @Override
+    public T cache(T item) {
+        T current = super.cache(item);
+
+        if( current != null ) {
+            track(String.valueOf(getKeys(current).get(keyField)), current, true);
+        }
+        return current;
+    }
+
+    /**
+     * Stops the periodic expiry sweep so a cache that is no longer used can be collected. Expired objects
+     * are still dropped as the cache is used.
+     */
+    public void close() {
+        if( sweeper != null ) {
+            sweeper.cancel(false);
+        }
+    }
+
+    /**
+     * Forgets every tracked object as though the garbage collector had reclaimed it. Used by tests, which
+     * cannot rely on the collector clearing soft references.
+     */
+    void clearReferences() {
+        for( Segment<T> segment : segments ) {
+            synchronized( segment.entries ) {
+                for( Entry<T> entry : segment.entries.values() ) {
+                    entry.item.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every expired object and, if the cache is over its limit, the least recently used objects over the limit.
+     */
+    public void cleanUp() {
+        ArrayList<T> released = new ArrayList<T>();
+        long now = now();
+
+        for( Segment<T> segment : segments ) {
+            synchronized( segment.entries ) {
+                collectExpired(segment, Integer.MAX_VALUE, now, released);
+                collectExcess(segment, released);
+            }
+        }
+        release(released);
+    }
+
+    // the caller must hold the lock on the segment's entries
+    private void collectExcess(Segment<T> segment, List<T> released) {
+        if( segment.maxEntries < 1 ) {
+            return;
+        }
+        Iterator<Entry<T>> it = segment.entries.values().iterator();
+
+        while( segment.entries.size() > segment.maxEntries && it.hasNext() ) {
+            T item = it.next().item.get();
+
+            it.remove();
+            evictions.incrementAndGet();
+            if( item != null ) {
+                released.add(item);
+            }
+        }
+    }
+
+    // the caller must hold the lock on the segment's entries
+    private void collectExpired(Segment<T> segment, int limit, long now, List<T> released) {
+        Iterator<Entry<T>> it = segment.entries.values().iterator();
+        int examined = 0;
+
+        while( examined++ < limit && it.hasNext() ) {
+            Entry<T> entry = it.next();
+            T item = entry.item.get();
+
+            if( item == null ) {
+                it.remove();
+            }
+            else if( isExpired(entry, now) ) {
+                it.remove();
+                expirations.incrementAndGet();
+                released.add(item);
+            }
+        }
+    }
+
+    /**
+     * @return the current time in milliseconds, as used to judge expiry; tests replace this with their own clock
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public T find(String field, Object value, CacheLoader<T> loader, Object ... args) {
+        T item = super.find(field, value, loader, args);
+
+        if( item == null ) {
+            return null;
+        }
+        String key = (keyField.equals(field) ? String.valueOf(value) : String.valueOf(getKeys(item).get(keyField)));
+
+        if( isExpired(key, item) ) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Expired " + getTarget().getName() + " " + key);
+            }
+            expirations.incrementAndGet();
+            release(item);
+            if( loader == null ) {
+                return null;
+            }
+            item = super.find(field, value, loader, args);
+            if( item == null ) {
+                return null;
+            }
+        }
+        track(key, item, false);
+        return item;
+    }
+
+    /**
+     * @return the number of objects dropped to stay under the size limit or refused admission
+     */
+    public long getEvictionCount() {
+        return evictions.get() + rejections.get();
+    }
+
+    /**
+     * @return the number of objects dropped because they expired
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * @return the limits this cache enforces
+     */
+    public @Nonnull CachePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of newly loaded objects that were not kept because the cache was full of more popular objects
+     */
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    /**
+     * @return the number of objects currently tracked, including any that have expired but not yet been dropped
+     */
+    public int getSize() {
+        int size = 0;
+
+        for( Segment<T> segment : segments ) {
+            synchronized( segment.entries ) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private boolean isExpired(Entry<T> entry, long now) {
+        long write = policy.getExpireAfterWrite();
+        long access = policy.getExpireAfterAccess();
+
+        return ((write > 0L && now - entry.written >= write) || (access > 0L && now - entry.accessed >= access));
+    }
+
+    private boolean isExpired(String key, T item) {
+        Segment<T> segment = segmentFor(key);
+
+        synchronized( segment.entries ) {
+            Entry<T> entry = segment.entries.get(key);
+
+            if( entry == null || entry.item.get() != item || !isExpired(entry, now()) ) {
+                return false;
+            }
+            segment.entries.remove(key);
+            return true;
+        }
+    }
+
+    @Override
+    public void release(T item) {
+        String key = String.valueOf(getKeys(item).get(keyField));
+        Segment<T> segment = segmentFor(key);
+
+        super.release(item);
+        synchronized( segment.entries ) {
+            Entry<T> entry = segment.entries.get(key);
+
+            if( entry != null && entry.item.get() == item ) {
+                segment.entries.remove(key);
+            }
+        }
+    }
+
+    private void release(List<T> items) {
+        // released outside the lock on entries since loaders run while the underlying cache is locked
+        for( T item : items ) {
+            super.release(item);
+        }
+    }
+
+    @Override
+    public void releaseAll() {
+        super.releaseAll();
+        for( Segment<T> segment : segments ) {
+            synchronized( segment.entries ) {
+                segment.entries.clear();
+            }
+        }
+    }
+
+    private Segment<T> segmentFor(String key) {
+        int h = key.hashCode();
+
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    private void track(String key, T item, boolean written) {
+        ArrayList<T> released = new ArrayList<T>();
+        Segment<T> segment = segmentFor(key);
+        long now = now();
+
+        synchronized( segment.entries ) {
+            LinkedHashMap<String,Entry<T>> entries = segment.entries;
+            FrequencySketch sketch = segment.sketch;
+
+            collectExpired(segment, CLEANUP_BATCH, now, released);
+            Entry<T> entry = entries.get(key);
+
+            if( sketch != null ) {
+                sketch.increment(key);
+            }
+            if( entry != null ) {
+                entry.accessed = now;
+                if( written || entry.item.get() != item ) {
+                    entry.item = new SoftReference<T>(item);
+                    entry.written = now;
+                }
+            }
+            else {
+                if( sketch != null && entries.size() >= segment.maxEntries ) {
+                    Map.Entry<String,Entry<T>> eldest = entries.entrySet().iterator().next();
+
+                    if( sketch.frequency(key) > sketch.frequency(eldest.getKey()) ) {
+                        T victim = eldest.getValue().item.get();
+
+                        entries.remove(eldest.getKey());
+                        evictions.incrementAndGet();
+                        if( victim != null ) {
+                            released.add(victim);
+                        }
+                        entries.put(key, new Entry<T>(item, now));
+                    }
+                    else {
+                        rejections.incrementAndGet();
+                        released.add(item);
+                    }
+                }
+                else {
+                    entries.put(key, new Entry<T>(item, now));
+                    collectExcess(segment, released);
+                }
+            }
+        }
+        release(released);
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedMultiCache[" + getTarget().getName() + ",size=" + getSize() + "," + policy + "]";
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.persist.annotations.Schema;
+
+/**
+ * <p>
+ * Limits on how many objects of an entity are held in memory and for how long. Entity caches are
+ * unbounded by default, holding objects until the garbage collector reclaims them. A policy sets any of:
+ * </p>
+ * <ul>
+ *   <li><b>maxEntries</b> - the most objects to hold; beyond that the least recently used object is evicted</li>
+ *   <li><b>expireAfterWrite</b> - milliseconds after being loaded that an object is reloaded from the data store</li>
+ *   <li><b>expireAfterAccess</b> - milliseconds without being read after which an object is dropped</li>
+ *   <li><b>admission</b> - whether a bounded cache admits a new object only if it has been asked for more often
+ *   than the object it would evict, which keeps one-off scans from pushing out popular objects (on by default)</li>
+ * </ul>
+ * <p>
+ * Policies are set for all entities with <code>dasein.persist.cache.maxEntries</code>, <code>dasein.persist.cache.expireAfterWrite</code>,
+ * <code>dasein.persist.cache.expireAfterAccess</code>, and <code>dasein.persist.cache.admission</code> in <i>dasein-persistence.properties</i>.
+ * An entity overrides them with the same attributes on its {@link Schema} annotation, and a property with the
+ * entity class name appended, such as <code>dasein.persist.cache.maxEntries.com.example.Employee</code>,
+ * overrides both.
+ * </p>
+ */
+public final class CachePolicy {
+    static private long getSetting(String name, String entity, long annotated) {
+        // the entity's own setting wins over its annotation, which wins over the library-wide setting
+        if( annotated > 0L && PersistenceConfig.getProperty("dasein.persist.cache." + name + "." + entity) == null ) {
+            return annotated;
+        }
+        return PersistenceConfig.getLong("dasein.persist.cache." + name, entity, 0L);
+    }
+
+    /**
+     * Provides the cache policy for the specified entity as configured in <i>dasein-persistence.properties</i>
+     * and its {@link Schema} annotation.
+     * @param entity the entity class
+     * @return the policy for the entity, or null if its cache is unbounded
+     */
+    static public @Nullable CachePolicy getInstance(@Nonnull Class<?> entity) {
+        Schema schema = entity.getAnnotation(Schema.class);
+        String name = entity.getName();
+        int maxEntries = (int)getSetting("maxEntries", name, schema == null ? 0L : schema.maxEntries());
+        long expireAfterWrite = getSetting("expireAfterWrite", name, schema == null ? 0L : schema.expireAfterWrite());
+        long expireAfterAccess = getSetting("expireAfterAccess", name, schema == null ? 0L : schema.expireAfterAccess());
+
+        if( maxEntries < 1 && expireAfterWrite < 1L && expireAfterAccess < 1L ) {
+            return null;
+        }
+        return new CachePolicy(maxEntries, expireAfterWrite, expireAfterAccess, PersistenceConfig.getBoolean("dasein.persist.cache.admission", name, true));
+    }
+
+    private final boolean admission;
+    private final long    expireAfterAccess;
+    private final long    expireAfterWrite;
+    private final int     maxEntries;
+
+    /**
+     * Constructs a cache policy.
+     * @param maxEntries the most objects to hold, 0 for no limit
+     * @param expireAfterWrite milliseconds after loading that an object expires, 0 for never
+     * @param expireAfterAccess milliseconds without a read after which an object expires, 0 for never
+     * @param admission true to admit new objects to a full cache only if they are used more often than the object they would evict
+     */
+    public CachePolicy(int maxEntries, long expireAfterWrite, long expireAfterAccess, boolean admission) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.expireAfterWrite = Math.max(0L, expireAfterWrite);
+        this.expireAfterAccess = Math.max(0L, expireAfterAccess);
+        this.admission = admission;
+    }
+
+    /**
+     * @return milliseconds without a read after which an object expires, 0 for never
+     */
+    public long getExpireAfterAccess() {
+        return expireAfterAccess;
+    }
+
+    /**
+     * @return milliseconds after loading that an object expires, 0 for never
+     */
+    public long getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    /**
+     * @return the most objects to hold, 0 for no limit
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return true if a full cache admits new objects based on how often they are used
+     */
+    public boolean isAdmission() {
+        return admission;
+    }
+
+    @Override
+    public String toString() {
+        return "CachePolicy[maxEntries=" + maxEntries + ",expireAfterWrite=" + expireAfterWrite + ",expireAfterAccess=" + expireAfterAccess + ",admission=" + admission + "]";
+    }
+}
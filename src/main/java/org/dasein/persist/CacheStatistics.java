@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.dasein.util.ConcurrentMultiCache;
+
+/**
+ * <p>
+ * Counters and latency histograms for the entity cache of one entity: lookups by primary key that were
+ * answered from memory or loaded, how long loads took, how many objects searches returned, how many objects
+ * were evicted or expired, and how large the cache is. Recording is lock-free and cheap enough to leave on.
+ * </p>
+ * <p>
+ * The statistics for each entity are registered with the platform MBean server as
+ * <code>org.dasein.persist:type=CacheStatistics,name=ENTITY_CLASS_NAME</code> unless
+ * <code>dasein.persist.jmx=false</code> is set in <i>dasein-persistence.properties</i>. Metrics pipelines that
+ * do not use JMX can poll {@link #getAll()} and take a {@link #snapshot()} of each.
+ * </p>
+ * <p>
+ * Evictions, expirations, and size are only known for caches bounded by a {@link CachePolicy}; unbounded caches
+ * report 0 evictions and expirations and a size of -1.
+ * </p>
+ */
+public final class CacheStatistics implements CacheStatisticsMBean {
+    static private final Logger logger = Logger.getLogger(CacheStatistics.class);
+
+    static private final ConcurrentHashMap<String,CacheStatistics> statistics = new ConcurrentHashMap<String,CacheStatistics>();
+
+    /**
+     * @return the statistics for every entity cache created so far, by entity class name
+     */
+    static public @Nonnull Map<String,CacheStatistics> getAll() {
+        return Collections.unmodifiableMap(new TreeMap<String,CacheStatistics>(statistics));
+    }
+
+    /**
+     * Provides the statistics for an entity, creating and registering them on first use.
+     * @param entity the entity class name
+     * @return the statistics for the entity
+     */
+    static public @Nonnull CacheStatistics getInstance(@Nonnull String entity) {
+        CacheStatistics stats = statistics.get(entity);
+
+        if( stats == null ) {
+            CacheStatistics created = new CacheStatistics(entity);
+
+            stats = statistics.putIfAbsent(entity, created);
+            if( stats == null ) {
+                stats = created;
+                try {
+                    Jmx.register(stats, getObjectName(entity));
+                }
+                catch( PersistenceException e ) {
+                    logger.warn("Unable to register cache statistics for " + entity + " with JMX: " + e.getMessage());
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Provides the name under which the statistics for an entity are registered with JMX.
+     * @param entity the entity class name
+     * @return the object name
+     * @throws PersistenceException the entity class name is not valid in an object name
+     */
+    static public @Nonnull ObjectName getObjectName(@Nonnull String entity) throws PersistenceException {
+        return Jmx.getObjectName("CacheStatistics", entity);
+    }
+
+    /**
+     * An immutable copy of the statistics at a point in time. Latencies are in milliseconds.
+     */
+    static public final class Snapshot {
+        private final String entityClassName;
+        private final long   evictions;
+        private final long   expirations;
+        private final long   finds;
+        private final long   findSize95;
+        private final long   findSizeMax;
+        private final double findSizeMean;
+        private final long   hits;
+        private final long   loadFailures;
+        private final double loadLatency50;
+        private final double loadLatency95;
+        private final double loadLatency99;
+        private final double loadLatencyMax;
+        private final double loadLatencyMean;
+        private final long   loads;
+        private final long   misses;
+        private final long   releaseAlls;
+        private final long   size;
+        private final long   timestamp;
+
+        private Snapshot(CacheStatistics stats) {
+            timestamp = System.currentTimeMillis();
+            entityClassName = stats.getEntityClassName();
+            hits = stats.getHitCount();
+            misses = stats.getMissCount();
+            loads = stats.getLoadCount();
+            loadFailures = stats.getLoadFailureCount();
+            loadLatencyMean = stats.getLoadLatencyMean();
+            loadLatency50 = stats.getLoadLatency50thPercentile();
+            loadLatency95 = stats.getLoadLatency95thPercentile();
+            loadLatency99 = stats.getLoadLatency99thPercentile();
+            loadLatencyMax = stats.getLoadLatencyMax();
+            finds = stats.getFindCount();
+            findSizeMean = stats.getFindResultSizeMean();
+            findSize95 = stats.getFindResultSize95thPercentile();
+            findSizeMax = stats.getFindResultSizeMax();
+            evictions = stats.getEvictionCount();
+            expirations = stats.getExpirationCount();
+            releaseAlls = stats.getReleaseAllCount();
+            size = stats.getSize();
+        }
+
+        public @Nonnull String getEntityClassName() { return entityClassName; }
+
+        public long getEvictionCount() { return evictions; }
+
+        public long getExpirationCount() { return expirations; }
+
+        public long getFindCount() { return finds; }
+
+        public long getFindResultSize95thPercentile() { return findSize95; }
+
+        public long getFindResultSizeMax() { return findSizeMax; }
+
+        public double getFindResultSizeMean() { return findSizeMean; }
+
+        public long getHitCount() { return hits; }
+
+        public double getHitRate() { return (hits + misses == 0L ? 0.0 : ((double)hits)/(hits + misses)); }
+
+        public long getLoadCount() { return loads; }
+
+        public long getLoadFailureCount() { return loadFailures; }
+
+        public double getLoadLatency50thPercentile() { return loadLatency50; }
+
+        public double getLoadLatency95thPercentile() { return loadLatency95; }
+
+        public double getLoadLatency99thPercentile() { return loadLatency99; }
+
+        public double getLoadLatencyMax() { return loadLatencyMax; }
+
+        public double getLoadLatencyMean() { return loadLatencyMean; }
+
+        public long getMissCount() { return misses; }
+
+        public long getReleaseAllCount() { return releaseAlls; }
+
+        public long getSize() { return size; }
+
+        /**
+         * @return the time the snapshot was taken, in milliseconds since the epoch
+         */
+        public long getTimestamp() { return timestamp; }
+
+        @Override
+        public String toString() {
+            return entityClassName + "[hits=" + hits + ",misses=" + misses + ",loads=" + loads + ",loadFailures=" + loadFailures +
+                    ",loadLatencyMean=" + loadLatencyMean + ",loadLatency99=" + loadLatency99 + ",finds=" + finds +
+                    ",findSizeMean=" + findSizeMean + ",evictions=" + evictions + ",expirations=" + expirations +
+                    ",releaseAlls=" + releaseAlls + ",size=" + size + "]";
+        }
+    }
+
+    private volatile PersistentCache<?> cache        = null;
+    private final String                entity;
+    private final Histogram             findSizes    = new Histogram();
+    private final LongAdder             hits         = new LongAdder();
+    private final LongAdder             loadFailures = new LongAdder();
+    private final Histogram             loadLatency  = new Histogram();
+    private final LongAdder             misses       = new LongAdder();
+    private final LongAdder             releaseAlls  = new LongAdder();
+
+    private CacheStatistics(@Nonnull String entity) {
+        this.entity = entity;
+    }
+
+    /**
+     * Makes the specified cache the source of the size and eviction counts, for when a cache for the
+     * entity is created again.
+     * @param cache the current cache for the entity
+     */
+    void bind(@Nonnull PersistentCache<?> cache) {
+        this.cache = cache;
+    }
+
+    private @Nullable BoundedMultiCache<?> getBoundedCache() {
+        PersistentCache<?> current = cache;
+        ConcurrentMultiCache<?> c = (current == null ? null : current.getCache());
+
+        return (c instanceof BoundedMultiCache ? (BoundedMultiCache<?>)c : null);
+    }
+
+    public @Nonnull String getEntityClassName() {
+        return entity;
+    }
+
+    public long getEvictionCount() {
+        BoundedMultiCache<?> c = getBoundedCache();
+
+        return (c == null ? 0L : c.getEvictionCount());
+    }
+
+    public long getExpirationCount() {
+        BoundedMultiCache<?> c = getBoundedCache();
+
+        return (c == null ? 0L : c.getExpirationCount());
+    }
+
+    public long getFindCount() {
+        return findSizes.getCount();
+    }
+
+    /**
+     * @return the distribution of the number of objects returned by searches
+     */
+    public @Nonnull Histogram getFindResultSizes() {
+        return findSizes;
+    }
+
+    public long getFindResultSizeMax() {
+        return findSizes.getMax();
+    }
+
+    public double getFindResultSizeMean() {
+        return findSizes.getMean();
+    }
+
+    public long getFindResultSize95thPercentile() {
+        return findSizes.getPercentile(95.0);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+
+        return (total == 0L ? 0.0 : ((double)h)/total);
+    }
+
+    public long getLoadCount() {
+        return loadLatency.getCount();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailures.sum();
+    }
+
+    /**
+     * @return the distribution of load times in microseconds
+     */
+    public @Nonnull Histogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    public double getLoadLatencyMax() {
+        return loadLatency.getMax()/1000.0;
+    }
+
+    public double getLoadLatencyMean() {
+        return loadLatency.getMean()/1000.0;
+    }
+
+    public double getLoadLatency50thPercentile() {
+        return loadLatency.getPercentile(50.0)/1000.0;
+    }
+
+    public double getLoadLatency95thPercentile() {
+        return loadLatency.getPercentile(95.0)/1000.0;
+    }
+
+    public double getLoadLatency99thPercentile() {
+        return loadLatency.getPercentile(99.0)/1000.0;
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getReleaseAllCount() {
+        return releaseAlls.sum();
+    }
+
+    public long getSize() {
+        BoundedMultiCache<?> c = getBoundedCache();
+
+        return (c == null ? -1L : c.getSize());
+    }
+
+    /**
+     * Records the number of objects a search returned.
+     * @param size the number of objects
+     */
+    public void recordFind(int size) {
+        findSizes.record(size);
+    }
+
+    /**
+     * Records a lookup by primary key answered from memory.
+     */
+    public void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * Records a lookup by primary key that went to the data store.
+     * @param nanos the time taken by the load, in nanoseconds
+     * @param failed true if the load threw an exception
+     */
+    public void recordLoad(long nanos, boolean failed) {
+        misses.increment();
+        loadLatency.record(nanos/1000L);
+        if( failed ) {
+            loadFailures.increment();
+        }
+    }
+
+    /**
+     * Records that every object was released from the cache.
+     */
+    public void recordReleaseAll() {
+        releaseAlls.increment();
+    }
+
+    /**
+     * Resets every counter and histogram to zero.
+     */
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        loadFailures.reset();
+        loadLatency.reset();
+        findSizes.reset();
+        releaseAlls.reset();
+    }
+
+    /**
+     * @return an immutable copy of the current statistics
+     */
+    public @Nonnull Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+/**
+ * The JMX view of the {@link CacheStatistics} for one entity cache. Latencies are in milliseconds.
+ */
+public interface CacheStatisticsMBean {
+    public String getEntityClassName();
+
+    public long getEvictionCount();
+
+    public long getExpirationCount();
+
+    public long getFindCount();
+
+    public double getFindResultSizeMean();
+
+    public long getFindResultSizeMax();
+
+    public long getFindResultSize95thPercentile();
+
+    public long getHitCount();
+
+    public double getHitRate();
+
+    public long getLoadCount();
+
+    public long getLoadFailureCount();
+
+    public double getLoadLatencyMean();
+
+    public double getLoadLatencyMax();
+
+    public double getLoadLatency50thPercentile();
+
+    public double getLoadLatency95thPercentile();
+
+    public double getLoadLatency99thPercentile();
+
+    public long getMissCount();
+
+    public long getReleaseAllCount();
+
+    public long getSize();
+
+    public void reset();
+}
@@ -20,39 +20,40 @@
 /* Copyright (c) 2006 Valtira Corporation, All Rights Reserved */
 package org.dasein.persist;
 
+import java.util.concurrent.ScheduledFuture;
+
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import org.apache.log4j.Logger;
+
 public class ConnectionMonitor  implements ServletContextListener {
-    private boolean running = false;
+    static private final Logger logger = Logger.getLogger(ConnectionMonitor.class);
+
+    private ScheduledFuture<?> task = null;
     
     public void contextInitialized(ServletContextEvent event) {
-        Thread t = new Thread() {
-            public void run() {
-                synchronized( this ) {
-                    running = true;
-                    while( running ) {
-                        try { wait(60000L); }
-                        catch( InterruptedException ignore ) { /* ignore */ }
-                        report();
-                    }
+        synchronized( this ) {
+            task = MaintenanceScheduler.getInstance().schedule("Connection Monitor", new Runnable() {
+                public void run() {
+                    report();
                 }
-                System.out.println("Dasein connection monitor is shut down.");
-            }
-        };
-        System.out.println("The Dasein connection monitor is installed and will report every minute.");
-        System.out.println("To turn off the Dasein connection monitor, remove the listener entry from your web.xml.");
-        t.setDaemon(false);
-        t.setName("DASEIN CONNECTION MONITOR");
-        t.start();
+            }, 60000L);
+        }
+        logger.info("The Dasein connection monitor is installed and will report every minute at INFO.");
+        logger.info("To turn off the Dasein connection monitor, remove the listener entry from your web.xml.");
     }
     
     public void contextDestroyed(ServletContextEvent event) {
-        System.out.println("Shutting down the Dasein connection monitor.");
+        logger.info("Shutting down the Dasein connection monitor.");
         synchronized( this ) {
-            running = false;
-            notifyAll();
+            if( task != null ) {
+                task.cancel(false);
+                task = null;
+            }
         }
+        MaintenanceScheduler.shutdown();
+        logger.info("Dasein connection monitor is shut down.");
     }
     
     public void report() {
@@ -0,0 +1,876 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.persist.annotations.AutoJSON;
+import org.dasein.persist.l10n.LocalizationGroup;
+import org.dasein.util.uom.Measured;
+import org.dasein.util.uom.UnitOfMeasure;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * Resolves how values are converted into the types of persistent fields. Rather than testing the
+ * field type against every supported type each time a value is mapped, a specialized
+ * {@link Converter} is chosen once for each combination of field type and source value type, and
+ * a {@link ColumnReader} once for each field type read from JDBC. The choices are cached, so mapping
+ * a value costs a single call to the cached converter.
+ * </p>
+ * <p>
+ * Strings, enums, booleans, boxed and primitive numerics, {@link BigDecimal}, {@link BigInteger},
+ * {@link Locale}, {@link UUID}, {@link TimeZone}, {@link Currency}, {@link Measured} quantities,
+ * arrays, {@link AutoJSON} types, and types with a static <code>valueOf(JSONObject)</code> or
+ * <code>valueOf(String)</code> are supported out of the box. Applications may
+ * {@link #register(Class, Converter) register} converters and
+ * {@link #registerReader(Class, ColumnReader) readers} for their own types; these take
+ * precedence over the built-in ones.
+ * </p>
+ */
+public final class ConverterRegistry {
+    static private final Logger logger = Logger.getLogger(ConverterRegistry.class);
+
+    /**
+     * Converts a value from the data store into the type of a persistent field.
+     */
+    static public interface Converter {
+        /**
+         * Converts the specified value.
+         * @param fieldName the name of the field being mapped, for error reporting
+         * @param value the value from the data store
+         * @return the value as the field type
+         * @throws Exception the value cannot be converted
+         */
+        public @Nullable Object convert(@Nonnull String fieldName, @Nullable Object value) throws Exception;
+    }
+
+    /**
+     * Reads a column from a JDBC result set as the type of a persistent field.
+     */
+    static public interface ColumnReader {
+        /**
+         * Reads the specified column of the current row.
+         * @param rs the result set positioned on a row
+         * @param column the column index, starting with 1
+         * @return the column value as the field type, null for SQL NULL
+         * @throws SQLException the column could not be read as the field type
+         */
+        public @Nullable Object read(@Nonnull ResultSet rs, int column) throws SQLException;
+    }
+
+    static private class ConverterKey {
+        private final Class<?>          source;
+        private final Class<?>          target;
+        private final ParameterizedType type;
+
+        private ConverterKey(Class<?> target, ParameterizedType type, Class<?> source) {
+            this.target = target;
+            this.type = type;
+            this.source = source;
+        }
+
+        @Override
+        public boolean equals(Object ob) {
+            if( ob == this ) {
+                return true;
+            }
+            if( !(ob instanceof ConverterKey) ) {
+                return false;
+            }
+            ConverterKey other = (ConverterKey)ob;
+
+            return target == other.target && source == other.source && (type == null ? other.type == null : type.equals(other.type));
+        }
+
+        @Override
+        public int hashCode() {
+            return target.hashCode() * 31 + (source == null ? 0 : source.hashCode()) + (type == null ? 0 : type.hashCode() * 17);
+        }
+    }
+
+    static private final Converter IDENTITY = (fieldName, value) -> value;
+
+    static private final ConcurrentHashMap<ConverterKey,Converter>    converters = new ConcurrentHashMap<ConverterKey,Converter>();
+    static private final ConcurrentHashMap<ConverterKey,ColumnReader> readers    = new ConcurrentHashMap<ConverterKey,ColumnReader>();
+    static private final ConcurrentHashMap<Class<?>,Converter>        custom     = new ConcurrentHashMap<Class<?>,Converter>();
+    static private final ConcurrentHashMap<Class<?>,ColumnReader>     customReaders = new ConcurrentHashMap<Class<?>,ColumnReader>();
+
+    static private final AtomicInteger generation = new AtomicInteger(0);
+
+    /**
+     * Registers a converter for all values mapped into fields of the specified type.
+     * @param type the field type
+     * @param converter the converter to use for that type
+     */
+    static public void register(@Nonnull Class<?> type, @Nonnull Converter converter) {
+        custom.put(type, converter);
+        reset();
+    }
+
+    /**
+     * Registers a reader for JDBC columns mapped into fields of the specified type.
+     * @param type the field type
+     * @param reader the reader to use for that type
+     */
+    static public void registerReader(@Nonnull Class<?> type, @Nonnull ColumnReader reader) {
+        customReaders.put(type, reader);
+        reset();
+    }
+
+    /**
+     * Removes any converter and reader registered for the specified type.
+     * @param type the field type
+     */
+    static public void unregister(@Nonnull Class<?> type) {
+        custom.remove(type);
+        customReaders.remove(type);
+        reset();
+    }
+
+    static private void reset() {
+        converters.clear();
+        readers.clear();
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return a counter that changes whenever registrations change, letting callers that hold on to
+     * converters know when to look them up again
+     */
+    static int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Converts a value into the specified field type.
+     * @param fieldName the name of the field, for error reporting
+     * @param value the value from the data store
+     * @param toType the field type
+     * @param ptype the generic type of the field if parameterized, otherwise null
+     * @return the converted value
+     * @throws Exception the value cannot be converted
+     */
+    static public @Nullable Object convert(@Nonnull String fieldName, @Nullable Object value, @Nonnull Class<?> toType, @Nullable ParameterizedType ptype) throws Exception {
+        return getConverter(toType, ptype, value == null ? null : value.getClass()).convert(fieldName, value);
+    }
+
+    /**
+     * Provides the converter from values of the source type into the field type.
+     * @param toType the field type
+     * @param ptype the generic type of the field if parameterized, otherwise null
+     * @param source the class of the values to be converted, null for null values
+     * @return the converter for that combination
+     */
+    static public @Nonnull Converter getConverter(@Nonnull Class<?> toType, @Nullable ParameterizedType ptype, @Nullable Class<?> source) {
+        ConverterKey key = new ConverterKey(toType, ptype, source);
+        Converter c = converters.get(key);
+
+        if( c == null ) {
+            c = resolve(toType, ptype, source);
+            converters.putIfAbsent(key, c);
+        }
+        return c;
+    }
+
+    /**
+     * Provides the reader for JDBC columns mapped into the field type.
+     * @param type the field type
+     * @param ptype the generic type of the field if parameterized, otherwise null
+     * @return the reader for that type
+     */
+    static public @Nonnull ColumnReader getReader(@Nonnull Class<?> type, @Nullable ParameterizedType ptype) {
+        ConverterKey key = new ConverterKey(type, ptype, null);
+        ColumnReader r = readers.get(key);
+
+        if( r == null ) {
+            r = resolveReader(type, ptype);
+            readers.putIfAbsent(key, r);
+        }
+        return r;
+    }
+
+    static private Converter resolve(final Class<?> toType, final ParameterizedType ptype, final Class<?> source) {
+        Converter c = custom.get(toType);
+
+        if( c != null ) {
+            return c;
+        }
+        if( toType.equals(String.class) ) {
+            if( source == null || source.equals(String.class) ) {
+                return IDENTITY;
+            }
+            return (fieldName, value) -> value.toString();
+        }
+        if( Enum.class.isAssignableFrom(toType) ) {
+            if( source == null || source.equals(toType) ) {
+                return IDENTITY;
+            }
+            return enumConverter(toType);
+        }
+        if( toType.equals(Boolean.class) || toType.equals(boolean.class) ) {
+            if( source == null ) {
+                return (fieldName, value) -> Boolean.FALSE;
+            }
+            if( source.equals(Boolean.class) ) {
+                return IDENTITY;
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> (((Number)value).intValue() != 0);
+            }
+            return (fieldName, value) -> {
+                String str = value.toString().trim();
+
+                return (str.equalsIgnoreCase("true") || str.equalsIgnoreCase("y"));
+            };
+        }
+        if( Number.class.isAssignableFrom(toType) || (toType.isPrimitive() && !toType.equals(char.class) && !toType.equals(void.class)) ) {
+            return numberConverter(toType, source);
+        }
+        if( toType.equals(Locale.class) ) {
+            if( source == null || Locale.class.isAssignableFrom(source) ) {
+                return IDENTITY;
+            }
+            return (fieldName, value) -> toLocale(value.toString());
+        }
+        if( Measured.class.isAssignableFrom(toType) ) {
+            if( source == null || ptype == null ) {
+                return IDENTITY;
+            }
+            return measuredConverter(toType, ptype, source);
+        }
+        if( toType.equals(UUID.class) ) {
+            if( source == null || source.equals(UUID.class) ) {
+                return IDENTITY;
+            }
+            return (fieldName, value) -> UUID.fromString(value.toString());
+        }
+        if( toType.equals(TimeZone.class) ) {
+            if( source == null || TimeZone.class.isAssignableFrom(source) ) {
+                return IDENTITY;
+            }
+            return (fieldName, value) -> TimeZone.getTimeZone(value.toString());
+        }
+        if( toType.equals(Currency.class) ) {
+            if( source == null || source.equals(Currency.class) ) {
+                return IDENTITY;
+            }
+            return (fieldName, value) -> Currency.getInstance(value.toString());
+        }
+        if( toType.isArray() ) {
+            return arrayConverter(toType, source);
+        }
+        if( source == null || toType.isAssignableFrom(source) ) {
+            return IDENTITY;
+        }
+        return objectConverter(toType, source);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static private Converter enumConverter(final Class<?> toType) {
+        return (fieldName, value) -> Enum.valueOf((Class<? extends Enum>)toType, value.toString());
+    }
+
+    static private Converter numberConverter(final Class<?> toType, final Class<?> source) {
+        if( source == null ) {
+            final Object zero;
+
+            if( toType.equals(int.class) ) {
+                zero = 0;
+            }
+            else if( toType.equals(long.class) ) {
+                zero = 0L;
+            }
+            else if( toType.equals(short.class) ) {
+                zero = (short)0;
+            }
+            else if( toType.equals(byte.class) ) {
+                zero = (byte)0;
+            }
+            else if( toType.equals(double.class) ) {
+                zero = 0.0;
+            }
+            else if( toType.equals(float.class) ) {
+                zero = 0.0f;
+            }
+            else {
+                return IDENTITY;
+            }
+            return (fieldName, value) -> zero;
+        }
+        if( toType.equals(Number.class) ) {
+            if( Number.class.isAssignableFrom(source) ) {
+                return IDENTITY;
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> Double.parseDouble((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? 1 : 0);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(Integer.class) || toType.equals(int.class) ) {
+            if( source.equals(Integer.class) ) {
+                return IDENTITY;
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> ((Number)value).intValue();
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> Integer.parseInt((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? 1 : 0);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(Long.class) || toType.equals(long.class) ) {
+            if( source.equals(Long.class) ) {
+                return IDENTITY;
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> ((Number)value).longValue();
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> Long.parseLong((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? 1L : 0L);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(Byte.class) || toType.equals(byte.class) ) {
+            if( source.equals(Byte.class) ) {
+                return IDENTITY;
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> ((Number)value).byteValue();
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> Byte.parseByte((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? (byte)1 : (byte)0);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(Short.class) || toType.equals(short.class) ) {
+            if( source.equals(Short.class) ) {
+                return IDENTITY;
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> ((Number)value).shortValue();
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> Short.parseShort((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? (short)1 : (short)0);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(Double.class) || toType.equals(double.class) ) {
+            if( source.equals(Double.class) ) {
+                return IDENTITY;
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> ((Number)value).doubleValue();
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> Double.parseDouble((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? 1.0 : 0.0);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(Float.class) || toType.equals(float.class) ) {
+            if( source.equals(Float.class) ) {
+                return IDENTITY;
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> ((Number)value).floatValue();
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> Float.parseFloat((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? 1.0f : 0.0f);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(BigDecimal.class) ) {
+            if( source.equals(BigDecimal.class) ) {
+                return IDENTITY;
+            }
+            if( source.equals(BigInteger.class) ) {
+                return (fieldName, value) -> new BigDecimal((BigInteger)value);
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> BigDecimal.valueOf(((Number)value).doubleValue());
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> new BigDecimal((String)value));
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? BigDecimal.ONE : BigDecimal.ZERO);
+            }
+            return unmappable(toType);
+        }
+        if( toType.equals(BigInteger.class) ) {
+            if( source.equals(BigInteger.class) ) {
+                return IDENTITY;
+            }
+            if( source.equals(BigDecimal.class) ) {
+                return (fieldName, value) -> ((BigDecimal)value).toBigInteger();
+            }
+            if( Number.class.isAssignableFrom(source) ) {
+                return (fieldName, value) -> BigInteger.valueOf(((Number)value).longValue());
+            }
+            if( source.equals(String.class) ) {
+                return (fieldName, value) -> parse(fieldName, toType, value, () -> new BigDecimal((String)value).toBigInteger());
+            }
+            if( source.equals(Boolean.class) ) {
+                return (fieldName, value) -> (((Boolean)value) ? BigInteger.ONE : BigInteger.ZERO);
+            }
+            return unmappable(toType);
+        }
+        if( toType.isAssignableFrom(source) ) {
+            return IDENTITY;
+        }
+        return unmappable(toType);
+    }
+
+    static private interface Parser {
+        public Object parse();
+    }
+
+    static private Object parse(String fieldName, Class<?> toType, Object value, Parser parser) throws PersistenceException {
+        try {
+            return parser.parse();
+        }
+        catch( NumberFormatException e ) {
+            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + value);
+        }
+    }
+
+    static private Converter unmappable(final Class<?> toType) {
+        return (fieldName, value) -> {
+            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + value);
+        };
+    }
+
+    static private Locale toLocale(String str) {
+        String[] parts = str.split("_");
+
+        if( parts != null && parts.length > 1 ) {
+            return new Locale(parts[0], parts[1]);
+        }
+        return new Locale(parts[0]);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static private Converter measuredConverter(final Class<?> toType, final ParameterizedType ptype, final Class<?> source) {
+        final UnitOfMeasure uom;
+        Constructor<? extends Measured> constructor = null;
+
+        try {
+            uom = (UnitOfMeasure)((Class<?>)ptype.getActualTypeArguments()[0]).newInstance();
+        }
+        catch( Exception e ) {
+            return (fieldName, value) -> {
+                throw new PersistenceException("Unable to create unit of measure for " + ptype + ": " + e.getMessage());
+            };
+        }
+        for( Constructor<?> c : toType.getDeclaredConstructors() ) {
+            Class[] args = c.getParameterTypes();
+
+            if( args != null && args.length == 2 && Number.class.isAssignableFrom(args[0]) && UnitOfMeasure.class.isAssignableFrom(args[1]) ) {
+                constructor = (Constructor<? extends Measured>)c;
+                break;
+            }
+        }
+        final Constructor<? extends Measured> ctor = constructor;
+
+        if( Measured.class.isAssignableFrom(source) ) {
+            // just because it is already a measured object doesn't mean we have the unit of measure right
+            return (fieldName, value) -> {
+                Measured m = (Measured)value;
+
+                return (m.getUnitOfMeasure().equals(uom) ? m : m.convertTo(uom));
+            };
+        }
+        if( Number.class.isAssignableFrom(source) ) {
+            if( ctor == null ) {
+                return (fieldName, value) -> {
+                    throw new PersistenceException("Unable to map with no proper constructor");
+                };
+            }
+            return (fieldName, value) -> ctor.newInstance(((Number)value).doubleValue(), uom);
+        }
+        Method valueOf = null;
+
+        for( Method m : toType.getDeclaredMethods() ) {
+            if( Modifier.isStatic(m.getModifiers()) && m.getName().equals("valueOf") ) {
+                if( m.getParameterTypes().length == 1 && m.getParameterTypes()[0].equals(String.class) ) {
+                    valueOf = m;
+                    break;
+                }
+            }
+        }
+        final Method parser = valueOf;
+
+        return (fieldName, value) -> {
+            Measured m;
+
+            try {
+                double d = Double.parseDouble(value.toString());
+
+                if( ctor == null ) {
+                    throw new PersistenceException("Unable to map with no proper constructor");
+                }
+                m = ctor.newInstance(d, uom);
+            }
+            catch( NumberFormatException e ) {
+                if( parser == null ) {
+                    throw new PersistenceException("Don't know how to map " + value + " to " + toType + "<" + ptype + ">");
+                }
+                m = (Measured)parser.invoke(null, value.toString());
+            }
+            return (m.getUnitOfMeasure().equals(uom) ? m : m.convertTo(uom));
+        };
+    }
+
+    static private Converter arrayConverter(final Class<?> toType, final Class<?> source) {
+        final Class<?> component = toType.getComponentType();
+
+        if( source == null ) {
+            return (fieldName, value) -> Array.newInstance(component, 0);
+        }
+        if( JSONArray.class.isAssignableFrom(source) ) {
+            return (fieldName, value) -> {
+                JSONArray arr = (JSONArray)value;
+                int len = arr.length();
+                Object replacement = Array.newInstance(component, len);
+
+                for( int i=0; i<len; i++ ) {
+                    Object item = arr.get(i);
+
+                    Array.set(replacement, i, getConverter(component, null, item == null ? null : item.getClass()).convert(fieldName, item));
+                }
+                return replacement;
+            };
+        }
+        if( source.isArray() ) {
+            return IDENTITY;
+        }
+        return (fieldName, value) -> {
+            logger.error("Unable to map data store type " + source.getName() + " to " + toType.getName());
+            logger.error("Value of " + fieldName + "=" + value);
+            throw new PersistenceException("Data store type=" + source.getName());
+        };
+    }
+
+    static private Converter objectConverter(final Class<?> toType, final Class<?> source) {
+        if( toType.isAnnotationPresent(AutoJSON.class) ) {
+            return (fieldName, value) -> autoDeJSON(toType, (JSONObject)value);
+        }
+        Method fromJSON = null, fromString = null;
+
+        try {
+            fromJSON = toType.getDeclaredMethod("valueOf", JSONObject.class);
+        }
+        catch( NoSuchMethodException ignore ) {
+            // try a string
+        }
+        try {
+            fromString = toType.getDeclaredMethod("valueOf", String.class);
+        }
+        catch( NoSuchMethodException ignore ) {
+            // no string form
+        }
+        final Method m = (fromJSON != null && (fromString == null || JSONObject.class.isAssignableFrom(source)) ? fromJSON : fromString);
+
+        if( m == null ) {
+            return (fieldName, value) -> {
+                throw new PersistenceException("No valueOf() field in " + toType + " for mapping " + fieldName + " with " + value + ": (" + source.getName() + " vs " + toType.getName() + ")");
+            };
+        }
+        if( m == fromJSON ) {
+            return (fieldName, value) -> m.invoke(null, value);
+        }
+        return (fieldName, value) -> m.invoke(null, value.toString());
+    }
+
+    static private Object autoDeJSON(Class<?> targetClass, JSONObject ob) throws PersistenceException {
+        Object item;
+
+        try {
+            item = targetClass.newInstance();
+        }
+        catch( Exception e ) {
+            throw new PersistenceException(e);
+        }
+        for( EntityMetadata.Property field : EntityMetadata.getInstance(targetClass).getPersistentProperties() ) {
+            Object value = null;
+
+            if( ob.has(field.getName()) ) {
+                try {
+                    value = convert(field.getName(), ob.get(field.getName()), field.getType(), field.getParameterizedType());
+                }
+                catch( Exception e ) {
+                    logger.warn("JSON error mapping " + targetClass.getName() + "." + field.getName() + ": " + e.getMessage(), e);
+                }
+            }
+            if( value != null || !field.getType().isPrimitive() ) {
+                try {
+                    field.set(item, value);
+                }
+                catch( PersistenceException e ) {
+                    logger.warn("Could not set " + targetClass.getName() + "." + field.getName() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return item;
+    }
+
+    static private ColumnReader resolveReader(final Class<?> type, final ParameterizedType ptype) {
+        ColumnReader r = customReaders.get(type);
+
+        if( r != null ) {
+            return r;
+        }
+        if( type.equals(String.class) ) {
+            return (rs, i) -> {
+                String str = rs.getString(i);
+
+                return (rs.wasNull() || str == null ? null : str.trim());
+            };
+        }
+        if( type.equals(Boolean.class) || type.equals(boolean.class) ) {
+            return (rs, i) -> {
+                String str = rs.getString(i);
+
+                return (!rs.wasNull() && str != null && str.equalsIgnoreCase("Y"));
+            };
+        }
+        if( type.equals(Locale.class) ) {
+            return (rs, i) -> {
+                String str = rs.getString(i);
+
+                return (rs.wasNull() || str == null ? null : toLocale(str));
+            };
+        }
+        if( type.equals(LocalizationGroup.class) ) {
+            return (rs, i) -> {
+                String str = rs.getString(i);
+
+                return (rs.wasNull() || str == null ? null : LocalizationGroup.valueOf(str));
+            };
+        }
+        if( Measured.class.isAssignableFrom(type) ) {
+            return measuredReader(type, ptype);
+        }
+        if( Number.class.isAssignableFrom(type) || (type.isPrimitive() && !type.equals(boolean.class) && !type.equals(char.class)) ) {
+            return numberReader(type);
+        }
+        if( Enum.class.isAssignableFrom(type) ) {
+            final Converter c = enumConverter(type);
+
+            return (rs, i) -> {
+                String str = rs.getString(i);
+
+                if( str == null || rs.wasNull() ) {
+                    return null;
+                }
+                try {
+                    return c.convert(type.getName(), str);
+                }
+                catch( Exception e ) {
+                    throw new SQLException("Unable to map " + str + " to " + type.getName() + ": " + e.getMessage());
+                }
+            };
+        }
+        if( type.equals(UUID.class) ) {
+            return (rs, i) -> {
+                String str = rs.getString(i);
+
+                return (rs.wasNull() || str == null ? null : UUID.fromString(str));
+            };
+        }
+        if( type.getName().startsWith("java.") ) {
+            return (rs, i) -> {
+                Object ob = rs.getObject(i);
+
+                return (rs.wasNull() ? null : ob);
+            };
+        }
+        Method valueOf = null;
+
+        try {
+            valueOf = type.getDeclaredMethod("valueOf", String.class);
+        }
+        catch( NoSuchMethodException ignore ) {
+            // reported when a value is read
+        }
+        final Method m = valueOf;
+
+        return (rs, i) -> {
+            String str = rs.getString(i);
+
+            if( str == null || rs.wasNull() ) {
+                return null;
+            }
+            if( m == null ) {
+                throw new SQLException("I have no idea how to map to " + type.getName());
+            }
+            try {
+                return m.invoke(null, str);
+            }
+            catch( Exception e ) {
+                throw new SQLException("I have no idea how to map to " + type.getName());
+            }
+        };
+    }
+
+    static private ColumnReader numberReader(Class<?> type) {
+        if( type.equals(Long.class) || type.equals(long.class) ) {
+            return (rs, i) -> {
+                long l = rs.getLong(i);
+
+                return (rs.wasNull() ? null : l);
+            };
+        }
+        if( type.equals(Integer.class) || type.equals(int.class) ) {
+            return (rs, i) -> {
+                int x = rs.getInt(i);
+
+                return (rs.wasNull() ? null : x);
+            };
+        }
+        if( type.equals(Short.class) || type.equals(short.class) ) {
+            return (rs, i) -> {
+                short x = rs.getShort(i);
+
+                return (rs.wasNull() ? null : x);
+            };
+        }
+        if( type.equals(Byte.class) || type.equals(byte.class) ) {
+            return (rs, i) -> {
+                byte x = rs.getByte(i);
+
+                return (rs.wasNull() ? null : x);
+            };
+        }
+        if( type.equals(Double.class) || type.equals(double.class) ) {
+            return (rs, i) -> {
+                double x = rs.getDouble(i);
+
+                return (rs.wasNull() ? null : x);
+            };
+        }
+        if( type.equals(Float.class) || type.equals(float.class) ) {
+            return (rs, i) -> {
+                float f = rs.getFloat(i);
+
+                return (rs.wasNull() ? null : f);
+            };
+        }
+        return (rs, i) -> rs.getBigDecimal(i);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static private ColumnReader measuredReader(final Class<?> type, final ParameterizedType pt) {
+        final ColumnReader number = numberReader(double.class);
+        Constructor<? extends Measured> constructor = null;
+        Method valueOf = null;
+
+        for( Constructor<?> c : type.getDeclaredConstructors() ) {
+            Class[] args = c.getParameterTypes();
+
+            if( args != null && args.length == 2 && Number.class.isAssignableFrom(args[0]) && UnitOfMeasure.class.isAssignableFrom(args[1]) ) {
+                constructor = (Constructor<? extends Measured>)c;
+                break;
+            }
+        }
+        try {
+            valueOf = type.getDeclaredMethod("valueOf", String.class);
+        }
+        catch( NoSuchMethodException ignore ) {
+            // only numeric columns can be read
+        }
+        final Constructor<? extends Measured> ctor = constructor;
+        final Method parser = valueOf;
+
+        return (rs, i) -> {
+            Number num;
+
+            try {
+                num = (Number)number.read(rs, i);
+            }
+            catch( SQLException e ) {
+                // not a numeric column, so try the string form
+                try {
+                    String str = rs.getString(i);
+
+                    return (rs.wasNull() ? null : parser.invoke(null, str));
+                }
+                catch( Exception more ) {
+                    logger.error("I have no idea how to map to " + type.getName() + " / " + pt + ": " + e.getMessage());
+                    throw new SQLException("I have no idea how to map to " + type.getName() + " / " + pt + ": " + e.getMessage());
+                }
+            }
+            if( num == null ) {
+                return null;
+            }
+            if( ctor == null ) {
+                throw new SQLException("Unable to map with no proper constructor");
+            }
+            try {
+                return ctor.newInstance(num, ((Class<?>)pt.getActualTypeArguments()[0]).newInstance());
+            }
+            catch( Exception e ) {
+                logger.error("Unable to load data for type " + type + " - " + pt + ": " + e.getMessage());
+                throw new SQLException("Unable to load data for type " + type + " - " + pt + ": " + e.getMessage());
+            }
+        };
+    }
+
+    private ConverterRegistry() { }
+}
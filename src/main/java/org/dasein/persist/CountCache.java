@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Answers <code>count()</code> for an entity from memory. The total is read from the data store once, then
+ * adjusted as objects are created and removed through this JVM, and read again every
+ * <code>dasein.persist.countCache.reconcile</code> milliseconds to pick up changes made elsewhere. Adjustments
+ * take effect when the governing transaction commits. A change whose size is unknown, such as a removal by
+ * search terms, makes the next count go to the data store.
+ * </p>
+ * <p>
+ * Counts with search terms are exact unless <code>dasein.persist.countCache.staleness</code> is set, in which
+ * case each distinct count is kept for that many milliseconds and may be that far out of date. This is meant
+ * for dashboards and similar callers that count often and can tolerate an approximate answer.
+ * </p>
+ * <p>
+ * Both settings are off by default, and may be set for a single entity by appending <code>.CLASSNAME</code>
+ * to the property name in <i>dasein-persistence.properties</i>.
+ * </p>
+ */
+public final class CountCache {
+    static private final Logger logger = Logger.getLogger(CountCache.class);
+
+    static public final int MAX_FILTERED = 1000;
+
+    /**
+     * Counts objects in the data store.
+     */
+    static public interface Source {
+        /**
+         * Counts the matching objects in the data store.
+         * @param terms the search terms, empty to count every object
+         * @return the number of matching objects
+         * @throws PersistenceException an error occurred talking to the data store
+         */
+        public long count(@Nonnull SearchTerm ... terms) throws PersistenceException;
+    }
+
+    /**
+     * Provides a count cache for the specified entity as configured in <i>dasein-persistence.properties</i>.
+     * @param entity the name of the entity class
+     * @param source the means of counting objects in the data store
+     * @return a new count cache, or null if neither maintained nor approximate counts are enabled for the entity
+     */
+    static public @Nullable CountCache getInstance(@Nonnull String entity, @Nonnull Source source) {
+        long reconcile = PersistenceConfig.getLong("dasein.persist.countCache.reconcile", entity, 0L);
+        long staleness = PersistenceConfig.getLong("dasein.persist.countCache.staleness", entity, 0L);
+
+        if( reconcile < 1L && staleness < 1L ) {
+            return null;
+        }
+        return new CountCache(entity, source, reconcile, staleness);
+    }
+
+    static private final Comparator<SearchTerm> TERM_ORDER = new Comparator<SearchTerm>() {
+        public int compare(SearchTerm a, SearchTerm b) {
+            int c = a.getColumn().compareTo(b.getColumn());
+
+            return (c != 0 ? c : a.getOperator().compareTo(b.getOperator()));
+        }
+    };
+
+    static private class Entry {
+        public long count;
+        public long expires;
+    }
+
+    private long                              base         = 0L;
+    private long                              baseNet      = 0L;
+    private volatile long                     drift        = 0L;
+    private final LinkedHashMap<String,Entry> filtered;
+    private final AtomicLong                  filteredHits = new AtomicLong(0L);
+    private volatile boolean                  known        = false;
+    private final AtomicLong                  net          = new AtomicLong(0L);
+    private final AtomicLong                  reconciles   = new AtomicLong(0L);
+    private final long                        reconcile;
+    private final ScheduledFuture<?>          reconciler;
+    private final Source                      source;
+    private final long                        staleness;
+    private final AtomicLong                  totalHits    = new AtomicLong(0L);
+    private volatile boolean                  used         = false;
+
+    /**
+     * Constructs a count cache.
+     * @param entity the name of the entity class, used in log messages
+     * @param source the means of counting objects in the data store
+     * @param reconcile the interval in milliseconds between reads of the total from the data store, or 0 to always read the total from the data store
+     * @param staleness the time in milliseconds a count with search terms is kept, or 0 to always read such counts from the data store
+     */
+    public CountCache(@Nonnull String entity, @Nonnull Source source, long reconcile, long staleness) {
+        this.source = source;
+        this.reconcile = reconcile;
+        this.staleness = staleness;
+        this.filtered = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4470120911753284117L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+                return (size() > MAX_FILTERED);
+            }
+        };
+        if( reconcile > 0L ) {
+            reconciler = MaintenanceScheduler.getInstance().schedule(entity + " count reconciliation", new Runnable() {
+                public void run() {
+                    // entities nobody counts are left alone
+                    if( used ) {
+                        try {
+                            reconcile();
+                        }
+                        catch( PersistenceException e ) {
+                            logger.warn("Unable to reconcile count: " + e.getMessage());
+                        }
+                    }
+                }
+            }, reconcile);
+        }
+        else {
+            reconciler = null;
+        }
+    }
+
+    /**
+     * Stops the periodic reconciliation so a count cache that is no longer used can be collected.
+     */
+    public void close() {
+        if( reconciler != null ) {
+            reconciler.cancel(false);
+        }
+    }
+
+    /**
+     * Adjusts the total by the number of objects created or removed once the specified transaction commits.
+     * @param xaction the transaction governing the change, or null if the change has already taken effect
+     * @param delta the number of objects created, negative for objects removed
+     */
+    public void adjust(@Nullable Transaction xaction, final long delta) {
+        if( reconcile < 1L || delta == 0L ) {
+            return;
+        }
+        if( xaction == null ) {
+            net.addAndGet(delta);
+        }
+        else {
+            xaction.afterCommit(new Runnable() {
+                public void run() {
+                    net.addAndGet(delta);
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts the matching objects, from memory where possible.
+     * @param terms the search terms, empty to count every object
+     * @return the number of matching objects
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    public long count(@Nullable SearchTerm ... terms) throws PersistenceException {
+        if( terms == null || terms.length < 1 ) {
+            if( reconcile < 1L ) {
+                return source.count();
+            }
+            used = true;
+            if( !known ) {
+                reconcile();
+            }
+            else {
+                totalHits.incrementAndGet();
+            }
+            synchronized( this ) {
+                return base + (net.get() - baseNet);
+            }
+        }
+        if( staleness < 1L ) {
+            return source.count(terms);
+        }
+        String key = getKey(terms);
+        long now = System.currentTimeMillis();
+
+        synchronized( filtered ) {
+            Entry entry = filtered.get(key);
+
+            if( entry != null && entry.expires > now ) {
+                filteredHits.incrementAndGet();
+                return entry.count;
+            }
+        }
+        Entry entry = new Entry();
+
+        entry.count = source.count(terms);
+        entry.expires = now + staleness;
+        synchronized( filtered ) {
+            filtered.put(key, entry);
+        }
+        return entry.count;
+    }
+
+    /**
+     * @return the difference between the total held in memory and the total read from the data store at the last reconciliation
+     */
+    public long getDrift() {
+        return drift;
+    }
+
+    /**
+     * @return the number of counts with search terms answered from memory
+     */
+    public long getFilteredHits() {
+        return filteredHits.get();
+    }
+
+    private String getKey(SearchTerm[] terms) {
+        SearchTerm[] sorted = terms.clone();
+        Object[] values = new Object[sorted.length];
+
+        Arrays.sort(sorted, TERM_ORDER);
+        for( int i=0; i<sorted.length; i++ ) {
+            values[i] = sorted[i].getValue();
+        }
+        return QuerySignature.count(sorted) + " " + Arrays.deepToString(values);
+    }
+
+    /**
+     * @return the number of times the total was read from the data store
+     */
+    public long getReconcileCount() {
+        return reconciles.get();
+    }
+
+    /**
+     * @return the number of total counts answered from memory
+     */
+    public long getTotalHits() {
+        return totalHits.get();
+    }
+
+    /**
+     * Makes the next total count read from the data store, for changes whose size is unknown.
+     * @param xaction the transaction governing the change, or null if the change has already taken effect
+     */
+    public void invalidate(@Nullable Transaction xaction) {
+        if( reconcile < 1L ) {
+            return;
+        }
+        known = false;
+        if( xaction != null ) {
+            xaction.afterCommit(new Runnable() {
+                public void run() {
+                    known = false;
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the total from the data store. Adjustments that commit while the read is in progress are applied
+     * on top of it, so an object written during the read may be counted twice until the next reconciliation.
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    public void reconcile() throws PersistenceException {
+        long asOf = net.get();
+        long count = source.count();
+
+        synchronized( this ) {
+            long previous = base + (asOf - baseNet);
+
+            if( known ) {
+                drift = previous - count;
+                if( drift != 0L && logger.isDebugEnabled() ) {
+                    logger.debug("Count was off by " + drift + " at reconciliation");
+                }
+            }
+            base = count;
+            baseNet = asOf;
+            known = true;
+        }
+        reconciles.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "CountCache[reconcile=" + reconcile + ",staleness=" + staleness + ",reconciles=" + reconciles.get() + "]";
+    }
+}
@@ -32,7 +32,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Properties;
 
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
@@ -115,7 +114,7 @@ public class DaseinSequencer extends Sequencer {
     /**
      * The interval governing this sequence.
      */
-    private long interval = defaultInterval;
+    private volatile long interval = defaultInterval;
     /**
      * The current sequence within this sequencer's seed.
      */
@@ -124,6 +123,14 @@ public class DaseinSequencer extends Sequencer {
      * The next sequence in the database, need to regen when encountered.
      */
     private long nextKey  = 1L;
+    /**
+     * True while a background prefetch is talking to the database.
+     */
+    private boolean prefetching = false;
+    /**
+     * A block reserved ahead of time by {@link #prefetch()}, used once the current block is exhausted.
+     */
+    private long[] spare = null;
 
     public DaseinSequencer() {
         super();
@@ -163,9 +170,11 @@ public class DaseinSequencer extends Sequencer {
      * keys. Unfortunately, that approach is error prone due to the lack
      * of consistency in proper XOPEN SQLState reporting in JDBC drivers.
      * @param conn the JDBC connection to use
+     * @param next the next key to store for the sequence
+     * @return true if the sequence was created
      * @throws java.sql.SQLException a database error occurred
      */
-    private void create(Connection conn) throws SQLException {
+    private boolean create(Connection conn, long next) throws SQLException {
         logger.debug("enter - create()");
         try {
             PreparedStatement stmt = null;
@@ -174,13 +183,14 @@ public class DaseinSequencer extends Sequencer {
             try {
                 stmt = conn.prepareStatement(CREATE_SEQ);
                 stmt.setString(INS_NAME, getName());
-                stmt.setLong(INS_NEXT_KEY, nextKey);
+                stmt.setLong(INS_NEXT_KEY, next);
                 stmt.setLong(INS_INTERVAL, interval);
                 stmt.setLong(INS_UPDATE, System.currentTimeMillis());
                 if( stmt.executeUpdate() != 1 ) {
                     logger.warn("Unable to create sequence " + getName() + ".");
-                    sequence = -1L;
+                    return false;
                 }
+                return true;
             }
             finally {
                 if( rs != null ) {
@@ -221,11 +231,16 @@ public class DaseinSequencer extends Sequencer {
                 logger.info("Getting next ID for " + getName() +
                             " (" + sequence + ").");
             }
-            if( sequence == nextKey ) {
+            if( sequence == nextKey && spare != null ) {
+                logger.info("Key space exhausted for " + getName() + ", switching to the prefetched block.");
+                sequence = spare[0];
+                nextKey = spare[1];
+                spare = null;
+            }
+            else if( sequence == nextKey ) {
                 logger.info("Key space exhausted for " + getName() + ".");
                 try {
-                    InitialContext ctx = new InitialContext();
-                    DataSource ds = (DataSource)ctx.lookup(dataSourceName);
+                    DataSource ds = DataSourceResolver.getDataSource(dataSourceName);
                     conn = ds.getConnection();
                     conn.setReadOnly(false); // force read-only to be reset to false
                     reseed(conn);
@@ -309,15 +324,17 @@ public class DaseinSequencer extends Sequencer {
     static private final int UPD_WHERE_UPDATE = 5;
 
     /**
-     * Gets the next seed from the database for this sequence.
+     * Reserves the next block of values for this sequence in the database.
      * @param conn the database connection
+     * @return the first value of the block and the first value past it
      * @throws java.sql.SQLException a database error occurred
      */
-    private void reseed(Connection conn) throws SQLException {
-        logger.debug("enter - reseed()");
+    private long[] claim(Connection conn) throws SQLException {
+        logger.debug("enter - claim()");
         try {
             PreparedStatement stmt = null;
             ResultSet rs = null;
+            long seq, next;
             
             try {
                 // Keep in this loop as long as we encounter concurrency errors
@@ -337,19 +354,21 @@ public class DaseinSequencer extends Sequencer {
                             catch( SQLException ignore ) { /* ignore */ }
                             stmt = null;
                         }
-                        sequence = 100L;
-                        nextKey = sequence + interval;
-                        create(conn);
+                        seq = 100L;
+                        next = seq + interval;
+                        if( !create(conn, next) ) {
+                            seq = -1L;
+                        }
                     }
                     else {
                         long ts;
                         
-                        sequence = rs.getLong(SEL_NEXT_KEY);
+                        seq = rs.getLong(SEL_NEXT_KEY);
                         interval = rs.getLong(SEL_INTERVAL);
                         if( interval < 1 ) {
                             interval = defaultInterval;
                         }
-                        nextKey = sequence + interval;
+                        next = seq + interval;
                         ts = rs.getLong(SEL_UPDATE);
                         {
                             // close resources
@@ -362,14 +381,14 @@ public class DaseinSequencer extends Sequencer {
                         }
                         // increment the seed in the database
                         stmt = conn.prepareStatement(UPDATE_SEQ);
-                        stmt.setLong(UPD_NEXT_KEY, nextKey);
+                        stmt.setLong(UPD_NEXT_KEY, next);
                         stmt.setLong(UPD_SET_UPDATE, System.currentTimeMillis());
                         stmt.setString(UPD_NAME, getName());
-                        stmt.setLong(UPD_WHERE_KEY, sequence);
+                        stmt.setLong(UPD_WHERE_KEY, seq);
                         stmt.setLong(UPD_WHERE_UPDATE, ts);
                         if( stmt.executeUpdate() != 1 ) {
                             // someone changed the database! try again!
-                            sequence = -1L;
+                            seq = -1L;
                             logger.warn("Concurrency error, requerying DB.");
                         }
                         else {
@@ -377,10 +396,13 @@ public class DaseinSequencer extends Sequencer {
                                 conn.commit();
                             }
                         }
+                        try { stmt.close(); }
+                        catch( SQLException ignore ) { /* ignore */ }
+                        stmt = null;
                     }
-                } while( sequence == -1L );
-                logger.info("Sequence set to " + sequence + ", next_key is " +
-                            nextKey + ".");
+                } while( seq == -1L );
+                logger.info("Claimed " + seq + " through " + (next-1) + " for " + getName() + ".");
+                return new long[] { seq, next };
             }
             finally {
                 if( rs != null ) {
@@ -394,7 +416,67 @@ public class DaseinSequencer extends Sequencer {
             }   
         }
         finally {
-            logger.debug("exit - reseed()");
+            logger.debug("exit - claim()");
         }
     }
+
+    /**
+     * Reserves the next block of values ahead of time once fewer than a quarter of the
+     * current block remain, so that {@link #next()} can switch blocks without waiting on the database.
+     * @throws org.dasein.persist.PersistenceException a data store error
+     * occurred while reserving values
+     */
+    @Override
+    public void prefetch() throws PersistenceException {
+        synchronized( this ) {
+            // only prefetch for sequences in use, and only one block ahead
+            if( prefetching || spare != null || nextKey <= 1L || (nextKey - sequence) > Math.max(1L, interval/4) ) {
+                return;
+            }
+            prefetching = true;
+        }
+        Connection conn = null;
+        
+        try {
+            DataSource ds = DataSourceResolver.getDataSource(dataSourceName);
+            long[] block;
+            
+            conn = ds.getConnection();
+            conn.setReadOnly(false);
+            block = claim(conn);
+            if( !conn.getAutoCommit() ) {
+                conn.commit();
+            }
+            synchronized( this ) {
+                spare = block;
+            }
+        }
+        catch( SQLException e ) {
+            throw new PersistenceException(e);
+        }
+        catch( NamingException e ) {
+            throw new PersistenceException(e);
+        }
+        finally {
+            synchronized( this ) {
+                prefetching = false;
+            }
+            if( conn != null ) {
+                try { conn.close(); }
+                catch( SQLException ignore ) { /* ignore */ }
+            }
+        }
+    }
+
+    /**
+     * Gets the next seed from the database for this sequence.
+     * @param conn the database connection
+     * @throws java.sql.SQLException a database error occurred
+     */
+    private void reseed(Connection conn) throws SQLException {
+        long[] block = claim(conn);
+        
+        sequence = block[0];
+        nextKey = block[1];
+    }
 }
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Resolves DSN names to {@link DataSource} objects on behalf of {@link Transaction},
+ * {@link DaseinSequencer}, and {@link DatabaseKeyGenerator}. A DSN is looked up in JNDI
+ * the first time it is requested and the resulting data source is cached, so that acquiring
+ * a connection costs nothing beyond the pool checkout.
+ * </p>
+ * <p>
+ * Embedded deployments without a JNDI context may {@link #register(String, DataSource)}
+ * data sources directly. Registered data sources take precedence over JNDI and are never
+ * dropped by {@link #invalidate(String)}; use {@link #unregister(String)} to remove them.
+ * </p>
+ */
+public final class DataSourceResolver {
+    static private final Logger logger = Logger.getLogger(DataSourceResolver.class);
+
+    static private final ConcurrentHashMap<String,DataSource> registered = new ConcurrentHashMap<String,DataSource>();
+    static private final ConcurrentHashMap<String,DataSource> resolved   = new ConcurrentHashMap<String,DataSource>();
+
+    /**
+     * Provides the data source for the specified DSN, looking it up in JNDI only if it has
+     * not been registered or resolved before.
+     * @param dsn the name of the data source
+     * @return the matching data source
+     * @throws NamingException the DSN is not registered and could not be found in JNDI
+     */
+    static public @Nonnull DataSource getDataSource(@Nonnull String dsn) throws NamingException {
+        DataSource ds = registered.get(dsn);
+
+        if( ds != null ) {
+            return ds;
+        }
+        ds = resolved.get(dsn);
+        if( ds != null ) {
+            return ds;
+        }
+        return lookup(dsn);
+    }
+
+    /**
+     * Drops any cached JNDI lookup for the specified DSN so the next request goes back to JNDI.
+     * @param dsn the name of the data source to invalidate
+     */
+    static public void invalidate(@Nonnull String dsn) {
+        if( resolved.remove(dsn) != null && logger.isInfoEnabled() ) {
+            logger.info("Invalidated cached data source for " + dsn);
+        }
+    }
+
+    /**
+     * Drops all cached JNDI lookups. Programmatically registered data sources are unaffected.
+     */
+    static public void invalidateAll() {
+        resolved.clear();
+        logger.info("Invalidated all cached data sources");
+    }
+
+    /**
+     * Forces a fresh JNDI lookup for the specified DSN, replacing any cached data source.
+     * @param dsn the name of the data source to refresh
+     * @return the newly resolved data source
+     * @throws NamingException the DSN could not be found in JNDI
+     */
+    static public @Nonnull DataSource refresh(@Nonnull String dsn) throws NamingException {
+        DataSource ds = registered.get(dsn);
+
+        if( ds != null ) {
+            return ds;
+        }
+        resolved.remove(dsn);
+        return lookup(dsn);
+    }
+
+    /**
+     * Registers a data source under the specified DSN so that it is used without consulting JNDI.
+     * @param dsn the name under which the data source is registered
+     * @param ds the data source to use for that name
+     */
+    static public void register(@Nonnull String dsn, @Nonnull DataSource ds) {
+        registered.put(dsn, ds);
+        resolved.remove(dsn);
+        if( logger.isInfoEnabled() ) {
+            logger.info("Registered data source for " + dsn);
+        }
+    }
+
+    /**
+     * Removes a programmatically registered data source.
+     * @param dsn the name of the data source to remove
+     */
+    static public void unregister(@Nonnull String dsn) {
+        registered.remove(dsn);
+    }
+
+    static private DataSource lookup(String dsn) throws NamingException {
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Looking up data source " + dsn + " in JNDI");
+        }
+        InitialContext ctx = new InitialContext();
+
+        try {
+            DataSource ds = (DataSource)ctx.lookup(dsn);
+            DataSource current = resolved.putIfAbsent(dsn, ds);
+
+            return (current == null ? ds : current);
+        }
+        finally {
+            try { ctx.close(); }
+            catch( NamingException ignore ) { /* ignore */ }
+        }
+    }
+
+    private DataSourceResolver() { }
+}
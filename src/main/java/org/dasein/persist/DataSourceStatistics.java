@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Connection use for one data source: how many connections are open, how long each was held, how long
+ * transactions took from creation to commit, and how often they rolled back. Each data source is registered
+ * with JMX as <code>org.dasein.persist:type=DataSourceStatistics,name=DSN</code>.
+ * @see TransactionStatistics#getDataSource(String)
+ */
+public final class DataSourceStatistics implements DataSourceStatisticsMBean {
+    private final LongAdder     connectFailures = new LongAdder();
+    private final Histogram     commitTime      = new Histogram();
+    private final String        dataSource;
+    private final Histogram     holdTime        = new Histogram();
+    private final AtomicInteger open            = new AtomicInteger(0);
+    private final LongAdder     rollbacks       = new LongAdder();
+
+    DataSourceStatistics(@Nonnull String dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    void closed(long heldNanos, boolean committed, long sinceCreatedNanos) {
+        open.decrementAndGet();
+        holdTime.record(heldNanos/1000L);
+        if( committed ) {
+            commitTime.record(sinceCreatedNanos/1000L);
+        }
+        else {
+            rollbacks.increment();
+        }
+    }
+
+    void connectFailed() {
+        connectFailures.increment();
+    }
+
+    int opened() {
+        return open.incrementAndGet();
+    }
+
+    public long getCommitCount() {
+        return commitTime.getCount();
+    }
+
+    /**
+     * @return the distribution of the time from the creation of a transaction to its commit, in microseconds
+     */
+    public @Nonnull Histogram getCommitTime() {
+        return commitTime;
+    }
+
+    public double getCommitTimeMean() {
+        return commitTime.getMean()/1000.0;
+    }
+
+    public double getCommitTime95thPercentile() {
+        return commitTime.getPercentile(95.0)/1000.0;
+    }
+
+    public double getCommitTime99thPercentile() {
+        return commitTime.getPercentile(99.0)/1000.0;
+    }
+
+    public long getConnectFailureCount() {
+        return connectFailures.sum();
+    }
+
+    public @Nonnull String getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @return the distribution of the time connections were held, in microseconds
+     */
+    public @Nonnull Histogram getHoldTime() {
+        return holdTime;
+    }
+
+    public double getHoldTimeMax() {
+        return holdTime.getMax()/1000.0;
+    }
+
+    public double getHoldTimeMean() {
+        return holdTime.getMean()/1000.0;
+    }
+
+    public double getHoldTime95thPercentile() {
+        return holdTime.getPercentile(95.0)/1000.0;
+    }
+
+    public double getHoldTime99thPercentile() {
+        return holdTime.getPercentile(99.0)/1000.0;
+    }
+
+    public int getOpenConnections() {
+        return open.get();
+    }
+
+    public long getRollbackCount() {
+        return rollbacks.sum();
+    }
+
+    public double getRollbackRate() {
+        long r = rollbacks.sum();
+        long total = r + commitTime.getCount();
+
+        return (total == 0L ? 0.0 : ((double)r)/total);
+    }
+
+    /**
+     * Resets the counters and histograms to zero. The number of open connections is not affected.
+     */
+    public void reset() {
+        connectFailures.reset();
+        commitTime.reset();
+        holdTime.reset();
+        rollbacks.reset();
+    }
+
+    @Override
+    public String toString() {
+        return dataSource + "[open=" + getOpenConnections() + ",commits=" + getCommitCount() + ",rollbacks=" + getRollbackCount() +
+                ",connectFailures=" + getConnectFailureCount() + ",holdTime=" + holdTime + ",commitTime=" + commitTime + "]";
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+/**
+ * The JMX view of the {@link DataSourceStatistics} for one data source. Times are in milliseconds.
+ */
+public interface DataSourceStatisticsMBean {
+    public long getCommitCount();
+
+    public double getCommitTimeMean();
+
+    public double getCommitTime95thPercentile();
+
+    public double getCommitTime99thPercentile();
+
+    public long getConnectFailureCount();
+
+    public String getDataSource();
+
+    public double getHoldTimeMax();
+
+    public double getHoldTimeMean();
+
+    public double getHoldTime95thPercentile();
+
+    public double getHoldTime99thPercentile();
+
+    public int getOpenConnections();
+
+    public long getRollbackCount();
+
+    public double getRollbackRate();
+
+    public void reset();
+}
@@ -25,7 +25,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Properties;
 
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
@@ -132,8 +131,7 @@ public class DatabaseKeyGenerator extends Sequencer {
             ResultSet rs = null;
             
             try {
-                InitialContext ctx = new InitialContext();
-                DataSource ds = (DataSource)ctx.lookup(dataSourceName);
+                DataSource ds = DataSourceResolver.getDataSource(dataSourceName);
                 
                 conn = ds.getConnection();
                 conn.setReadOnly(false);
@@ -248,8 +246,7 @@ public class DatabaseKeyGenerator extends Sequencer {
             ResultSet rs = null;
             
             try {
-                InitialContext ctx = new InitialContext();
-                DataSource ds = (DataSource)ctx.lookup(dataSourceName);
+                DataSource ds = DataSourceResolver.getDataSource(dataSourceName);
             
                 // Keep in this loop as long as we encounter concurrency errors
                 do {
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>
+ * The reflective description of a persistent class, computed once per class and shared by
+ * {@link PersistentCache} and {@link Memento}. Materializing an object from a row or JSON document
+ * walks the precomputed field list and uses cached accessors rather than looking fields up and
+ * making them accessible for every object.
+ * </p>
+ * <p>
+ * Persistent fields are the non-static, non-transient fields of the class and its superclasses,
+ * ordered from the class itself up through its ancestors.
+ * </p>
+ */
+public final class EntityMetadata {
+    static private final ConcurrentHashMap<Class<?>,EntityMetadata> metadata = new ConcurrentHashMap<Class<?>,EntityMetadata>();
+
+    static private final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    static private final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * Provides the metadata for the specified class, computing it on first use.
+     * @param cls the persistent class
+     * @return the metadata for that class
+     */
+    static public @Nonnull EntityMetadata getInstance(@Nonnull Class<?> cls) {
+        EntityMetadata md = metadata.get(cls);
+
+        if( md == null ) {
+            EntityMetadata created = new EntityMetadata(cls);
+
+            md = metadata.putIfAbsent(cls, created);
+            if( md == null ) {
+                md = created;
+            }
+        }
+        return md;
+    }
+
+    /**
+     * Fast access to a single field of a persistent class.
+     */
+    static public final class Property {
+        /**
+         * The converter last used for this field, along with the source type and registry
+         * generation it was resolved for.
+         */
+        static private final class CachedConverter {
+            private final ConverterRegistry.Converter converter;
+            private final int                         generation;
+            private final Class<?>                    source;
+
+            private CachedConverter(Class<?> source, ConverterRegistry.Converter converter, int generation) {
+                this.source = source;
+                this.converter = converter;
+                this.generation = generation;
+            }
+        }
+
+        private volatile CachedConverter cached = null;
+        private final Field             field;
+        private final MethodHandle      getter;
+        private final ParameterizedType parameterizedType;
+        private final boolean           persistent;
+        private final MethodHandle      setter;
+
+        private Property(Field field) {
+            int m = field.getModifiers();
+            Type generic = field.getGenericType();
+            MethodHandle g = null, s = null;
+
+            field.setAccessible(true);
+            try {
+                g = MethodHandles.lookup().unreflectGetter(field).asType(GETTER);
+                s = MethodHandles.lookup().unreflectSetter(field).asType(SETTER);
+            }
+            catch( IllegalAccessException e ) {
+                // final fields cannot always be written through a method handle, so fall back to the field
+            }
+            this.field = field;
+            this.getter = g;
+            this.setter = s;
+            this.persistent = !Modifier.isTransient(m);
+            this.parameterizedType = (generic instanceof ParameterizedType ? (ParameterizedType)generic : null);
+        }
+
+        /**
+         * Reads the value of this field from the specified object.
+         * @param target the object to read from
+         * @return the current value of the field
+         * @throws PersistenceException the value could not be read
+         */
+        public @Nullable Object get(@Nonnull Object target) throws PersistenceException {
+            try {
+                if( getter != null ) {
+                    return getter.invokeExact(target);
+                }
+                return field.get(target);
+            }
+            catch( Throwable t ) {
+                throw new PersistenceException("Error reading " + field.getDeclaringClass().getName() + "." + field.getName() + ": " + t.getMessage());
+            }
+        }
+
+        /**
+         * Writes a value to this field of the specified object.
+         * @param target the object to write to
+         * @param value the new value
+         * @throws PersistenceException the value could not be written, generally because it is of the wrong type
+         */
+        public void set(@Nonnull Object target, @Nullable Object value) throws PersistenceException {
+            try {
+                if( setter != null ) {
+                    setter.invokeExact(target, value);
+                }
+                else {
+                    field.set(target, value);
+                }
+            }
+            catch( Throwable t ) {
+                String msg = "Error setting value for " + field.getName();
+
+                if( value == null ) {
+                    msg = msg + " (null)";
+                }
+                else {
+                    msg = msg + " (" + value + ":" + value.getClass().getName() + ")";
+                }
+                throw new PersistenceException(msg + ":\n" + t.getClass().getName() + ":\n" + t.getMessage());
+            }
+        }
+
+        /**
+         * Provides the converter from values of the specified type into the type of this field. A field
+         * is almost always fed values of the same type, so the last converter is kept on the field itself.
+         * @param source the class of the value to be converted, null for null values
+         * @return the matching converter
+         */
+        public @Nonnull ConverterRegistry.Converter getConverter(@Nullable Class<?> source) {
+            CachedConverter c = cached;
+            int generation = ConverterRegistry.getGeneration();
+
+            if( c == null || c.source != source || c.generation != generation ) {
+                c = new CachedConverter(source, ConverterRegistry.getConverter(getType(), parameterizedType, source), generation);
+                cached = c;
+            }
+            return c.converter;
+        }
+
+        /**
+         * @return the underlying field
+         */
+        public @Nonnull Field getField() {
+            return field;
+        }
+
+        /**
+         * @return the name of the field
+         */
+        public @Nonnull String getName() {
+            return field.getName();
+        }
+
+        /**
+         * @return the generic type of the field if it is parameterized, otherwise null
+         */
+        public @Nullable ParameterizedType getParameterizedType() {
+            return parameterizedType;
+        }
+
+        /**
+         * @return the declared type of the field
+         */
+        public @Nonnull Class<?> getType() {
+            return field.getType();
+        }
+
+        /**
+         * @return true unless the field is transient
+         */
+        public boolean isPersistent() {
+            return persistent;
+        }
+
+        @Override
+        public String toString() {
+            return field.getDeclaringClass().getName() + "." + field.getName();
+        }
+    }
+
+    private final Map<String,Property> byName;
+    private final List<Property>       persistent;
+    private final Class<?>             target;
+
+    private EntityMetadata(Class<?> cls) {
+        HashMap<String,Property> names = new HashMap<String,Property>();
+        ArrayList<Property> fields = new ArrayList<Property>();
+        Class<?> current = cls;
+
+        while( current != null && !current.equals(Object.class) ) {
+            for( Field f : current.getDeclaredFields() ) {
+                if( Modifier.isStatic(f.getModifiers()) ) {
+                    continue;
+                }
+                Property p = new Property(f);
+
+                if( !names.containsKey(p.getName()) ) {
+                    names.put(p.getName(), p);
+                }
+                if( p.isPersistent() ) {
+                    fields.add(p);
+                }
+            }
+            current = current.getSuperclass();
+        }
+        target = cls;
+        byName = Collections.unmodifiableMap(names);
+        persistent = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Compares a new state for an object against the object's current field values. A persistent
+     * field missing from the state counts as null, just as it would be written by a full update.
+     * @param current the object as it currently stands, usually the cached instance
+     * @param state the new state for the object
+     * @return the names of the persistent fields whose value in the state differs from the current value
+     * @throws PersistenceException a current value could not be read
+     */
+    public @Nonnull Set<String> getChanges(@Nonnull Object current, @Nonnull Map<String,?> state) throws PersistenceException {
+        HashSet<String> changes = new HashSet<String>();
+
+        for( Property p : persistent ) {
+            Object before = p.get(current);
+            Object after = state.get(p.getName());
+
+            if( before == after ) {
+                continue;
+            }
+            if( before == null || after == null ) {
+                changes.add(p.getName());
+            }
+            else if( before.getClass().isArray() && after.getClass().isArray() ) {
+                if( !Arrays.deepEquals(new Object[] { before }, new Object[] { after }) ) {
+                    changes.add(p.getName());
+                }
+            }
+            else if( !before.equals(after) ) {
+                changes.add(p.getName());
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return the persistent fields of the class, from the class itself up through its ancestors
+     */
+    public @Nonnull List<Property> getPersistentProperties() {
+        return persistent;
+    }
+
+    /**
+     * Provides the instance field with the specified name, whether or not it is persistent. A field
+     * declared in a subclass hides one of the same name in a superclass.
+     * @param name the field name
+     * @return the matching field, or null if the class has no such instance field
+     */
+    public @Nullable Property getProperty(@Nonnull String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @return the class described by this metadata
+     */
+    public @Nonnull Class<?> getTarget() {
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return target.getName() + persistent;
+    }
+}
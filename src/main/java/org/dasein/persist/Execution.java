@@ -23,16 +23,18 @@ package org.dasein.persist;
 // J2SE imports
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Stack;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // J2EE imports
 import javax.naming.NamingException;
@@ -60,12 +62,27 @@ public abstract class Execution {
     
     static private final Logger logger = Logger.getLogger(Execution.class);
 
+    static private HashMap<String,String>           dataSources  = new HashMap<String,String>();
+    
     /**
-     * Cache of execution instances.
+     * The number of rows sent to the database per JDBC batch unless a caller specifies otherwise.
      */
-    static private HashMap<String,Stack<Execution>> cache        = new HashMap<String,Stack<Execution>>();
-
-    static private HashMap<String,String>           dataSources  = new HashMap<String,String>();
+    static private int                              batchSize    = 100;
+    
+    /**
+     * The JDBC fetch size hint for queries, 0 meaning the driver default.
+     */
+    static private int                              fetchSize    = 0;
+    
+    /**
+     * Whether large queries stream their rows to callers rather than collecting them first.
+     */
+    static private boolean                          streaming    = false;
+    
+    /**
+     * Whether updates write only the fields that differ from the cached instance.
+     */
+    static private boolean                          changeTracking = false;
     
     /**
      * Loads the sequencers from the dasein-persistence.properties
@@ -101,20 +118,59 @@ public abstract class Execution {
                     dataSources.put(nom, dsn);
                 }
             }
+            String prop = props.getProperty("dasein.persist.batchSize");
+            
+            if( prop != null && prop.trim().length() > 0 ) {
+                batchSize = Integer.parseInt(prop.trim());
+            }
+            prop = props.getProperty("dasein.persist.fetchSize");
+            if( prop != null && prop.trim().length() > 0 ) {
+                prop = prop.trim();
+                // MySQL only streams rows with this particular fetch size
+                fetchSize = prop.equalsIgnoreCase("stream") ? Integer.MIN_VALUE : Integer.parseInt(prop);
+            }
+            prop = props.getProperty("dasein.persist.streaming");
+            if( prop != null ) {
+                streaming = prop.trim().equalsIgnoreCase("true");
+            }
+            prop = props.getProperty("dasein.persist.changeTracking");
+            if( prop != null ) {
+                changeTracking = prop.trim().equalsIgnoreCase("true");
+            }
         }
         catch( Exception e ) {
             e.printStackTrace();
         }
-        Thread stackPusher = new Thread() {
-            public void run() {
-                pushExecutions();
-            }
-        };
-        
-        stackPusher.setPriority(Thread.NORM_PRIORITY-1);
-        stackPusher.setDaemon(true);
-        stackPusher.setName("dasein-persistence - STACK PUSHER");
-        stackPusher.start();
+    }
+    
+    /**
+     * @return the default number of rows per JDBC batch, configured through
+     * <code>dasein.persist.batchSize</code>
+     */
+    static public int getDefaultBatchSize() {
+        return batchSize;
+    }
+    
+    /**
+     * @return the default JDBC fetch size for queries, configured through
+     * <code>dasein.persist.fetchSize</code> (a value of <code>stream</code> selects MySQL row streaming)
+     */
+    static public int getDefaultFetchSize() {
+        return fetchSize;
+    }
+    
+    /**
+     * @return true if <code>dasein.persist.streaming</code> enables streaming query results by default
+     */
+    static public boolean isStreamingByDefault() {
+        return streaming;
+    }
+    
+    /**
+     * @return true if <code>dasein.persist.changeTracking</code> enables change tracking on updates by default
+     */
+    static public boolean isChangeTrackingByDefault() {
+        return changeTracking;
     }
     
     static public String getDataSourceName(String cname) {
@@ -146,35 +202,17 @@ public abstract class Execution {
     
     /**
      * Provides an instance of an execution object for a specific
-     * subclass. Executions are stored in a hash map of stacks.
+     * subclass. Executions are kept in a per-class {@link ExecutionPool}.
      * This enables an instance to be reused, if possible. Otherwise a
      * new one is created.
      * @param cls the subclass of <code>Execution</code> to be
      * retrieved
      * @return an instance of the specified class
      */
-    @SuppressWarnings("unchecked")
     static public <T extends Execution> T getInstance(Class<T> cls) {
         logger.debug("enter - getInstance()");
         try {
-            Stack<Execution> stack;
-            
-            synchronized( cache ) {
-                if( !cache.containsKey(cls.getName()) ) {
-                    return cls.newInstance();
-                }
-                else {
-                    stack = cache.get(cls.getName());
-                }
-            }
-            synchronized( stack ) {
-                if( stack.empty() ) {
-                    return cls.newInstance();
-                }
-                else {
-                    return (T)stack.pop();
-                }
-            }
+            return ExecutionPool.acquire(cls);
         }
         catch( InstantiationException e ) {
             throw new RuntimeException(e.getMessage());
@@ -187,52 +225,6 @@ public abstract class Execution {
         }
     }
 
-    static private transient ArrayList<Execution>executions = new ArrayList<Execution>();
-    
-    static private void pushExecutions() {
-        ArrayList<Execution> tmp = new ArrayList<Execution>();
-        
-        while( true ) {
-            synchronized( executions ) {
-                try { executions.wait(5000L); }
-                catch( InterruptedException e ) { /* ignore me */ }
-                if( executions.isEmpty() ) {
-                    continue;
-                }
-                tmp.addAll(executions);
-                executions.clear();
-            }
-            try {
-                for( Execution execution : tmp ) {
-                    Stack<Execution> stack;
-                    
-                    synchronized( cache ) {
-                        if( !cache.containsKey(execution.getClass().getName()) ) {
-                            stack = new Stack<Execution>();
-                            cache.put(execution.getClass().getName(), stack);
-                        }
-                        else {
-                            stack = cache.get(execution.getClass().getName());
-                        }
-                    }
-                    synchronized( stack ) {
-                        if( stack.size() > 10 || stack.contains(execution) ) {
-                            continue;
-                        }
-                        stack.push(execution);
-                    }
-                }
-            }
-            catch( Throwable t ) {
-                t.printStackTrace();
-            }
-            finally {
-                tmp.clear();                
-            }
-        }
-    }
-
-    
     /**
      * The connection to be used for the execution of this event.
      */
@@ -246,6 +238,22 @@ public abstract class Execution {
     @Deprecated
     public ResultSet         results    = null;
     private String            state      = "IDLE";
+    /**
+     * Phase timings reported by {@link #run(Transaction, Map)} for the current execution, in nanoseconds.
+     */
+    private long              phaseBind    = 0L;
+    private long              phaseExecute = 0L;
+    private long              phaseFetch   = 0L;
+    private long              phaseHydrate = 0L;
+    private long              phaseRows    = -1L;
+    /**
+     * Set while this instance sits idle in its {@link ExecutionPool}.
+     */
+    final AtomicBoolean       pooled     = new AtomicBoolean(false);
+    /**
+     * The template that configured this instance, if any, which is also the pool it returns to.
+     */
+    ExecutionTemplate         template   = null;
     /**
      * The prepared statement that will execute the event.
      */
@@ -257,17 +265,14 @@ public abstract class Execution {
     }
     
     /**
-     * Closes out the event and returns it to the shared stack.
+     * Closes out the event and returns it to its pool.
      */
     public void close() {
         logger.debug("enter - close()");
         try {
             connection = null;
             data = null;        
-            synchronized( executions ) {
-                executions.add(this);
-                executions.notifyAll();
-            }
+            ExecutionPool.release(this);
         }
         finally {
             logger.debug("exit - close()");
@@ -339,8 +344,9 @@ public abstract class Execution {
             connection = trans.getConnection();
             data = args;
             try {
+                long start = System.nanoTime();
                 String sql = loadStatement(connection, args);
-                Map<String,Object> res;
+                Map<String,Object> res = null;
                 
                 if( logger.isDebugEnabled() ) {
                     logger.debug("Preparing: " + sql);
@@ -348,15 +354,22 @@ public abstract class Execution {
                 if( statementHolder != null ) {
                     statementHolder.append(sql);
                 }
-                statement = connection.prepareStatement(sql);
+                statement = trans.prepareStatement(sql);
+                boolean reusable = false;
+                long prepared = System.nanoTime();
+                
+                phaseBind = phaseExecute = phaseFetch = phaseHydrate = 0L;
+                phaseRows = -1L;
                 try {
                     logger.debug("And executing the prepared statement.");
                 
                     res = run(trans, args);
+                    reusable = true;
                 }
                 finally {
-                    try { statement.close(); statement = null; }
-                    catch( Throwable ignore ) { }
+                    trans.releaseStatement(sql, statement, reusable);
+                    statement = null;
+                    recordTiming(sql, args, start, prepared, res, !reusable);
                 }
                 if( logger.isDebugEnabled() ) {
                     logger.debug("RESULTS: " + res);
@@ -386,6 +399,163 @@ public abstract class Execution {
         }
     }
 
+    /**
+     * Records the timing of the statement just executed in the {@link StatementStatistics}. If
+     * {@link #run(Transaction, Map)} did not report its phases, all of the time it took counts as execution;
+     * otherwise binding parameters counts as preparation.
+     */
+    private void recordTiming(String sql, Map<String,Object> args, long start, long prepared, Map<String,Object> res, boolean failed) {
+        long prepare = prepared - start;
+        long execute = System.nanoTime() - prepared;
+        long rows = phaseRows;
+        
+        if( phaseRows >= 0L ) {
+            prepare += phaseBind;
+            execute = phaseExecute;
+        }
+        else if( res != null && res.get("count") instanceof Number ) {
+            rows = ((Number)res.get("count")).longValue();
+        }
+        StatementStatistics.record(getStatementEntity(), sql, args, prepare, execute, phaseFetch, phaseHydrate, Math.max(0L, rows), failed);
+    }
+    
+    /**
+     * Executes this event once for each set of parameters using JDBC batching. Consecutive rows that
+     * produce the same SQL share a batch; a row that produces different SQL, such as an update touching
+     * other columns, starts a new batch with its own statement.
+     * @param trans the transaction context
+     * @param rows the data for each execution of the event
+     * @param size the maximum number of rows per batch, or less than 1 for no limit
+     * @param statementHolder receives the SQL that was executed, may be null
+     * @return the update counts for each row
+     * @throws org.dasein.persist.PersistenceException an error occurred executing the batch
+     */
+    int[] executeBatchEvent(Transaction trans, List<Map<String,Object>> rows, int size, StringBuilder statementHolder) throws PersistenceException {
+        logger.debug("enter - executeBatch(Transaction, List)");
+        state = "EXECUTING";
+        try {
+            int[] counts = new int[rows.size()];
+            
+            if( rows.isEmpty() ) {
+                return counts;
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Getting connection from transaction: " + trans.getTransactionId());
+            }
+            connection = trans.getConnection();
+            if( size < 1 ) {
+                size = rows.size();
+            }
+            try {
+                String sql = loadStatement(connection, rows.get(0));
+                String previous = null;
+                int offset = 0;
+                
+                while( offset < rows.size() ) {
+                    String next = null;
+                    int end = offset + 1;
+                    
+                    while( end < rows.size() && end - offset < size ) {
+                        next = loadStatement(connection, rows.get(end));
+                        if( !next.equals(sql) ) {
+                            break;
+                        }
+                        next = null;
+                        end++;
+                    }
+                    executeBatch(trans, sql, rows.subList(offset, end), counts, offset, (sql.equals(previous) ? null : statementHolder));
+                    offset = end;
+                    previous = sql;
+                    if( offset < rows.size() ) {
+                        sql = (next == null ? loadStatement(connection, rows.get(offset)) : next);
+                    }
+                }
+                return counts;
+            }
+            catch( BatchUpdateException e ) {
+                logger.warn("Error executing batch after update counts " + Arrays.toString(e.getUpdateCounts()) + ": " + e.getMessage());
+                throw new PersistenceException(e);
+            }
+            catch( SQLException e ) {
+                logger.warn("Error executing batch: " + e.getMessage());
+                throw new PersistenceException(e);
+            }
+        }
+        finally {
+            state = "IDLE";
+            logger.debug("exit - executeBatch(Transaction, List)");
+        }
+    }
+    
+    private void executeBatch(Transaction trans, String sql, List<Map<String,Object>> chunk, int[] counts, int offset, StringBuilder statementHolder) throws PersistenceException, SQLException {
+        boolean reusable = false;
+        
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Preparing batch of " + chunk.size() + ": " + sql);
+        }
+        if( statementHolder != null ) {
+            if( statementHolder.length() > 0 ) {
+                statementHolder.append("\n");
+            }
+            statementHolder.append(sql);
+        }
+        long start = System.nanoTime();
+        
+        statement = trans.prepareStatement(sql);
+        long prepared = System.nanoTime();
+        
+        try {
+            int[] res;
+            
+            for( Map<String,Object> row : chunk ) {
+                data = row;
+                addBatch(trans, row);
+            }
+            res = statement.executeBatch();
+            System.arraycopy(res, 0, counts, offset, Math.min(res.length, chunk.size()));
+            for( Map<String,Object> row : chunk ) {
+                completeBatch(trans, row);
+            }
+            reusable = true;
+        }
+        finally {
+            trans.releaseStatement(sql, statement, reusable);
+            statement = null;
+            StatementStatistics.record(getStatementEntity(), sql, null, prepared - start, System.nanoTime() - prepared, 0L, 0L, chunk.size(), !reusable);
+        }
+    }
+    
+    /**
+     * Events that support JDBC batching should bind the specified parameters to
+     * {@link #statement} and add them to the current batch.
+     * @param xaction the transaction context
+     * @param params the data for one execution of the event
+     * @throws org.dasein.persist.PersistenceException this event does not support batching
+     * @throws java.sql.SQLException a JDBC error occurred binding the parameters
+     */
+    public void addBatch(Transaction xaction, Map<String,Object> params) throws PersistenceException, SQLException {
+        throw new PersistenceException(getClass().getName() + " does not support batch execution");
+    }
+    
+    /**
+     * Called for each row once the batch containing it has been executed so events may perform
+     * any follow-up work they would normally do at the end of {@link #run(Transaction, Map)}.
+     * @param xaction the transaction context
+     * @param params the data for one execution of the event
+     * @throws org.dasein.persist.PersistenceException a non-JDBC error occurred
+     * @throws java.sql.SQLException a JDBC error occurred
+     */
+    public void completeBatch(Transaction xaction, Map<String,Object> params) throws PersistenceException, SQLException {
+        // NO-OP
+    }
+    
+    /**
+     * @return true if this event implements {@link #addBatch(Transaction, Map)}
+     */
+    public boolean isBatchSupported() {
+        return false;
+    }
+    
     public Connection getConnection() {
         return connection;
     }
@@ -441,6 +611,33 @@ public abstract class Execution {
         
     }
     
+    /**
+     * Identifies the entity this event reads or writes, for looking up its slow query threshold in the
+     * {@link StatementStatistics}.
+     * @return the entity class name, or null to use the default threshold
+     */
+    protected String getStatementEntity() {
+        return null;
+    }
+    
+    /**
+     * Reports how the time spent in {@link #run(Transaction, Map)} divided into phases, for the
+     * {@link StatementStatistics}. Events that read result sets call this once per execution; other events
+     * need not call it.
+     * @param bind the time spent binding parameters to the statement, in nanoseconds
+     * @param execute the time spent executing the statement, in nanoseconds
+     * @param fetch the time spent reading rows from the result set, in nanoseconds
+     * @param hydrate the time spent converting column values and loading translations, in nanoseconds
+     * @param rows the number of rows read
+     */
+    protected void recordPhases(long bind, long execute, long fetch, long hydrate, long rows) {
+        phaseBind = bind;
+        phaseExecute = execute;
+        phaseFetch = fetch;
+        phaseHydrate = hydrate;
+        phaseRows = rows;
+    }
+    
     public boolean isReadOnly() {
         return false;
     }
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>
+ * Holds idle {@link Execution} instances for reuse, one lock-free queue per execution class or
+ * {@link ExecutionTemplate}. {@link Execution#getInstance(Class)}, templates, and {@link Transaction}
+ * take instances from here, and {@link Execution#close()} returns them immediately.
+ * </p>
+ * <p>
+ * The number of idle instances kept per class defaults to <code>dasein.persist.executionPool.size</code>
+ * in <i>dasein-persistence.properties</i> and may be overridden for an individual class with
+ * <code>dasein.persist.executionPool.size.CLASSNAME</code>. A size of 0 disables pooling.
+ * </p>
+ */
+public final class ExecutionPool {
+    static public final int DEFAULT_SIZE = 10;
+
+    static private final int                             defaultSize = Math.max(0, PersistenceConfig.getInt("dasein.persist.executionPool.size", null, DEFAULT_SIZE));
+    static private final AtomicLong                      discards    = new AtomicLong(0L);
+    static private final AtomicLong                      hits        = new AtomicLong(0L);
+    static private final AtomicLong                      misses      = new AtomicLong(0L);
+    static private final ConcurrentHashMap<Object,Pool>  pools       = new ConcurrentHashMap<Object,Pool>();
+
+    static private class Pool {
+        private final ConcurrentLinkedQueue<Execution> idle = new ConcurrentLinkedQueue<Execution>();
+        private final AtomicInteger                    size = new AtomicInteger(0);
+        private volatile int                           maxSize;
+
+        private Pool(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    static private Pool getPool(Class<?> cls) {
+        return getPool(cls, cls.getName());
+    }
+
+    static private Pool getPool(Object key, String name) {
+        Pool pool = pools.get(key);
+
+        if( pool == null ) {
+            int max = Math.max(0, PersistenceConfig.getInt("dasein.persist.executionPool.size", name, defaultSize));
+            Pool created = new Pool(max);
+            Pool current = pools.putIfAbsent(key, created);
+
+            pool = (current == null ? created : current);
+        }
+        return pool;
+    }
+
+    /**
+     * Provides an idle instance of the specified execution class, creating one if none is available.
+     * @param cls the execution class
+     * @return an instance ready for use
+     * @throws InstantiationException the class could not be instantiated
+     * @throws IllegalAccessException the class has no accessible no-arg constructor
+     */
+    static <T extends Execution> T acquire(@Nonnull Class<T> cls) throws InstantiationException, IllegalAccessException {
+        Pool pool = getPool(cls);
+        Execution event = pool.idle.poll();
+
+        if( event != null ) {
+            pool.size.decrementAndGet();
+            event.pooled.set(false);
+            hits.incrementAndGet();
+            return cls.cast(event);
+        }
+        misses.incrementAndGet();
+        return cls.newInstance();
+    }
+
+    /**
+     * Provides an idle instance configured by the specified template, creating one if none is available.
+     * @param template the template describing the execution
+     * @return an instance ready for use
+     * @throws PersistenceException the template could not create an instance
+     */
+    static Execution acquire(@Nonnull ExecutionTemplate template) throws PersistenceException {
+        Pool pool = getPool(template, template.getName());
+        Execution event = pool.idle.poll();
+
+        if( event != null ) {
+            pool.size.decrementAndGet();
+            event.pooled.set(false);
+            hits.incrementAndGet();
+            return event;
+        }
+        misses.incrementAndGet();
+        event = template.create();
+        event.template = template;
+        return event;
+    }
+
+    /**
+     * Returns an execution to its pool. Executions already in the pool and executions in excess
+     * of the configured size are ignored.
+     * @param event the execution to return
+     */
+    static void release(@Nonnull Execution event) {
+        if( !event.pooled.compareAndSet(false, true) ) {
+            return;
+        }
+        ExecutionTemplate template = event.template;
+
+        if( template != null && template.isRetired() ) {
+            discards.incrementAndGet();
+            return;
+        }
+        Pool pool = (template == null ? getPool(event.getClass()) : getPool(template, template.getName()));
+
+        if( pool.size.incrementAndGet() > pool.maxSize ) {
+            pool.size.decrementAndGet();
+            discards.incrementAndGet();
+            return;
+        }
+        pool.idle.offer(event);
+        if( template != null && template.isRetired() ) {
+            // retired while this event was being returned
+            discard(template);
+        }
+    }
+
+    /**
+     * Discards the idle executions of a template and forgets its pool.
+     * @param template the template whose executions are no longer wanted
+     */
+    static void discard(@Nonnull ExecutionTemplate template) {
+        Pool pool = pools.remove(template);
+
+        if( pool != null ) {
+            discards.addAndGet(pool.size.getAndSet(0));
+            pool.idle.clear();
+        }
+    }
+
+    /**
+     * Changes the number of idle instances kept for the specified execution class.
+     * @param cls the execution class
+     * @param maxSize the new maximum, 0 to disable pooling for that class
+     */
+    static public void setMaxSize(@Nonnull Class<? extends Execution> cls, int maxSize) {
+        getPool(cls).maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * @param cls the execution class
+     * @return the maximum number of idle instances kept for that class
+     */
+    static public int getMaxSize(@Nonnull Class<? extends Execution> cls) {
+        return getPool(cls).maxSize;
+    }
+
+    /**
+     * @return the number of idle executions currently pooled across all classes
+     */
+    static public int getIdleCount() {
+        int count = 0;
+
+        for( Pool pool : pools.values() ) {
+            count += pool.size.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of execution requests served from a pool
+     */
+    static public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of execution requests that required a new instance
+     */
+    static public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of execution requests served from a pool, 0.0 if none have been made
+     */
+    static public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return (total == 0L ? 0.0 : ((double)h)/total);
+    }
+
+    /**
+     * @return the number of executions dropped because their pool was full or their template was retired
+     */
+    static public long getDiscards() {
+        return discards.get();
+    }
+
+    private ExecutionPool() { }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>
+ * Produces configured {@link Execution} instances for a single statement, such as a search on a
+ * particular set of fields. Where an execution class bakes its configuration into its constructor,
+ * a template configures stock executions from data, so new statements need no new classes.
+ * </p>
+ * <p>
+ * Instances are pooled per template by {@link ExecutionPool} just as executions are pooled per
+ * class, so a template should be created once and kept for as long as its statement is in use.
+ * The pool size for a template may be set with <code>dasein.persist.executionPool.size.NAME</code>.
+ * </p>
+ */
+public abstract class ExecutionTemplate {
+    /**
+     * Provides a template that simply instantiates the specified execution class.
+     * @param cls the execution class
+     * @return a template for that class
+     */
+    static public @Nonnull ExecutionTemplate forClass(@Nonnull final Class<? extends Execution> cls) {
+        return new ExecutionTemplate(cls.getName()) {
+            @Override
+            protected Execution create() throws PersistenceException {
+                throw new PersistenceException("Instances of " + cls.getName() + " are not created by a template");
+            }
+
+            @Override
+            public Execution newInstance() throws PersistenceException {
+                try {
+                    return ExecutionPool.acquire(cls);
+                }
+                catch( InstantiationException e ) {
+                    throw new PersistenceException(e);
+                }
+                catch( IllegalAccessException e ) {
+                    throw new PersistenceException(e);
+                }
+            }
+        };
+    }
+
+    private final String     name;
+    private volatile boolean retired = false;
+
+    /**
+     * Constructs a template.
+     * @param name a name identifying the statement this template produces, used in logging and configuration
+     */
+    public ExecutionTemplate(@Nonnull String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates and configures a new execution for this template's statement. Pooled instances are
+     * reused, so this is only called when the pool is empty.
+     * @return a new execution
+     * @throws PersistenceException the execution could not be created
+     */
+    protected abstract Execution create() throws PersistenceException;
+
+    /**
+     * @return the name identifying this template's statement
+     */
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if this template has been {@link #retire() retired}
+     */
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Provides an execution ready to run, from the pool if possible.
+     * @return an execution for this template's statement
+     * @throws PersistenceException no execution could be created
+     */
+    public Execution newInstance() throws PersistenceException {
+        return ExecutionPool.acquire(this);
+    }
+
+    /**
+     * Stops pooling executions of this template, for when the configuration it captured has changed.
+     * Idle executions are discarded at once and executions in use are discarded when closed.
+     */
+    public void retire() {
+        retired = true;
+        ExecutionPool.discard(this);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
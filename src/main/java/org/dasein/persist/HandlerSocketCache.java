@@ -40,7 +40,6 @@ import org.dasein.util.CachedItem;
 import org.dasein.util.Jiterator;
 import org.dasein.util.JiteratorFilter;
 import org.dasein.util.JiteratorPopulator;
-import org.dasein.util.PopulatorThread;
 import org.dasein.util.Translator;
 
 import com.google.code.hs4j.FindOperator;
@@ -156,9 +155,7 @@ public class HandlerSocketCache<T extends CachedItem> extends PersistentCache<T>
 			Boolean orderDesc, String... orderFields)
 			throws PersistenceException {
 
-		PopulatorThread<T> populator;
-
-		populator = new PopulatorThread<T>(new JiteratorPopulator<T>() {
+		return LoaderExecutor.getInstance().populate(getTarget().getName() + ".find", null, new JiteratorPopulator<T>() {
 			public void populate(Jiterator<T> iterator) throws PersistenceException {
 				ResultSet rs = null;
 				try {             
@@ -202,8 +199,6 @@ public class HandlerSocketCache<T extends CachedItem> extends PersistentCache<T>
 				}
 			}
 		});
-		populator.populate();
-		return populator.getResult();
 	}
 
 	@Override
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies or row counts. Values are counted in
+ * buckets by powers of two, so recording is a few atomic adds and percentiles are accurate to within a
+ * factor of two, which is enough to tell a 1 ms query from a 100 ms one.
+ */
+public final class Histogram {
+    static private final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder       count   = new LongAdder();
+    private final AtomicLong      max     = new AtomicLong(0L);
+    private final LongAdder       sum     = new LongAdder();
+
+    public Histogram() { }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the largest value recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, 0.0 if none have been recorded
+     */
+    public double getMean() {
+        long n = count.sum();
+
+        return (n == 0L ? 0.0 : ((double)sum.sum())/n);
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket that contains it.
+     * @param percentile the percentile, from 0.0 to 100.0
+     * @return the estimated value, never more than the largest value recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0L;
+
+        for( int i=0; i<BUCKETS; i++ ) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if( total == 0L ) {
+            return 0L;
+        }
+        long rank = (long)Math.ceil((Math.min(100.0, Math.max(0.0, percentile))/100.0) * total);
+        long seen = 0L;
+
+        for( int i=0; i<BUCKETS; i++ ) {
+            seen += counts[i];
+            if( seen >= rank && counts[i] > 0L ) {
+                long upper = (i == 63 ? Long.MAX_VALUE : (1L << i) - 1L);
+
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the sum of the values recorded
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if( value < 0L ) {
+            value = 0L;
+        }
+        // bucket i holds values from 2^(i-1) to 2^i - 1, with 0 alone in bucket 0
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+
+        while( value > current && !max.compareAndSet(current, value) ) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Discards all recorded values. Values recorded while the reset is in progress may be partly kept.
+     */
+    public void reset() {
+        for( int i=0; i<BUCKETS; i++ ) {
+            buckets.set(i, 0L);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "[count=" + getCount() + ",mean=" + getMean() + ",p50=" + getPercentile(50.0) + ",p99=" + getPercentile(99.0) + ",max=" + getMax() + "]";
+    }
+}
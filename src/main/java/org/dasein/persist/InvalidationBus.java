@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Carries cache invalidations between the nodes of a cluster so that an object changed on one node
+ * is dropped from the entity caches of the others. Persistent caches publish the primary key of every
+ * object they create, update, or remove once the governing transaction commits, and evict the keys
+ * published by other nodes. A change that cannot be narrowed to keys, such as a removal by search
+ * terms, invalidates the whole entity.
+ * </p>
+ * <p>
+ * Published keys are held briefly and sent in batches, with repeated keys sent once. Transports extend
+ * this class, implement {@link #send(String, Map)}, and pass what they receive from other nodes to
+ * {@link #deliver(String, Map)}. The bus is selected in <i>dasein-persistence.properties</i>:
+ * </p>
+ * <pre>
+ * dasein.persist.invalidation.bus=loopback|CLASSNAME
+ * dasein.persist.invalidation.delay=50
+ * dasein.persist.invalidation.batchSize=500
+ * </pre>
+ * <p>
+ * There is no bus unless one is configured. {@link LoopbackInvalidationBus} connects the buses within
+ * a single JVM and is meant for tests. Custom transports provide a public no-arg constructor.
+ * </p>
+ */
+public abstract class InvalidationBus {
+    static private final Logger logger = Logger.getLogger(InvalidationBus.class);
+
+    /**
+     * The key that stands for every object of an entity.
+     */
+    static public final String ALL = "*";
+
+    /**
+     * Receives the invalidations delivered from other nodes for one entity.
+     */
+    static public interface Listener {
+        /**
+         * Drops the specified objects from memory.
+         * @param entity the entity class name
+         * @param keys the string forms of the primary keys to drop, or a set containing only {@link InvalidationBus#ALL} to drop every object
+         */
+        public void invalidate(@Nonnull String entity, @Nonnull Set<String> keys);
+    }
+
+    static private volatile InvalidationBus instance   = null;
+    static private boolean                  configured = false;
+    static private long                     delay      = 50L;
+    static private int                      batchSize  = 500;
+
+    /**
+     * Provides the shared bus, creating it from the configuration on first use.
+     * @return the shared bus, or null if none is configured
+     */
+    static public @Nullable InvalidationBus getInstance() {
+        InvalidationBus bus = instance;
+
+        if( bus == null && !configured ) {
+            synchronized( InvalidationBus.class ) {
+                if( !configured ) {
+                    instance = load();
+                    configured = true;
+                }
+                bus = instance;
+            }
+        }
+        return bus;
+    }
+
+    /**
+     * Replaces the shared bus. Caches created afterwards subscribe to the new bus; existing caches remain
+     * subscribed to the bus they started with. The previous bus is flushed and closed.
+     * @param bus the bus to use, or null for none
+     */
+    static public void setInstance(@Nullable InvalidationBus bus) {
+        InvalidationBus old;
+
+        synchronized( InvalidationBus.class ) {
+            old = instance;
+            instance = bus;
+            configured = true;
+        }
+        if( old != null && old != bus ) {
+            old.close();
+        }
+    }
+
+    static private InvalidationBus load() {
+        String type = PersistenceConfig.getProperty("dasein.persist.invalidation.bus");
+
+        delay = Math.max(1L, PersistenceConfig.getLong("dasein.persist.invalidation.delay", null, 50L));
+        batchSize = Math.max(1, PersistenceConfig.getInt("dasein.persist.invalidation.batchSize", null, 500));
+        if( type == null ) {
+            return null;
+        }
+        if( type.equalsIgnoreCase("loopback") ) {
+            return new LoopbackInvalidationBus();
+        }
+        try {
+            return (InvalidationBus)Class.forName(type).newInstance();
+        }
+        catch( Exception e ) {
+            logger.error("Unable to load invalidation bus " + type + ", caches will not be invalidated across nodes: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private ScheduledFuture<?>                             flusher      = null;
+    private final ConcurrentHashMap<String,List<Listener>> listeners    = new ConcurrentHashMap<String,List<Listener>>();
+    private final String                                   nodeId       = UUID.randomUUID().toString();
+    private final LinkedHashMap<String,Set<String>>        pending      = new LinkedHashMap<String,Set<String>>();
+    private int                                            pendingCount = 0;
+    private final AtomicLong                               received     = new AtomicLong(0L);
+    private final AtomicLong                               sent         = new AtomicLong(0L);
+
+    public InvalidationBus() { }
+
+    /**
+     * Sends all pending invalidations and stops sending on a schedule.
+     */
+    public void close() {
+        synchronized( pending ) {
+            if( flusher != null ) {
+                flusher.cancel(false);
+                flusher = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Hands invalidations received from a node to the local listeners. Invalidations that
+     * originated on this node are ignored.
+     * @param origin the node ID of the sender
+     * @param batch the invalidated keys grouped by entity class name
+     */
+    protected void deliver(@Nonnull String origin, @Nonnull Map<String,Set<String>> batch) {
+        if( origin.equals(nodeId) ) {
+            return;
+        }
+        for( Map.Entry<String,Set<String>> entry : batch.entrySet() ) {
+            List<Listener> list = listeners.get(entry.getKey());
+
+            received.addAndGet(entry.getValue().size());
+            if( list != null ) {
+                Set<String> keys = Collections.unmodifiableSet(entry.getValue());
+
+                for( Listener listener : list ) {
+                    try {
+                        listener.invalidate(entry.getKey(), keys);
+                    }
+                    catch( Throwable t ) {
+                        logger.error("Invalidation of " + entry.getKey() + " failed: " + t.getMessage(), t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the pending invalidations now rather than waiting for the next scheduled flush.
+     */
+    public void flush() {
+        Map<String,Set<String>> batch;
+
+        synchronized( pending ) {
+            if( pending.isEmpty() ) {
+                return;
+            }
+            batch = new LinkedHashMap<String,Set<String>>(pending);
+            pending.clear();
+            pendingCount = 0;
+        }
+        int count = 0;
+
+        for( Set<String> keys : batch.values() ) {
+            count += keys.size();
+        }
+        try {
+            send(nodeId, batch);
+            sent.addAndGet(count);
+        }
+        catch( Throwable t ) {
+            logger.error("Unable to send " + count + " invalidations: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * @return the ID that identifies this node to the other nodes on the bus
+     */
+    public @Nonnull String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return the number of keys received from other nodes
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * @return the number of keys sent to other nodes, after coalescing
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Queues the invalidation of an object for the other nodes.
+     * @param entity the entity class name
+     * @param keyValue the primary key of the changed object, or null if every object of the entity may have changed
+     */
+    public void publish(@Nonnull String entity, @Nullable Object keyValue) {
+        boolean full;
+
+        synchronized( pending ) {
+            Set<String> keys = pending.get(entity);
+
+            if( keys == null ) {
+                keys = new LinkedHashSet<String>();
+                pending.put(entity, keys);
+            }
+            if( keyValue == null ) {
+                pendingCount -= keys.size();
+                keys.clear();
+                keys.add(ALL);
+                pendingCount++;
+            }
+            else if( !keys.contains(ALL) && keys.add(keyValue.toString()) ) {
+                pendingCount++;
+            }
+            full = (pendingCount >= batchSize);
+            // the flusher is done if the maintenance scheduler was shut down since it was scheduled
+            if( !full && (flusher == null || flusher.isDone()) ) {
+                flusher = MaintenanceScheduler.getInstance().schedule("Invalidation Flush", new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                }, delay);
+            }
+        }
+        if( full ) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends a batch of invalidations to the other nodes.
+     * @param origin the node ID of this node, which receivers pass to {@link #deliver(String, Map)}
+     * @param batch the invalidated keys grouped by entity class name, with {@link #ALL} standing for every object
+     * @throws PersistenceException the batch could not be sent
+     */
+    protected abstract void send(@Nonnull String origin, @Nonnull Map<String,Set<String>> batch) throws PersistenceException;
+
+    /**
+     * Registers a listener for invalidations of an entity from other nodes.
+     * @param entity the entity class name
+     * @param listener the listener to notify
+     */
+    public void subscribe(@Nonnull String entity, @Nonnull Listener listener) {
+        List<Listener> list = listeners.get(entity);
+
+        if( list == null ) {
+            List<Listener> created = new CopyOnWriteArrayList<Listener>();
+
+            list = listeners.putIfAbsent(entity, created);
+            if( list == null ) {
+                list = created;
+            }
+        }
+        list.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with {@link #subscribe(String, Listener)}.
+     * @param entity the entity class name
+     * @param listener the listener to remove
+     */
+    public void unsubscribe(@Nonnull String entity, @Nonnull Listener listener) {
+        List<Listener> list = listeners.get(entity);
+
+        if( list != null ) {
+            list.remove(listener);
+        }
+    }
+}
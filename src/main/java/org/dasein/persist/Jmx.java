@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.lang.management.ManagementFactory;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registers the library's MBeans with the platform MBean server unless <code>dasein.persist.jmx=false</code>
+ * is set in <i>dasein-persistence.properties</i>.
+ */
+final class Jmx {
+    static private final Logger logger = Logger.getLogger(Jmx.class);
+
+    static private final boolean enabled = PersistenceConfig.getBoolean("dasein.persist.jmx", null, true);
+
+    /**
+     * Builds an object name in the <code>org.dasein.persist</code> domain.
+     * @param type the type of MBean
+     * @param name the name of the MBean, quoted if it contains characters not allowed in an object name
+     * @return the object name
+     * @throws PersistenceException the name could not be turned into an object name
+     */
+    static @Nonnull ObjectName getObjectName(@Nonnull String type, @Nonnull String name) throws PersistenceException {
+        try {
+            return new ObjectName("org.dasein.persist:type=" + type + ",name=" + name);
+        }
+        catch( Exception e ) {
+            try {
+                return new ObjectName("org.dasein.persist:type=" + type + ",name=" + ObjectName.quote(name));
+            }
+            catch( Exception again ) {
+                throw new PersistenceException(again);
+            }
+        }
+    }
+
+    /**
+     * Registers an MBean, replacing any already registered under the same name. Failures are logged.
+     * @param bean the MBean
+     * @param name the object name to register it under
+     */
+    static void register(@Nonnull Object bean, @Nonnull ObjectName name) {
+        if( !enabled ) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            if( server.isRegistered(name) ) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        }
+        catch( Throwable t ) {
+            logger.warn("Unable to register " + name + " with JMX: " + t.getMessage());
+        }
+    }
+
+    private Jmx() { }
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.util.CursorPopulator;
+import org.dasein.util.ForwardCursor;
+import org.dasein.util.JitCollection;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorFilter;
+import org.dasein.util.JiteratorPopulator;
+
+/**
+ * <p>
+ * Runs the background work that feeds query results to callers for every persistent cache
+ * implementation. The executor is shared library-wide and is selected through
+ * <i>dasein-persistence.properties</i>:
+ * </p>
+ * <pre>
+ * dasein.persist.loader.executor=pool|virtual|CLASSNAME
+ * dasein.persist.loader.threads=32
+ * dasein.persist.loader.queueSize=1000
+ * dasein.persist.loader.inlineThreshold=16
+ * </pre>
+ * <p>
+ * The default, {@link PooledLoaderExecutor}, is a bounded pool. When it is saturated, work submitted
+ * through {@link #execute(Runnable)} runs on the calling thread rather than spawning a new thread.
+ * {@link VirtualThreadLoaderExecutor} is used when <code>virtual</code> is requested and the JVM
+ * supports virtual threads. Custom implementations extend this class and provide a public no-arg constructor.
+ * </p>
+ */
+public abstract class LoaderExecutor {
+    static private final Logger logger = Logger.getLogger(LoaderExecutor.class);
+
+    static private volatile LoaderExecutor instance;
+    static private int                     inlineThreshold = 16;
+
+    /**
+     * Provides the shared loader executor, creating it from the configuration on first use.
+     * @return the shared loader executor
+     */
+    static public @Nonnull LoaderExecutor getInstance() {
+        LoaderExecutor executor = instance;
+
+        if( executor == null ) {
+            synchronized( LoaderExecutor.class ) {
+                executor = instance;
+                if( executor == null ) {
+                    executor = load();
+                    instance = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Replaces the shared loader executor. The previous executor is shut down once its queued work completes.
+     * @param executor the executor to use for all subsequent loads
+     */
+    static public void setInstance(@Nonnull LoaderExecutor executor) {
+        LoaderExecutor old;
+
+        synchronized( LoaderExecutor.class ) {
+            old = instance;
+            instance = executor;
+        }
+        if( old != null && old != executor ) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of rows at or below which results are pushed on the calling thread
+     */
+    static public int getInlineThreshold() {
+        getInstance();
+        return inlineThreshold;
+    }
+
+    static private LoaderExecutor load() {
+        Properties props = PersistenceConfig.getProperties();
+        String type = PersistenceConfig.getString("dasein.persist.loader.executor", null, "pool");
+
+        inlineThreshold = PersistenceConfig.getInt("dasein.persist.loader.inlineThreshold", null, 16);
+        LoaderExecutor executor;
+
+        if( type.equalsIgnoreCase("virtual") ) {
+            executor = null;
+            if( VirtualThreadLoaderExecutor.isSupported() ) {
+                try {
+                    executor = new VirtualThreadLoaderExecutor();
+                }
+                catch( RuntimeException e ) {
+                    logger.warn("Unable to create a virtual thread loader executor, using a pooled loader executor: " + e.getMessage());
+                }
+            }
+            else {
+                logger.warn("Virtual threads are not supported by this JVM, using a pooled loader executor");
+            }
+            if( executor == null ) {
+                executor = new PooledLoaderExecutor();
+            }
+        }
+        else if( type.equalsIgnoreCase("pool") ) {
+            executor = new PooledLoaderExecutor();
+        }
+        else {
+            try {
+                executor = (LoaderExecutor)Class.forName(type).newInstance();
+            }
+            catch( Exception e ) {
+                logger.error("Unable to create loader executor " + type + ", using a pooled loader executor: " + e.getMessage());
+                executor = new PooledLoaderExecutor();
+            }
+        }
+        executor.init(props);
+        if( logger.isInfoEnabled() ) {
+            logger.info("Using loader executor " + executor);
+        }
+        return executor;
+    }
+
+    private final AtomicLong completed = new AtomicLong(0L);
+    private final AtomicLong failed    = new AtomicLong(0L);
+    private final AtomicLong inline    = new AtomicLong(0L);
+    private final AtomicLong overflow  = new AtomicLong(0L);
+    private final AtomicLong submitted = new AtomicLong(0L);
+
+    /**
+     * Configures this executor from <i>dasein-persistence.properties</i>.
+     * @param props the configuration properties
+     */
+    protected void init(@Nonnull Properties props) {
+        // NO-OP
+    }
+
+    /**
+     * Hands a task to the underlying threads.
+     * @param task the task to run
+     * @return false if the executor has no capacity for the task
+     */
+    protected abstract boolean dispatch(@Nonnull Runnable task);
+
+    /**
+     * Runs the specified task in the background if capacity allows, otherwise on the calling thread.
+     * @param task the task to run
+     */
+    public void execute(@Nonnull Runnable task) {
+        Runnable r = track(task);
+
+        submitted.incrementAndGet();
+        if( !dispatch(r) ) {
+            inline.incrementAndGet();
+            r.run();
+        }
+    }
+
+    /**
+     * Runs the specified task on a thread other than the caller's. Use this for producers that may block
+     * waiting on the caller. If the executor is saturated, the task gets a dedicated daemon thread.
+     * @param task the task to run
+     */
+    public void executeDetached(@Nonnull Runnable task) {
+        Runnable r = track(task);
+
+        submitted.incrementAndGet();
+        if( !dispatch(r) ) {
+            Thread t = new Thread(r);
+
+            overflow.incrementAndGet();
+            t.setName("Loader (overflow)");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Populates a collection in the background, replacing {@link org.dasein.util.PopulatorThread}.
+     * @param name a name for the resulting collection used in diagnostics
+     * @param filter an optional filter for the items pushed by the populator
+     * @param populator the logic that pushes items into the collection
+     * @return a collection that fills as the populator pushes items
+     */
+    public <T> Collection<T> populate(@Nonnull String name, @Nullable JiteratorFilter<T> filter, @Nonnull JiteratorPopulator<T> populator) {
+        return populate(name, filter, populator, -1);
+    }
+
+    /**
+     * Populates a collection of a known size in the background.
+     * @param name a name for the resulting collection used in diagnostics
+     * @param filter an optional filter for the items pushed by the populator
+     * @param populator the logic that pushes items into the collection
+     * @param size the number of items the populator will push, or -1 if unknown
+     * @return a collection that fills as the populator pushes items
+     */
+    public <T> Collection<T> populate(@Nonnull String name, @Nullable JiteratorFilter<T> filter, @Nonnull final JiteratorPopulator<T> populator, int size) {
+        final Jiterator<T> it = new Jiterator<T>(filter);
+        JitCollection<T> items = new JitCollection<T>(it, name);
+
+        if( size > -1 ) {
+            items.setSize(size);
+        }
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    populator.populate(it);
+                    it.complete();
+                }
+                catch( Exception e ) {
+                    it.setLoadException(e);
+                }
+                catch( Throwable t ) {
+                    it.setLoadException(new RuntimeException(t));
+                }
+            }
+        });
+        return items;
+    }
+
+    /**
+     * Populates a forward cursor in the background, replacing {@link CursorPopulator#populate()}.
+     * @param populator the logic that pushes items into its cursor
+     * @return the cursor being populated
+     */
+    public <T> ForwardCursor<T> populate(@Nonnull final CursorPopulator<T> populator) {
+        final ForwardCursor<T> cursor = populator.getCursor();
+
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    populator.populate(cursor);
+                    cursor.complete();
+                }
+                catch( Throwable t ) {
+                    cursor.error(t);
+                }
+            }
+        });
+        return cursor;
+    }
+
+    private Runnable track(final Runnable task) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                    completed.incrementAndGet();
+                }
+                catch( RuntimeException e ) {
+                    failed.incrementAndGet();
+                    logger.error("Loader task failed: " + e.getMessage(), e);
+                }
+                catch( Error e ) {
+                    failed.incrementAndGet();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Stops accepting new work. Queued work is allowed to finish.
+     */
+    public abstract void shutdown();
+
+    /**
+     * @return the number of tasks currently running, or -1 if unknown
+     */
+    public int getActiveCount() {
+        return -1;
+    }
+
+    /**
+     * @return the number of tasks that finished normally
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of tasks that ended with an uncaught exception
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of tasks run on the calling thread because the executor was saturated
+     */
+    public long getInlineCount() {
+        return inline.get();
+    }
+
+    /**
+     * @return the number of detached tasks that needed a dedicated thread because the executor was saturated
+     */
+    public long getOverflowCount() {
+        return overflow.get();
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread, or -1 if unknown
+     */
+    public int getQueueSize() {
+        return -1;
+    }
+
+    /**
+     * @return the total number of tasks submitted
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[submitted=" + getSubmittedCount() + ",completed=" + getCompletedCount() +
+                ",failed=" + getFailedCount() + ",inline=" + getInlineCount() + ",overflow=" + getOverflowCount() +
+                ",active=" + getActiveCount() + ",queued=" + getQueueSize() + "]";
+    }
+}
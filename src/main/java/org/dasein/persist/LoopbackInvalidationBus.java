@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An invalidation bus that delivers each batch to every other open loopback bus in the same JVM, as if
+ * each bus were a separate node. It is meant for tests: create one bus per simulated node, subscribe
+ * listeners to each, and {@link #flush()} to deliver immediately.
+ */
+public class LoopbackInvalidationBus extends InvalidationBus {
+    static private final CopyOnWriteArrayList<LoopbackInvalidationBus> nodes = new CopyOnWriteArrayList<LoopbackInvalidationBus>();
+
+    public LoopbackInvalidationBus() {
+        nodes.add(this);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        nodes.remove(this);
+    }
+
+    @Override
+    protected void send(@Nonnull String origin, @Nonnull Map<String,Set<String>> batch) {
+        for( LoopbackInvalidationBus node : nodes ) {
+            // each node gets its own copy, as it would from a real transport
+            LinkedHashMap<String,Set<String>> copy = new LinkedHashMap<String,Set<String>>();
+
+            for( Map.Entry<String,Set<String>> entry : batch.entrySet() ) {
+                copy.put(entry.getKey(), new LinkedHashSet<String>(entry.getValue()));
+            }
+            node.deliver(origin, copy);
+        }
+    }
+}
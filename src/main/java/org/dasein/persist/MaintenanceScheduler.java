@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Runs the library's periodic housekeeping on a small pool of daemon threads: cache expiry, the
+ * transaction maid, connection reporting, and sequencer prefetch. The pool is shared library-wide in
+ * place of a dedicated thread per task. Its size is set in <i>dasein-persistence.properties</i>:
+ * </p>
+ * <pre>
+ * dasein.persist.maintenance.threads=2
+ * </pre>
+ * <p>
+ * Each task first runs after a random fraction of its period, so tasks registered together, such as
+ * the flushes for every entity cache, are spread across the period instead of running at once.
+ * Applications running in a container should call {@link #shutdown()} when they are undeployed.
+ * Shutting down cancels every scheduled task, so callers that hold on to a task can check
+ * {@link ScheduledFuture#isDone()} and schedule it again on the fresh scheduler.
+ * </p>
+ */
+public final class MaintenanceScheduler {
+    static private final Logger logger = Logger.getLogger(MaintenanceScheduler.class);
+
+    static private MaintenanceScheduler instance = null;
+
+    /**
+     * Provides the shared scheduler, starting it on first use or after a shutdown.
+     * @return the shared scheduler
+     */
+    static public synchronized @Nonnull MaintenanceScheduler getInstance() {
+        if( instance == null ) {
+            instance = new MaintenanceScheduler(getThreads());
+        }
+        return instance;
+    }
+
+    static private int getThreads() {
+        return Math.max(1, PersistenceConfig.getInt("dasein.persist.maintenance.threads", null, 2));
+    }
+
+    /**
+     * Stops all maintenance. Every scheduled task is cancelled, running tasks are interrupted, and no
+     * further tasks run until {@link #getInstance()} is next called, which starts a fresh scheduler.
+     */
+    static public void shutdown() {
+        MaintenanceScheduler scheduler;
+
+        synchronized( MaintenanceScheduler.class ) {
+            scheduler = instance;
+            instance = null;
+        }
+        if( scheduler != null ) {
+            logger.info("Shutting down the Dasein maintenance scheduler");
+            // a periodic task that is running during shutdownNow() is dropped without being cancelled
+            for( ScheduledFuture<?> task : scheduler.tasks ) {
+                task.cancel(false);
+            }
+            scheduler.tasks.clear();
+            scheduler.executor.shutdownNow();
+            try {
+                if( !scheduler.executor.awaitTermination(5L, TimeUnit.SECONDS) ) {
+                    logger.warn("Maintenance tasks did not stop within 5 seconds");
+                }
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Set<ScheduledFuture<?>>     tasks = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledFuture<?>,Boolean>());
+
+    private MaintenanceScheduler(int threads) {
+        final AtomicInteger count = new AtomicInteger(0);
+
+        executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("Dasein Maintenance-" + count.incrementAndGet());
+                t.setPriority(Thread.MIN_PRIORITY + 1);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Runs a task repeatedly with the specified delay between the end of one run and the start of the
+     * next. The first run happens after a random delay of up to one period. A run that fails is logged
+     * and does not stop later runs.
+     * @param name a name for the task, used in log messages
+     * @param task the task to run
+     * @param period the delay between runs, in milliseconds
+     * @return a handle for cancelling the task
+     */
+    public @Nonnull ScheduledFuture<?> schedule(@Nonnull final String name, @Nonnull final Runnable task, long period) {
+        long delay = ThreadLocalRandom.current().nextLong(Math.max(1L, period));
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Scheduling " + name + " every " + period + " ms starting in " + delay + " ms");
+        }
+        ScheduledFuture<?> future = executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                }
+                catch( Throwable t ) {
+                    logger.error("Maintenance task " + name + " failed: " + t.getMessage(), t);
+                }
+            }
+        }, delay, period, TimeUnit.MILLISECONDS);
+        Iterator<ScheduledFuture<?>> it = tasks.iterator();
+
+        while( it.hasNext() ) {
+            if( it.next().isDone() ) {
+                it.remove();
+            }
+        }
+        tasks.add(future);
+        return future;
+    }
+}
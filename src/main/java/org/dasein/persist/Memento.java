@@ -21,8 +21,6 @@
 package org.dasein.persist;
 
 // J2SE imports
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -76,59 +74,17 @@ public class Memento<K> {
     public void load(Map<String, Object> data) throws PersistenceException {
         logger.debug("enter - load(Map)");
         try {
-            for( String key : data.keySet() ) {
-                Class<?> cls = persistent.getClass();
-                Object val = data.get(key);
-                Field f = null;
+            EntityMetadata md = EntityMetadata.getInstance(persistent.getClass());
+            
+            for( Map.Entry<String,Object> entry : data.entrySet() ) {
+                String key = entry.getKey();
+                EntityMetadata.Property p = md.getProperty(key);
                 
-                while( f == null ) {
-                    try {
-                        f = cls.getDeclaredField(key);
-                    }
-                    catch( NoSuchFieldException ignore ) {
-                        // ignore
-                    }
-                    if( f == null ) {
-                        cls = cls.getSuperclass();
-                        if( cls == null || cls.getName().equals(Object.class.getName()) ) {
-                            break;
-                        }
-                    }
-                }
-                if( f == null ) {
+                if( p == null ) {
                     logger.debug("No such field: " + key);
                     continue;
                 }
-                try {
-                    f.setAccessible(true);
-                    f.set(persistent, val);
-                }
-                catch( IllegalAccessException e ) {
-                    String msg = "Error setting value for " + key + ":\n";
-                    
-                    if( val == null ) {
-                        msg = msg + " (null)";
-                    }
-                    else {
-                        msg = msg + " (" + val + ":" +
-                            val.getClass().getName() + ")";
-                    }
-                    msg = msg + ":\n" + e.getClass().getName() + ":\n";
-                    throw new PersistenceException(msg + e.getMessage());
-                }
-                catch( IllegalArgumentException e ) {
-                    String msg = "Error setting value for " + key;
-
-                    if( val == null ) {
-                        msg = msg + " (null)";
-                    }
-                    else {
-                        msg = msg + " (" + val + ":" +
-                            val.getClass().getName() + ")";
-                    }
-                    msg = msg + ":\n" + e.getClass().getName() + ":\n";
-                    throw new PersistenceException(msg + e.getMessage());
-                }
+                p.set(persistent, entry.getValue());
             }
         }
         finally {
@@ -146,30 +102,14 @@ public class Memento<K> {
     public void save(Map<String, Object> data) throws PersistenceException {
         logger.debug("enter - save(Map)");
         try {
-            Class<?> cls = persistent.getClass();
-            
             state = new HashMap<String, Object>();
-            while( cls != null && !cls.getName().equals(Object.class.getName()) ) {
-                Field[] fields = cls.getDeclaredFields();
-                
-                for( Field f : fields ) {
-                    int m = f.getModifiers();
-                
-                    if( Modifier.isTransient(m) || Modifier.isStatic(m) ) {
-                        continue;
-                    }
-                    f.setAccessible(true);
-                    state.put(f.getName(), f.get(persistent));
-                }
-                cls = cls.getSuperclass();
+            for( EntityMetadata.Property p : EntityMetadata.getInstance(persistent.getClass()).getPersistentProperties() ) {
+                state.put(p.getName(), p.get(persistent));
             }
             for( String key: data.keySet() ) {
                 state.put(key, data.get(key));
             }
         }
-        catch( IllegalAccessException e ) {
-            throw new PersistenceException(e.getMessage());
-        }
         finally {
             logger.debug("exit - save(Map)");
         }
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.util.CacheLoader;
+import org.dasein.util.ConcurrentMultiCache;
+import org.dasein.util.MapLoader;
+
+/**
+ * An entity cache that records its lookups in a {@link CacheStatistics}. A lookup with a loader counts as a
+ * hit if the object was already in memory and as a load otherwise. Lookups without a loader and the caching
+ * of objects read by searches are not counted.
+ */
+public class MonitoredMultiCache<T> extends ConcurrentMultiCache<T> {
+    private final CacheStatistics statistics;
+
+    /**
+     * Constructs a monitored cache for the specified entity.
+     * @param target the entity class
+     * @param keyField the primary key field
+     * @param statistics the statistics to record lookups in
+     */
+    public MonitoredMultiCache(@Nonnull Class<T> target, @Nonnull String keyField, @Nonnull CacheStatistics statistics) {
+        this(target, statistics, keyField);
+    }
+
+    /**
+     * Constructs a monitored cache for the specified entity with several unique keys.
+     * @param target the entity class
+     * @param statistics the statistics to record lookups in
+     * @param keyFields the unique key fields, the primary key first
+     */
+    public MonitoredMultiCache(@Nonnull Class<T> target, @Nonnull CacheStatistics statistics, @Nonnull String ... keyFields) {
+        super(target, keyFields);
+        this.statistics = statistics;
+    }
+
+    @Override
+    public T find(String field, Object value, final CacheLoader<T> loader, Object ... args) {
+        if( loader == null || loader instanceof MapLoader ) {
+            return super.find(field, value, loader, args);
+        }
+        final boolean[] loaded = new boolean[1];
+
+        T item = super.find(field, value, new CacheLoader<T>() {
+            public T load(Object ... args) {
+                long start = System.nanoTime();
+                boolean failed = true;
+
+                loaded[0] = true;
+                try {
+                    T item = loader.load(args);
+
+                    failed = false;
+                    return item;
+                }
+                finally {
+                    statistics.recordLoad(System.nanoTime() - start, failed);
+                }
+            }
+        }, args);
+
+        if( !loaded[0] ) {
+            statistics.recordHit();
+        }
+        return item;
+    }
+
+    /**
+     * @return the statistics this cache records its lookups in
+     */
+    public @Nonnull CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public void releaseAll() {
+        super.releaseAll();
+        statistics.recordReleaseAll();
+    }
+}
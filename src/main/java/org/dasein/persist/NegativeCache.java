@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>
+ * A bounded, time-limited record of keys that were looked up and not found, so that repeated lookups
+ * of a missing object are answered without a trip to the data store. Keys are compared by their string
+ * form. Each entry expires after a fixed time, and the least recently used entries are dropped once the
+ * cache is full.
+ * </p>
+ * <p>
+ * Creating an object must call {@link #invalidate(Object)} for its keys. A lookup that started before
+ * the invalidation cannot then record the key as missing, because {@link #add(Object, long)} ignores
+ * entries whose generation is out of date.
+ * </p>
+ * <p>
+ * Negative caching is off by default. It is enabled for all entities with <code>dasein.persist.negativeCache.size</code>
+ * in <i>dasein-persistence.properties</i>, or for a single entity with <code>dasein.persist.negativeCache.size.CLASSNAME</code>.
+ * Entries live for <code>dasein.persist.negativeCache.ttl</code> milliseconds (30 seconds by default), which
+ * bounds how long an object created in another JVM can appear to be missing.
+ * </p>
+ */
+public final class NegativeCache {
+    static public final long DEFAULT_TTL = 30000L;
+
+    /**
+     * Provides a negative cache for the specified entity as configured in <i>dasein-persistence.properties</i>.
+     * @param entity the name of the entity class
+     * @return a new negative cache, or null if negative caching is not enabled for the entity
+     */
+    static public @Nullable NegativeCache getInstance(@Nonnull String entity) {
+        int size = PersistenceConfig.getInt("dasein.persist.negativeCache.size", entity, 0);
+
+        if( size < 1 ) {
+            return null;
+        }
+        return new NegativeCache(size, PersistenceConfig.getLong("dasein.persist.negativeCache.ttl", entity, DEFAULT_TTL));
+    }
+
+    private final AtomicLong                 generation = new AtomicLong(0L);
+    private final AtomicLong                 hits       = new AtomicLong(0L);
+    private final LinkedHashMap<String,Long> missing;
+    private final AtomicLong                 misses     = new AtomicLong(0L);
+    private final long                       ttl;
+
+    /**
+     * Constructs a negative cache.
+     * @param maxSize the maximum number of missing keys to remember
+     * @param ttl the time in milliseconds a missing key is remembered
+     */
+    public NegativeCache(final int maxSize, long ttl) {
+        this.ttl = ttl;
+        this.missing = new LinkedHashMap<String,Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4046427960476131707L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Long> eldest) {
+                return (size() > maxSize);
+            }
+        };
+    }
+
+    /**
+     * Records a key as missing, provided nothing has been invalidated since the lookup began.
+     * @param key the key that was not found
+     * @param asOf the value of {@link #getGeneration()} taken before the lookup went to the data store
+     */
+    public void add(@Nullable Object key, long asOf) {
+        if( key == null ) {
+            return;
+        }
+        synchronized( missing ) {
+            if( generation.get() == asOf ) {
+                missing.put(key.toString(), System.currentTimeMillis() + ttl);
+            }
+        }
+    }
+
+    /**
+     * Forgets all missing keys.
+     */
+    public void clear() {
+        synchronized( missing ) {
+            generation.incrementAndGet();
+            missing.clear();
+        }
+    }
+
+    /**
+     * Checks whether the specified key is known to be missing.
+     * @param key the key being looked up
+     * @return true if the key was recently found to be missing
+     */
+    public boolean contains(@Nullable Object key) {
+        if( key == null ) {
+            return false;
+        }
+        String k = key.toString();
+        boolean found = false;
+
+        synchronized( missing ) {
+            Long expires = missing.get(k);
+
+            if( expires != null ) {
+                if( expires > System.currentTimeMillis() ) {
+                    found = true;
+                }
+                else {
+                    missing.remove(k);
+                }
+            }
+        }
+        (found ? hits : misses).incrementAndGet();
+        return found;
+    }
+
+    /**
+     * @return a value to pass to {@link #add(Object, long)} that changes whenever a key is invalidated
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the fraction of lookups answered as missing without going to the data store, 0.0 if none have been made
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return (total == 0L ? 0.0 : ((double)h)/total);
+    }
+
+    /**
+     * @return the number of lookups answered as missing without going to the data store
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that went on to the data store
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of keys currently remembered as missing, including any that have expired but not yet been dropped
+     */
+    public int getSize() {
+        synchronized( missing ) {
+            return missing.size();
+        }
+    }
+
+    /**
+     * Forgets that the specified key is missing, generally because an object with that key was just created.
+     * @param key the key of the new object
+     */
+    public void invalidate(@Nullable Object key) {
+        if( key == null ) {
+            return;
+        }
+        synchronized( missing ) {
+            generation.incrementAndGet();
+            missing.remove(key.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NegativeCache[size=" + getSize() + ",hitRate=" + getHitRate() + "]";
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The contents of <i>dasein-persistence.properties</i>, read from the classpath once for the whole library.
+ * Settings that may be overridden for a single entity are looked up first with <code>.CLASSNAME</code>
+ * appended to their name. Malformed values are logged and replaced with the caller's default.
+ */
+final class PersistenceConfig {
+    static private final Logger logger = Logger.getLogger(PersistenceConfig.class);
+
+    static private final Properties properties = new Properties();
+
+    static {
+        try {
+            InputStream is = PersistenceConfig.class.getResourceAsStream(Execution.PROPERTIES);
+
+            if( is != null ) {
+                try {
+                    properties.load(is);
+                }
+                finally {
+                    is.close();
+                }
+            }
+        }
+        catch( Exception e ) {
+            logger.warn("Unable to load " + Execution.PROPERTIES + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return a copy of every setting, for extension points configured from the raw properties
+     */
+    static @Nonnull Properties getProperties() {
+        Properties copy = new Properties();
+
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * Looks up a setting.
+     * @param name the property name
+     * @return the trimmed value, or null if the setting is missing or blank
+     */
+    static @Nullable String getProperty(@Nonnull String name) {
+        String prop = properties.getProperty(name);
+
+        if( prop == null ) {
+            return null;
+        }
+        prop = prop.trim();
+        return (prop.length() < 1 ? null : prop);
+    }
+
+    /**
+     * Looks up a setting, preferring the value for a specific entity.
+     * @param name the property name
+     * @param entity the entity class name, or null for the library-wide value only
+     * @return the trimmed value, or null if the setting is missing or blank
+     */
+    static @Nullable String getProperty(@Nonnull String name, @Nullable String entity) {
+        String prop = (entity == null ? null : getProperty(name + "." + entity));
+
+        return (prop == null ? getProperty(name) : prop);
+    }
+
+    static @Nonnull String getString(@Nonnull String name, @Nullable String entity, @Nonnull String defaultValue) {
+        String prop = getProperty(name, entity);
+
+        return (prop == null ? defaultValue : prop);
+    }
+
+    static boolean getBoolean(@Nonnull String name, @Nullable String entity, boolean defaultValue) {
+        String prop = getProperty(name, entity);
+
+        return (prop == null ? defaultValue : prop.equalsIgnoreCase("true"));
+    }
+
+    static double getDouble(@Nonnull String name, @Nullable String entity, double defaultValue) {
+        String prop = getProperty(name, entity);
+
+        if( prop != null ) {
+            try {
+                return Double.parseDouble(prop);
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Invalid value for " + name + ": " + prop);
+            }
+        }
+        return defaultValue;
+    }
+
+    static int getInt(@Nonnull String name, @Nullable String entity, int defaultValue) {
+        long value = getLong(name, entity, defaultValue);
+
+        if( value > Integer.MAX_VALUE || value < Integer.MIN_VALUE ) {
+            logger.warn("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+        return (int)value;
+    }
+
+    static long getLong(@Nonnull String name, @Nullable String entity, long defaultValue) {
+        String prop = getProperty(name, entity);
+
+        if( prop != null ) {
+            try {
+                return Long.parseLong(prop);
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Invalid value for " + name + ": " + prop);
+            }
+        }
+        return defaultValue;
+    }
+
+    private PersistenceConfig() { }
+}
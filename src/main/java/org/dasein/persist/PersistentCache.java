@@ -20,27 +20,29 @@ package org.dasein.persist;
 
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.dasein.persist.annotations.AutoJSON;
@@ -54,8 +56,6 @@ import org.dasein.util.CursorPopulator;
 import org.dasein.util.ForwardCursor;
 import org.dasein.util.JiteratorFilter;
 import org.dasein.util.uom.Measured;
-import org.dasein.util.uom.UnitOfMeasure;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -71,6 +71,13 @@ public abstract class PersistentCache<T extends CachedItem> {
         public String                      localField;
     }
 
+    /**
+     * Fetches a single object by primary key on behalf of {@link PersistentCache#fetchConcurrently(List, Fetcher)}.
+     */
+    static protected interface Fetcher<T> {
+        public @Nullable T fetch(@Nonnull Object keyValue) throws PersistenceException;
+    }
+
     static private final HashMap<String,PersistentCache<? extends CachedItem>> caches = new HashMap<String,PersistentCache<? extends CachedItem>>();
 
     static public PersistentCache<? extends CachedItem> getCache(Class<? extends CachedItem> forClass) throws PersistenceException {
@@ -280,13 +287,21 @@ public abstract class PersistentCache<T extends CachedItem> {
     }
 
     private ConcurrentMultiCache<T>                     cache           = null;
+    private CachePolicy                                 cachePolicy     = null;
+    private boolean                                     changeTracking  = Execution.isChangeTrackingByDefault();
+    private volatile CountCache                         countCache      = null;
     private String                                      entityName      = null;
+    private InvalidationBus                             invalidationBus = null;
+    private InvalidationBus.Listener                    invalidator     = null;
     private Map<Class<? extends CachedItem>,EntityJoin> joins           = new HashMap<Class<? extends CachedItem>,EntityJoin>();
     private Map<String,LookupDelegate>                  lookups         = new HashMap<String,LookupDelegate>();
+    private volatile NegativeCache                      negativeCache   = null;
     private Key                                         primaryKey      = null;
+    private volatile QueryCache                         queryCache      = null;
     private SchemaMapper[]                              schemaMappers   = null;
     private String                                      schemaVersion   = null;
     private Key[]                                       secondaryKeys   = null;
+    private CacheStatistics                             statistics      = null;
 
     public PersistentCache() { }
 
@@ -328,7 +343,31 @@ public abstract class PersistentCache<T extends CachedItem> {
         else {
             secondaryKeys = new Key[0];
         }
-        cache = new ConcurrentMultiCache<T>(cls, primaryKey.getFields()[0]);
+        cachePolicy = CachePolicy.getInstance(cls);
+        statistics = CacheStatistics.getInstance(cls.getName());
+        statistics.bind(this);
+        if( cachePolicy == null ) {
+            cache = new MonitoredMultiCache<T>(cls, primaryKey.getFields()[0], statistics);
+        }
+        else {
+            cache = new BoundedMultiCache<T>(cls, primaryKey.getFields()[0], cachePolicy, statistics);
+        }
+        negativeCache = NegativeCache.getInstance(cls.getName());
+        queryCache = QueryCache.getInstance(cls.getName());
+        countCache = CountCache.getInstance(cls.getName(), new CountCache.Source() {
+            public long count(@Nonnull SearchTerm ... terms) throws PersistenceException {
+                return countInStore(terms);
+            }
+        });
+        invalidationBus = InvalidationBus.getInstance();
+        if( invalidationBus != null ) {
+            invalidator = new InvalidationBus.Listener() {
+                public void invalidate(@Nonnull String entity, @Nonnull Set<String> keys) {
+                    evict(keys);
+                }
+            };
+            invalidationBus.subscribe(cls.getName(), invalidator);
+        }
         init(cls, keys);
         Class<?> current = cls;
         
@@ -357,20 +396,147 @@ public abstract class PersistentCache<T extends CachedItem> {
         // NO-OP
     }
 
+    /**
+     * Counts the objects of this entity, from memory if maintained counts are enabled.
+     * @return the number of objects
+     * @throws PersistenceException an error occurred talking to the data store
+     * @see CountCache
+     */
     public long count() throws PersistenceException {
-        return list().size();
+        CountCache counts = countCache;
+
+        return (counts == null ? countInStore() : counts.count());
     }
 
+    /**
+     * Counts the objects matching the specified terms, from memory if approximate counts are enabled.
+     * @param terms the search terms
+     * @return the number of matching objects
+     * @throws PersistenceException an error occurred talking to the data store
+     * @see CountCache
+     */
     public long count(SearchTerm ... terms) throws PersistenceException {
+        CountCache counts = countCache;
+
+        return (counts == null ? countInStore(terms) : counts.count(terms));
+    }
+
+    /**
+     * Counts the matching objects in the data store. Implementations override this with a count that
+     * does not load the objects.
+     * @param terms the search terms, empty to count every object
+     * @return the number of matching objects
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    protected long countInStore(SearchTerm ... terms) throws PersistenceException {
+        if( terms == null || terms.length < 1 ) {
+            return list().size();
+        }
         return find(terms).size();
     }
 
+    /**
+     * Adjusts the maintained count once the specified transaction commits. Implementations call this
+     * whenever they create or remove objects.
+     * @param xaction the transaction governing the change, or null if the change has already taken effect
+     * @param delta the number of objects created, negative for objects removed
+     */
+    protected void adjustCount(@Nullable Transaction xaction, long delta) {
+        CountCache counts = countCache;
+
+        if( counts != null ) {
+            counts.adjust(xaction, delta);
+        }
+    }
+
+    /**
+     * Makes the next count go to the data store. Implementations call this for changes that create or
+     * remove an unknown number of objects.
+     * @param xaction the transaction governing the change, or null if the change has already taken effect
+     */
+    protected void invalidateCount(@Nullable Transaction xaction) {
+        CountCache counts = countCache;
+
+        if( counts != null ) {
+            counts.invalidate(xaction);
+        }
+    }
+
+    /**
+     * Determines which fields of an item an update actually changes.
+     * @param item the cached instance being updated
+     * @param state the new state for the item
+     * @return the names of the changed fields, or null if change tracking is off and every field is to be written
+     * @throws PersistenceException the current values of the item could not be read
+     */
+    protected @Nullable Set<String> getChanges(@Nonnull T item, @Nonnull Map<String,Object> state) throws PersistenceException {
+        if( !changeTracking ) {
+            return null;
+        }
+        return EntityMetadata.getInstance(item.getClass()).getChanges(item, state);
+    }
+
+    /**
+     * Copies the fields an update wrote onto the cached instance once the specified transaction commits,
+     * so that the next change-tracked update is compared against what is in the data store rather than
+     * against the values the instance was loaded with. An instance that cannot take the new values is
+     * dropped from the cache instead. Implementations call this after writing a change-tracked update.
+     * @param xaction the transaction governing the update
+     * @param item the cached instance that was updated
+     * @param state the state that was written
+     * @param changes the fields the update wrote, or null if change tracking is off and the caller manages the instance
+     */
+    protected void applyChanges(@Nonnull Transaction xaction, @Nonnull final T item, @Nonnull final Map<String,Object> state, @Nullable final Set<String> changes) {
+        if( changes == null ) {
+            return;
+        }
+        xaction.afterCommit(new Runnable() {
+            public void run() {
+                EntityMetadata md = EntityMetadata.getInstance(item.getClass());
+
+                try {
+                    for( String field : changes ) {
+                        set(item, md.getProperty(field), state.get(field));
+                    }
+                }
+                catch( PersistenceException e ) {
+                    logger.warn("Unable to apply an update to the cached " + getEntityClassName() + ", dropping it from the cache: " + e.getMessage());
+                    getCache().release(item);
+                }
+            }
+        });
+    }
+
     protected ConcurrentMultiCache<T> getCache() {
         return cache;
     }
 
+    /**
+     * @return the limits on the objects this cache holds in memory, or null if it is unbounded
+     */
+    public @Nullable CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
     public abstract T create(Transaction xaction, Map<String,Object> state) throws PersistenceException;
 
+    /**
+     * Creates one object for each of the specified states. Implementations backed by a JDBC data store
+     * send the inserts in batches rather than one round trip per object.
+     * @param xaction the transaction governing this event
+     * @param states the states for the new objects
+     * @return the new objects in the same order as the states
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    public Collection<T> createAll(Transaction xaction, List<Map<String,Object>> states) throws PersistenceException {
+        ArrayList<T> items = new ArrayList<T>();
+
+        for( Map<String,Object> state : states ) {
+            items.add(create(xaction, state));
+        }
+        return items;
+    }
+
     public Collection<T> find(SearchTerm ... terms) throws PersistenceException {
         return find(terms, null, false);
     }
@@ -388,12 +554,80 @@ public abstract class PersistentCache<T extends CachedItem> {
                 }
             }
         };
-        populator.populate();
-        return populator.getCursor();
+        return LoaderExecutor.getInstance().populate(populator);
     }
 
     public abstract T get(Object keyValue) throws PersistenceException;
 
+    /**
+     * Retrieves the objects with the specified primary key values. Objects already in memory are
+     * returned directly and only the rest are fetched from the data store, in bulk where the data store
+     * allows it. Keys with no matching object are left out of the results.
+     * @param keyValues the primary key values of the desired objects
+     * @return the matching objects keyed by the requested primary key values, in the order requested
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    public @Nonnull Map<Object,T> getAll(@Nonnull Collection<?> keyValues) throws PersistenceException {
+        logger.debug("enter - getAll(Collection)");
+        try {
+            LinkedHashMap<Object,T> results = new LinkedHashMap<Object,T>();
+            LinkedHashMap<String,Object> toLoad = new LinkedHashMap<String,Object>();
+            NegativeCache missing = negativeCache;
+            long generation = (missing == null ? 0L : missing.getGeneration());
+            String field = getPrimaryKeyField();
+
+            for( Object keyValue : keyValues ) {
+                if( keyValue == null || results.containsKey(keyValue) || toLoad.containsKey(keyValue.toString()) ) {
+                    continue;
+                }
+                T item = getCache().find(field, keyValue);
+
+                if( item != null ) {
+                    results.put(keyValue, item);
+                }
+                else if( missing == null || !missing.contains(keyValue) ) {
+                    toLoad.put(keyValue.toString(), keyValue);
+                }
+            }
+            if( toLoad.isEmpty() ) {
+                return results;
+            }
+            HashMap<String,T> loaded = new HashMap<String,T>();
+
+            for( T item : loadAll(new ArrayList<Object>(toLoad.values())) ) {
+                Object keyValue = getValue(item, field);
+
+                if( keyValue != null ) {
+                    loaded.put(keyValue.toString(), item);
+                }
+            }
+            for( Map.Entry<String,Object> entry : toLoad.entrySet() ) {
+                T item = loaded.get(entry.getKey());
+
+                if( item != null ) {
+                    results.put(entry.getValue(), item);
+                }
+                else if( missing != null ) {
+                    missing.add(entry.getValue(), generation);
+                }
+            }
+            // put the fetched objects back in the order requested
+            LinkedHashMap<Object,T> ordered = new LinkedHashMap<Object,T>();
+
+            for( Object keyValue : keyValues ) {
+                T item = (keyValue == null ? null : results.get(keyValue));
+
+                if( item != null ) {
+                    ordered.put(keyValue, item);
+                }
+            }
+            return ordered;
+        }
+        finally {
+            logger.debug("exit - getAll(Collection)");
+        }
+    }
+
     protected String getKeyValue(T object) throws PersistenceException {
         return getKeyValue(object, getPrimaryKey());
     }
@@ -406,20 +640,14 @@ public abstract class PersistentCache<T extends CachedItem> {
         try {
             String value = "";
 
+            EntityMetadata md = EntityMetadata.getInstance(getCache().getTarget());
+
             for( String fieldName : key.getFields() ) {
-                Class<? extends Object> t = getCache().getTarget();
-                Field field = null;
-
-                while( field == null ) {
-                    field = t.getDeclaredField(fieldName);
-                    if( field == null ) {
-                        t = t.getSuperclass();
-                        if( t.getName().equals(Object.class.getName()) ) {
-                            return null;
-                        }
-                    }
+                EntityMetadata.Property field = md.getProperty(fieldName);
+
+                if( field == null ) {
+                    return null;
                 }
-                field.setAccessible(true);
                 if( !value.equals("") ) {
                     value = value + ":";
                 }
@@ -509,6 +737,34 @@ public abstract class PersistentCache<T extends CachedItem> {
         return list;
     }
 
+    /**
+     * @return the record of primary keys recently found to be missing, or null if negative caching is off
+     */
+    public @Nullable NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * @return the hit, load, and search statistics for this entity
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the maintained and approximate counts for this entity, or null if count caching is off
+     */
+    public @Nullable CountCache getCountCache() {
+        return countCache;
+    }
+
+    /**
+     * @return the record of primary keys found by recent searches, or null if query caching is off
+     */
+    public @Nullable QueryCache getQueryCache() {
+        return queryCache;
+    }
+
     public LookupDelegate getLookupDelegate(String field) {
         return lookups.get(field);
     }
@@ -552,26 +808,104 @@ public abstract class PersistentCache<T extends CachedItem> {
     }
 
     public Object getValue(T item, String field) {
-        Class<?> cls = item.getClass();
+        EntityMetadata.Property p = EntityMetadata.getInstance(item.getClass()).getProperty(field);
         
-        while( !cls.equals(Object.class) ) {
-            for( Field f : cls.getDeclaredFields() ) {
-                if( f.getName().equals(field) ) {
-                    f.setAccessible(true);
+        if( p == null ) {
+            return null;
+        }
+        try {
+            return p.get(item);
+        }
+        catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    public abstract Collection<T> list() throws PersistenceException;
+
+    /**
+     * Fetches the objects with the specified primary key values from the data store for {@link #getAll(Collection)}.
+     * None of the objects are in memory when this is called. Implementations that can query for many keys at once
+     * should override this; the default runs {@link #get(Object)} for each key in parallel.
+     * @param keyValues the primary key values to fetch, with no duplicates
+     * @return the objects found, in any order
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    protected @Nonnull Collection<T> loadAll(@Nonnull List<Object> keyValues) throws PersistenceException {
+        return fetchConcurrently(keyValues, new Fetcher<T>() {
+            public T fetch(Object keyValue) throws PersistenceException {
+                return get(keyValue);
+            }
+        });
+    }
+
+    /**
+     * Fetches the specified keys in parallel using the shared {@link LoaderExecutor} and waits for all of them.
+     * The calling thread fetches any keys no loader thread has picked up yet, so it only ever waits on fetches
+     * already running. This keeps a caller that is itself a loader thread from starving the pool it waits on.
+     * @param keyValues the primary key values to fetch
+     * @param fetcher fetches one key
+     * @return the objects found, in any order
+     * @throws PersistenceException any fetch failed, or the caller was interrupted while waiting
+     */
+    protected @Nonnull Collection<T> fetchConcurrently(@Nonnull List<Object> keyValues, @Nonnull final Fetcher<T> fetcher) throws PersistenceException {
+        if( keyValues.size() == 1 ) {
+            T item = fetcher.fetch(keyValues.get(0));
+
+            return (item == null ? Collections.<T>emptyList() : Collections.singletonList(item));
+        }
+        final Queue<Object> pending = new ConcurrentLinkedQueue<Object>(keyValues);
+        final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch latch = new CountDownLatch(keyValues.size());
+        Runnable worker = new Runnable() {
+            public void run() {
+                Object keyValue;
+
+                while( (keyValue = pending.poll()) != null ) {
                     try {
-                        return f.get(item);
+                        if( failure.get() == null ) {
+                            T item = fetcher.fetch(keyValue);
+
+                            if( item != null ) {
+                                items.add(item);
+                            }
+                        }
+                    }
+                    catch( Throwable t ) {
+                        failure.compareAndSet(null, t);
                     }
-                    catch( Exception e ) {
-                        throw new RuntimeException(e);
+                    finally {
+                        latch.countDown();
                     }
                 }
             }
-            cls = cls.getSuperclass();
+        };
+
+        for( int i=1; i<keyValues.size(); i++ ) {
+            LoaderExecutor.getInstance().execute(worker);
         }
-        return null;
+        worker.run();
+        try {
+            latch.await();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while fetching " + getEntityClassName() + " objects");
+        }
+        Throwable t = failure.get();
+
+        if( t != null ) {
+            if( t instanceof PersistenceException ) {
+                throw (PersistenceException)t;
+            }
+            if( t instanceof Exception ) {
+                throw new PersistenceException((Exception)t);
+            }
+            throw new PersistenceException(new RuntimeException(t));
+        }
+        return items;
     }
-    
-    public abstract Collection<T> list() throws PersistenceException;
 
     public ForwardCursor<T> listAsCursor() throws PersistenceException {
         final Collection<T> items = list();
@@ -584,8 +918,7 @@ public abstract class PersistentCache<T extends CachedItem> {
                 }
             }
         };
-        populator.populate();
-        return populator.getCursor();
+        return LoaderExecutor.getInstance().populate(populator);
     }
 
     public Collection<T> list(boolean orderDesc, String ... orderFields) throws PersistenceException {
@@ -621,6 +954,132 @@ public abstract class PersistentCache<T extends CachedItem> {
         return null;
     }
 
+    /**
+     * @return true if updates are compared against the cached instance so that only changed fields are written
+     */
+    public boolean isChangeTracking() {
+        return changeTracking;
+    }
+
+    /**
+     * Forgets that an object with the specified primary key is missing. Implementations call this
+     * whenever they create an object.
+     * @param keyValue the primary key value of the new object
+     */
+    protected void invalidateMissing(@Nullable Object keyValue) {
+        NegativeCache missing = negativeCache;
+
+        if( missing != null && keyValue != null ) {
+            missing.invalidate(keyValue);
+        }
+    }
+
+    /**
+     * Forgets the cached searches a write may have affected, both now and again once the specified
+     * transaction commits so that a search run while the transaction was open is not kept. Implementations
+     * call this whenever they create, update, or remove objects.
+     * @param xaction the transaction governing the change, or null if there is none
+     * @param fields the fields the write changed, or null if it may affect any search, as creates and removes do
+     */
+    protected void invalidateQueries(@Nullable Transaction xaction, @Nullable final Set<String> fields) {
+        final QueryCache queries = queryCache;
+
+        if( queries == null ) {
+            return;
+        }
+        queries.invalidate(fields);
+        if( xaction != null ) {
+            xaction.afterCommit(new Runnable() {
+                public void run() {
+                    queries.invalidate(fields);
+                }
+            });
+        }
+    }
+
+    /**
+     * Tells the other nodes on the {@link InvalidationBus} to drop an object from memory once the
+     * specified transaction commits. Implementations call this whenever they create, update, or remove
+     * an object.
+     * @param xaction the transaction governing the change, or null to publish immediately
+     * @param keyValue the primary key value of the changed object, or null if the change may affect any object
+     */
+    protected void publishInvalidation(@Nullable Transaction xaction, @Nullable final Object keyValue) {
+        final InvalidationBus bus = invalidationBus;
+
+        if( bus == null ) {
+            return;
+        }
+        final String entity = getEntityClassName();
+
+        if( xaction == null ) {
+            bus.publish(entity, keyValue);
+        }
+        else {
+            xaction.afterCommit(new Runnable() {
+                public void run() {
+                    bus.publish(entity, keyValue);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops objects changed on another node from memory.
+     * @param keys the string forms of the primary keys, or {@link InvalidationBus#ALL}
+     */
+    private void evict(@Nonnull Set<String> keys) {
+        NegativeCache missing = negativeCache;
+        QueryCache queries = queryCache;
+
+        // the changed fields are not sent, so any search may now match differently
+        if( queries != null ) {
+            queries.clear();
+        }
+
+        if( keys.contains(InvalidationBus.ALL) ) {
+            invalidateCount(null);
+            cache.releaseAll();
+            if( missing != null ) {
+                missing.clear();
+            }
+            return;
+        }
+        String field = getPrimaryKeyField();
+        EntityMetadata.Property property = EntityMetadata.getInstance(getTarget()).getProperty(field);
+
+        for( String key : keys ) {
+            Object keyValue = key;
+
+            if( property != null && !property.getType().equals(String.class) ) {
+                try {
+                    keyValue = property.getConverter(String.class).convert(field, key);
+                }
+                catch( Exception e ) {
+                    logger.warn("Unable to invalidate " + getEntityClassName() + " " + key + ": " + e.getMessage());
+                    continue;
+                }
+            }
+            T item = cache.find(field, keyValue);
+
+            if( item != null ) {
+                cache.release(item);
+            }
+            invalidateMissing(keyValue);
+        }
+    }
+
+    /**
+     * Builds whatever is needed to run queries with the specified signature ahead of their first use,
+     * so that the first real query does not pay for it. Implementations that do not build statements
+     * need do nothing.
+     * @param signature the shape of the query
+     * @throws PersistenceException an error occurred building or checking the query
+     */
+    public void prepare(@Nonnull QuerySignature signature) throws PersistenceException {
+        // NO-OP
+    }
+
     public void reindex() throws PersistenceException {
         // NO-OP
     }
@@ -629,12 +1088,76 @@ public abstract class PersistentCache<T extends CachedItem> {
 
     public abstract void remove(Transaction xaction, SearchTerm ... terms) throws PersistenceException;
 
+    /**
+     * Removes each of the specified items from the data store.
+     * @param xaction the transaction governing this event
+     * @param items the items to be removed
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    public void removeAll(Transaction xaction, Collection<T> items) throws PersistenceException {
+        for( T item : items ) {
+            remove(xaction, item);
+        }
+    }
+
     public abstract void update(Transaction xaction, T item, Map<String,Object> state) throws PersistenceException;
     
+    /**
+     * Enables or disables change tracking. With change tracking, an update is compared against the
+     * current values of the cached instance: only the changed fields are written, and an update that
+     * changes nothing never reaches the data store. Callers must therefore pass the new state without
+     * having already applied it to the cached instance; the cache applies it once the update commits.
+     * @param changeTracking true to write only changed fields
+     */
+    public void setChangeTracking(boolean changeTracking) {
+        this.changeTracking = changeTracking;
+    }
+
+    /**
+     * Sets the counts consulted by {@link #count()} and {@link #count(SearchTerm...)} before going to the data store.
+     * @param countCache the count cache to use, or null to turn count caching off
+     */
+    public void setCountCache(@Nullable CountCache countCache) {
+        this.countCache = countCache;
+    }
+
+    /**
+     * Sets the record of search results consulted by searches before going to the data store.
+     * @param queryCache the query cache to use, or null to turn query caching off
+     */
+    public void setQueryCache(@Nullable QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Sets the record of missing primary keys consulted by {@link #get(Object)} before going to the data store.
+     * @param negativeCache the negative cache to use, or null to turn negative caching off
+     */
+    public void setNegativeCache(@Nullable NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
     protected void set(Map<String,Object> map, String fieldName, Object value, Class<?> type) throws PersistenceException {
         map.put(fieldName, mapValue(fieldName, value, type, null));
     }
     
+    protected void set(T target, EntityMetadata.Property property, Object value) throws PersistenceException {
+        String fieldName = property.getName();
+        LookupDelegate delegate = getLookupDelegate(fieldName);
+
+        if( value != null && delegate != null && !delegate.validate(value.toString()) ) {
+            throw new PersistenceException("Value " + value + " for " + fieldName + " is not valid.");
+        }
+        try {
+            value = property.getConverter(value == null ? null : value.getClass()).convert(fieldName, value);
+        }
+        catch( Exception e ) {
+            e.printStackTrace();
+            throw new PersistenceException("Error mapping field in " + property.getType() + " for " + fieldName + ": " + e.getMessage());
+        }
+        property.set(target, value);
+    }
+    
     protected void set(T target, Field field, Object value) throws PersistenceException {
         try {
             ParameterizedType pt = null;
@@ -660,421 +1183,23 @@ public abstract class PersistentCache<T extends CachedItem> {
             throw new PersistenceException("Value " + dataStoreValue + " for " + fieldName + " is not valid.");
         }
         try {
-            if( toType.equals(String.class) ) {
-                if( dataStoreValue != null && !(dataStoreValue instanceof String) ) {
-                    dataStoreValue = dataStoreValue.toString();
-                }
-            }
-            else if( Enum.class.isAssignableFrom(toType) ) {
-                if( dataStoreValue != null ) {
-                    Enum e = Enum.valueOf((Class<? extends Enum>)toType, dataStoreValue.toString());
-                    
-                    dataStoreValue = e;
-                }
-            }
-            else if( toType.equals(Boolean.class) || toType.equals(boolean.class) ) {
-                if( dataStoreValue == null ) {
-                    dataStoreValue = false;
-                }
-                else if( !(dataStoreValue instanceof Boolean) ) {
-                    if( Number.class.isAssignableFrom(dataStoreValue.getClass()) ) {
-                        dataStoreValue = (((Number)dataStoreValue).intValue() != 0);
-                    }
-                    else {
-                        dataStoreValue = (dataStoreValue.toString().trim().equalsIgnoreCase("true") || dataStoreValue.toString().trim().equalsIgnoreCase("y"));
-                    }
-                }
-            }
-            else if( Number.class.isAssignableFrom(toType) || toType.equals(byte.class) || toType.equals(short.class) ||
-                    toType.equals(long.class) || toType.equals(int.class) || toType.equals(float.class) || toType.equals(double.class) ) {
-                if( dataStoreValue == null ) {
-                    if( toType.equals(int.class) || toType.equals(short.class) || toType.equals(long.class) ) {
-                        dataStoreValue = 0;
-                    }
-                    else if( toType.equals(float.class) || toType.equals(double.class) ) {
-                        dataStoreValue = 0.0f;
-                    }
-                }
-                else if( toType.equals(Number.class) ) {
-                    if( !(dataStoreValue instanceof Number) ) {
-                        if( dataStoreValue instanceof String ) {
-                            try {
-                                dataStoreValue = Double.parseDouble((String)dataStoreValue);
-                            }
-                            catch( NumberFormatException e ) {
-                                throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                            }
-                        }
-                        else if( dataStoreValue instanceof Boolean ) {
-                            dataStoreValue = (((Boolean)dataStoreValue) ? 1 : 0);
-                        }
-                        else {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }                    
-                }
-                else if( toType.equals(Integer.class) || toType.equals(int.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof Integer) ) {
-                            dataStoreValue = ((Number)dataStoreValue).intValue();
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = Integer.parseInt((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = (((Boolean)dataStoreValue) ? 1 : 0);
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( toType.equals(Long.class) || toType.equals(long.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof Long) ) {
-                            dataStoreValue = ((Number)dataStoreValue).longValue();
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = Long.parseLong((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = (((Boolean)dataStoreValue) ? 1L : 0L);
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( toType.equals(Byte.class) || toType.equals(byte.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof Byte) ) {
-                            dataStoreValue = ((Number)dataStoreValue).byteValue();
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = Byte.parseByte((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = (((Boolean)dataStoreValue) ? 1 : 0);
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( toType.equals(Short.class) || toType.equals(short.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof Short) ) {
-                            dataStoreValue = ((Number)dataStoreValue).shortValue();
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = Short.parseShort((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = (((Boolean)dataStoreValue) ? 1 : 0);
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( toType.equals(Double.class) || toType.equals(double.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof Double) ) {
-                            dataStoreValue = ((Number)dataStoreValue).doubleValue();
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = Double.parseDouble((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = (((Boolean)dataStoreValue) ? 1.0 : 0.0);
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( toType.equals(Float.class) || toType.equals(float.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof Float) ) {
-                            dataStoreValue = ((Number)dataStoreValue).floatValue();
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = Float.parseFloat((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = (((Boolean)dataStoreValue) ? 1.0f : 0.0f);
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( toType.equals(BigDecimal.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof BigDecimal) ) {
-                            if( dataStoreValue instanceof BigInteger ) {
-                                dataStoreValue = new BigDecimal((BigInteger)dataStoreValue);
-                            }
-                            else {
-                                dataStoreValue = BigDecimal.valueOf(((Number)dataStoreValue).doubleValue());
-                            }
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = new BigDecimal((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = new BigDecimal((((Boolean)dataStoreValue) ? 1.0 : 0.0));
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( toType.equals(BigInteger.class) ) {
-                    if( dataStoreValue instanceof Number ) {
-                        if( !(dataStoreValue instanceof BigInteger) ) {
-                            if( dataStoreValue instanceof BigDecimal ) {
-                                dataStoreValue = ((BigDecimal)dataStoreValue).toBigInteger();
-                            }
-                            else {
-                                dataStoreValue = BigInteger.valueOf(((Number)dataStoreValue).longValue());
-                            }
-                        }
-                    }
-                    else if( dataStoreValue instanceof String ) {
-                        try {
-                            dataStoreValue = new BigDecimal((String)dataStoreValue);
-                        }
-                        catch( NumberFormatException e ) {
-                            throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);
-                        }
-                    }
-                    else if( dataStoreValue instanceof Boolean ) {
-                        dataStoreValue = new BigDecimal((((Boolean)dataStoreValue) ? 1.0 : 0.0));
-                    }
-                    else {
-                        throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                    }
-                }
-                else if( dataStoreValue != null ) {
-                    System.err.println("Type of dataStoreValue=" + dataStoreValue.getClass());
-                    throw new PersistenceException("Unable to map " + fieldName + " as " + toType + " using " + dataStoreValue);                        
-                }
-            }
-            else if( toType.equals(Locale.class )) {
-                if( dataStoreValue != null && !(dataStoreValue instanceof Locale) ) {
-                    String[] parts = dataStoreValue.toString().split("_");
-                    
-                    if( parts != null && parts.length > 1 ) {
-                        dataStoreValue = new Locale(parts[0], parts[1]);
-                    }
-                    else {
-                        dataStoreValue = new Locale(parts[0]);
-                    }      
-                }
-            }
-            else if( Measured.class.isAssignableFrom(toType) ) {
-                if( dataStoreValue != null && ptype != null ) {
-                    if( Number.class.isAssignableFrom(dataStoreValue.getClass()) ) {
-                        Constructor<? extends Measured> constructor = null;
-                        double value = ((Number)dataStoreValue).doubleValue();
-                        
-                        for( Constructor<?> c : toType.getDeclaredConstructors() ) {
-                            Class[] args = c.getParameterTypes();
-                            
-                            if( args != null && args.length == 2 && Number.class.isAssignableFrom(args[0]) && UnitOfMeasure.class.isAssignableFrom(args[1]) ) {
-                                constructor = (Constructor<? extends Measured>)c;
-                                break;
-                            }
-                        }  
-                        if( constructor == null ) {
-                            throw new PersistenceException("Unable to map with no proper constructor");
-                        }
-                        dataStoreValue = constructor.newInstance(value, ((Class<?>)ptype.getActualTypeArguments()[0]).newInstance());
-                    }
-                    else if( !(dataStoreValue instanceof Measured) ) {
-                        try {
-                            dataStoreValue = Double.parseDouble(dataStoreValue.toString()); 
-                        }
-                        catch( NumberFormatException e ) {
-                            Method method = null;
-                            
-                            for( Method m : toType.getDeclaredMethods() ) {
-                                if( Modifier.isStatic(m.getModifiers()) && m.getName().equals("valueOf") ) {
-                                    if( m.getParameterTypes().length == 1 && m.getParameterTypes()[0].equals(String.class) ) {
-                                        method = m;
-                                        break;
-                                    }
-                                }
-                            }
-                            if( method == null ) {
-                                throw new PersistenceException("Don't know how to map " + dataStoreValue + " to " + toType + "<" + ptype + ">");
-                            }
-                            dataStoreValue = method.invoke(null, dataStoreValue.toString());
-                        }
-                    } 
-                    // just because we converted it to a measured object above doesn't mean
-                    // we have the unit of measure right
-                    if( dataStoreValue instanceof Measured ) {
-                        UnitOfMeasure targetUom = (UnitOfMeasure)((Class<?>)ptype.getActualTypeArguments()[0]).newInstance();
-                        
-                        if( !(((Measured)dataStoreValue).getUnitOfMeasure()).equals(targetUom) ) {
-                            dataStoreValue = ((Measured)dataStoreValue).convertTo((UnitOfMeasure)((Class<?>)ptype.getActualTypeArguments()[0]).newInstance());
-                        }
-                    } 
-                }
-            }
-            else if( toType.equals(UUID.class) ) {
-                if( dataStoreValue != null && !(dataStoreValue instanceof UUID) ) {
-                    dataStoreValue = UUID.fromString(dataStoreValue.toString());
-                }
-            }
-            else if( toType.equals(TimeZone.class) ) {
-                if( dataStoreValue != null && !(dataStoreValue instanceof TimeZone) ) {
-                    dataStoreValue = TimeZone.getTimeZone(dataStoreValue.toString());
-                }
-            }
-            else if( toType.equals(Currency.class) ) {
-                if( dataStoreValue != null && !(dataStoreValue instanceof Currency) ) {
-                    dataStoreValue = Currency.getInstance(dataStoreValue.toString());
-                }
-            }
-            else if( toType.isArray() ) {
-                Class<?> t = toType.getComponentType();
-                
-                if( dataStoreValue == null ) {
-                    dataStoreValue = Array.newInstance(t, 0);
-                }
-                else if( dataStoreValue instanceof JSONArray ) {
-                    JSONArray arr = (JSONArray)dataStoreValue;
-                    
-                    if( long.class.isAssignableFrom(t)  ) {
-                        long[] replacement = (long[])Array.newInstance(long.class, arr.length());
-                        
-                        for( int i = 0; i<arr.length(); i++ ) {
-                            replacement[i] = (Long)mapValue(fieldName, arr.get(i), t, null);
-                        }
-                        dataStoreValue = replacement;
-                    }
-                    else if( int.class.isAssignableFrom(t)  ) {
-                        int[] replacement = (int[])Array.newInstance(int.class, arr.length());
-
-                        for( int i = 0; i<arr.length(); i++ ) {
-                            replacement[i] = (Integer)mapValue(fieldName, arr.get(i), t, null);
-                        }
-                        dataStoreValue = replacement;
-                    }
-                    else {
-                        Object[] replacement = (Object[])Array.newInstance(t, arr.length());
-                    
-                        for( int i = 0; i<arr.length(); i++ ) {
-                            replacement[i] = mapValue(fieldName, arr.get(i), t, null);
-                        }
-                        dataStoreValue = replacement;
-                    }
-                }
-                else if( !dataStoreValue.getClass().isArray() ) {
-                    logger.error("Unable to map data store type " + dataStoreValue.getClass().getName() + " to " + toType.getName());
-                    logger.error("Value of " + fieldName + "=" + dataStoreValue);
-                    throw new PersistenceException("Data store type=" + dataStoreValue.getClass().getName());
-                }
-            }
-            else if( dataStoreValue != null && !toType.isAssignableFrom(dataStoreValue.getClass()) ) {
-                Annotation[] alist = toType.getDeclaredAnnotations();
-                boolean autoJSON = false;
-
-                for( Annotation a : alist ) {
-                    if( a instanceof AutoJSON ) {
-                        autoJSON = true;
-                    }
-                }
-                if( autoJSON ) {
-                    dataStoreValue = autoDeJSON(toType, (JSONObject)dataStoreValue);
-                }
-                else {
-                    try {
-                        Method m = toType.getDeclaredMethod("valueOf", JSONObject.class);
-
-                        dataStoreValue = m.invoke(null, dataStoreValue);
-                    }
-                    catch( NoSuchMethodException ignore ) {
-                        try {
-                            Method m = toType.getDeclaredMethod("valueOf", String.class);
-
-                            if( m != null ) {
-                                dataStoreValue = m.invoke(null, dataStoreValue.toString());
-                            }
-                            else {
-                                throw new PersistenceException("No valueOf() field in " + toType + " for mapping " + fieldName);
-                            }
-                        }
-                        catch( NoSuchMethodException e ) {
-                            throw new PersistenceException("No valueOf() field in " + toType + " for mapping " + fieldName + " with " + dataStoreValue + ": (" + dataStoreValue.getClass().getName() + " vs " + toType.getName() + ")");
-                        }
-                    }
-                }
-            }
+            return ConverterRegistry.convert(fieldName, dataStoreValue, toType, ptype);
         }
         catch( Exception e ) {
             e.printStackTrace();
             throw new PersistenceException("Error mapping field in " + toType + " for " + fieldName + ": " + e.getMessage());
         }
-        return dataStoreValue;
     }
     
     protected String toDataStoreJSONFromCurrentState(Map<String,Object> state) {
         HashMap<String,Object> friendlyState = new HashMap<String,Object>();
-        Class<? extends Object> t = getTarget();
         
-        while( !t.equals(Object.class) ) {
-            for( Field field : t.getDeclaredFields()) {
-                int modifiers = field.getModifiers();
-                
-                if( Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ) {
-                    continue;
-                }
-                Object value = state.get(field.getName());
-                
-                if( value != null ) {
-                    friendlyState.put(field.getName(), toJSONValue(value));
-                }
+        for( EntityMetadata.Property field : EntityMetadata.getInstance(getTarget()).getPersistentProperties() ) {
+            Object value = state.get(field.getName());
+            
+            if( value != null ) {
+                friendlyState.put(field.getName(), toJSONValue(value));
             }
-            t = t.getSuperclass();
         }
         friendlyState.put("SCHEMA_VERSION", getSchemaVersion());
         return new JSONObject(friendlyState).toString();
@@ -1212,98 +1337,31 @@ public abstract class PersistentCache<T extends CachedItem> {
 
     private @Nonnull JSONObject autoJSON(@Nonnull Object ob) {
         HashMap<String,Object> json = new HashMap<String, Object>();
-        Class<?> cls = ob.getClass();
 
-        while( !(cls.getName().equals(Object.class.getName())) ) {
-            Field[] fields = cls.getDeclaredFields();
-
-            for( Field field : fields ) {
-                int modifiers = field.getModifiers();
-
-                if( Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ) {
-                    continue;
-                }
-                field.setAccessible(true);
-                try {
-                    Object value = field.get(ob);
+        for( EntityMetadata.Property field : EntityMetadata.getInstance(ob.getClass()).getPersistentProperties() ) {
+            try {
+                Object value = field.get(ob);
 
-                    value = toJSONValue(value);
-                    json.put(field.getName(), value);
-                }
-                catch( IllegalAccessException e ) {
-                    // this should not happen, don't map
-                    logger.warn("Illegal access exception mapping " + cls.getName() + "." + field.getName() + ": " + e.getMessage(), e);
-                }
+                value = toJSONValue(value);
+                json.put(field.getName(), value);
             }
-            cls = cls.getSuperclass();
-        }
-        return new JSONObject(json);
-    }
-
-    private @Nonnull <T> T autoDeJSON(@Nonnull Class<T> targetClass, @Nonnull JSONObject ob) throws PersistenceException {
-        Class<?> cls = targetClass;
-
-        T item;
-
-        try {
-            item = targetClass.newInstance();
-        }
-        catch( Exception e ) {
-            throw new PersistenceException(e);
-        }
-        while( !(cls.getName().equals(Object.class.getName())) ) {
-            Field[] fields = cls.getDeclaredFields();
-
-            for( Field field : fields ) {
-                int modifiers = field.getModifiers();
-
-                if( Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ) {
-                    continue;
-                }
-                field.setAccessible(true);
-                Object value = null;
-
-                if( ob.has(field.getName()) ) {
-                    try {
-                        value = mapValue(field.getName(), ob.get(field.getName()), field.getType(), null);
-                    }
-                    catch( JSONException e ) {
-                        logger.warn("JSON error mapping " + targetClass.getName() + "." + field.getName() + ": " + e.getMessage(), e);
-                    }
-                }
-                if( value != null || !field.getType().isPrimitive() ) {
-                    try {
-                        field.set(item, value);
-                    }
-                    catch( IllegalAccessException e ) {
-                        logger.warn("Could not set " + targetClass.getName() + "." + field.getName() + ": " + e.getMessage(), e);
-                    }
-                }
+            catch( PersistenceException e ) {
+                // this should not happen, don't map
+                logger.warn("Illegal access exception mapping " + field + ": " + e.getMessage(), e);
             }
-            cls = cls.getSuperclass();
         }
-        return item;
+        return new JSONObject(json);
     }
 
     protected Map<String,Object> toMapFromJSON(String json) throws PersistenceException {
         try {
             HashMap<String,Object> values = new HashMap<String,Object>();
             JSONObject j = new JSONObject(json);
-            Class<T> targetClass = getTarget();
-            Class<? extends Object> t = targetClass;
-            
 
-            while( !t.getName().equals(Object.class.getName()) ) {
-                for( Field field : t.getDeclaredFields() ) {
-                    int modifiers = field.getModifiers();
-                    
-                    if( !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) ) {
-                        String fieldName = field.getName();
-                        
-                        set(values, fieldName, j.has(fieldName) ? j.get(fieldName) : null, field.getType());
-                    }
-                }
-                t = t.getSuperclass();
+            for( EntityMetadata.Property field : EntityMetadata.getInstance(getTarget()).getPersistentProperties() ) {
+                String fieldName = field.getName();
+                
+                set(values, fieldName, j.has(fieldName) ? j.get(fieldName) : null, field.getType());
             }
             return values;
         }
@@ -1341,20 +1399,12 @@ public abstract class PersistentCache<T extends CachedItem> {
                 sourceVersion = mapper.getTargetVersion();
             }
             Class<T> targetClass = getTarget();
-            Class<? extends Object> t = targetClass;
             T item = targetClass.newInstance();
 
-            while( !t.getName().equals(Object.class.getName()) ) {
-                for( Field field : t.getDeclaredFields() ) {
-                    int modifiers = field.getModifiers();
-                    
-                    if( !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) ) {
-                        Object value = (j.has(field.getName()) ? j.get(field.getName()) : null);
+            for( EntityMetadata.Property field : EntityMetadata.getInstance(targetClass).getPersistentProperties() ) {
+                Object value = (j.has(field.getName()) ? j.get(field.getName()) : null);
 
-                        set(item, field, value);
-                    }
-                }
-                t = t.getSuperclass();
+                set(item, field, value);
             }
             return item;
         }
@@ -1389,20 +1439,12 @@ public abstract class PersistentCache<T extends CachedItem> {
                 dataStoreVersion = mapper.getTargetVersion();
             }
             Class<T> targetClass = getTarget();
-            Class<? extends Object> t = targetClass;
             T item = targetClass.newInstance();
 
-            while( !t.getName().equals(Object.class.getName()) ) {
-                for( Field field : t.getDeclaredFields() ) {
-                    int modifiers = field.getModifiers();
-                    
-                    if( !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) ) {
-                        Object value = dataStoreState.get(field.getName());
+            for( EntityMetadata.Property field : EntityMetadata.getInstance(targetClass).getPersistentProperties() ) {
+                Object value = dataStoreState.get(field.getName());
 
-                        set(item, field, value);
-                    }
-                }
-                t = t.getSuperclass();
+                set(item, field, value);
             }
             return item;
         }
@@ -1422,6 +1464,18 @@ public abstract class PersistentCache<T extends CachedItem> {
         }
     }
     
+    /**
+     * Updates each of the specified items with the state mapped to it.
+     * @param xaction the transaction governing this event
+     * @param changes the new state for each item to be updated
+     * @throws PersistenceException an error occurred talking to the data store
+     */
+    public void updateAll(Transaction xaction, Map<T,Map<String,Object>> changes) throws PersistenceException {
+        for( Map.Entry<T,Map<String,Object>> entry : changes.entrySet() ) {
+            update(xaction, entry.getKey(), entry.getValue());
+        }
+    }
+    
     public void updateAll(Transaction xaction, Map<String,Object> state, SearchTerm ... terms) throws PersistenceException {
         for( T item : find(terms) ) {
             Map<String,Object> copy = new HashMap<String,Object>();
@@ -1431,6 +1485,27 @@ public abstract class PersistentCache<T extends CachedItem> {
         }
     }
     
+    /**
+     * Stops the background work this cache registered: expiry sweeps, count reconciliation, and
+     * invalidations from other nodes. Call this before discarding a cache so the maintenance scheduler
+     * and the invalidation bus stop holding on to it. The cache still works afterwards, but nothing
+     * in the background keeps it current.
+     */
+    public void close() {
+        CountCache counts = countCache;
+
+        if( cache instanceof BoundedMultiCache ) {
+            ((BoundedMultiCache<T>)cache).close();
+        }
+        if( counts != null ) {
+            counts.close();
+        }
+        if( invalidationBus != null && invalidator != null ) {
+            invalidationBus.unsubscribe(getEntityClassName(), invalidator);
+            invalidator = null;
+        }
+    }
+
     /**
      * Releases all held references in the cache.
      */
@@ -1503,6 +1578,8 @@ public abstract class PersistentCache<T extends CachedItem> {
                         if( field == null ) {
                             throw new PersistenceException("No such field: " + args[2]);
                         }
+                        // the item is modified in place, so there is nothing left for change tracking to detect
+                        cache.setChangeTracking(false);
                         cache.set(item, field, args[3]);
 
                         Map<String,Object> state = new HashMap<String, Object>();
@@ -29,19 +29,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import org.apache.log4j.Logger;
 import org.dasein.persist.dao.LoadTranslator;
 import org.dasein.persist.dao.RemoveTranslator;
 import org.dasein.persist.dao.SaveTranslator;
 import org.dasein.persist.jdbc.AutomatedSql;
+import org.dasein.persist.jdbc.AutomatedSql.Criterion;
 import org.dasein.persist.jdbc.AutomatedSql.Operator;
 import org.dasein.persist.jdbc.Counter;
 import org.dasein.persist.jdbc.Creator;
@@ -107,28 +116,8 @@ import org.dasein.util.Translator;
 public final class PersistentFactory<T> {
     static public final Logger logger = Logger.getLogger(PersistentFactory.class);
     
-    static private final String classDirectory;
-    static private final String persistenceLib;
-    static private final String utilitiesLib;
+    static private final ConcurrentHashMap<String,ExecutionTemplate> translators = new ConcurrentHashMap<String,ExecutionTemplate>();
 
-    static {
-        Properties props = new Properties();
-        
-        try {
-            InputStream is = DaseinSequencer.class.getResourceAsStream(DaseinSequencer.PROPERTIES);
-
-            if( is != null ) {
-                props.load(is);
-            }
-        }
-        catch( Exception e ) {
-            e.printStackTrace();
-        }
-        classDirectory = props.getProperty("dasein.persist.classes");
-        persistenceLib = props.getProperty("dasein.persist.persistenceLib");
-        utilitiesLib = props.getProperty("dasein.persist.utilitiesLib");
-    }
-    
     static public interface DependencyManager<T> {
         public abstract void createDependencies(Transaction xaction, Map<String,Object> state) throws PersistenceException;
         
@@ -139,66 +128,255 @@ public final class PersistentFactory<T> {
         public abstract void updateDependencies(Transaction xaction, T item, Map<String,Object> state) throws PersistenceException;
     }
     
-    static public Class<? extends Execution> compileTranslator(Class<?> t, String which) throws PersistenceException {
-        logger.debug("enter - compileTranslator(Class)");
-        try {
-            StringBuilder str = new StringBuilder();
-            String cname, fcn;
-            String[] parts;
-
-            fcn = "org.dasein.persist.runtime.trans.";
-            str.append("package org.dasein.persist.runtime.trans");
-            parts = t.getName().split("\\.");
-            if( parts.length > 1 ) {
-                for( int i=0; i<parts.length-1; i++ ) {
-                    str.append(".");
-                    str.append(parts[i]);
-                    fcn += parts[i];
-                    fcn += ".";
+    /**
+     * Provides the template for custom translation executions against the translation table of the
+     * specified class.
+     * @param t the class whose translations are being managed
+     * @param which the kind of execution: Loader, Updater, or Deleter
+     * @return the template for that execution
+     */
+    static public ExecutionTemplate getTranslator(final Class<?> t, final String which) {
+        String name = "org.dasein.persist.runtime.trans." + t.getName() + "_" + which;
+        ExecutionTemplate template = translators.get(name);
+        
+        if( template == null ) {
+            ExecutionTemplate current;
+            
+            template = new ExecutionTemplate(name) {
+                protected Execution create() {
+                    if( which.equals("Updater") ) {
+                        return new TranslatorUpdater() {
+                            public String getTable() { return getSqlNameForClassName(t.getName()) + "_translation"; }
+                        };
+                    }
+                    else if( which.equals("Deleter") ) {
+                        return new TranslatorDeleter() {
+                            public String getTable() { return getSqlNameForClassName(t.getName()) + "_translation"; }
+                        };
+                    }
+                    return new TranslatorLoader() {
+                        public String getTable() { return getSqlNameForClassName(t.getName()) + "_translation"; }
+                    };
                 }
-                cname = parts[parts.length-1];
-                fcn += cname;
+            };
+            current = translators.putIfAbsent(name, template);
+            if( current != null ) {
+                template = current;
             }
-            else {
-                cname = t.getName();
-                fcn += cname;
-            }
-            cname = cname + "_" + which;
-            fcn = fcn + "_" + which;
-            // we should try to find away to check if the class already exists
-            // however, a check for the class in this thread will prevent a further check from
-            // finding the class, even after we have compiled it
-            str.append(";\n\n");
-            str.append("import org.dasein.persist.jdbc.Translator");
-            str.append(which);
-            str.append(";\n\n");
-            str.append("public class ");
-            str.append(cname);
-            str.append(" extends ");
-            if( which.equals("Loader") ) {
-                str.append(TranslatorLoader.class.getName());
-            }
-            else if( which.equals("Updater") ) {
-                str.append(TranslatorUpdater.class.getName());
-            }
-            else if( which.equals("Deleter") ) {
-                str.append(TranslatorDeleter.class.getName());
+        }
+        return template;
+    }
+    
+    /**
+     * Creates the memory cache for the specified class, bounded by its {@link CachePolicy} if it has one.
+     * @param cls the class of objects to cache
+     * @param keys the unique identifiers for instances of the class, the primary key first
+     * @return the new cache
+     */
+    static private <T> ConcurrentMultiCache<T> createCache(Class<T> cls, String ... keys) {
+        CachePolicy policy = CachePolicy.getInstance(cls);
+        
+        if( policy == null ) {
+            return new ConcurrentMultiCache<T>(cls, keys);
+        }
+        return new BoundedMultiCache<T>(cls, policy, CacheStatistics.getInstance(cls.getName()), keys);
+    }
+    
+    /**
+     * Counts the objects matching a search on one or more fields.
+     */
+    static private class SearchCounter extends Counter {
+        private SearchCounter(Class<?> target, SearchTerm[] terms) {
+            setTarget(target);
+            if( terms != null && terms.length > 0 ) {
+                setCriteria(toCriteria(terms));
+            }
+        }
+        
+        public boolean isReadOnly() {
+            return true;
+        }
+    }
+    
+    /**
+     * Loads the objects matching a search on one or more fields.
+     */
+    static private class SearchLoader extends Loader {
+        private SearchLoader(Class<?> target, SearchTerm[] terms, AutomatedSql.TranslationMethod method, Boolean orderDesc, String ... orderFields) {
+            setTarget(target);
+            if( terms != null && terms.length > 0 ) {
+                setCriteria(toCriteria(terms));
+            }
+            switch( method ) {
+                case CUSTOM: setCustomTranslating(); break;
+                case STANDARD: setTranslating(true); break;
+                case NONE: setTranslating(false); break;
+            }
+            if( orderDesc != null ) {
+                setOrder(orderDesc, orderFields);
+            }
+        }
+        
+        public boolean isReadOnly() {
+            return true;
+        }
+    }
+    
+    /**
+     * Loads the objects associated with another object through a join table.
+     */
+    static private class JoinLoader extends Loader {
+        private final String join;
+        private final String joinClass;
+        private final String joinField;
+        private final String localField;
+        private String       sql = null;
+        private final String table;
+        
+        private JoinLoader(Class<?> target, AutomatedSql.TranslationMethod method, String table, String localField, String joinField, String join, String joinClass) {
+            setTarget(target);
+            switch( method ) {
+                case CUSTOM: setCustomTranslating(); break;
+                case STANDARD: setTranslating(true); break;
+                case NONE: setTranslating(false); break;
+            }
+            this.table = table;
+            this.localField = localField;
+            this.joinField = joinField;
+            this.join = join;
+            this.joinClass = joinClass;
+        }
+        
+        public String getStatement(Connection conn) throws SQLException {
+            if( sql == null ) {
+                StringBuilder str = new StringBuilder();
+                
+                str.append(super.getStatement(conn));
+                str.append(", ");
+                str.append(getIdentifier(table));
+                str.append(" WHERE ");
+                str.append(getIdentifier(getTableName(), localField));
+                str.append(" = ");
+                str.append(getIdentifier(table, localField));
+                str.append(" AND ");
+                str.append(getIdentifier(table, joinField));
+                str.append(" = ?");
+                sql = str.toString();
+            }
+            return sql;
+        }
+        
+        public void prepare(Map<String,Object> params) throws SQLException {
+            prepareFor(join, 1, params.get(join), joinClass);
+        }
+    }
+    
+    /**
+     * Counts the objects associated with another object through a join table.
+     */
+    static private class JoinCounter extends Counter {
+        private final String join;
+        private final String joinClass;
+        private final String joinField;
+        private final String localField;
+        private String       sql = null;
+        private final String table;
+        
+        private JoinCounter(Class<?> target, String table, String localField, String joinField, String join, String joinClass) {
+            setTarget(target);
+            setTranslating(false);
+            this.table = table;
+            this.localField = localField;
+            this.joinField = joinField;
+            this.join = join;
+            this.joinClass = joinClass;
+        }
+        
+        public String getStatement(Connection conn) throws SQLException {
+            if( sql == null ) {
+                StringBuilder str = new StringBuilder();
+                
+                str.append(super.getStatement(conn));
+                str.append(", ");
+                str.append(getIdentifier(table));
+                str.append(" WHERE ");
+                str.append(getIdentifier(getTableName(), localField));
+                str.append(" = ");
+                str.append(getIdentifier(table, localField));
+                str.append(" AND ");
+                str.append(getIdentifier(table, joinField));
+                str.append(" = ?");
+                sql = str.toString();
+            }
+            return sql;
+        }
+        
+        public void prepare(Map<String,Object> params) throws SQLException {
+            prepareFor(join, 1, params.get(join), joinClass);
+        }
+        
+        public boolean isReadOnly() {
+            return true;
+        }
+    }
+    
+    /**
+     * Inserts new objects.
+     */
+    static private class FactoryCreator extends Creator {
+        private FactoryCreator(Class<?> target, AutomatedSql.TranslationMethod method) {
+            setTarget(target);
+            switch( method ) {
+                case CUSTOM: setCustomTranslating(); break;
+                case STANDARD: setTranslating(true); break;
+                case NONE: setTranslating(false); break;
+            }
+        }
+    }
+    
+    /**
+     * Removes objects by their unique identifier.
+     */
+    static private class FactoryDeleter extends Deleter {
+        private FactoryDeleter(Class<?> target, AutomatedSql.TranslationMethod method, String key) {
+            setTarget(target);
+            switch( method ) {
+                case CUSTOM: setCustomTranslating(); break;
+                case STANDARD: setTranslating(true); break;
+                case NONE: setTranslating(false); break;
+            }
+            setCriteria(key);
+        }
+    }
+    
+    /**
+     * Updates objects by their unique identifier, and by their timestamp for classes with a
+     * public <code>lastModified</code> field.
+     */
+    static private class FactoryUpdater extends Updater {
+        private FactoryUpdater(Class<?> target, AutomatedSql.TranslationMethod method, String key, boolean timestamped) {
+            setTarget(target);
+            switch( method ) {
+                case CUSTOM: setCustomTranslating(); break;
+                case STANDARD: setTranslating(true); break;
+                case NONE: setTranslating(false); break;
+            }
+            if( timestamped ) {
+                setCriteria(key, "timestamp");
             }
             else {
-                str.append(TranslatorLoader.class.getName());
+                setCriteria(key);
             }
-            str.append(" {\n");
-            str.append("public ");
-            str.append(cname);
-            str.append("() { }\n");
-            str.append("public String getTable() { return ");
-            str.append("getSqlNameForClassName(\"" + t.getName() + "\") + \"_translation\"; }");
-            str.append("}\n");
-            return compile(fcn, cname, str.toString());
         }
-        finally {
-            logger.debug("exit - compileTranslator(Class)");
+    }
+    
+    static private Criterion[] toCriteria(SearchTerm[] terms) {
+        Criterion[] criteria = new Criterion[terms.length];
+        
+        for( int i=0; i<terms.length; i++ ) {
+            criteria[i] = new Criterion(terms[i].getColumn(), terms[i].getOperator());
         }
+        return criteria;
     }
     
     /**
@@ -206,45 +384,47 @@ public final class PersistentFactory<T> {
      */
     static public final String LISTING = "listing";
     
-    static private boolean compiling = false;
-    
     /**
      * The cache of objects in memory.
      */
     private ConcurrentMultiCache<T>                    cache      = null;
     /**
-     * A mapping of single attribute counters to the query associated with them.
+     * The maximum number of rows per JDBC batch for bulk operations.
+     */
+    private int                                        batchSize    = Execution.getDefaultBatchSize();
+    /**
+     * Whether updates write only the fields that differ from the cached instance.
      */
-    private HashMap<String,Class<? extends Execution>> counters     = new HashMap<String,Class<? extends Execution>>();
+    private boolean                                    changeTracking = Execution.isChangeTrackingByDefault();
     /**
-     * The class of an update execution, if any.
+     * A mapping of single attribute counters to the query associated with them.
      */
-    private Class<? extends Execution>                 create       = null;
+    private ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>> counters = new ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>>();
     /**
      * Dependency delegate for managing any dependencies.
      */
     private DependencyManager<T>                       dependency   = null;
     private ExportHook<T>                              exportHook   = null;
     private ImportHook<T>                              importHook   = null;
-    private HashMap<String,Class<? extends Execution>> joins        = new HashMap<String,Class<? extends Execution>>();
-    private HashMap<String,Class<? extends Execution>> joinCounters = new HashMap<String,Class<? extends Execution>>();
+    private ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>> joins = new ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>>();
+    private ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>> joinCounters = new ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>>();
     private String                                     key          = null;
     /**
-     * A mapping of single attribute searches to the query associated with them.
+     * Values recently found to be missing from single value lookups, null if negative caching is off.
      */
-    private HashMap<String,Class<? extends Execution>> searches     = new HashMap<String,Class<? extends Execution>>();
+    private volatile NegativeCache                     negativeCache = null;
     /**
-     * A mapping of unique ID searches to the query associated with them.
+     * A mapping of single attribute searches to the query associated with them.
      */
-    private HashMap<String,Class<? extends Execution>> singletons = new HashMap<String,Class<? extends Execution>>();
+    private ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>> searches = new ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>>();
     /**
-     * The class of an update execution, if any.
+     * A mapping of unique ID searches to the query associated with them.
      */
-    private Class<? extends Execution>                 update     = null;
+    private ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>> singletons = new ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>>();
     /**
-     * The class of a delete execution, if any.
+     * The create, update, and remove executions, keyed by operation.
      */
-    private Class<? extends Execution>                 remove     = null;    
+    private ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>> operations = new ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>>();
     /**
      * The translation method for the objects managed by this factory.  
      */
@@ -269,8 +449,9 @@ public final class PersistentFactory<T> {
     @Deprecated
     public PersistentFactory(Class<T> cls, boolean custom, String ... keys) {
         super();
-        cache = new ConcurrentMultiCache<T>(cls, keys);
+        cache = createCache(cls, keys);
         key = keys[0];
+        negativeCache = NegativeCache.getInstance(cls.getName());
         if (custom) {
         	translationMethod = AutomatedSql.TranslationMethod.CUSTOM;
         }
@@ -284,8 +465,9 @@ public final class PersistentFactory<T> {
      */
     public PersistentFactory(Class<T> cls, AutomatedSql.TranslationMethod transMeth, String ... keys) {
         super();
-        cache = new ConcurrentMultiCache<T>(cls, keys);
+        cache = createCache(cls, keys);
         key = keys[0];
+        negativeCache = NegativeCache.getInstance(cls.getName());
     	translationMethod = transMeth;       
     }
     
@@ -295,7 +477,7 @@ public final class PersistentFactory<T> {
      * @param cls the class of the query that performs the count
      */
     public void addCounter(String field, Class<? extends Execution> cls) {
-        counters.put(field, cls);
+        counters.put(field, CompletableFuture.completedFuture(ExecutionTemplate.forClass(cls)));
     }
     
     /**
@@ -304,7 +486,7 @@ public final class PersistentFactory<T> {
      * @param cls the class of the query that performs the search
      */
     public void addSearch(String field, Class<? extends Execution> cls) {
-        searches.put(field, cls);
+        searches.put(field, CompletableFuture.completedFuture(ExecutionTemplate.forClass(cls)));
     }
     
     /**
@@ -313,874 +495,179 @@ public final class PersistentFactory<T> {
      * @param cls the class of the query that performs the search
      */
     public void addSingleton(String field, Class<? extends Execution> cls) {
-        singletons.put(field, cls);
+        singletons.put(field, CompletableFuture.completedFuture(ExecutionTemplate.forClass(cls)));
     }
 
-    static private transient long executionTime = -1L;
-    static private transient String dsnJar = null;
-    
-    @SuppressWarnings({ "unchecked", "restriction" })
-    static private Class<? extends Execution> compile(String fcn, String cname, String java) throws PersistenceException {
-        /*
-        System.out.println("Compiling: " + fcn);
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        JavaFileManager fileManager = new ClassFileManager(compiler.getStandardFileManager(null, null, null));
-        List<JavaFileObject> jfiles = new ArrayList<JavaFileObject>();
-        
-        jfiles.add(new CharSequenceJavaFileObject(fcn, java));
-        
-        List<String> optionList = new ArrayList<String>();
-        
-        if( dsnJar == null ) {
-            String pl, ul;
-
-            if( persistenceLib == null ) {
-                pl = (classDirectory + "/../lib/dasein-persistence.jar").replaceAll("\\\\", "\\\\");
-            }
-            else {
-                pl = persistenceLib;
-            }
-            if( utilitiesLib == null ) {
-                ul = classDirectory + "/../lib/dasein-utilities.jar";
-            }
-            else {
-                ul = utilitiesLib;
-            }
-            dsnJar = pl + File.pathSeparator + ul;
-        }
+    private String getTemplateName(String kind, String suffix) {
+        return "org.dasein.persist.runtime." + kind + "." + cache.getTarget().getName() + suffix;
+    }
+    
+    /**
+     * Provides the template for a statement signature, building it on first use. The first caller
+     * for a signature builds the template and any concurrent callers for the same signature wait
+     * for that result, while different signatures are built independently.
+     * @param map the templates of one kind, keyed by signature
+     * @param key the signature
+     * @param builder builds the template if there is none yet
+     * @return the template for the signature
+     * @throws PersistenceException the template could not be built
+     */
+    private ExecutionTemplate getTemplate(ConcurrentHashMap<String,CompletableFuture<ExecutionTemplate>> map, String key, Supplier<ExecutionTemplate> builder) throws PersistenceException {
+        CompletableFuture<ExecutionTemplate> future = map.get(key);
         
-        System.out.println("CLASSPATH=" + dsnJar);
-        optionList.addAll(Arrays.asList("-classpath", dsnJar));
-        try {
-            System.out.println("Compilinig: " + fcn);
-            compiler.getTask(null, fileManager, null, optionList, null, jfiles).call();
-        }
-        catch( Throwable t ) {
-            t.printStackTrace();
-            throw new PersistenceException(t.getMessage());
-        }
-        try {
-            System.out.println("Loading: " + fcn);
-            return (Class<? extends Execution>)Class.forName(fcn);
-            //return (Class<? extends Execution>)fileManager.getClassLoader(null).loadClass(fcn);
-        }
-        catch( Throwable t ) {
-            t.printStackTrace();
-            throw new PersistenceException(t.getMessage());
-        }
-        */
-        logger.debug("enter - compile(String,String,String)");
-        try {
-            if( logger.isDebugEnabled() ) {
-                logger.debug(fcn + "/" + cname);
-            }
-            String fname = System.getProperty("java.io.tmpdir");
-            File src, tmp;
-            String pre;
+        if( future == null ) {
+            CompletableFuture<ExecutionTemplate> created = new CompletableFuture<ExecutionTemplate>();
             
-            if( fname == null ) {
-                fname = "";
-            }
-            if( !fname.endsWith("/") ) {
-                fname = fname + "/";
-            }
-            synchronized( PersistentFactory.class ) {
-                if( executionTime == -1L ) {
-                    long now = System.currentTimeMillis();
-                
-                    pre = String.valueOf(now);
-                    tmp = new File(fname + pre);
-                    while( tmp.exists() ) {
-                        now++;
-                        pre = String.valueOf(now);
-                        tmp = new File(fname + pre);
-                    }
-                    tmp.mkdir();
-                    executionTime = now;
-                }
-                else {
-                    tmp = new File(fname + executionTime);
-                }
-                pre = String.valueOf(executionTime);
-            }
-            fname = fname + pre + "/";
-            src = new File(mkdir(fname, fcn) + "/" + cname + ".java");
-            src.deleteOnExit();
-            try {   
-                OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(src));
-                BufferedWriter writer = new BufferedWriter(out);
-                
-                writer.write(java);
-                writer.flush();
-                writer.close();
-            }
-            catch( IOException e ) {
-                e.printStackTrace();
-                throw new PersistenceException(e.getMessage());
-            }
-
-            if( dsnJar == null ) {
-                String pl, ul;
-
-                if( persistenceLib == null ) {
-                    pl = (classDirectory + "/../lib/dasein-persistence.jar").replaceAll("\\\\", "\\\\");
+            future = map.putIfAbsent(key, created);
+            if( future == null ) {
+                future = created;
+                try {
+                    created.complete(builder.get());
                 }
-                else {
-                    pl = persistenceLib;
-                }
-                if( utilitiesLib == null ) {
-                    ul = classDirectory + "/../lib/dasein-utilities.jar";
-                }
-                else {
-                    ul = utilitiesLib;
+                catch( Throwable t ) {
+                    // let a later caller try again
+                    map.remove(key, created);
+                    created.completeExceptionally(t);
                 }
-                dsnJar = pl + File.pathSeparator + ul;
-            }
-            logger.debug("dsnJar = " + dsnJar);
-            try {
-                com.sun.tools.javac.Main.compile(new String[] { "-classpath", dsnJar, "-d", classDirectory, src.getAbsolutePath() });
-            }
-            catch( Throwable t ) {
-                t.printStackTrace();
-                throw new PersistenceException(t.getMessage());
-            }
-            try {
-                return (Class<? extends Execution>)Class.forName(fcn);
-            }
-            catch( Throwable t) {
-                t.printStackTrace();
-                throw new PersistenceException(t.getMessage());
             }
         }
-        finally {
-            logger.debug("exit - compile(String,String,String)");
-        }
-    }
-    
-    private void compileCounter(SearchTerm[] terms, Map<String,Class<? extends Execution>> map) throws PersistenceException {
-        logger.debug("enter - compileCounter(String,Map)");
         try {
-        	String key = getExecKey(terms, false);
-        	
-            synchronized( this ) {
-                while( compiling && !map.containsKey(key) ) {
-                    try { wait(100L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                if( map.containsKey(key) ) {
-                    return;
-                }
-                compiling = true;
-            }
-            try {
-                Class<? extends Execution> cls;
-                StringBuilder str = new StringBuilder();
-                Class<T> t = cache.getTarget();
-                String cname, fcn;
-                String[] parts;
-    
-                fcn = "org.dasein.persist.runtime.counters.";
-                str.append("package org.dasein.persist.runtime.counters");
-                parts = t.getName().split("\\.");
-                if( parts.length > 1 ) {
-                    for( int i=0; i<parts.length-1; i++ ) {
-                        str.append(".");
-                        str.append(parts[i]);
-                        fcn += parts[i];
-                        fcn += ".";
-                    }
-                    cname = parts[parts.length-1];
-                    fcn += cname;
-                }
-                else {
-                    cname = t.getName();
-                    fcn += cname;
-                }
-                if( terms != null && terms.length > 0 ) {
-                    for( SearchTerm term : terms ) {
-                        cname = cname + "_" + term.getColumn();
-                        fcn = fcn + "_" + term.getColumn();
-                        if( terms.length > 1 ) {
-                            cname = cname + "_" + term.getOperator().name();
-                            fcn = fcn + "_" + term.getOperator().name();
-                        }
-                    }
-                }
-                // we should try to find away to check if the class already exists
-                // however, a check for the class in this thread will prevent a further check from
-                // finding the class, even after we have compiled it
-                str.append(";\n\n");
-                str.append("import org.dasein.persist.jdbc.Counter;\n\n");
-                str.append("public class ");
-                str.append(cname);
-                str.append(" extends ");
-                str.append(Counter.class.getName());
-                str.append(" {\n");
-                str.append("public ");
-                str.append(cname);
-                str.append("() {\n");
-                str.append("setTarget(\"");
-                str.append(t.getName());
-                str.append("\");\n");
-                if( terms != null && terms.length > 0 ) {
-                    str.append("setCriteria(");
-                    if( terms.length == 1 && terms[0].getOperator().equals(Operator.EQUALS) ) {
-                        str.append("\"");
-                        str.append(terms[0].getColumn());
-                        str.append("\"");
-                    }
-                    else {
-                        for( int i=0; i<terms.length; i++ ) {
-                            if( i > 0 ) {
-                                str.append(", ");
-                            }
-                            str.append("new Criterion(\"");
-                            str.append(terms[i].getColumn());
-                            str.append("\", Operator.");
-                            str.append(terms[i].getOperator().name());
-                            str.append(")");
-                        }
-                    }
-                    str.append(");\n");
-                }
-                str.append("}\n");
-                str.append("public boolean isReadOnly() { return true; }\n");
-                str.append("}\n");
-                cls = compile(fcn, cname, str.toString());
-                synchronized( this ) {
-                    map.put(key, cls);
-                    notifyAll();
-                }
-            }
-            finally {
-                synchronized( this ) {
-                    compiling = false;
-                    notifyAll();
-                }
-            }
+            return future.get();
         }
-        finally {
-            logger.debug("exit - compileCounter(String,Map)");
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted waiting for " + key + " on " + cache.getTarget().getName());
         }
-    }
-
-    private void compileCreator() throws PersistenceException {
-        logger.debug("enter - compileCreator()");
-        try {
-            if( logger.isDebugEnabled() ) {
-                logger.debug("For: " + cache.getTarget().getName());
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            
+            if( cause instanceof PersistenceException ) {
+                throw (PersistenceException)cause;
             }
-            synchronized( this ) {
-                while( compiling && create == null ) {
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                if( create != null  ) {
-                    return;
-                }
-                compiling = true;
+            if( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
             }
-            try {
-                Class<? extends Execution> cls;
-                StringBuilder str = new StringBuilder();
-                Class<T> t = cache.getTarget();
-                String cname, fcn;
-                String[] parts;
-    
-                fcn = "org.dasein.persist.runtime.creators.";
-                str.append("package org.dasein.persist.runtime.creators");
-                parts = t.getName().split("\\.");
-                if( parts.length > 1 ) {
-                    for( int i=0; i<parts.length-1; i++ ) {
-                        str.append(".");
-                        str.append(parts[i]);
-                        fcn += parts[i];
-                        fcn += ".";
-                    }
-                    cname = parts[parts.length-1];
-                    fcn += cname;
-                }
-                else {
-                    cname = t.getName();
-                    fcn += cname;
-                }
-                // we should try to find away to check if the class already exists
-                // however, a check for the class in this thread will prevent a further check from
-                // finding the class, even after we have compiled it
-                str.append(";\n\n");
-                str.append("import org.dasein.persist.jdbc.Creator;\n\n");
-                str.append("public class ");
-                str.append(cname);
-                str.append(" extends ");
-                str.append(Creator.class.getName());
-                str.append(" {\n");
-                str.append("public ");
-                str.append(cname);
-                str.append("() {\n");
-                str.append("setTarget(\"");
-                str.append(t.getName());
-                str.append("\");\n");
-                
-                switch (translationMethod) {
-                	case CUSTOM: str.append("setCustomTranslating();"); break;
-                	case STANDARD: str.append("setTranslating(true);"); break;
-                	case NONE: str.append("setTranslating(false);"); break;
-                }
-                
-                str.append("}\n");
-                str.append("}\n");
-                cls = compile(fcn, cname, str.toString());
-                synchronized( this ) {
-                    create = cls;
-                    notifyAll();
-                }
-            }
-            finally {
-                synchronized( this ) {
-                    compiling = false;
-                    notifyAll();
-                }
+            if( cause instanceof Error ) {
+                throw (Error)cause;
             }
-        }
-        finally {
-            logger.debug("exit - compileCreator()");
+            throw new PersistenceException((Exception)cause);
         }
     }
     
-    private void compileDeleter() throws PersistenceException {
-        logger.debug("enter - compileDeleter()");
-        try {
-            if( logger.isDebugEnabled() ) {
-                logger.debug("For: " + cache.getTarget().getName());
-            }
-            synchronized( this ) {
-                while( compiling && remove == null ) {
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                if( remove != null  ) {
-                    return;
-                }
-                compiling = true;
-            }
-            try {
-                Class<? extends Execution> cls;
-                StringBuilder str = new StringBuilder();
-                Class<T> t = cache.getTarget();
-                String cname, fcn;
-                String[] parts;
-    
-                fcn = "org.dasein.persist.runtime.deleters.";
-                str.append("package org.dasein.persist.runtime.deleters");
-                parts = t.getName().split("\\.");
-                if( parts.length > 1 ) {
-                    for( int i=0; i<parts.length-1; i++ ) {
-                        str.append(".");
-                        str.append(parts[i]);
-                        fcn += parts[i];
-                        fcn += ".";
-                    }
-                    cname = parts[parts.length-1];
-                    fcn += cname;
-                }
-                else {
-                    cname = t.getName();
-                    fcn += cname;
-                }
-                // we should try to find away to check if the class already exists
-                // however, a check for the class in this thread will prevent a further check from
-                // finding the class, even after we have compiled it
-                str.append(";\n\n");
-                str.append("public class ");
-                str.append(cname);
-                str.append(" extends ");
-                str.append(Deleter.class.getName());
-                str.append(" {\n");
-                str.append("public ");
-                str.append(cname);
-                str.append("() {\n");
-                str.append("setTarget(\"");
-                str.append(t.getName());
-                str.append("\");\n");
-                switch (translationMethod) {
-	            	case CUSTOM: str.append("setCustomTranslating();"); break;
-	            	case STANDARD: str.append("setTranslating(true);"); break;
-	            	case NONE: str.append("setTranslating(false);"); break;
-                }
-                str.append("setCriteria(\"");
-                str.append(getKey());
-                str.append("\");\n");
-                str.append("}\n");
-                str.append("}\n");
-                cls = compile(fcn, cname, str.toString());
-                synchronized( this ) {
-                    remove = cls;
-                    notifyAll();
-                }
-            }
-            finally {
-                synchronized( this ) {
-                    compiling = false;
-                    notifyAll();
+    private String getSuffix(SearchTerm[] terms) {
+        StringBuilder suffix = new StringBuilder();
+        
+        if( terms != null ) {
+            for( SearchTerm term : terms ) {
+                suffix.append("_");
+                suffix.append(term.getColumn());
+                if( terms.length > 1 ) {
+                    suffix.append("_");
+                    suffix.append(term.getOperator().name());
                 }
             }
         }
-        finally {
-            logger.debug("exit - compileDeleter()");
-        }
+        return suffix.toString();
     }
     
-    private void compileJoin(Class<? extends Object> jc, String field, String join) throws PersistenceException {
-        logger.debug("enter - compileJoin(Class,String,String)");
-        try {
-            if( logger.isDebugEnabled() ) {
-                logger.debug("For: " + cache.getTarget().getName() + "/" + jc.getName() + "/" + field + "/" + join);
-            }
-            String sField = getSqlName(field);
-            String sJoin = getSqlName(join);
-            String jcn = jc.getName();
-            
-            synchronized( this ) {
-                while( compiling && !joins.containsKey(jcn) ) {
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                if( joins.containsKey(jcn) ) {
-                    return;
-                }
-                compiling = true;
-            }
-            try {
-                Class<? extends Execution> cls;
-                StringBuilder str = new StringBuilder();
-                Class<T> t = cache.getTarget();
-                String fcn, cname, table;
-                String[] parts;
-    
-                fcn = "org.dasein.persist.runtime.joins.";
-                str.append("package org.dasein.persist.runtime.joins");
-                parts = t.getName().split("\\.");
-                if( parts.length > 1 ) {
-                    for( int i=0; i<parts.length-1; i++ ) {
-                        str.append(".");
-                        str.append(parts[i]);
-                        fcn += parts[i];
-                        fcn += ".";
-                    }
-                    cname = parts[parts.length-1];
-                }
-                else {
-                    cname = t.getName();
-                }
-                parts = jc.getName().split("\\.");
-                if( parts.length > 1 ) {
-                    cname = cname + "_" + parts[parts.length-1];
-                }
-                else {
-                    cname = cname + "_" + jc.getName();
-                }            
-                cname = cname + "_" + field + "_" + join;
-                fcn = fcn + cname;
-                // we should try to find away to check if the class already exists
-                // however, a check for the class in this thread will prevent a further check from
-                // finding the class, even after we have compiled it
-                str.append(";\n\n");
-                str.append("public class ");
-                str.append(cname);
-                str.append(" extends ");
-                str.append(Loader.class.getName());
-                str.append(" {\n");
-                str.append("public ");
-                str.append(cname);
-                str.append("() {\n");
-                str.append("setTarget(\"");
-                str.append(t.getName());
-                str.append("\");\n");
-                switch (translationMethod) {
-	            	case CUSTOM: str.append("setCustomTranslating();"); break;
-	            	case STANDARD: str.append("setTranslating(true);"); break;
-	            	case NONE: str.append("setTranslating(false);"); break;
-	            }
-                str.append("}\n");
-                
-                str.append("private String sql = null;\n");
-                str.append("public String getStatement(java.sql.Connection conn) throws java.sql.SQLException {\n");
-                str.append("if( sql == null ) {\n");
-                str.append("StringBuilder str = new StringBuilder();\n");
-                str.append("str.append(super.getStatement(conn));\n");
-                table = getJoinTable(t, jc);
-                str.append("str.append(\", \" +");
-                str.append("getIdentifier(\"");
-                str.append(table);
-                str.append("\")");
-                str.append(");\n");
-                str.append("str.append(\" WHERE \" + getIdentifier(getSqlNameForClassName(\"");
-                str.append(t.getName());
-                str.append("\"), \"");
-                str.append(sField);
-                str.append("\"));\n");
-                str.append("str.append(\" = \");\n");
-                str.append("str.append(getIdentifier(\"");
-                str.append(table);
-                str.append("\", \"");
-                str.append(sField);
-                str.append("\"));\n");
-                str.append("str.append(\" AND \");\n");
-                str.append("str.append(getIdentifier(\"");
-                str.append(table);
-                str.append("\", \"");
-                str.append(sJoin);
-                str.append("\"));\n");
-                str.append("str.append(\" = ?\");\n");            
-                str.append("sql = str.toString();\n");
-                str.append("}\n");
-                str.append("return sql;\n");
-                str.append("}\n");
-                str.append("public void prepare(java.util.Map<String,Object> params) throws java.sql.SQLException {\n");
-                str.append("prepareFor(\"");
-                str.append(join);
-                str.append("\", 1, params.get(\"");
-                str.append(join);
-                str.append("\"), \"");
-                str.append(jc.getName());
-                str.append("\");\n");
-                str.append("}\n");
-                str.append("}\n");
-                cls = compile(fcn, cname, str.toString());
-                synchronized( this ) {
-                    joins.put(jcn, cls);
-                    notifyAll();
-                }
+    private ExecutionTemplate buildCounter(final SearchTerm[] terms) {
+        final Class<T> t = cache.getTarget();
+        
+        Warmup.record(t, QuerySignature.count(terms));
+        return new ExecutionTemplate(getTemplateName("counters", getSuffix(terms))) {
+            protected Execution create() {
+                return new SearchCounter(t, terms);
             }
-            finally {
-                synchronized( this ) {
-                    compiling = false;
-                    notifyAll();
-                }
+        };
+    }
+
+    private ExecutionTemplate buildCreator() {
+        final Class<T> t = cache.getTarget();
+        final AutomatedSql.TranslationMethod method = translationMethod;
+        
+        return new ExecutionTemplate(getTemplateName("creators", "")) {
+            protected Execution create() {
+                return new FactoryCreator(t, method);
             }
-        }
-        finally {
-            logger.debug("exit - compileJoin(Class,String,String)");
-        }
+        };
     }
     
-    private void compileJoinCounter(Class<? extends Object> jc, String field, String join) throws PersistenceException {
-        String jcn = jc.getName();
+    private ExecutionTemplate buildDeleter() {
+        final Class<T> t = cache.getTarget();
+        final AutomatedSql.TranslationMethod method = translationMethod;
+        final String k = getKey();
         
-        synchronized( this ) {
-            while( compiling && !joinCounters.containsKey(jcn) ) {
-                try { wait(1000L); }
-                catch( InterruptedException ignore ) { /* ignore this */ }
-            }
-            if( joinCounters.containsKey(jcn) ) {
-                return;
-            }
-            compiling = true;
-        }
-        try {
-            Class<? extends Execution> cls;
-            StringBuilder str = new StringBuilder();
-            Class<T> t = cache.getTarget();
-            String fcn, cname, table;
-            String[] parts;
-
-            fcn = "org.dasein.persist.runtime.jc.";
-            str.append("package org.dasein.persist.runtime.jc");
-            parts = t.getName().split("\\.");
-            if( parts.length > 1 ) {
-                for( int i=0; i<parts.length-1; i++ ) {
-                    str.append(".");
-                    str.append(parts[i]);
-                    fcn += parts[i];
-                    fcn += ".";
-                }
-                cname = parts[parts.length-1];
-                fcn += cname;
-            }
-            else {
-                cname = t.getName();
-                fcn += cname;
-            }
-            cname = cname + "_" + field + "_" + join;
-            fcn = fcn + "_" + field + "_" + join;
-            // we should try to find away to check if the class already exists
-            // however, a check for the class in this thread will prevent a further check from
-            // finding the class, even after we have compiled it
-            str.append(";\n\n");
-            str.append("public class ");
-            str.append(cname);
-            str.append(" extends ");
-            str.append(Counter.class.getName());
-            str.append(" {\n");
-            str.append("public ");
-            str.append(cname);
-            str.append("() {\n");
-            str.append("setTarget(\"");
-            str.append(t.getName());
-            str.append("\");\n");
-            str.append("setTranslating(false);");
-            str.append("}\n");
-            
-            str.append("private String sql = null;\n");
-            str.append("public String getStatement(java.sql.Connection conn) throws java.sql.SQLException {\n");
-            str.append("if( sql == null ) {\n");
-            str.append("StringBuilder str = new StringBuilder();\n");
-            str.append("str.append(super.getStatement(conn));\n");
-            table = getJoinTable(t, jc);
-            str.append("str.append(\", \" +");
-            str.append("getIdentifier(\"");
-            str.append(table);
-            str.append("\")");
-            str.append(");\n");
-            str.append("str.append(\" WHERE \" + getIdentifier(getTableName(");
-            str.append(t.getClass().getName());
-            str.append("), \"");
-            str.append(field);
-            str.append("\"));\n");
-            str.append("str.append(\" = \");\n");
-            str.append("str.append(getIdentifier(\"");
-            str.append(table);
-            str.append("\", \"");
-            str.append(field);
-            str.append("));\n");
-            str.append("str.append(\" AND \");\n");
-            str.append("str.append(getIdentifier(\"");
-            str.append(table);
-            str.append("\", \"");
-            str.append(key);
-            str.append("\"));\n");
-            str.append("str.append(\" = ?\");\n");            
-            str.append("sql = str.toString();\n");
-            str.append("}\n");
-            str.append("return sql;\n");
-            str.append("}\n");
-            
-            str.append("}\n");
-            cls = compile(fcn, cname, str.toString());
-            synchronized( this ) {
-                joins.put(jcn, cls);
-                notifyAll();
+        return new ExecutionTemplate(getTemplateName("deleters", "")) {
+            protected Execution create() {
+                return new FactoryDeleter(t, method, k);
             }
+        };
+    }
+    
+    private ExecutionTemplate buildJoin(final Class<? extends Object> jc, String field, final String join) {
+        if( logger.isDebugEnabled() ) {
+            logger.debug("For: " + cache.getTarget().getName() + "/" + jc.getName() + "/" + field + "/" + join);
         }
-        finally {
-            synchronized( this ) {
-                compiling = false;
-                notifyAll();
+        final String sField = getSqlName(field);
+        final String sJoin = getSqlName(join);
+        final Class<T> t = cache.getTarget();
+        final AutomatedSql.TranslationMethod method = translationMethod;
+        final String table = getJoinTable(t, jc);
+        
+        return new ExecutionTemplate(getTemplateName("joins", "_" + jc.getSimpleName() + "_" + field + "_" + join)) {
+            protected Execution create() {
+                return new JoinLoader(t, method, table, sField, sJoin, join, jc.getName());
             }
-        }
+        };
     }
     
-    private void compileLoader(SearchTerm[] terms, Map<String,Class<? extends Execution>> map, Boolean orderDesc, String ... orderFields) throws PersistenceException {
-        logger.debug("enter - compileLoader(String,Map)");
-        try {
-            String key = getExecKey(terms, orderDesc, orderFields);
-            
-            synchronized( this ) {
-                while( compiling && !map.containsKey(key) ) {
-                    try { wait(100L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                if( map.containsKey(key) ) {
-                    return;
-                }
-                compiling = true;
-            }
-            try {
-                Class<? extends Execution> cls;
-                StringBuilder str = new StringBuilder();
-                Class<T> t = cache.getTarget();
-                String cname, fcn;
-                String[] parts;
-    
-                fcn = "org.dasein.persist.runtime.loaders.";
-                str.append("package org.dasein.persist.runtime.loaders");
-                parts = t.getName().split("\\.");
-                if( parts.length > 1 ) {
-                    for( int i=0; i<parts.length-1; i++ ) {
-                        str.append(".");
-                        str.append(parts[i]);
-                        fcn += parts[i];
-                        fcn += ".";
-                    }
-                    cname = parts[parts.length-1];
-                    fcn += cname;
-                }
-                else {
-                    cname = t.getName();
-                    fcn += cname;
-                }
-                if( terms != null && terms.length > 0 ) {
-                    for( SearchTerm term : terms ) {
-                        cname = cname + "_" + term.getColumn();
-                        fcn = fcn + "_" + term.getColumn();
-                        if( terms.length > 1 ) {
-                            cname = cname + "_" + term.getOperator().name();
-                            fcn = fcn + "_" + term.getOperator().name();
-                        }
-                    }
-                }
-                // we should try to find away to check if the class already exists
-                // however, a check for the class in this thread will prevent a further check from
-                // finding the class, even after we have compiled it
-                str.append(";\n\n");
-                str.append("public class ");
-                str.append(cname);
-                str.append(" extends ");
-                str.append(Loader.class.getName());
-                str.append(" {\n");
-                str.append("public ");
-                str.append(cname);
-                str.append("() {\n");
-                str.append("setTarget(\"");
-                str.append(t.getName());
-                str.append("\");\n");
-                if( terms != null && terms.length > 0 ) {
-                    str.append("setCriteria(");
-                    if( terms.length == 1 && terms[0].getOperator().equals(Operator.EQUALS) ) {
-                        str.append("\"");
-                        str.append(terms[0].getColumn());
-                        str.append("\"");
-                    }
-                    else {
-                        for( int i=0; i<terms.length; i++ ) {
-                            if( i > 0 ) {
-                                str.append(", ");
-                            }
-                            str.append("new Criterion(\"");
-                            str.append(terms[i].getColumn());
-                            str.append("\", Operator.");
-                            str.append(terms[i].getOperator().name());
-                            str.append(")");
-                        }
-                    }
-                    str.append(");\n");
-                }
-                switch (translationMethod) {
-	            	case CUSTOM: str.append("setCustomTranslating();"); break;
-	            	case STANDARD: str.append("setTranslating(true);"); break;
-	            	case NONE: str.append("setTranslating(false);"); break;
-	            }
-                if( orderDesc != null ) {
-                    str.append("setOrder(");
-                    if( orderDesc ) {
-                        str.append("true");
-                    }
-                    else {
-                        str.append("false");
-                    }
-                    for( String f : orderFields ) {
-                        str.append(", \"");
-                        str.append(f);
-                        str.append("\"");
-                    }
-                    str.append(");");
-                }
-                str.append("}\n");
-                str.append("public boolean isReadOnly() { return true; }\n");
-                str.append("}\n");
-                cls = compile(fcn, cname, str.toString());
-                synchronized( this ) {
-                    map.put(key, cls);
-                    notifyAll();
-                }
-            }
-            finally {
-                synchronized( this ) {
-                    compiling = false;
-                    notifyAll();
-                }
+    private ExecutionTemplate buildJoinCounter(final Class<? extends Object> jc, String field, final String join) {
+        final String sField = getSqlName(field);
+        final String sJoin = getSqlName(join);
+        final Class<T> t = cache.getTarget();
+        final String table = getJoinTable(t, jc);
+        
+        return new ExecutionTemplate(getTemplateName("jc", "_" + field + "_" + join)) {
+            protected Execution create() {
+                return new JoinCounter(t, table, sField, sJoin, join, jc.getName());
             }
-        }
-        finally {
-            logger.debug("exit - compileLoader(String,Map)");
-        }
+        };
     }
     
-    private void compileUpdater() throws PersistenceException {
-        synchronized( this ) {
-            while( compiling && update == null ) {
-                try { wait(1000L); }
-                catch( InterruptedException ignore ) { /* ignore this */ }
-            }
-            if( update != null  ) {
-                return;
+    private ExecutionTemplate buildLoader(final SearchTerm[] terms, final Boolean orderDesc, final String ... orderFields) {
+        final Class<T> t = cache.getTarget();
+        final AutomatedSql.TranslationMethod method = translationMethod;
+        
+        Warmup.record(t, QuerySignature.find(terms, orderDesc, orderFields));
+        return new ExecutionTemplate(getTemplateName("loaders", getSuffix(terms))) {
+            protected Execution create() {
+                return new SearchLoader(t, terms, method, orderDesc, orderFields);
             }
-            compiling = true;
-        }
+        };
+    }
+    
+    private ExecutionTemplate buildUpdater() {
+        final Class<T> t = cache.getTarget();
+        final AutomatedSql.TranslationMethod method = translationMethod;
+        final String k = getKey();
+        boolean lm = false;
+        
         try {
-            Class<? extends Execution> cls;
-            StringBuilder str = new StringBuilder();
-            Class<T> t = cache.getTarget();
-            Field lastModified = null;
-            String cname, fcn;
-            String[] parts;
-
-            fcn = "org.dasein.persist.runtime.updaters.";
-            str.append("package org.dasein.persist.runtime.updaters");
-            try {
-                lastModified = t.getField("lastModified");
-            }
-            catch( SecurityException ignore ) {
-                // ignore
-            }
-            catch( NoSuchFieldException ignore ) {
-                // ignore
-            }
-            parts = t.getName().split("\\.");
-            if( parts.length > 1 ) {
-                for( int i=0; i<parts.length-1; i++ ) {
-                    str.append(".");
-                    str.append(parts[i]);
-                    fcn += parts[i];
-                    fcn += ".";
-                }
-                cname = parts[parts.length-1];
-                fcn += cname;
-            }
-            else {
-                cname = t.getName();
-                fcn += cname;
-            }
-            // we should try to find away to check if the class already exists
-            // however, a check for the class in this thread will prevent a further check from
-            // finding the class, even after we have compiled it
-            str.append(";\n\n");
-            str.append("public class ");
-            str.append(cname);
-            str.append(" extends ");
-            str.append(Updater.class.getName());
-            str.append(" {\n");
-            str.append("public ");
-            str.append(cname);
-            str.append("() {\n");
-            str.append("setTarget(\"");
-            str.append(t.getName());
-            str.append("\");\n");
-            switch (translationMethod) {
-	        	case CUSTOM: str.append("setCustomTranslating();"); break;
-	        	case STANDARD: str.append("setTranslating(true);"); break;
-	        	case NONE: str.append("setTranslating(false);"); break;
-	        }
-            str.append("setCriteria(\"");
-            str.append(getKey());
-            if( lastModified != null ) {
-                str.append(", timestamp");
-            }
-            str.append("\");\n");
-            str.append("}\n");
-            str.append("}\n");
-            cls = compile(fcn, cname, str.toString());
-            synchronized( this ) {
-                update = cls;
-                notifyAll();
-            }
+            lm = (t.getField("lastModified") != null);
         }
-        finally {
-            synchronized( this ) {
-                compiling = false;
-                notifyAll();
-            }
+        catch( SecurityException ignore ) {
+            // ignore
         }
+        catch( NoSuchFieldException ignore ) {
+            // ignore
+        }
+        final boolean timestamped = lm;
+        
+        return new ExecutionTemplate(getTemplateName("updaters", "")) {
+            protected Execution create() {
+                return new FactoryUpdater(t, method, k, timestamped);
+            }
+        };
     }
     
     /**
@@ -1206,7 +693,7 @@ public final class PersistentFactory<T> {
                 logger.debug("For: " + cache.getTarget().getName() + "/" + field + "/" + val);
             }
             
-            Class<? extends Execution> cls;
+            ExecutionTemplate cls;
             
             SearchTerm[] terms = new SearchTerm[field == null ? 0 : 1];
             
@@ -1217,17 +704,9 @@ public final class PersistentFactory<T> {
             String key = getExecKey(terms, false);
             Map<String,Object> params = toParams(terms);
             
-            synchronized( this ) {
-                while( !counters.containsKey(key) ) {
-                	
-                    compileCounter(terms, counters);
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                cls = counters.get(key);
-            }
+            cls = getTemplate(counters, key, () -> buildCounter(terms));
             if( cls == null ) {
-                throw new PersistenceException("Unable to compile a default counter for field: " + field);
+                throw new PersistenceException("Unable to create a default counter for field: " + field);
             }
             return count(cls, params);
         }
@@ -1239,17 +718,10 @@ public final class PersistentFactory<T> {
     public long count(SearchTerm[] terms) throws PersistenceException {
         logger.debug("enter - count(SearchTerm[])");
         try {
-            Class<? extends Execution> cls;
+            ExecutionTemplate cls;
             String key = getExecKey(terms, false);
                         
-            synchronized( this ) {
-                while( !counters.containsKey(key) ) {
-                    compileCounter(terms, counters);
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                cls = counters.get(key);
-            }        
+            cls = getTemplate(counters, key, () -> buildCounter(terms));
             if( cls == null ) {
                 throw new PersistenceException("No support for counters on " + key);
             }
@@ -1271,7 +743,11 @@ public final class PersistentFactory<T> {
      * @throws PersistenceException an error occurred executing the query.
      */
     public long count(Class<? extends Execution> cls, Map<String,Object> criteria) throws PersistenceException {
-        logger.debug("enter - count(Class,Map)");
+        return count(ExecutionTemplate.forClass(cls), criteria);
+    }
+    
+    private long count(ExecutionTemplate cls, Map<String,Object> criteria) throws PersistenceException {
+        logger.debug("enter - count(ExecutionTemplate,Map)");
         if( logger.isDebugEnabled() ) {
             logger.debug("For: " + cache.getTarget().getName() + "/" + cls + "/" + criteria);
         }
@@ -1291,28 +767,21 @@ public final class PersistentFactory<T> {
             }
         }
         finally {
-            logger.debug("exit - count(Class,Map)");
+            logger.debug("exit - count(ExecutionTemplate,Map)");
         }
     }
     
     public long countJoin(Class<? extends Object> jc, String key, Object val) throws PersistenceException {
         HashMap<String,Object> criteria;
-        Class<? extends Execution> cls;
+        ExecutionTemplate cls;
         String jcn;
         
         jcn = jc.getName();
         criteria = new HashMap<String,Object>();
         criteria.put(key, val);
-        synchronized( this ) {
-            while( !joinCounters.containsKey(jcn) ) {
-                this.compileJoinCounter(jc, getKey(), key);
-                try { wait(1000L); }
-                catch( InterruptedException ignore ) { /* ignore this */ }
-            }
-            cls = joinCounters.get(jcn);
-        }
+        cls = getTemplate(joinCounters, jcn, () -> buildJoinCounter(jc, getKey(), key));
         if( cls == null ) {
-            throw new PersistenceException("Unable to compile a default join counter for: " + jcn);
+            throw new PersistenceException("Unable to create a default join counter for: " + jcn);
         }
         return count(cls, criteria);
     }
@@ -1326,23 +795,48 @@ public final class PersistentFactory<T> {
      * creates are not supported
      */
     public T create(Transaction xaction, Map<String,Object> state) throws PersistenceException {
-        if( create == null ) {
-            synchronized( this ) {
-                while( create == null ) {
-                    compileCreator();
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-            }
-        }
+        ExecutionTemplate cls = getCreate();
+        
         state.put("--key--", getKey());
-        xaction.execute(create, state);
+        xaction.execute(cls, state);
         if( dependency != null ) {
             dependency.createDependencies(xaction, state);
         }
+        invalidateMissing(state);
         return cache.find(state);
     }
     
+    /**
+     * Creates one object for each of the specified states, sending the inserts to the
+     * database in batches.
+     * @param xaction the transaction governing this event
+     * @param states the states for the new objects
+     * @return the new objects in the same order as the states
+     * @throws PersistenceException an error occurred talking to the data store, or
+     * creates are not supported
+     */
+    public Collection<T> createAll(Transaction xaction, List<Map<String,Object>> states) throws PersistenceException {
+        ExecutionTemplate cls = getCreate();
+        ArrayList<T> items = new ArrayList<T>();
+        
+        for( Map<String,Object> state : states ) {
+            state.put("--key--", getKey());
+        }
+        xaction.executeBatch(cls, states, null, batchSize);
+        for( Map<String,Object> state : states ) {
+            if( dependency != null ) {
+                dependency.createDependencies(xaction, state);
+            }
+            invalidateMissing(state);
+            items.add(cache.find(state));
+        }
+        return items;
+    }
+    
+    private ExecutionTemplate getCreate() throws PersistenceException {
+        return getTemplate(operations, "create", () -> buildCreator());
+    }
+    
     /**
      * Executes a search that may return multiple values. The specified field
      * must have been set up by a call to @{link #addSearch(String,Class)}.
@@ -1393,17 +887,10 @@ public final class PersistentFactory<T> {
     public Collection<T> find(SearchTerm[] terms, JiteratorFilter<T> filter, Boolean orderDesc, String ... orderFields) throws PersistenceException {
         logger.debug("enter - find(SearchTerm[], Boolean, String...)");
         try {
-            Class<? extends Execution> cls;
+            ExecutionTemplate cls;
             String key = getExecKey(terms, orderDesc, orderFields);
             
-            synchronized( this ) {
-                while( !searches.containsKey(key) ) {
-                    compileLoader(terms, searches, orderDesc, orderFields);
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                cls = searches.get(key);
-            }        
+            cls = getTemplate(searches, key, () -> buildLoader(terms, orderDesc, orderFields));
             if( cls == null ) {
                 throw new PersistenceException("No support for searches on " + key);
             }
@@ -1421,17 +908,10 @@ public final class PersistentFactory<T> {
         }
         try {
             String cname = jc.getName();
-            Class<? extends Execution> cls;
+            ExecutionTemplate cls;
             SearchTerm[] terms;
             
-            synchronized( this ) {
-                while( !joins.containsKey(cname) ) {
-                    compileJoin(jc, getKey(), key);
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                cls = joins.get(cname);
-            }
+            cls = getTemplate(joins, cname, () -> buildJoin(jc, getKey(), key));
             if( cls == null ) {
                 throw new PersistenceException("No support for joins on " + cname);
             }
@@ -1462,7 +942,7 @@ public final class PersistentFactory<T> {
             for( String key : keys ) {
                 terms[i++] = new SearchTerm(key, Operator.EQUALS, criteria.get(key));
             }
-            return load(cls, null, terms);
+            return load(ExecutionTemplate.forClass(cls), null, terms);
         }
         finally {
             logger.debug("exit - find(Class,Map)");
@@ -1492,23 +972,33 @@ public final class PersistentFactory<T> {
             logger.debug("For: " + cache.getTarget().getName() + "/" + id + "/" + val);
         }
         try {
-            Class<? extends Execution> cls;
+            final ExecutionTemplate cls;
             CacheLoader<T> loader;
             
+            cls = getTemplate(singletons, id, () -> buildLoader(new SearchTerm[] { new SearchTerm(id, Operator.EQUALS, val) }, null));
+            if( cls == null ) {
+                throw new PersistenceException("Queries on the field " + id + " will not return single values.");
+            }
             loader = new CacheLoader<T>() {
                 public T load(Object ... args) {
+                    NegativeCache missing = negativeCache;
+                    long generation = (missing == null ? 0L : missing.getGeneration());
+                    String missingKey = args[0] + "=" + args[1];
                     SearchTerm[] terms = new SearchTerm[1];
                     Collection<T> list;
                     
+                    if( missing != null && missing.contains(missingKey) ) {
+                        return null;
+                    }
                     terms[0] = new SearchTerm((String)args[0], Operator.EQUALS, args[1]);
                     try {
-                        list = PersistentFactory.this.load(singletons.get(args[0]), null, terms);
+                        list = PersistentFactory.this.load(cls, null, terms);
                     }
                     catch( PersistenceException e ) {
                         try {
                             try { Thread.sleep(1000L); }
                             catch( InterruptedException ignore ) { }
-                            list = PersistentFactory.this.load(singletons.get(args[0]), null, terms);
+                            list = PersistentFactory.this.load(cls, null, terms);
                         }
                         catch( Throwable forgetIt ) {
                             e.printStackTrace();
@@ -1516,25 +1006,14 @@ public final class PersistentFactory<T> {
                         }
                     }
                     if( list.isEmpty() ) {
+                        if( missing != null ) {
+                            missing.add(missingKey, generation);
+                        }
                         return null;
                     }
                     return list.iterator().next();
                 }
             };
-            synchronized( this ) {
-                while( !singletons.containsKey(id) ) {
-                    SearchTerm[] terms = new SearchTerm[1];
-                    
-                    terms[0] = new SearchTerm(id, Operator.EQUALS, val);
-                    compileLoader(terms, singletons, null);
-                    try { wait(100L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-                cls = singletons.get(id);
-            }            
-            if( cls == null ) {
-                throw new PersistenceException("Queries on the field " + id + " will not return single values.");
-            }
             logger.debug("Executing cache find...");
             try {
                 return cache.find(id, val, loader, id, val);
@@ -1588,6 +1067,20 @@ public final class PersistentFactory<T> {
         return key.toString();
     }
     
+    /**
+     * Forgets that a new object's values for any single value lookup field are missing.
+     * @param state the state of the new object
+     */
+    private void invalidateMissing(Map<String,Object> state) {
+        NegativeCache missing = negativeCache;
+        
+        if( missing != null ) {
+            for( String field : singletons.keySet() ) {
+                missing.invalidate(field + "=" + state.get(field));
+            }
+        }
+    }
+    
     private String getJoinTable(Class<T> c1, Class<? extends Object> c2) {
         String cname1 = getSqlName(c1);
         String cname2 = getSqlName(c2);
@@ -1605,6 +1098,20 @@ public final class PersistentFactory<T> {
         return key;
     }
 
+    /**
+     * @return the record of values recently found to be missing by {@link #get(String, Object)}, or null if negative caching is off
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+    
+    /**
+     * @return the class of objects managed by this factory
+     */
+    public Class<T> getTarget() {
+        return cache.getTarget();
+    }
+    
     public long getNewKeyValue() throws PersistenceException {
         return Sequencer.getInstance(cache.getTarget().getName() + "." + getKey()).next();
     }
@@ -1685,8 +1192,8 @@ public final class PersistentFactory<T> {
     }
     
     @SuppressWarnings("unchecked")
-    private Collection<T> load(Class<? extends Execution> cls, JiteratorFilter<T> filter, SearchTerm ... usingTerms) throws PersistenceException {
-        logger.debug("enter - load(Class,SearchTerm...)");
+    private Collection<T> load(ExecutionTemplate cls, JiteratorFilter<T> filter, SearchTerm ... usingTerms) throws PersistenceException {
+        logger.debug("enter - load(ExecutionTemplate,SearchTerm...)");
         try {
             Map<String,Object> params = toParams(usingTerms);
             Transaction xaction = Transaction.getInstance(true);
@@ -1698,7 +1205,7 @@ public final class PersistentFactory<T> {
                 
                 results = xaction.execute(cls, params);
                 xaction.commit();
-                Thread t = new Thread() {
+                Runnable r = new Runnable() {
                     public void run() {
                         try {
                             for( Map<String,Object> map: (Collection<Map<String,Object>>)results.get(LISTING) ) {
@@ -1777,9 +1284,12 @@ public final class PersistentFactory<T> {
                     }
                 };
                 
-                t.setDaemon(true);
-                t.setName("Loader");
-                t.start();
+                if( ((Collection<?>)results.get(LISTING)).size() <= LoaderExecutor.getInlineThreshold() ) {
+                    r.run();
+                }
+                else {
+                    LoaderExecutor.getInstance().execute(r);
+                }
                 return new JitCollection<T>(it, cache.getTarget().getName());
             }
             catch( PersistenceException e ) {
@@ -1865,28 +1375,40 @@ public final class PersistentFactory<T> {
         }            
     }
     
-    static private File mkdir(String tmpdir, String fcn) {
-        File f = new File(tmpdir);
-        String[] parts;
-        
-        parts = fcn.split("\\.");
-        if( parts.length < 2 ) {
-            return new File(tmpdir);
-        }
-        for( int i=0; i<parts.length-1; i++ ) {
-            tmpdir = f.getAbsolutePath();
-            if( !tmpdir.endsWith("/") ) {
-                tmpdir = tmpdir + "/";
-            }
-            tmpdir = tmpdir + parts[i];
-            f = new File(tmpdir);
-            if( !f.exists() ) {
-                if( !f.mkdir() ) {
-                    throw new RuntimeException("Failed to make directory: " + tmpdir);
-                }
+    /**
+     * Builds the statement for queries with the specified signature and has the database check it,
+     * so that pooled executions for the signature are ready before the first real query.
+     * @param signature the shape of the query
+     * @throws PersistenceException an error occurred building or checking the query
+     */
+    public void prepare(QuerySignature signature) throws PersistenceException {
+        logger.debug("enter - prepare(QuerySignature)");
+        try {
+            final SearchTerm[] terms = signature.getTerms();
+            ExecutionTemplate cls;
+            
+            if( signature.getKind().equals(QuerySignature.Kind.COUNT) ) {
+                cls = getTemplate(counters, getExecKey(terms, false), () -> buildCounter(terms));
             }
+            else {
+                final Boolean orderDesc = signature.getOrderDesc();
+                final String[] orderFields = signature.getOrderFields();
+                
+                cls = getTemplate(searches, getExecKey(terms, orderDesc, orderFields), () -> buildLoader(terms, orderDesc, orderFields));
+            }
+            Transaction xaction = Transaction.getInstance(true);
+            
+            try {
+                xaction.prepare(cls, null);
+                xaction.commit();
+            }
+            finally {
+                xaction.rollback();
+            }
+        }
+        finally {
+            logger.debug("exit - prepare(QuerySignature)");
         }
-        return f;
     }
     
     /**
@@ -1899,22 +1421,42 @@ public final class PersistentFactory<T> {
     public void remove(Transaction xaction, T item) throws PersistenceException {
         Map<String,Object> keys = cache.getKeys(item);
         
-        if( remove == null ) {
-            synchronized( this ) {
-                while( remove == null ) {
-                    compileDeleter();
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
-            }
-        }
-        xaction.execute(remove, keys);
+        xaction.execute(getRemove(), keys);
         if( dependency != null ) {
             dependency.removeDependencies(xaction, keys);
         }
         cache.release(item);
     }
     
+    /**
+     * Removes each of the specified items from the system permanently, sending the deletes
+     * to the database in batches.
+     * @param xaction the transaction under which this event is occurring
+     * @param items the items to be removed
+     * @throws PersistenceException an error occurred talking to the data store or
+     * removal of these objects is prohibited
+     */
+    public void removeAll(Transaction xaction, Collection<T> items) throws PersistenceException {
+        ArrayList<Map<String,Object>> keys = new ArrayList<Map<String,Object>>();
+        
+        for( T item : items ) {
+            keys.add(cache.getKeys(item));
+        }
+        xaction.executeBatch(getRemove(), keys, null, batchSize);
+        for( Map<String,Object> k : keys ) {
+            if( dependency != null ) {
+                dependency.removeDependencies(xaction, k);
+            }
+        }
+        for( T item : items ) {
+            cache.release(item);
+        }
+    }
+    
+    private ExecutionTemplate getRemove() throws PersistenceException {
+        return getTemplate(operations, "remove", () -> buildDeleter());
+    }
+    
     public void removeTranslations(Transaction xaction, String idstr) throws PersistenceException {
         Map<String,Object> state = new HashMap<String,Object>();
         Class<T> cls = cache.getTarget();
@@ -1941,7 +1483,31 @@ public final class PersistentFactory<T> {
      * @param cls the execution class that creates objects in the data store
      */
     public void setCreate(Class<? extends Execution> cls) {
-        create = cls;
+        if( cls == null ) {
+            operations.remove("create");
+        }
+        else {
+            operations.put("create", CompletableFuture.completedFuture(ExecutionTemplate.forClass(cls)));
+        }
+    }
+    
+    /**
+     * Sets the maximum number of rows sent to the database per JDBC batch by the bulk operations.
+     * @param batchSize the maximum number of rows per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Enables or disables change tracking. With change tracking, an update is compared against the
+     * current values of the cached instance so that only changed columns are written and an update
+     * changing nothing is skipped. The written values are copied onto the cached instance once the
+     * update commits.
+     * @param changeTracking true to write only changed columns
+     */
+    public void setChangeTracking(boolean changeTracking) {
+        this.changeTracking = changeTracking;
     }
     
     /** 
@@ -1960,13 +1526,26 @@ public final class PersistentFactory<T> {
         importHook = hook;
     }
     
+    /**
+     * Sets the record of missing values consulted by {@link #get(String, Object)} before going to the database.
+     * @param negativeCache the negative cache to use, or null to turn negative caching off
+     */
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+    
     /**
      * Sets the class that manages the query that will remove objects in this factory
      * from the data store.
      * @param cls the execution class that removes objects from the data store
      */
     public void setRemove(Class<? extends Execution> cls) {
-        remove = cls;
+        if( cls == null ) {
+            operations.remove("remove");
+        }
+        else {
+            operations.put("remove", CompletableFuture.completedFuture(ExecutionTemplate.forClass(cls)));
+        }
     }
     
     /**
@@ -1975,7 +1554,12 @@ public final class PersistentFactory<T> {
      * @param cls the execution class that updates objects in the data store
      */
     public void setUpdate(Class<? extends Execution> cls) {
-        update = cls;
+        if( cls == null ) {
+            operations.remove("update");
+        }
+        else {
+            operations.put("update", CompletableFuture.completedFuture(ExecutionTemplate.forClass(cls)));
+        }
     }
     
     private void synchronize(Transaction xaction, T target, Map<String,Object> state) throws PersistenceException {
@@ -2038,22 +1622,105 @@ public final class PersistentFactory<T> {
      * updates are not supported
      */
     public void update(Transaction xaction, T item, Map<String,Object> state) throws PersistenceException {
-        if( update == null ) {
-            synchronized( this ) {
-                while( update == null ) {
-                    compileUpdater();
-                    try { wait(1000L); }
-                    catch( InterruptedException ignore ) { /* ignore this */ }
-                }
+        ExecutionTemplate cls;
+        Set<String> changes = null;
+        
+        if( changeTracking ) {
+            changes = EntityMetadata.getInstance(item.getClass()).getChanges(item, state);
+            if( changes.isEmpty() ) {
+                return;
             }
-        }        
+            state.put(Updater.CHANGED, changes);
+        }
+        cls = getUpdate();
         state.put("--key--", getKey());
-        xaction.execute(update, state);
+        xaction.execute(cls, state);
+        applyChanges(xaction, item, state, changes);
         if( dependency != null ) {
             dependency.updateDependencies(xaction, item, state);
         }
     }    
     
+    /**
+     * Updates each of the specified items with the state mapped to it, sending the updates
+     * to the database in batches.
+     * @param xaction the transaction governing this event
+     * @param changes the new state for each item to be updated
+     * @throws PersistenceException an error occurred talking to the data store, or
+     * updates are not supported
+     */
+    public void updateAll(Transaction xaction, Map<T,Map<String,Object>> changes) throws PersistenceException {
+        ExecutionTemplate cls = getUpdate();
+        // a batch shares one statement, so rows are grouped by the set of columns they change
+        LinkedHashMap<Set<String>,List<Map<String,Object>>> batches = new LinkedHashMap<Set<String>,List<Map<String,Object>>>();
+        ArrayList<Map.Entry<T,Map<String,Object>>> updated = new ArrayList<Map.Entry<T,Map<String,Object>>>();
+        
+        for( Map.Entry<T,Map<String,Object>> entry : changes.entrySet() ) {
+            Map<String,Object> state = entry.getValue();
+            Set<String> changed = null;
+            
+            if( changeTracking ) {
+                changed = EntityMetadata.getInstance(entry.getKey().getClass()).getChanges(entry.getKey(), state);
+                if( changed.isEmpty() ) {
+                    continue;
+                }
+                state.put(Updater.CHANGED, changed);
+            }
+            state.put("--key--", getKey());
+            List<Map<String,Object>> states = batches.get(changed);
+            
+            if( states == null ) {
+                states = new ArrayList<Map<String,Object>>();
+                batches.put(changed, states);
+            }
+            states.add(state);
+            updated.add(entry);
+            applyChanges(xaction, entry.getKey(), state, changed);
+        }
+        for( List<Map<String,Object>> states : batches.values() ) {
+            xaction.executeBatch(cls, states, null, batchSize);
+        }
+        if( dependency != null ) {
+            for( Map.Entry<T,Map<String,Object>> entry : updated ) {
+                dependency.updateDependencies(xaction, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Copies the columns a change-tracked update wrote onto the cached instance once the transaction
+     * commits, so the next update is compared against what is in the database. An instance that cannot
+     * take the new values is dropped from the cache instead.
+     * @param xaction the transaction governing the update
+     * @param item the cached instance that was updated
+     * @param state the state that was written
+     * @param changes the columns the update wrote, or null if change tracking is off
+     */
+    private void applyChanges(Transaction xaction, final T item, final Map<String,Object> state, final Set<String> changes) {
+        if( changes == null ) {
+            return;
+        }
+        xaction.afterCommit(new Runnable() {
+            public void run() {
+                EntityMetadata md = EntityMetadata.getInstance(item.getClass());
+                
+                try {
+                    for( String field : changes ) {
+                        md.getProperty(field).set(item, state.get(field));
+                    }
+                }
+                catch( PersistenceException e ) {
+                    logger.warn("Unable to apply an update to the cached " + cache.getTarget().getName() + ", dropping it from the cache: " + e.getMessage());
+                    cache.release(item);
+                }
+            }
+        });
+    }
+    
+    private ExecutionTemplate getUpdate() throws PersistenceException {
+        return getTemplate(operations, "update", () -> buildUpdater());
+    }
+    
     public void write(File file, String data) throws IOException {
         File prnt, backup;
         
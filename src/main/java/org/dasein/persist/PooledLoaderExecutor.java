@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The default {@link LoaderExecutor}: a fixed-size pool of daemon threads fed by a bounded queue.
+ * The pool size comes from <code>dasein.persist.loader.threads</code> (default four per processor, at
+ * least eight) and the queue size from <code>dasein.persist.loader.queueSize</code> (default 1000).
+ */
+public class PooledLoaderExecutor extends LoaderExecutor {
+    private ThreadPoolExecutor pool;
+
+    public PooledLoaderExecutor() { }
+
+    @Override
+    protected void init(@Nonnull Properties props) {
+        int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+        int queueSize = 1000;
+        String prop;
+
+        prop = props.getProperty("dasein.persist.loader.threads");
+        if( prop != null && prop.trim().length() > 0 ) {
+            threads = Math.max(1, Integer.parseInt(prop.trim()));
+        }
+        prop = props.getProperty("dasein.persist.loader.queueSize");
+        if( prop != null && prop.trim().length() > 0 ) {
+            queueSize = Math.max(1, Integer.parseInt(prop.trim()));
+        }
+        final AtomicInteger count = new AtomicInteger(0);
+
+        pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("Loader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    protected boolean dispatch(@Nonnull Runnable task) {
+        if( pool == null ) {
+            init(new Properties());
+        }
+        try {
+            pool.execute(task);
+            return true;
+        }
+        catch( RejectedExecutionException e ) {
+            return false;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if( pool != null ) {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    public int getActiveCount() {
+        return (pool == null ? 0 : pool.getActiveCount());
+    }
+
+    /**
+     * @return the largest number of threads that have simultaneously been in the pool
+     */
+    public int getLargestPoolSize() {
+        return (pool == null ? 0 : pool.getLargestPoolSize());
+    }
+
+    @Override
+    public int getQueueSize() {
+        return (pool == null ? 0 : pool.getQueue().size());
+    }
+}
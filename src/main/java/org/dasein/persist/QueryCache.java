@@ -0,0 +1,303 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>
+ * Remembers the primary keys matched by recent searches so that a repeated search is answered from the
+ * entity cache without a query. A search is identified by its {@link QuerySignature}, with the terms put
+ * in a canonical order, together with the values it was run with. Only the keys are kept; the objects
+ * themselves come from the entity cache, so an object updated in memory is always returned current.
+ * </p>
+ * <p>
+ * Creating or removing an object of the entity forgets every search. Updating an object forgets only the
+ * searches that filter or order on one of the changed fields when the changed fields are known, as they
+ * are with change tracking on, and every search otherwise. A search that started before an invalidation
+ * is not stored, so a result read before a write is never served after it.
+ * </p>
+ * <p>
+ * Query caching is off by default. It is enabled for all entities with <code>dasein.persist.queryCache.size</code>
+ * in <i>dasein-persistence.properties</i>, or for a single entity with <code>dasein.persist.queryCache.size.CLASSNAME</code>.
+ * Results are kept for <code>dasein.persist.queryCache.ttl</code> milliseconds (one minute by default), which bounds
+ * how long a change made outside this library can go unseen, and results with more than
+ * <code>dasein.persist.queryCache.maxRows</code> rows (1,000 by default) are not kept. Searches on joined entities
+ * are never cached since writes to the joined entity cannot invalidate them.
+ * </p>
+ */
+public final class QueryCache {
+    static public final int  DEFAULT_MAX_ROWS = 1000;
+    static public final long DEFAULT_TTL      = 60000L;
+
+    /**
+     * Provides a query cache for the specified entity as configured in <i>dasein-persistence.properties</i>.
+     * @param entity the name of the entity class
+     * @return a new query cache, or null if query caching is not enabled for the entity
+     */
+    static public @Nullable QueryCache getInstance(@Nonnull String entity) {
+        int size = PersistenceConfig.getInt("dasein.persist.queryCache.size", entity, 0);
+
+        if( size < 1 ) {
+            return null;
+        }
+        return new QueryCache(size, PersistenceConfig.getLong("dasein.persist.queryCache.ttl", entity, DEFAULT_TTL), PersistenceConfig.getInt("dasein.persist.queryCache.maxRows", entity, DEFAULT_MAX_ROWS));
+    }
+
+    static private final Comparator<SearchTerm> TERM_ORDER = new Comparator<SearchTerm>() {
+        public int compare(SearchTerm a, SearchTerm b) {
+            int c = a.getColumn().compareTo(b.getColumn());
+
+            return (c != 0 ? c : a.getOperator().compareTo(b.getOperator()));
+        }
+    };
+
+    /**
+     * Identifies a search by its shape and values.
+     */
+    static public final class Key {
+        private final Set<String>    fields;
+        private final int            hash;
+        private final QuerySignature signature;
+        private final Object[]       values;
+
+        private Key(QuerySignature signature, Object[] values, Set<String> fields) {
+            this.signature = signature;
+            this.values = values;
+            this.fields = fields;
+            this.hash = 31 * signature.hashCode() + Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object ob) {
+            if( ob == this ) {
+                return true;
+            }
+            if( !(ob instanceof Key) ) {
+                return false;
+            }
+            Key other = (Key)ob;
+
+            return (hash == other.hash && signature.equals(other.signature) && Arrays.deepEquals(values, other.values));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return signature + " " + Arrays.deepToString(values);
+        }
+    }
+
+    static private class Entry {
+        public long         expires;
+        public List<Object> keys;
+    }
+
+    private final LinkedHashMap<Key,Entry> entries;
+    private final AtomicLong               generation = new AtomicLong(0L);
+    private final AtomicLong               hits       = new AtomicLong(0L);
+    private final int                      maxRows;
+    private final AtomicLong               misses     = new AtomicLong(0L);
+    private final long                     ttl;
+
+    /**
+     * Constructs a query cache.
+     * @param maxSize the maximum number of searches to remember
+     * @param ttl the time in milliseconds a search result is kept
+     * @param maxRows the most rows a result may have and still be kept
+     */
+    public QueryCache(final int maxSize, long ttl, int maxRows) {
+        this.ttl = ttl;
+        this.maxRows = maxRows;
+        this.entries = new LinkedHashMap<Key,Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = -3127655311609553826L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,Entry> eldest) {
+                return (size() > maxSize);
+            }
+        };
+    }
+
+    /**
+     * Forgets all searches.
+     */
+    public void clear() {
+        synchronized( entries ) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * Provides the primary keys last found by a search.
+     * @param key the search
+     * @return the matching primary keys in result order, or null if the search is not cached
+     */
+    public @Nullable List<Object> get(@Nonnull Key key) {
+        List<Object> keys = null;
+
+        synchronized( entries ) {
+            Entry entry = entries.get(key);
+
+            if( entry != null ) {
+                if( entry.expires > System.currentTimeMillis() ) {
+                    keys = entry.keys;
+                }
+                else {
+                    entries.remove(key);
+                }
+            }
+        }
+        (keys != null ? hits : misses).incrementAndGet();
+        return keys;
+    }
+
+    /**
+     * @return a value to pass to {@link #put(Key, List, long)} that changes whenever searches are forgotten
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the fraction of searches answered from the cache, 0.0 if none have been made
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return (total == 0L ? 0.0 : ((double)h)/total);
+    }
+
+    /**
+     * @return the number of searches answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Identifies a search for use with this cache.
+     * @param terms the search terms
+     * @param orderDesc true for descending order, false for ascending, or null for no ordering
+     * @param orderFields the fields to order by
+     * @return the key for the search, or null if the search cannot be cached
+     */
+    public @Nullable Key getKey(@Nullable SearchTerm[] terms, @Nullable Boolean orderDesc, @Nullable String ... orderFields) {
+        SearchTerm[] sorted = (terms == null ? new SearchTerm[0] : terms.clone());
+        HashSet<String> fields = new HashSet<String>();
+        Object[] values = new Object[sorted.length];
+
+        for( SearchTerm term : sorted ) {
+            if( term.getJoinEntity() != null ) {
+                return null;
+            }
+        }
+        Arrays.sort(sorted, TERM_ORDER);
+        for( int i=0; i<sorted.length; i++ ) {
+            fields.add(sorted[i].getColumn());
+            values[i] = sorted[i].getValue();
+        }
+        QuerySignature signature = QuerySignature.find(sorted, orderDesc, orderFields);
+
+        fields.addAll(Arrays.asList(signature.getOrderFields()));
+        return new Key(signature, values, fields);
+    }
+
+    /**
+     * @return the number of searches that were not answered from the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of searches currently remembered, including any that have expired but not yet been dropped
+     */
+    public int getSize() {
+        synchronized( entries ) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Forgets the searches that may be affected by a change to the specified fields.
+     * @param fields the fields that changed, or null to forget every search
+     */
+    public void invalidate(@Nullable Set<String> fields) {
+        synchronized( entries ) {
+            generation.incrementAndGet();
+            if( fields == null ) {
+                entries.clear();
+                return;
+            }
+            Iterator<Key> it = entries.keySet().iterator();
+
+            while( it.hasNext() ) {
+                if( !Collections.disjoint(it.next().fields, fields) ) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers the primary keys found by a search, provided nothing has been invalidated since the search began.
+     * @param key the search
+     * @param keys the matching primary keys in result order
+     * @param asOf the value of {@link #getGeneration()} taken before the search went to the data store
+     */
+    public void put(@Nonnull Key key, @Nonnull List<Object> keys, long asOf) {
+        if( keys.size() > maxRows ) {
+            return;
+        }
+        Entry entry = new Entry();
+
+        entry.keys = Collections.unmodifiableList(new ArrayList<Object>(keys));
+        entry.expires = System.currentTimeMillis() + ttl;
+        synchronized( entries ) {
+            if( generation.get() == asOf ) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache[size=" + getSize() + ",hitRate=" + getHitRate() + "]";
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.persist.jdbc.AutomatedSql.Operator;
+import org.dasein.util.CachedItem;
+
+/**
+ * <p>
+ * The shape of a query independent of the values it is run with: the fields searched on, the
+ * operator applied to each, and the ordering of the results. Two searches with the same signature
+ * run the same SQL, so a signature identifies a statement that can be built ahead of time.
+ * </p>
+ * <p>
+ * The string form is a single line, for example <code>FIND ownerId:EQUALS,created:GREATER_THAN DESC created</code>,
+ * and may be read back with {@link #parse(String)}. Searches on a joined entity name the entity class
+ * before the field, as in <code>com.example.Owner#name:LIKE</code>, and searches with no terms use
+ * <code>-</code> for the term list.
+ * </p>
+ */
+public final class QuerySignature {
+    static public enum Kind { COUNT, FIND };
+
+    /**
+     * Provides the signature of a count with the specified terms.
+     * @param terms the search terms, values are ignored
+     * @return the matching signature
+     */
+    static public @Nonnull QuerySignature count(@Nullable SearchTerm ... terms) {
+        return new QuerySignature(Kind.COUNT, terms, null);
+    }
+
+    /**
+     * Provides the signature of a search with the specified terms and ordering.
+     * @param terms the search terms, values are ignored
+     * @param orderDesc true for descending order, false for ascending, or null for no ordering
+     * @param orderFields the fields to order by
+     * @return the matching signature
+     */
+    static public @Nonnull QuerySignature find(@Nullable SearchTerm[] terms, @Nullable Boolean orderDesc, @Nullable String ... orderFields) {
+        return new QuerySignature(Kind.FIND, terms, (orderDesc == null || orderFields == null || orderFields.length < 1) ? null : orderDesc, orderFields);
+    }
+
+    /**
+     * Reads a signature from its string form.
+     * @param str the string form of the signature
+     * @return the matching signature
+     * @throws PersistenceException the string is not a valid signature or names an unknown entity class
+     */
+    @SuppressWarnings("unchecked")
+    static public @Nonnull QuerySignature parse(@Nonnull String str) throws PersistenceException {
+        String[] parts = str.trim().split("\\s+");
+
+        if( parts.length != 2 && parts.length != 4 ) {
+            throw new PersistenceException("Invalid query signature: " + str);
+        }
+        try {
+            Kind kind = Kind.valueOf(parts[0]);
+            SearchTerm[] terms;
+
+            if( parts[1].equals("-") ) {
+                terms = new SearchTerm[0];
+            }
+            else {
+                String[] list = parts[1].split(",");
+
+                terms = new SearchTerm[list.length];
+                for( int i=0; i<list.length; i++ ) {
+                    Class<? extends CachedItem> entity = null;
+                    String term = list[i];
+                    int idx = term.indexOf('#');
+
+                    if( idx > -1 ) {
+                        entity = (Class<? extends CachedItem>)Class.forName(term.substring(0, idx));
+                        term = term.substring(idx+1);
+                    }
+                    idx = term.lastIndexOf(':');
+                    if( idx < 1 ) {
+                        throw new PersistenceException("Invalid term " + list[i] + " in query signature: " + str);
+                    }
+                    terms[i] = new SearchTerm(entity, term.substring(0, idx), Operator.valueOf(term.substring(idx+1)), null);
+                }
+            }
+            if( parts.length == 2 ) {
+                return new QuerySignature(kind, terms, null);
+            }
+            Boolean desc;
+
+            if( parts[2].equals("DESC") ) {
+                desc = true;
+            }
+            else if( parts[2].equals("ASC") ) {
+                desc = false;
+            }
+            else {
+                throw new PersistenceException("Invalid ordering in query signature: " + str);
+            }
+            return new QuerySignature(kind, terms, desc, parts[3].split(","));
+        }
+        catch( IllegalArgumentException e ) {
+            throw new PersistenceException("Invalid query signature " + str + ": " + e.getMessage());
+        }
+        catch( ClassNotFoundException e ) {
+            throw new PersistenceException("Unknown entity in query signature " + str + ": " + e.getMessage());
+        }
+    }
+
+    private final String[]                      columns;
+    private final Class<? extends CachedItem>[] entities;
+    private final int                           hash;
+    private final Kind                          kind;
+    private final Operator[]                    operators;
+    private final Boolean                       orderDesc;
+    private final String[]                      orderFields;
+
+    @SuppressWarnings("unchecked")
+    private QuerySignature(Kind kind, SearchTerm[] terms, Boolean orderDesc, String ... orderFields) {
+        int len = (terms == null ? 0 : terms.length);
+
+        this.kind = kind;
+        this.columns = new String[len];
+        this.entities = (Class<? extends CachedItem>[])new Class<?>[len];
+        this.operators = new Operator[len];
+        for( int i=0; i<len; i++ ) {
+            columns[i] = terms[i].getColumn();
+            entities[i] = terms[i].getJoinEntity();
+            operators[i] = terms[i].getOperator();
+        }
+        this.orderDesc = orderDesc;
+        this.orderFields = (orderDesc == null ? new String[0] : orderFields.clone());
+        this.hash = 31 * (31 * (31 * (31 * kind.hashCode() + Arrays.hashCode(columns)) + Arrays.hashCode(operators)) + Arrays.hashCode(orderFields)) + (orderDesc == null ? 0 : orderDesc.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object ob) {
+        if( ob == this ) {
+            return true;
+        }
+        if( !(ob instanceof QuerySignature) ) {
+            return false;
+        }
+        QuerySignature other = (QuerySignature)ob;
+
+        if( hash != other.hash || !kind.equals(other.kind) ) {
+            return false;
+        }
+        if( orderDesc == null ? other.orderDesc != null : !orderDesc.equals(other.orderDesc) ) {
+            return false;
+        }
+        return (Arrays.equals(columns, other.columns) && Arrays.equals(operators, other.operators) && Arrays.equals(entities, other.entities) && Arrays.equals(orderFields, other.orderFields));
+    }
+
+    /**
+     * @return whether this is the signature of a count or a search
+     */
+    public @Nonnull Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return true for descending order, false for ascending, or null if results are not ordered
+     */
+    public @Nullable Boolean getOrderDesc() {
+        return orderDesc;
+    }
+
+    /**
+     * @return the fields the results are ordered by, empty if they are not ordered
+     */
+    public @Nonnull String[] getOrderFields() {
+        return orderFields.clone();
+    }
+
+    /**
+     * Provides search terms matching this signature. The terms have no values, so they are suitable
+     * for building statements but not for running them.
+     * @return the search terms for this signature
+     */
+    public @Nonnull SearchTerm[] getTerms() {
+        SearchTerm[] terms = new SearchTerm[columns.length];
+
+        for( int i=0; i<columns.length; i++ ) {
+            terms[i] = new SearchTerm(entities[i], columns[i], operators[i], null);
+        }
+        return terms;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append(kind.name());
+        str.append(" ");
+        if( columns.length < 1 ) {
+            str.append("-");
+        }
+        for( int i=0; i<columns.length; i++ ) {
+            if( i > 0 ) {
+                str.append(",");
+            }
+            if( entities[i] != null ) {
+                str.append(entities[i].getName());
+                str.append("#");
+            }
+            str.append(columns[i]);
+            str.append(":");
+            str.append(operators[i].name());
+        }
+        if( orderDesc != null ) {
+            str.append(orderDesc ? " DESC " : " ASC ");
+            for( int i=0; i<orderFields.length; i++ ) {
+                if( i > 0 ) {
+                    str.append(",");
+                }
+                str.append(orderFields[i]);
+            }
+        }
+        return str.toString();
+    }
+}
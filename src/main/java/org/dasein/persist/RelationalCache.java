@@ -21,13 +21,20 @@ package org.dasein.persist;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
 
 import org.apache.log4j.Logger;
 import org.dasein.util.Jiterator;
 import org.dasein.persist.jdbc.Counter;
 import org.dasein.persist.jdbc.Creator;
 import org.dasein.persist.jdbc.Deleter;
+import org.dasein.persist.jdbc.KeyLoader;
 import org.dasein.persist.jdbc.Loader;
 import org.dasein.persist.jdbc.Updater;
 import org.dasein.persist.jdbc.AutomatedSql.Operator;
@@ -46,9 +53,19 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
         public boolean descending = false;
     }
     
-    private String            readDataSource    = null;
-    private TranslationMethod translationMethod = TranslationMethod.NONE;
-    private String            writeDataSource   = null;
+    static private final int  MAX_KEYS          = 256;
+    static private final int  STREAM_BUFFER     = 500;
+    static private final long STREAM_TIMEOUT    = 60000L;
+    
+    private int                                                 batchSize         = Execution.getDefaultBatchSize();
+    private ConcurrentHashMap<QuerySignature,ExecutionTemplate> counters          = new ConcurrentHashMap<QuerySignature,ExecutionTemplate>();
+    private int                                                 fetchSize         = Execution.getDefaultFetchSize();
+    private ConcurrentHashMap<Integer,ExecutionTemplate>        keyLoaders        = new ConcurrentHashMap<Integer,ExecutionTemplate>();
+    private ConcurrentHashMap<QuerySignature,ExecutionTemplate> loaders           = new ConcurrentHashMap<QuerySignature,ExecutionTemplate>();
+    private String                                              readDataSource    = null;
+    private boolean                                             streaming         = Execution.isStreamingByDefault();
+    private TranslationMethod                                   translationMethod = TranslationMethod.NONE;
+    private String                                              writeDataSource   = null;
     
     public RelationalCache() { }
     
@@ -69,32 +86,87 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
         }
     }
     
+    /**
+     * Sets the maximum number of rows sent to the database per JDBC batch by
+     * {@link #createAll(Transaction, List)}, {@link #updateAll(Transaction, Map)}, and
+     * {@link #removeAll(Transaction, Collection)}.
+     * @param batchSize the maximum number of rows per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Sets the JDBC fetch size hint for queries run by this cache.
+     * @param fetchSize the fetch size, <code>Integer.MIN_VALUE</code> for MySQL row streaming, or 0 for the driver default
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    
+    /**
+     * Enables or disables streaming of {@link #find(SearchTerm[], JiteratorFilter, Boolean, String...)} results.
+     * When streaming, rows are converted and handed to the caller as they are fetched and the connection stays
+     * open until the results are drained, closed, or abandoned. The returned collection may be iterated only once.
+     * Entities with translations are never streamed. Streamed searches bypass the query cache, which would
+     * otherwise have to hold every row until the search finished.
+     * @param streaming true to stream query results
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+    
     public void setTranslationMethod(TranslationMethod translationMethod) {
     	this.translationMethod = translationMethod;
+        // pooled executions were configured with the old translation method
+        retire(counters);
+        retire(keyLoaders);
+        retire(loaders);
     }
     
-    private Counter getCounter(SearchTerm[] whereTerms) {
-        final SearchTerm[] terms = whereTerms;
-        final RelationalCache<T> self = this;
+    private void retire(ConcurrentHashMap<?,ExecutionTemplate> templates) {
+        for( ExecutionTemplate template : templates.values() ) {
+            template.retire();
+        }
+        templates.clear();
+    }
+    
+    private ExecutionTemplate getCounter(QuerySignature signature) {
+        ExecutionTemplate template = counters.get(signature);
         
-        Counter counter = new Counter() {
-            public void init() {
-                setTarget(self.getEntityClassName());
-                if( terms != null && terms.length > 0 ) {
-                    ArrayList<Criterion> criteria = new ArrayList<Criterion>();
-                
-                    for( SearchTerm term : terms ) {
-                        criteria.add(new Criterion(term.getColumn(), term.getOperator()));
-                    }
-                    setCriteria(criteria.toArray(new Criterion[criteria.size()]));
+        if( template == null ) {
+            final SearchTerm[] terms = signature.getTerms();
+            final RelationalCache<T> self = this;
+            
+            ExecutionTemplate created = new ExecutionTemplate(getEntityClassName() + "[" + signature + "]") {
+                protected Execution create() {
+                    return new Counter() {
+                        public void init() {
+                            setTarget(self.getEntityClassName());
+                            if( terms.length > 0 ) {
+                                ArrayList<Criterion> criteria = new ArrayList<Criterion>();
+                            
+                                for( SearchTerm term : terms ) {
+                                    criteria.add(new Criterion(term.getColumn(), term.getOperator()));
+                                }
+                                setCriteria(criteria.toArray(new Criterion[criteria.size()]));
+                            }
+                        }
+                        
+                        public boolean isReadOnly() {
+                            return true;
+                        }
+                    };
                 }
-            }
+            };
             
-            public boolean isReadOnly() {
-                return true;
+            template = counters.putIfAbsent(signature, created);
+            if( template == null ) {
+                template = created;
+                Warmup.record(getTarget(), signature);
             }
-        };
-        return counter;
+        }
+        return template;
     }
     
     private Creator getCreator() {
@@ -150,44 +222,87 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
         return deleter;
     }
     
-    private Loader getLoader(SearchTerm[] whereTerms, OrderedColumn[] orderBy) {
-        final SearchTerm[] terms = whereTerms;
-        final OrderedColumn[] order = orderBy;
-        final RelationalCache<T> self = this;
+    private ExecutionTemplate getKeyLoader(final int count) {
+        ExecutionTemplate template = keyLoaders.get(count);
         
-        Loader loader = new Loader() {
-            public void init() {
-                setTarget(self.getEntityClassName());
-                setEntityJoins(getJoins());
-                if( terms != null && terms.length > 0 ) {
-                    ArrayList<Criterion> criteria = new ArrayList<Criterion>();
-                
-                    for( SearchTerm term : terms ) {
-                        criteria.add(new Criterion(term.getJoinEntity(), term.getColumn(), term.getOperator()));
-                    }
-                    setCriteria(criteria.toArray(new Criterion[criteria.size()]));
-                }
-                if( order != null && order.length > 0 ) {
-                    ArrayList<String> cols = new ArrayList<String>();
-                    boolean desc = order[0].descending;
-                    
-                    for( OrderedColumn col : order ) {
-                        cols.add(col.column);
-                    }
-                    setOrder(desc, cols.toArray(new String[cols.size()]));
-                }
-                switch (translationMethod) {
-                case CUSTOM: setCustomTranslating(); break;
-                case STANDARD: setTranslating(true); break;
-                case NONE: setTranslating(false); break;
+        if( template == null ) {
+            final RelationalCache<T> self = this;
+            
+            ExecutionTemplate created = new ExecutionTemplate(getEntityClassName() + "[" + getPrimaryKeyField() + " IN " + count + "]") {
+                protected Execution create() {
+                    return new KeyLoader() {
+                        public void init() {
+                            setTarget(self.getEntityClassName());
+                            setKeys(self.getPrimaryKeyField(), count);
+                            switch (translationMethod) {
+                            case CUSTOM: setCustomTranslating(); break;
+                            case STANDARD: setTranslating(true); break;
+                            case NONE: setTranslating(false); break;
+                            }
+                        }
+                        
+                        public boolean isReadOnly() {
+                            return true;
+                        }
+                    };
                 }
+            };
+            
+            template = keyLoaders.putIfAbsent(count, created);
+            if( template == null ) {
+                template = created;
             }
+        }
+        return template;
+    }
+    
+    private ExecutionTemplate getLoader(QuerySignature signature) {
+        ExecutionTemplate template = loaders.get(signature);
+        
+        if( template == null ) {
+            final SearchTerm[] terms = signature.getTerms();
+            final Boolean desc = signature.getOrderDesc();
+            final String[] order = signature.getOrderFields();
+            final RelationalCache<T> self = this;
             
-            public boolean isReadOnly() {
-                return true;
+            ExecutionTemplate created = new ExecutionTemplate(getEntityClassName() + "[" + signature + "]") {
+                protected Execution create() {
+                    return new Loader() {
+                        public void init() {
+                            setTarget(self.getEntityClassName());
+                            setEntityJoins(getJoins());
+                            if( terms.length > 0 ) {
+                                ArrayList<Criterion> criteria = new ArrayList<Criterion>();
+                            
+                                for( SearchTerm term : terms ) {
+                                    criteria.add(new Criterion(term.getJoinEntity(), term.getColumn(), term.getOperator()));
+                                }
+                                setCriteria(criteria.toArray(new Criterion[criteria.size()]));
+                            }
+                            if( desc != null ) {
+                                setOrder(desc, order);
+                            }
+                            switch (translationMethod) {
+                            case CUSTOM: setCustomTranslating(); break;
+                            case STANDARD: setTranslating(true); break;
+                            case NONE: setTranslating(false); break;
+                            }
+                        }
+                        
+                        public boolean isReadOnly() {
+                            return true;
+                        }
+                    };
+                }
+            };
+            
+            template = loaders.putIfAbsent(signature, created);
+            if( template == null ) {
+                template = created;
+                Warmup.record(getTarget(), signature);
             }
-        };
-        return loader;
+        }
+        return template;
     }
     
     private Updater getUpdater() {
@@ -212,44 +327,20 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
     }
     
     /**
-     * Counts the total number of objects governed by this factory in the database.
-     * @return the number of objects in the database
+     * Counts the objects governed by this factory in the database that match the specified terms.
+     * @param terms the search terms, empty to count every object
+     * @return the number of matching objects in the database
      * @throws PersistenceException an error occurred counting the elements in the database
      */
     @Override
-    public long count() throws PersistenceException {
-        logger.debug("enter - count()");
-        try {
-            Transaction xaction = Transaction.getInstance(true);
-            Counter counter = getCounter(null);            
-            
-            try {
-                Map<String,Object> results;
-                long count;
-    
-                results = xaction.execute(counter, new HashMap<String,Object>(), readDataSource);
-                count = ((Number)results.get("count")).longValue();
-                xaction.commit();
-                return count;
-            }
-            finally {
-                xaction.rollback();
-            }
-        }
-        finally {
-            logger.debug("exit - count()");
-        }
-    }
-        
-    @Override
-    public long count(SearchTerm ... terms) throws PersistenceException {
-        logger.debug("enter - count(SearchTerm...)");
+    protected long countInStore(SearchTerm ... terms) throws PersistenceException {
+        logger.debug("enter - countInStore(SearchTerm...)");
         try {
             Transaction xaction = Transaction.getInstance(true);
-            Counter counter = getCounter(terms);            
+            ExecutionTemplate counter = getCounter(QuerySignature.count(terms));
             
             try {
-                Map<String,Object> params = toParams(terms);                
+                Map<String,Object> params = toParams(terms);
                 Map<String,Object> results;
                 long count;
     
@@ -263,7 +354,7 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
             }
         }
         finally {
-            logger.debug("exit - count(SearchTerm...)");
+            logger.debug("exit - countInStore(SearchTerm...)");
         }
     }
     
@@ -279,30 +370,81 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
     public T create(Transaction xaction, Map<String,Object> state) throws PersistenceException {
         state.put("--key--", getPrimaryKey().getFields()[0]);
         xaction.execute(getCreator(), state, writeDataSource);
+        invalidateMissing(state.get(getPrimaryKeyField()));
+        invalidateQueries(xaction, null);
+        adjustCount(xaction, 1L);
+        publishInvalidation(xaction, state.get(getPrimaryKeyField()));
         return getCache().find(state);
     }
     
+    @Override
+    public Collection<T> createAll(Transaction xaction, List<Map<String,Object>> states) throws PersistenceException {
+        ArrayList<T> items = new ArrayList<T>();
+        
+        for( Map<String,Object> state : states ) {
+            state.put("--key--", getPrimaryKey().getFields()[0]);
+        }
+        xaction.executeBatch(getCreator(), states, writeDataSource, batchSize);
+        invalidateQueries(xaction, null);
+        adjustCount(xaction, states.size());
+        for( Map<String,Object> state : states ) {
+            invalidateMissing(state.get(getPrimaryKeyField()));
+            publishInvalidation(xaction, state.get(getPrimaryKeyField()));
+            items.add(getCache().find(state));
+        }
+        return items;
+    }
+    
+    /**
+     * Searches for the objects matching the specified terms. Unfiltered searches are answered from the query
+     * cache when one is set, except when {@link #setStreaming(boolean) streaming} applies: streamed searches
+     * always go to the data store so that rows are never buffered.
+     * @param terms the search terms
+     * @param filter a filter applied to the results, or null for all results
+     * @param orderDesc true to order descending, ignored without order fields
+     * @param orderFields the fields to order by
+     * @return the matching objects
+     * @throws PersistenceException an error occurred talking to the data store
+     */
     @Override
     public Collection<T> find(SearchTerm[] terms, JiteratorFilter<T> filter, Boolean orderDesc, String ... orderFields) throws PersistenceException {
         logger.debug("enter - find(SearchTerm[], JiteratorFilter, Boolean, String)");
         try {
-            OrderedColumn[] order;
+            // an ordering without a direction is ascending
+            Boolean desc = (orderFields == null || orderFields.length < 1) ? null : Boolean.valueOf(orderDesc != null && orderDesc);
+            QuerySignature signature = QuerySignature.find(terms, desc, orderFields);
+            boolean streamed = (streaming && translationMethod == TranslationMethod.NONE);
+            QueryCache queries = (filter == null && !streamed ? getQueryCache() : null);
+            QueryCache.Key key = (queries == null ? null : queries.getKey(terms, desc, orderFields));
             
-            if( orderFields == null ) {
-                order = new OrderedColumn[0];
-            }
-            else {
-                int i = 0;
+            if( key != null ) {
+                List<Object> keys = queries.get(key);
                 
-                order = new OrderedColumn[orderFields.length];
-                for( String field : orderFields ) {
-                    order[i] = new OrderedColumn();
-                    order[i].column = field;
-                    order[i].descending = (orderDesc != null && orderDesc);
-                    i++;
+                if( keys != null ) {
+                    Map<Object,T> found = getAll(keys);
+                    
+                    // anything missing was removed behind our back, so the search is run again
+                    if( found.size() == keys.size() ) {
+                        getStatistics().recordFind(found.size());
+                        return new ArrayList<T>(found.values());
+                    }
+                }
+                long asOf = queries.getGeneration();
+                ArrayList<T> results = new ArrayList<T>();
+                ArrayList<Object> matched = new ArrayList<Object>();
+                
+                for( T item : this.load(getLoader(signature), null, toParams(terms), null) ) {
+                    results.add(item);
+                    matched.add(getValue(item, getPrimaryKeyField()));
                 }
+                queries.put(key, matched, asOf);
+                getStatistics().recordFind(results.size());
+                return results;
+            }
+            if( streamed ) {
+                return stream(getLoader(signature), filter, toParams(terms));
             }
-            return this.load(getLoader(terms, order), filter, toParams(terms));
+            return this.load(getLoader(signature), filter, toParams(terms), getStatistics());
         }
         finally {
             logger.debug("exit - find(SearchTerm[], JiteratorFilter, Boolean, String...)");
@@ -322,18 +464,23 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
             
             loader = new CacheLoader<T>() {
                 public T load(Object ... args) {
+                    NegativeCache missing = getNegativeCache();
+                    long generation = (missing == null ? 0L : missing.getGeneration());
                     SearchTerm[] terms = new SearchTerm[1];
                     Collection<T> list;
                     
+                    if( missing != null && missing.contains(args[1]) ) {
+                        return null;
+                    }
                     terms[0] = new SearchTerm((String)args[0], Operator.EQUALS, args[1]);
                     try {
-                        list = RelationalCache.this.load(getLoader(terms, null), null, toParams(terms));
+                        list = RelationalCache.this.load(getLoader(QuerySignature.find(terms, null)), null, toParams(terms), null);
                     }
                     catch( PersistenceException e ) {
                         try {
                             try { Thread.sleep(1000L); }
                             catch( InterruptedException ignore ) { }
-                            list = RelationalCache.this.load(getLoader(terms, null), null, toParams(terms));
+                            list = RelationalCache.this.load(getLoader(QuerySignature.find(terms, null)), null, toParams(terms), null);
                         }
                         catch( Throwable forgetIt ) {
                             e.printStackTrace();
@@ -341,6 +488,9 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
                         }
                     }
                     if( list.isEmpty() ) {
+                        if( missing != null ) {
+                            missing.add(args[1], generation);
+                        }
                         return null;
                     }
                     return list.iterator().next();
@@ -447,19 +597,24 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
     }
     
     @SuppressWarnings("unchecked")
-    private Collection<T> load(Loader loader, JiteratorFilter<T> filter, Map<String,Object> params) throws PersistenceException {
+    private Collection<T> load(ExecutionTemplate template, JiteratorFilter<T> filter, Map<String,Object> params, CacheStatistics statistics) throws PersistenceException {
         logger.debug("enter - load(Class,SearchTerm...)");
         try {
+            Loader loader = (Loader)template.newInstance();
             Transaction xaction = Transaction.getInstance(true);
             final Jiterator<T> it = new Jiterator<T>(filter);
 
             params.put("--key--", getPrimaryKey().getFields()[0]);
+            loader.setFetchSize(fetchSize);
             try {
                 final Map<String,Object> results;
                 
                 results = xaction.execute(loader, params, readDataSource);
                 xaction.commit();
-                Thread t = new Thread() {
+                if( statistics != null ) {
+                    statistics.recordFind(((Collection<?>)results.get(Loader.LISTING)).size());
+                }
+                Runnable r = new Runnable() {
                     public void run() {
                         try {
                             for( Map<String,Object> map: (Collection<Map<String,Object>>)results.get(Loader.LISTING) ) {
@@ -483,9 +638,12 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
                     }
                 };
                 
-                t.setDaemon(true);
-                t.setName("Loader");
-                t.start();
+                if( ((Collection<?>)results.get(Loader.LISTING)).size() <= LoaderExecutor.getInlineThreshold() ) {
+                    r.run();
+                }
+                else {
+                    LoaderExecutor.getInstance().execute(r);
+                }
                 return new JitCollection<T>(it, getEntityClassName());
             }
             catch( PersistenceException e ) {
@@ -511,6 +669,115 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
         }
     }
     
+    /**
+     * Loads the missing objects with <code>IN</code> queries of up to {@value #MAX_KEYS} keys each. Each query
+     * is padded to a power of two keys so that only a handful of distinct statements are ever prepared.
+     */
+    @Override
+    protected @Nonnull Collection<T> loadAll(@Nonnull List<Object> keyValues) throws PersistenceException {
+        logger.debug("enter - loadAll(List)");
+        try {
+            ArrayList<T> items = new ArrayList<T>();
+            
+            for( int start=0; start<keyValues.size(); start += MAX_KEYS ) {
+                List<Object> chunk = keyValues.subList(start, Math.min(keyValues.size(), start + MAX_KEYS));
+                HashMap<String,Object> params = new HashMap<String,Object>();
+                int count = 1;
+                
+                while( count < chunk.size() ) {
+                    count = count*2;
+                }
+                params.put(KeyLoader.KEYS, new ArrayList<Object>(chunk));
+                items.addAll(load(getKeyLoader(count), null, params, null));
+            }
+            return items;
+        }
+        finally {
+            logger.debug("exit - loadAll(List)");
+        }
+    }
+    
+    private Collection<T> stream(ExecutionTemplate template, final JiteratorFilter<T> filter, final Map<String,Object> params) throws PersistenceException {
+        logger.debug("enter - stream(Loader,JiteratorFilter,Map)");
+        try {
+            final StreamingCollection<T> items = new StreamingCollection<T>(STREAM_BUFFER, STREAM_TIMEOUT);
+            final Loader loader = (Loader)template.newInstance();
+            final int[] rows = new int[1];
+            
+            params.put("--key--", getPrimaryKey().getFields()[0]);
+            loader.setFetchSize(fetchSize);
+            loader.setRowHandler(new Loader.RowHandler() {
+                public boolean handle(Map<String,Object> state) throws PersistenceException {
+                    rows[0]++;
+                    for( String fieldName : state.keySet() ) {
+                        LookupDelegate delegate = getLookupDelegate(fieldName);
+                        
+                        if( delegate != null && !delegate.validate((String)state.get(fieldName)) ) {
+                            throw new PersistenceException("Unable to validate " + fieldName + " value of " + state.get(fieldName));
+                        }
+                    }
+                    T item = getCache().find(state);
+                    
+                    if( filter != null ) {
+                        try {
+                            if( !filter.filter(item) ) {
+                                return !items.isClosed();
+                            }
+                        }
+                        catch( Throwable t ) {
+                            logger.warn("Error filtering " + item + ": " + t.getMessage());
+                            return !items.isClosed();
+                        }
+                    }
+                    return items.push(item);
+                }
+            });
+            // the loader blocks on the caller draining the results, so it must never run on the caller's thread
+            LoaderExecutor.getInstance().executeDetached(new Runnable() {
+                public void run() {
+                    Transaction xaction = Transaction.getInstance(true);
+                    
+                    try {
+                        xaction.execute(loader, params, readDataSource);
+                        xaction.commit();
+                        items.complete();
+                        getStatistics().recordFind(rows[0]);
+                    }
+                    catch( Throwable t ) {
+                        items.setLoadException(t);
+                    }
+                    finally {
+                        xaction.rollback();
+                    }
+                }
+            });
+            return items;
+        }
+        finally {
+            logger.debug("exit - stream(Loader,JiteratorFilter,Map)");
+        }
+    }
+    
+    /**
+     * Builds the SQL for queries with the specified signature and has the database check it, so that
+     * pooled executions for the signature are ready before the first real query.
+     * @param signature the shape of the query
+     * @throws PersistenceException an error occurred building or checking the query
+     */
+    @Override
+    public void prepare(@Nonnull QuerySignature signature) throws PersistenceException {
+        ExecutionTemplate template = (signature.getKind().equals(QuerySignature.Kind.COUNT) ? getCounter(signature) : getLoader(signature));
+        Transaction xaction = Transaction.getInstance(true);
+        
+        try {
+            xaction.prepare(template, readDataSource);
+            xaction.commit();
+        }
+        finally {
+            xaction.rollback();
+        }
+    }
+    
     /**
      * Removes the specified item from the system permanently.
      * @param xaction the transaction under which this event is occurring
@@ -522,11 +789,33 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
     public void remove(Transaction xaction, T item) throws PersistenceException {
         xaction.execute(getDeleter(), getCache().getKeys(item), writeDataSource);
         getCache().release(item);
+        invalidateQueries(xaction, null);
+        adjustCount(xaction, -1L);
+        publishInvalidation(xaction, getValue(item, getPrimaryKeyField()));
     }
     
     @Override
     public void remove(Transaction xaction, SearchTerm ... terms) throws PersistenceException {
         xaction.execute(getDeleter(terms), toParams(terms), writeDataSource);
+        invalidateQueries(xaction, null);
+        invalidateCount(xaction);
+        publishInvalidation(xaction, null);
+    }
+    
+    @Override
+    public void removeAll(Transaction xaction, Collection<T> items) throws PersistenceException {
+        ArrayList<Map<String,Object>> keys = new ArrayList<Map<String,Object>>();
+        
+        for( T item : items ) {
+            keys.add(getCache().getKeys(item));
+        }
+        xaction.executeBatch(getDeleter(), keys, writeDataSource, batchSize);
+        invalidateQueries(xaction, null);
+        adjustCount(xaction, -items.size());
+        for( T item : items ) {
+            getCache().release(item);
+            publishInvalidation(xaction, getValue(item, getPrimaryKeyField()));
+        }
     }
     
     public String toString() {
@@ -544,7 +833,50 @@ public final class RelationalCache<T extends CachedItem> extends PersistentCache
      */
     @Override
     public void update(Transaction xaction, T item, Map<String,Object> state) throws PersistenceException {     
+        Set<String> changes = getChanges(item, state);
+        
+        if( changes != null ) {
+            if( changes.isEmpty() ) {
+                return;
+            }
+            state.put(Updater.CHANGED, changes);
+        }
         state.put("--key--", getPrimaryKey().getFields()[0]);
         xaction.execute(getUpdater(), state, writeDataSource);
+        applyChanges(xaction, item, state, changes);
+        invalidateQueries(xaction, changes);
+        publishInvalidation(xaction, getValue(item, getPrimaryKeyField()));
     }    
+    
+    @Override
+    public void updateAll(Transaction xaction, Map<T,Map<String,Object>> changes) throws PersistenceException {
+        // a batch shares one statement, so rows are grouped by the set of columns they change
+        LinkedHashMap<Set<String>,List<Map<String,Object>>> batches = new LinkedHashMap<Set<String>,List<Map<String,Object>>>();
+        
+        for( Map.Entry<T,Map<String,Object>> entry : changes.entrySet() ) {
+            Map<String,Object> state = entry.getValue();
+            Set<String> changed = getChanges(entry.getKey(), state);
+            
+            if( changed != null ) {
+                if( changed.isEmpty() ) {
+                    continue;
+                }
+                state.put(Updater.CHANGED, changed);
+            }
+            state.put("--key--", getPrimaryKey().getFields()[0]);
+            List<Map<String,Object>> states = batches.get(changed);
+            
+            if( states == null ) {
+                states = new ArrayList<Map<String,Object>>();
+                batches.put(changed, states);
+            }
+            states.add(state);
+            applyChanges(xaction, entry.getKey(), state, changed);
+            publishInvalidation(xaction, getValue(entry.getKey(), getPrimaryKeyField()));
+        }
+        for( Map.Entry<Set<String>,List<Map<String,Object>>> batch : batches.entrySet() ) {
+            xaction.executeBatch(getUpdater(), batch.getValue(), writeDataSource, batchSize);
+            invalidateQueries(xaction, batch.getKey());
+        }
+    }
 }
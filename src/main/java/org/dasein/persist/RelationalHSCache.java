@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
@@ -354,6 +355,8 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
     public T create(Transaction xaction, Map<String,Object> state) throws PersistenceException {
         state.put("--key--", getPrimaryKey().getFields()[0]);
         xaction.execute(getCreator(), state, writeDataSource);
+        invalidateMissing(state.get(getPrimaryKeyField()));
+        publishInvalidation(xaction, state.get(getPrimaryKeyField()));
         return getCache().find(state);
     }
     
@@ -399,9 +402,14 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
             
             loader = new CacheLoader<T>() {
                 public T load(Object ... args) {
+                    NegativeCache missing = getNegativeCache();
+                    long generation = (missing == null ? 0L : missing.getGeneration());
                     SearchTerm[] terms = new SearchTerm[1];
                     Collection<T> list;
                     
+                    if( missing != null && missing.contains(args[1]) ) {
+                        return null;
+                    }
                     terms[0] = new SearchTerm((String)args[0], Operator.EQUALS, args[1]);
                     try {
                         list = RelationalHSCache.this.load(getLoader(terms, null), null, toParams(terms));
@@ -418,6 +426,9 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
                         }
                     }
                     if( list.isEmpty() ) {
+                        if( missing != null ) {
+                            missing.add(args[1], generation);
+                        }
                         return null;
                     }
                     return list.iterator().next();
@@ -467,6 +478,29 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
         }
     }
     
+    /**
+     * Looks the missing objects up on the primary key index through HandlerSocket, running the lookups
+     * in parallel over the client's connection pool rather than one after another.
+     */
+    @Override
+    protected Collection<T> loadAll(List<Object> keyValues) throws PersistenceException {
+        logger.debug("enter - loadAll(List)");
+        try {
+            // open the session up front so the parallel lookups share it
+            getSession("PRIMARY", databaseColumns);
+            return fetchConcurrently(keyValues, new Fetcher<T>() {
+                public T fetch(Object keyValue) throws PersistenceException {
+                    Collection<T> items = hsFind("PRIMARY", Operator.EQUALS, 1, 0, keyValue.toString());
+                    
+                    return (items.isEmpty() ? null : items.iterator().next());
+                }
+            });
+        }
+        finally {
+            logger.debug("exit - loadAll(List)");
+        }
+    }
+    
     private Map<String,Object> toParams(SearchTerm ... searchTerms) {
         HashMap<String,Object> params = new HashMap<String,Object>();
         
@@ -491,7 +525,7 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
                 
                 results = xaction.execute(loader, params, readDataSource);
                 xaction.commit();
-                Thread t = new Thread() {
+                Runnable r = new Runnable() {
                     public void run() {
                         try {
                             for( Map<String,Object> map: (Collection<Map<String,Object>>)results.get(Loader.LISTING) ) {
@@ -508,9 +542,12 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
                     }
                 };
                 
-                t.setDaemon(true);
-                t.setName("Loader");
-                t.start();
+                if( ((Collection<?>)results.get(Loader.LISTING)).size() <= LoaderExecutor.getInlineThreshold() ) {
+                    r.run();
+                }
+                else {
+                    LoaderExecutor.getInstance().execute(r);
+                }
                 return new JitCollection<T>(it, getEntityClassName());
             }
             catch( PersistenceException e ) {
@@ -547,6 +584,7 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
     public void remove(Transaction xaction, T item) throws PersistenceException {
         xaction.execute(getDeleter(), getCache().getKeys(item), writeDataSource);
         getCache().release(item);
+        publishInvalidation(xaction, getValue(item, getPrimaryKeyField()));
     }
     
     public void remove(Transaction xaction, SearchTerm ... terms) throws PersistenceException {
@@ -570,8 +608,18 @@ public final class RelationalHSCache<T extends CachedItem> extends PersistentCac
      */
     @Override
     public void update(Transaction xaction, T item, Map<String,Object> state) throws PersistenceException {     
+        Set<String> changes = getChanges(item, state);
+        
+        if( changes != null ) {
+            if( changes.isEmpty() ) {
+                return;
+            }
+            state.put(Updater.CHANGED, changes);
+        }
         state.put("--key--", getPrimaryKey().getFields()[0]);
         xaction.execute(getUpdater(), state, writeDataSource);
+        applyChanges(xaction, item, state, changes);
+        publishInvalidation(xaction, getValue(item, getPrimaryKeyField()));
     }   
     
     public Collection<T> hsFind(String index, String... indexValues) throws PersistenceException {
@@ -22,6 +22,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 
 import org.apache.log4j.Logger;
 import org.dasein.util.Jiterator;
@@ -55,31 +57,33 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
         public boolean descending = false;
     }
 
-    private String            readDataSource    = null;
-    private TranslationMethod translationMethod = TranslationMethod.NONE;
-    private String            writeDataSource   = null;
+    private ScheduledFuture<?> flusher           = null;
+    private String             readDataSource    = null;
+    private TranslationMethod  translationMethod = TranslationMethod.NONE;
+    private String             writeDataSource   = null;
 
     public RelationalReleaseCache() {
+        flusher = MaintenanceScheduler.getInstance().schedule("DASEIN RELATIONAL CACHE FLUSHER", new Runnable() {
+            @SuppressWarnings("unchecked")
+            public void run() {
+                if( getCache() == null ) {
+                    return;
+                }
+                if( getCache() instanceof BoundedMultiCache ) {
+                    // a bounded cache expires objects incrementally instead of dumping everything
+                    ((BoundedMultiCache<T>)getCache()).cleanUp();
+                }
+                else {
+                    getCache().releaseAll();
+                }
+            }
+        }, 60 * 60 * 1000L); // every hour
+    }
 
-    	Thread t = new Thread() {
-
-			@Override
-			public void run() {
-
-				try {
-					while (true) {
-						sleep(60 * 60 * 1000); // wait an hour
-						getCache().releaseAll();
-					}
-
-				} catch (InterruptedException e) {
-					// no worries, just die!
-				}
-			}
-    	};
-    	t.setDaemon(false);
-        t.setName("DASEIN RELATIONAL CACHE FLUSHER");
-    	t.start();
+    @Override
+    public void close() {
+        flusher.cancel(false);
+        super.close();
     }
 
     /**
@@ -305,6 +309,8 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
     public T create(Transaction xaction, Map<String,Object> state) throws PersistenceException {
         state.put("--key--", getPrimaryKey().getFields()[0]);
         xaction.execute(getCreator(), state, writeDataSource);
+        invalidateMissing(state.get(getPrimaryKeyField()));
+        publishInvalidation(xaction, state.get(getPrimaryKeyField()));
         return getCache().find(state);
     }
 
@@ -348,9 +354,14 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
 
             loader = new CacheLoader<T>() {
                 public T load(Object ... args) {
+                    NegativeCache missing = getNegativeCache();
+                    long generation = (missing == null ? 0L : missing.getGeneration());
                     SearchTerm[] terms = new SearchTerm[1];
                     Collection<T> list;
 
+                    if( missing != null && missing.contains(args[1]) ) {
+                        return null;
+                    }
                     terms[0] = new SearchTerm((String)args[0], Operator.EQUALS, args[1]);
                     try {
                         list = RelationalReleaseCache.this.load(getLoader(terms, null), null, toParams(terms));
@@ -367,6 +378,9 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
                         }
                     }
                     if( list.isEmpty() ) {
+                        if( missing != null ) {
+                            missing.add(args[1], generation);
+                        }
                         return null;
                     }
                     return list.iterator().next();
@@ -451,7 +465,7 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
 
                 results = xaction.execute(loader, params, readDataSource);
                 xaction.commit();
-                Thread t = new Thread() {
+                Runnable r = new Runnable() {
                     public void run() {
                         try {
                             for( Map<String,Object> map: (Collection<Map<String,Object>>)results.get(Loader.LISTING) ) {
@@ -468,9 +482,12 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
                     }
                 };
 
-                t.setDaemon(true);
-                t.setName("Loader");
-                t.start();
+                if( ((Collection<?>)results.get(Loader.LISTING)).size() <= LoaderExecutor.getInlineThreshold() ) {
+                    r.run();
+                }
+                else {
+                    LoaderExecutor.getInstance().execute(r);
+                }
                 return new JitCollection<T>(it, getEntityClassName());
             }
             catch( PersistenceException e ) {
@@ -507,11 +524,13 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
     public void remove(Transaction xaction, T item) throws PersistenceException {
         xaction.execute(getDeleter(), getCache().getKeys(item), writeDataSource);
         getCache().release(item);
+        publishInvalidation(xaction, getValue(item, getPrimaryKeyField()));
     }
 
     @Override
     public void remove(Transaction xaction, SearchTerm ... terms) throws PersistenceException {
         xaction.execute(getDeleter(), toParams(terms), writeDataSource);
+        publishInvalidation(xaction, null);
     }
 
     public String toString() {
@@ -529,7 +548,17 @@ public final class RelationalReleaseCache<T extends CachedItem> extends Persiste
      */
     @Override
     public void update(Transaction xaction, T item, Map<String,Object> state) throws PersistenceException {
+        Set<String> changes = getChanges(item, state);
+        
+        if( changes != null ) {
+            if( changes.isEmpty() ) {
+                return;
+            }
+            state.put(Updater.CHANGED, changes);
+        }
         state.put("--key--", getPrimaryKey().getFields()[0]);
         xaction.execute(getUpdater(), state, writeDataSource);
+        applyChanges(xaction, item, state, changes);
+        publishInvalidation(xaction, getValue(item, getPrimaryKeyField()));
     }
 }
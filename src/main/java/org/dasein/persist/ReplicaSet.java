@@ -0,0 +1,313 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * A group of interchangeable data sources, typically database replicas, that share one DSN in
+ * <i>dasein-persistence.properties</i>. Any DSN value containing a comma names a replica set, so
+ * reads for an entity are spread across several replicas with:
+ * </p>
+ * <pre>
+ * dsn.com.example.Customer.read=jdbc/replica1,jdbc/replica2,jdbc/replica3
+ * dasein.persist.replica.strategy=roundRobin|leastOutstanding|CLASSNAME
+ * dasein.persist.replica.ejectMillis=30000
+ * </pre>
+ * <p>
+ * {@link Transaction} asks the set for a replica each time it opens a connection. A replica whose
+ * connection attempt fails is ejected for <code>ejectMillis</code> and the next one is tried. If
+ * every replica is ejected, the one due back first is used anyway rather than failing outright.
+ * Replica sets may also be {@link #register(String, List) registered} under a logical name.
+ * </p>
+ */
+public final class ReplicaSet {
+    static private final Logger logger = Logger.getLogger(ReplicaSet.class);
+
+    static public final long DEFAULT_EJECT_MILLIS = 30000L;
+
+    static private final ConcurrentHashMap<String,ReplicaSet> sets = new ConcurrentHashMap<String,ReplicaSet>();
+
+    static private long   ejectMillis = PersistenceConfig.getLong("dasein.persist.replica.ejectMillis", null, DEFAULT_EJECT_MILLIS);
+    static private String strategy    = PersistenceConfig.getString("dasein.persist.replica.strategy", null, "roundRobin");
+
+    /**
+     * Provides the replica set for the specified DSN.
+     * @param dsn a DSN as passed to {@link Transaction}
+     * @return the matching replica set, or null if the DSN names a single data source
+     */
+    static public @Nullable ReplicaSet getReplicaSet(@Nullable String dsn) {
+        if( dsn == null ) {
+            return null;
+        }
+        ReplicaSet set = sets.get(dsn);
+
+        if( set == null && dsn.indexOf(',') > -1 ) {
+            ArrayList<String> members = new ArrayList<String>();
+
+            for( String member : dsn.split(",") ) {
+                member = member.trim();
+                if( member.length() > 0 ) {
+                    members.add(member);
+                }
+            }
+            ReplicaSet created = new ReplicaSet(dsn, members, createStrategy());
+            ReplicaSet current = sets.putIfAbsent(dsn, created);
+
+            set = (current == null ? created : current);
+        }
+        return set;
+    }
+
+    /**
+     * Registers a replica set under a logical name that can then be used as a DSN.
+     * @param name the name used in place of a DSN
+     * @param dsns the DSNs of the members
+     * @return the new replica set
+     */
+    static public @Nonnull ReplicaSet register(@Nonnull String name, @Nonnull List<String> dsns) {
+        ReplicaSet set = new ReplicaSet(name, dsns, createStrategy());
+
+        sets.put(name, set);
+        if( logger.isInfoEnabled() ) {
+            logger.info("Registered replica set " + name + " with " + dsns);
+        }
+        return set;
+    }
+
+    /**
+     * Removes a registered replica set.
+     * @param name the name of the set to remove
+     */
+    static public void unregister(@Nonnull String name) {
+        sets.remove(name);
+    }
+
+    static private ReplicaStrategy createStrategy() {
+        if( strategy.equalsIgnoreCase("roundRobin") ) {
+            return new RoundRobin();
+        }
+        else if( strategy.equalsIgnoreCase("leastOutstanding") ) {
+            return new LeastOutstanding();
+        }
+        try {
+            return (ReplicaStrategy)Class.forName(strategy).newInstance();
+        }
+        catch( Exception e ) {
+            logger.error("Unable to create replica strategy " + strategy + ", using round robin: " + e.getMessage());
+            return new RoundRobin();
+        }
+    }
+
+    /**
+     * A single member of a replica set along with its load and health.
+     */
+    static public class Replica {
+        private final String        dsn;
+        private volatile long       ejectedUntil = 0L;
+        private final AtomicLong    failures     = new AtomicLong(0L);
+        private final AtomicInteger outstanding  = new AtomicInteger(0);
+
+        private Replica(String dsn) {
+            this.dsn = dsn;
+        }
+
+        /**
+         * @return the DSN of this replica
+         */
+        public @Nonnull String getDsn() {
+            return dsn;
+        }
+
+        /**
+         * @return the number of connections from this replica currently in use
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return the total number of failed connection attempts against this replica
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return true if this replica has not been ejected or its ejection has expired
+         */
+        public boolean isHealthy() {
+            return (ejectedUntil <= System.currentTimeMillis());
+        }
+
+        /**
+         * Marks a connection from this replica as in use.
+         */
+        void acquire() {
+            outstanding.incrementAndGet();
+        }
+
+        /**
+         * Marks a connection from this replica as returned.
+         */
+        void release() {
+            outstanding.decrementAndGet();
+        }
+
+        /**
+         * Ejects this replica after a failed connection attempt.
+         * @param millis how long the replica stays ejected
+         */
+        void eject(long millis) {
+            failures.incrementAndGet();
+            ejectedUntil = System.currentTimeMillis() + millis;
+            logger.warn("Ejecting replica " + dsn + " for " + millis + "ms");
+        }
+
+        @Override
+        public String toString() {
+            return dsn + "[outstanding=" + outstanding.get() + ",healthy=" + isHealthy() + "]";
+        }
+    }
+
+    /**
+     * Sends connections to each healthy replica in turn.
+     */
+    static public class RoundRobin implements ReplicaStrategy {
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        public @Nonnull Replica select(@Nonnull List<Replica> candidates) {
+            int idx = next.getAndIncrement() & Integer.MAX_VALUE;
+
+            return candidates.get(idx % candidates.size());
+        }
+    }
+
+    /**
+     * Sends connections to the healthy replica with the fewest connections in use, rotating among ties.
+     */
+    static public class LeastOutstanding implements ReplicaStrategy {
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        public @Nonnull Replica select(@Nonnull List<Replica> candidates) {
+            int start = next.getAndIncrement() & Integer.MAX_VALUE;
+            int count = candidates.size();
+            Replica best = null;
+
+            for( int i=0; i<count; i++ ) {
+                Replica r = candidates.get((start + i) % count);
+
+                if( best == null || r.getOutstanding() < best.getOutstanding() ) {
+                    best = r;
+                }
+            }
+            return best;
+        }
+    }
+
+    private final String                 name;
+    private final List<Replica>          replicas;
+    private volatile ReplicaStrategy     selector;
+
+    private ReplicaSet(String name, List<String> dsns, ReplicaStrategy selector) {
+        ArrayList<Replica> list = new ArrayList<Replica>();
+
+        for( String dsn : dsns ) {
+            list.add(new Replica(dsn));
+        }
+        if( list.isEmpty() ) {
+            throw new IllegalArgumentException("A replica set requires at least one DSN: " + name);
+        }
+        this.name = name;
+        this.replicas = Collections.unmodifiableList(list);
+        this.selector = selector;
+    }
+
+    /**
+     * Chooses the replica for the next connection.
+     * @param exclude replicas already tried for this connection, or null
+     * @return the chosen replica, or null if every replica has been tried
+     */
+    @Nullable Replica choose(@Nullable List<Replica> exclude) {
+        ArrayList<Replica> healthy = new ArrayList<Replica>();
+        Replica fallback = null;
+
+        for( Replica r : replicas ) {
+            if( exclude != null && exclude.contains(r) ) {
+                continue;
+            }
+            if( r.isHealthy() ) {
+                healthy.add(r);
+            }
+            else if( fallback == null || r.ejectedUntil < fallback.ejectedUntil ) {
+                fallback = r;
+            }
+        }
+        if( healthy.isEmpty() ) {
+            return fallback;
+        }
+        return selector.select(healthy);
+    }
+
+    /**
+     * Ejects a replica that failed to provide a connection.
+     * @param replica the failed replica
+     */
+    void eject(@Nonnull Replica replica) {
+        replica.eject(ejectMillis);
+    }
+
+    /**
+     * @return the name under which this set is known, usually the comma-separated DSN list
+     */
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    /**
+     * @return the members of this set
+     */
+    public @Nonnull List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Replaces the strategy used to choose among the healthy replicas of this set.
+     * @param strategy the new strategy
+     */
+    public void setStrategy(@Nonnull ReplicaStrategy strategy) {
+        selector = strategy;
+    }
+
+    @Override
+    public String toString() {
+        return name + replicas;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Chooses which member of a {@link ReplicaSet} serves the next connection. A strategy instance
+ * belongs to a single replica set and must be safe for concurrent use. Implementations need a
+ * public no-arg constructor so they can be named in <code>dasein.persist.replica.strategy</code>.
+ */
+public interface ReplicaStrategy {
+    /**
+     * Selects a replica from the healthy members of a replica set.
+     * @param candidates the healthy replicas, never empty
+     * @return the replica that should serve the next connection
+     */
+    public @Nonnull ReplicaSet.Replica select(@Nonnull List<ReplicaSet.Replica> candidates);
+}
@@ -22,10 +22,12 @@ package org.dasein.persist;
 
 // J2SE imports
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
 
 // Apache imports
 import org.apache.log4j.Logger;
@@ -74,6 +76,14 @@ public abstract class Sequencer {
      * All sequencers currently in memory.
      */
     static private final Map<String,Sequencer>      sequencers       = new HashMap<String,Sequencer>();
+    /**
+     * True if sequencers should claim their next block of values in the background.
+     */
+    static private final boolean                    prefetching;
+    /**
+     * The maintenance task that prefetches for all sequencers.
+     */
+    static private volatile ScheduledFuture<?>      prefetcher       = null;
 
     /**
      * Loads the sequencers from the dasein-persistence.properties
@@ -81,6 +91,7 @@ public abstract class Sequencer {
      */
     static {
         Class<? extends Sequencer> def = DaseinSequencer.class;
+        boolean prefetch = true;
         
         try {
             InputStream is = Sequencer.class.getResourceAsStream(PROPERTIES);
@@ -90,6 +101,7 @@ public abstract class Sequencer {
             if( is != null ) {
                 props.load(is);
             }
+            prefetch = !props.getProperty("dasein.seqprefetch", "true").trim().equalsIgnoreCase("false");
             propenum = props.propertyNames();
             while( propenum.hasMoreElements() ) {
                 String nom = (String)propenum.nextElement();
@@ -124,6 +136,38 @@ public abstract class Sequencer {
             e.printStackTrace();
         }
         defaultSequencer = def;
+        prefetching = prefetch;
+    }
+    
+    /**
+     * Starts the background prefetch for all sequencers unless it is running or turned off
+     * with <code>dasein.seqprefetch=false</code>.
+     */
+    static private void startPrefetcher() {
+        if( !prefetching ) {
+            return;
+        }
+        synchronized( sequencers ) {
+            if( prefetcher == null || prefetcher.isDone() ) {
+                prefetcher = MaintenanceScheduler.getInstance().schedule("Sequencer Prefetch", new Runnable() {
+                    public void run() {
+                        ArrayList<Sequencer> list;
+                        
+                        synchronized( sequencers ) {
+                            list = new ArrayList<Sequencer>(sequencers.values());
+                        }
+                        for( Sequencer seq : list ) {
+                            try {
+                                seq.prefetch();
+                            }
+                            catch( PersistenceException e ) {
+                                logger.warn("Unable to prefetch sequence " + seq.getName() + ": " + e.getMessage());
+                            }
+                        }
+                    }
+                }, 1000L);
+            }
+        }
     }
     
     /**
@@ -141,6 +185,9 @@ public abstract class Sequencer {
         try {
             Sequencer seq = null;
             
+            if( prefetching && (prefetcher == null || prefetcher.isDone()) ) {
+                startPrefetcher();
+            }
             if( sequencers.containsKey(name) ) {
                 seq = sequencers.get(name);
             }
@@ -215,6 +262,17 @@ public abstract class Sequencer {
      */
     public abstract long next() throws PersistenceException;
 
+    /**
+     * Called periodically in the background so that sequencers which reserve blocks of values
+     * in a data store can reserve their next block before the current one runs out, keeping that
+     * round trip off the caller of {@link #next()}. The default implementation does nothing.
+     * @throws org.dasein.persist.PersistenceException a data store error
+     * occurred while reserving values
+     */
+    public void prefetch() throws PersistenceException {
+        // NO-OP
+    }
+
     /**
      * Sets the sequencer name.
      * @param nom the name of the sequencer
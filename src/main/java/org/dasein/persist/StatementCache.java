@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A bounded, least-recently-used cache of prepared statements for a single connection. Each
+ * {@link Transaction} owns one for the lifetime of its connection so that executions running
+ * the same SQL repeatedly within a transaction reuse the prepared plan. The cache holds only
+ * idle statements: a statement is removed when checked out and handed back on release, so
+ * nested executions of the same SQL simply prepare a second statement.
+ * </p>
+ * <p>
+ * The size is configured through <code>dasein.persist.statementCacheSize</code> in
+ * <i>dasein-persistence.properties</i>. A size of 0 disables caching.
+ * </p>
+ */
+public final class StatementCache {
+    static public final int DEFAULT_SIZE = 32;
+
+    static private final int        maxSize   = Math.max(0, PersistenceConfig.getInt("dasein.persist.statementCacheSize", null, DEFAULT_SIZE));
+    static private final AtomicLong hits      = new AtomicLong(0L);
+    static private final AtomicLong misses    = new AtomicLong(0L);
+    static private final AtomicLong evictions = new AtomicLong(0L);
+
+    /**
+     * @return the number of statement requests served from a cache across all connections
+     */
+    static public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of statement requests that required a new prepare across all connections
+     */
+    static public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of idle statements closed to stay within the configured size
+     */
+    static public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the maximum number of idle statements held per connection
+     */
+    static public int getMaxSize() {
+        return maxSize;
+    }
+
+    private final Connection                          connection;
+    private final LinkedHashMap<String,PreparedStatement> idle;
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+        this.idle = new LinkedHashMap<String,PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2166306209787290213L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest) {
+                if( size() > maxSize ) {
+                    evictions.incrementAndGet();
+                    close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Provides a prepared statement for the specified SQL, reusing an idle one if available.
+     * @param sql the SQL to prepare
+     * @return a statement ready for parameter binding
+     * @throws SQLException an error occurred preparing a new statement
+     */
+    PreparedStatement checkout(String sql) throws SQLException {
+        PreparedStatement stmt = (maxSize > 0 ? idle.remove(sql) : null);
+
+        if( stmt != null ) {
+            hits.incrementAndGet();
+            return stmt;
+        }
+        misses.incrementAndGet();
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Returns a statement to the cache once its execution has finished. Statements from failed
+     * executions should be discarded instead, since their state is unknown.
+     * @param sql the SQL the statement was prepared from
+     * @param stmt the statement to return
+     */
+    void release(String sql, PreparedStatement stmt) {
+        if( maxSize < 1 || idle.containsKey(sql) ) {
+            close(stmt);
+            return;
+        }
+        try {
+            stmt.clearParameters();
+        }
+        catch( SQLException e ) {
+            close(stmt);
+            return;
+        }
+        idle.put(sql, stmt);
+    }
+
+    /**
+     * Closes a statement that cannot be reused.
+     * @param stmt the statement to close
+     */
+    void discard(PreparedStatement stmt) {
+        close(stmt);
+    }
+
+    /**
+     * Closes all idle statements. Must be called before the owning connection is closed.
+     */
+    void clear() {
+        for( PreparedStatement stmt : idle.values() ) {
+            close(stmt);
+        }
+        idle.clear();
+    }
+
+    int size() {
+        return idle.size();
+    }
+
+    static private void close(PreparedStatement stmt) {
+        try { stmt.close(); }
+        catch( Throwable ignore ) { /* ignore */ }
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Timings for every SQL statement executed through {@link Execution}, grouped by statement shape. The shape
+ * is the SQL with whitespace collapsed and <code>IN</code> lists reduced to a single placeholder, so queries
+ * that differ only in their values or in the number of keys they look up are counted together. Each
+ * execution is split into phases, each kept in its own {@link Histogram} in microseconds:
+ * </p>
+ * <ul>
+ * <li><b>prepare</b>: building the SQL, preparing the statement, and binding the parameters</li>
+ * <li><b>execute</b>: running the statement in the database</li>
+ * <li><b>fetch</b>: reading rows from the result set</li>
+ * <li><b>hydrate</b>: converting column values and loading string translations</li>
+ * </ul>
+ * <p>
+ * Statements slower than <code>dasein.persist.slowQuery.threshold</code> milliseconds (2,000 by default, or
+ * <code>dasein.persist.slowQuery.threshold.ENTITY_CLASS_NAME</code> for a single entity) are logged at WARN with
+ * their phase breakdown and the application code that issued them. A fraction
+ * <code>dasein.persist.slowQuery.sampleRate</code> of slow queries also have their parameters logged and kept
+ * with the statistics. It is 0 by default since parameters may hold personal data.
+ * </p>
+ * <p>
+ * {@link #getTop(int)} and {@link #report(int)} list the statement shapes that have taken the most time in total.
+ * </p>
+ */
+public final class StatementStatistics {
+    static private final Logger logger = Logger.getLogger(StatementStatistics.class);
+
+    static public final int MAX_SIGNATURES = 1000;
+    static public final int MAX_SAMPLES    = 5;
+    static public final int MAX_STATEMENTS = 10000;
+
+    static private final Pattern IN_LIST    = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+    static private final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    static private final ConcurrentHashMap<String,StatementStatistics> bySql      = new ConcurrentHashMap<String,StatementStatistics>();
+    static private final ConcurrentHashMap<String,StatementStatistics> statistics = new ConcurrentHashMap<String,StatementStatistics>();
+    static private final ConcurrentHashMap<String,Long>                thresholds = new ConcurrentHashMap<String,Long>();
+    static private final LongAdder                                     untracked  = new LongAdder();
+
+    static private final long   defaultThreshold = PersistenceConfig.getLong("dasein.persist.slowQuery.threshold", null, 2000L);
+    static private final double sampleRate       = PersistenceConfig.getDouble("dasein.persist.slowQuery.sampleRate", null, 0.0);
+
+    /**
+     * @return the statistics for every statement shape seen so far, by shape
+     */
+    static public @Nonnull Map<String,StatementStatistics> getAll() {
+        return Collections.unmodifiableMap(new TreeMap<String,StatementStatistics>(statistics));
+    }
+
+    static private @Nonnull String getCaller() {
+        for( StackTraceElement element : new Throwable().getStackTrace() ) {
+            String cls = element.getClassName();
+
+            if( !cls.startsWith("org.dasein.persist.") && !cls.startsWith("java.") && !cls.startsWith("sun.") ) {
+                return element.toString();
+            }
+        }
+        return "unknown";
+    }
+
+    /**
+     * Provides the slow query threshold for an entity.
+     * @param entity the entity class name, or null for the default
+     * @return the threshold in milliseconds, or a negative number if slow queries are not logged
+     */
+    static public long getSlowQueryThreshold(@Nullable String entity) {
+        if( entity == null ) {
+            return defaultThreshold;
+        }
+        Long threshold = thresholds.get(entity);
+
+        if( threshold == null ) {
+            threshold = PersistenceConfig.getLong("dasein.persist.slowQuery.threshold", entity, defaultThreshold);
+            thresholds.put(entity, threshold);
+        }
+        return threshold;
+    }
+
+    /**
+     * Lists the statement shapes that have taken the most time in total.
+     * @param count the number of shapes to list
+     * @return the most expensive shapes, most expensive first
+     */
+    static public @Nonnull List<StatementStatistics> getTop(int count) {
+        ArrayList<StatementStatistics> list = new ArrayList<StatementStatistics>(statistics.values());
+
+        Collections.sort(list, new Comparator<StatementStatistics>() {
+            public int compare(StatementStatistics a, StatementStatistics b) {
+                return Long.compare(b.total.getSum(), a.total.getSum());
+            }
+        });
+        return (list.size() > count ? list.subList(0, count) : list);
+    }
+
+    /**
+     * @return the number of executions not tracked because {@value #MAX_SIGNATURES} shapes were already tracked
+     */
+    static public long getUntrackedCount() {
+        return untracked.sum();
+    }
+
+    /**
+     * Reduces SQL to its shape.
+     * @param sql the SQL as executed
+     * @return the SQL with whitespace collapsed and <code>IN</code> lists of placeholders reduced to <code>(?...)</code>
+     */
+    static public @Nonnull String normalize(@Nonnull String sql) {
+        String shape = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+
+        return IN_LIST.matcher(shape).replaceAll("(?...)");
+    }
+
+    /**
+     * Finds the statistics for the shape of a statement. The shape of each distinct SQL string is worked
+     * out once, up to {@value #MAX_STATEMENTS} strings, so the regular expressions stay off the common path.
+     */
+    static private @Nullable StatementStatistics getStatistics(@Nullable String entity, @Nonnull String sql) {
+        StatementStatistics stats = bySql.get(sql);
+
+        if( stats != null ) {
+            return stats;
+        }
+        String shape = normalize(sql);
+
+        stats = statistics.get(shape);
+        if( stats == null ) {
+            if( statistics.size() >= MAX_SIGNATURES ) {
+                untracked.increment();
+                return null;
+            }
+            StatementStatistics created = new StatementStatistics(shape, entity);
+
+            stats = statistics.putIfAbsent(shape, created);
+            if( stats == null ) {
+                stats = created;
+            }
+        }
+        if( bySql.size() < MAX_STATEMENTS ) {
+            bySql.put(sql, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Records an execution of a statement and logs it if it was slow. All times are in nanoseconds.
+     * @param entity the entity class name the statement is for, or null if unknown
+     * @param sql the SQL executed
+     * @param params the parameters the statement was executed with, may be null
+     * @param prepare the time spent preparing the statement
+     * @param execute the time spent executing the statement
+     * @param fetch the time spent reading rows
+     * @param hydrate the time spent converting values
+     * @param rows the number of rows read or written
+     * @param failed true if the statement failed
+     */
+    static void record(@Nullable String entity, @Nonnull String sql, @Nullable Map<String,Object> params, long prepare, long execute, long fetch, long hydrate, long rows, boolean failed) {
+        StatementStatistics stats = getStatistics(entity, sql);
+        long elapsed = prepare + execute + fetch + hydrate;
+
+        if( stats != null ) {
+            stats.prepare.record(prepare/1000L);
+            stats.execute.record(execute/1000L);
+            stats.fetch.record(fetch/1000L);
+            stats.hydrate.record(hydrate/1000L);
+            stats.total.record(elapsed/1000L);
+            stats.rows.record(rows);
+            if( failed ) {
+                stats.failures.increment();
+            }
+        }
+        long threshold = getSlowQueryThreshold(entity);
+
+        if( threshold >= 0L && elapsed/1000000L > threshold ) {
+            String sample = null;
+
+            if( sampleRate > 0.0 && params != null && ThreadLocalRandom.current().nextDouble() < sampleRate ) {
+                sample = toString(params);
+            }
+            if( stats != null ) {
+                stats.slow.increment();
+                if( sample != null ) {
+                    stats.addSample(sample);
+                }
+            }
+            StringBuilder str = new StringBuilder();
+
+            str.append("SLOW QUERY (").append(elapsed/1000000L).append(" ms: prepare ").append(prepare/1000000L);
+            str.append(", execute ").append(execute/1000000L).append(", fetch ").append(fetch/1000000L);
+            str.append(", hydrate ").append(hydrate/1000000L).append("; ").append(rows).append(" rows");
+            if( failed ) {
+                str.append("; failed");
+            }
+            str.append(") from ").append(getCaller()).append(": ").append(sql);
+            if( sample != null ) {
+                str.append(" ").append(sample);
+            }
+            logger.warn(str.toString());
+        }
+    }
+
+    /**
+     * Describes the statement shapes that have taken the most time in total.
+     * @param count the number of shapes to describe
+     * @return a multi-line report, most expensive first
+     */
+    static public @Nonnull String report(int count) {
+        StringBuilder str = new StringBuilder();
+
+        str.append("Top ").append(count).append(" statements by total time:");
+        for( StatementStatistics stats : getTop(count) ) {
+            str.append("\n\t").append(stats);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Discards the statistics for every statement shape.
+     */
+    static public void resetAll() {
+        bySql.clear();
+        statistics.clear();
+        untracked.reset();
+    }
+
+    static private String toString(Map<String,Object> params) {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[");
+        for( Map.Entry<String,Object> entry : new TreeMap<String,Object>(params).entrySet() ) {
+            // internal keys such as --key-- are not parameters
+            if( entry.getKey().startsWith("--") ) {
+                continue;
+            }
+            String value = String.valueOf(entry.getValue());
+
+            if( value.length() > 100 ) {
+                value = value.substring(0, 100) + "...";
+            }
+            if( str.length() > 1 ) {
+                str.append(", ");
+            }
+            str.append(entry.getKey()).append("=").append(value);
+        }
+        str.append("]");
+        return str.toString();
+    }
+
+    private final String             entity;
+    private final Histogram          execute  = new Histogram();
+    private final LongAdder          failures = new LongAdder();
+    private final Histogram          fetch    = new Histogram();
+    private final Histogram          hydrate  = new Histogram();
+    private final Histogram          prepare  = new Histogram();
+    private final Histogram          rows     = new Histogram();
+    private final LinkedList<String> samples  = new LinkedList<String>();
+    private final String             shape;
+    private final LongAdder          slow     = new LongAdder();
+    private final Histogram          total    = new Histogram();
+
+    private StatementStatistics(@Nonnull String shape, @Nullable String entity) {
+        this.shape = shape;
+        this.entity = entity;
+    }
+
+    private void addSample(String sample) {
+        synchronized( samples ) {
+            samples.addLast(sample);
+            if( samples.size() > MAX_SAMPLES ) {
+                samples.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * @return the entity class name of the first execution of this shape, or null if unknown
+     */
+    public @Nullable String getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return the time spent executing, in microseconds
+     */
+    public @Nonnull Histogram getExecuteTime() {
+        return execute;
+    }
+
+    /**
+     * @return the number of executions that failed
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the time spent reading rows, in microseconds
+     */
+    public @Nonnull Histogram getFetchTime() {
+        return fetch;
+    }
+
+    /**
+     * @return the time spent converting values, in microseconds
+     */
+    public @Nonnull Histogram getHydrateTime() {
+        return hydrate;
+    }
+
+    /**
+     * @return the time spent preparing, in microseconds
+     */
+    public @Nonnull Histogram getPrepareTime() {
+        return prepare;
+    }
+
+    /**
+     * @return the number of rows read or written per execution
+     */
+    public @Nonnull Histogram getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the parameters of the most recent sampled slow executions, oldest first
+     */
+    public @Nonnull List<String> getSamples() {
+        synchronized( samples ) {
+            return new ArrayList<String>(samples);
+        }
+    }
+
+    /**
+     * @return the normalized SQL
+     */
+    public @Nonnull String getShape() {
+        return shape;
+    }
+
+    /**
+     * @return the number of executions slower than the slow query threshold
+     */
+    public long getSlowCount() {
+        return slow.sum();
+    }
+
+    /**
+     * @return the total time per execution, in microseconds
+     */
+    public @Nonnull Histogram getTotalTime() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return shape + " [executions=" + total.getCount() + ",totalMs=" + total.getSum()/1000L + ",meanMs=" + total.getMean()/1000.0 +
+                ",p99Ms=" + total.getPercentile(99.0)/1000.0 + ",executeMeanMs=" + execute.getMean()/1000.0 +
+                ",fetchMeanMs=" + fetch.getMean()/1000.0 + ",hydrateMeanMs=" + hydrate.getMean()/1000.0 +
+                ",rowsMean=" + rows.getMean() + ",slow=" + slow.sum() + ",failures=" + failures.sum() + "]";
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.io.Closeable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.util.JiteratorLoadException;
+
+/**
+ * <p>
+ * A single-pass collection fed by a loader thread while the consumer iterates over it. Items
+ * are handed off through a bounded buffer, so at most <code>capacity</code> loaded items are held
+ * in memory and the consumer sees the first item as soon as it has been fetched.
+ * </p>
+ * <p>
+ * The loader learns that the consumer went away when {@link #push(Object)} returns false, either
+ * because {@link #close()} was called or because nothing was taken from the buffer within the
+ * abandonment timeout. It should then stop reading and release its connection. A consumer that
+ * comes back to an abandoned or interrupted stream gets a {@link JiteratorLoadException} rather than
+ * a quietly truncated result.
+ * </p>
+ * <p>
+ * Only one iterator may be requested. Calling {@link #size()} before iterating drains the remaining
+ * items into memory.
+ * </p>
+ */
+public class StreamingCollection<T> extends AbstractCollection<T> implements Closeable {
+    static private final Object END = new Object();
+
+    // how often a waiting consumer checks whether the stream was abandoned
+    static private final long POLL_INTERVAL = 1000L;
+
+    private volatile boolean              closed    = false;
+    private volatile Throwable            error     = null;
+    private boolean                       iterating = false;
+    private ArrayList<T>                  loaded    = null;
+    private final ArrayBlockingQueue<Object> queue;
+    private final long                    timeout;
+
+    /**
+     * Constructs a new streaming collection.
+     * @param capacity the maximum number of items buffered between the loader and the consumer
+     * @param abandonTimeout the number of milliseconds the loader waits on a full buffer before
+     * treating the collection as abandoned
+     */
+    public StreamingCollection(int capacity, long abandonTimeout) {
+        queue = new ArrayBlockingQueue<Object>(Math.max(1, capacity));
+        timeout = abandonTimeout;
+    }
+
+    /**
+     * Hands an item to the consumer, waiting for buffer space if necessary.
+     * @param item the item to add
+     * @return false if the consumer has closed or abandoned the collection and loading should stop
+     */
+    public boolean push(T item) {
+        if( closed ) {
+            return false;
+        }
+        try {
+            if( !queue.offer(item, timeout, TimeUnit.MILLISECONDS) ) {
+                abandon(new PersistenceException("Streaming results were abandoned after nothing was read for " + timeout + " ms"));
+                return false;
+            }
+            return !closed;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            abandon(new PersistenceException("Interrupted while streaming results"));
+            return false;
+        }
+    }
+
+    /**
+     * Stops the stream short, recording why so that the consumer fails instead of seeing a normal end.
+     * @param cause the reason the stream stopped, ignored if the loader already reported an error
+     */
+    private void abandon(Throwable cause) {
+        if( error == null ) {
+            error = cause;
+        }
+        // the error must be visible before closed is
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * Marks the end of the stream.
+     */
+    public void complete() {
+        finish();
+    }
+
+    /**
+     * Ends the stream with an error that will be raised to the consumer once it reaches this point.
+     * @param t the cause of the failure
+     */
+    public void setLoadException(Throwable t) {
+        error = t;
+        finish();
+    }
+
+    private void finish() {
+        if( closed ) {
+            return;
+        }
+        try {
+            if( !queue.offer(END, timeout, TimeUnit.MILLISECONDS) ) {
+                abandon(new PersistenceException("Streaming results were abandoned after nothing was read for " + timeout + " ms"));
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            abandon(new PersistenceException("Interrupted while streaming results"));
+        }
+    }
+
+    /**
+     * Stops consuming the stream. Buffered items are discarded and the loader is told to stop.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * @return true if the consumer closed or abandoned this collection
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized Iterator<T> iterator() {
+        if( loaded != null ) {
+            return loaded.iterator();
+        }
+        if( iterating ) {
+            throw new IllegalStateException("A streaming collection may only be iterated once");
+        }
+        iterating = true;
+        return new Iterator<T>() {
+            private Object next = null;
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                if( done ) {
+                    return false;
+                }
+                if( next == null ) {
+                    next = take();
+                }
+                if( next == END ) {
+                    done = true;
+                    if( error != null ) {
+                        throw new JiteratorLoadException(error);
+                    }
+                    return false;
+                }
+                return true;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T next() {
+                if( !hasNext() ) {
+                    throw new NoSuchElementException();
+                }
+                T item = (T)next;
+
+                next = null;
+                return item;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private Object take() {
+        try {
+            // polls rather than blocking outright since an abandoned stream never receives its end marker
+            while( !closed ) {
+                Object next = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+                if( next != null ) {
+                    return next;
+                }
+            }
+            return END;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            abandon(new PersistenceException("Interrupted while reading streamed results"));
+            return END;
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        if( loaded == null ) {
+            if( iterating ) {
+                throw new IllegalStateException("The size of a streaming collection is unknown once iteration has begun");
+            }
+            ArrayList<T> items = new ArrayList<T>();
+
+            for( T item : this ) {
+                items.add(item);
+            }
+            loaded = items;
+        }
+        return loaded.size();
+    }
+}
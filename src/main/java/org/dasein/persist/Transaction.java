@@ -24,16 +24,21 @@ package org.dasein.persist;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.EmptyStackException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // J2EE imports
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
@@ -54,81 +59,70 @@ import org.apache.log4j.Logger;
 public class Transaction {
     static private Logger logger            = Logger.getLogger(Transaction.class);
 
-    /**
-     * A count of open connections.
-     */
-    static private int connections = 0;
-    /**
-     * The most transactions ever open at a single time.
-     */
-    static private int highPoint   = 0;
     /**
      * The maid service cleans up dead transactions.
      */
-    static private Thread maid      = null;
+    static private volatile ScheduledFuture<?> maid = null;
     /**
      * The next transaction ID to use.
      */
-    static private int nextTransaction = 1;
+    static private final AtomicInteger nextTransaction = new AtomicInteger(1);
     /**
      * A list of open transactions.
      */
     static private Map<Number,Transaction> transactions = new HashMap<Number,Transaction>();
     
-    static private Map<String,Stack<Execution>> eventCache = new HashMap<String,Stack<Execution>>();
-    
     /**
      * Cleans up transactions that somehow never got cleaned up.
      */
     static private void clean() {
-        while( true ) {
-            ArrayList<Transaction> closing;
-            int count;
-            
-            if( logger.isInfoEnabled() ) {
-                logger.info("There are " + connections + " open connections right now (high point: " + highPoint + ").");
-            }
-            try { Thread.sleep(1000L); }
-            catch( InterruptedException ignore ) { /* ignore me */ }
-            count = transactions.size();
-            if( count < 1 ) {
-                continue;
-            }
-            if( logger.isInfoEnabled() ) {
-                logger.info("Running the maid service on " + count + " transactions.");
-            }
-            closing = new ArrayList<Transaction>();
-            synchronized( transactions ) {
-                long now = System.currentTimeMillis();
+        ArrayList<Transaction> closing;
+        int count;
+        
+        if( logger.isInfoEnabled() ) {
+            TransactionStatistics stats = TransactionStatistics.getInstance();
+
+            logger.info("There are " + stats.getOpenConnections() + " open connections right now (high point: " + stats.getHighPoint() + ").");
+        }
+        count = transactions.size();
+        if( count < 1 ) {
+            return;
+        }
+        if( logger.isInfoEnabled() ) {
+            logger.info("Running the maid service on " + count + " transactions.");
+        }
+        closing = new ArrayList<Transaction>();
+        synchronized( transactions ) {
+            long now = System.currentTimeMillis();
 
-                for( Transaction xaction : transactions.values() ) {
-                    long diff = (now - xaction.openTime)/1000L;
+            for( Transaction xaction : transactions.values() ) {
+                long diff = (now - xaction.openTime)/1000L;
+                
+                if( diff > 10 ) {
+                    Thread t = xaction.executionThread;
                     
-                    if( diff > 10 ) {
-                        Thread t = xaction.executionThread;
-                        
-                        logger.warn("Open transaction " + xaction.transactionId + " has been open for " + diff + " seconds.");
-                        logger.warn("Transaction " + xaction.transactionId + " state: " + xaction.state);
-                        if( t== null ) {
-                            logger.warn("Thread: no execution thread active");
-                        }
-                        else {
-                            logger.warn("Thread " + t.getName() + " (" + t.getState() + "):");
-                            for( StackTraceElement elem : t.getStackTrace() ) {
-                                logger.warn("\t" + elem.toString());
-                            }
-                        }
+                    TransactionStatistics.getInstance().staleTransaction(xaction.transactionId, xaction.dataSource, now - xaction.openTime);
+                    logger.warn("Open transaction " + xaction.transactionId + " has been open for " + diff + " seconds.");
+                    logger.warn("Transaction " + xaction.transactionId + " state: " + xaction.state);
+                    if( t== null ) {
+                        logger.warn("Thread: no execution thread active");
                     }
-                    if( diff  > 600 ) {
-                        closing.add(xaction);
+                    else {
+                        logger.warn("Thread " + t.getName() + " (" + t.getState() + "):");
+                        for( StackTraceElement elem : t.getStackTrace() ) {
+                            logger.warn("\t" + elem.toString());
+                        }
                     }
                 }
+                if( diff  > 600 ) {
+                    closing.add(xaction);
+                }
             }
-            for( Transaction xaction: closing ) {
-                logger.warn("Encountered a stale transaction (" + xaction.transactionId + "), forcing a close: " + xaction.state);
-                xaction.printStackTrace();
-                xaction.close();
-            }
+        }
+        for( Transaction xaction: closing ) {
+            logger.warn("Encountered a stale transaction (" + xaction.transactionId + "), forcing a close: " + xaction.state);
+            xaction.printStackTrace();
+            xaction.close();
         }
     }
     
@@ -145,50 +139,91 @@ public class Transaction {
         Transaction xaction;
         int xid;
 
-        if( nextTransaction == Integer.MAX_VALUE ) {
-            nextTransaction = 0;
-        }
-        xid = nextTransaction++;
+        // wraps around to negative IDs after Integer.MAX_VALUE, which only need to be unique among open transactions
+        xid = nextTransaction.getAndIncrement();
         xaction = new Transaction(xid, readOnly);
-        if( maid == null ) {
+        if( maid == null || maid.isDone() ) {
             synchronized( transactions ) { 
                 // this bizarreness avoids synchronizing for most cases
-                if( maid == null ) {
-                    maid = new Thread() {
+                if( maid == null || maid.isDone() ) {
+                    maid = MaintenanceScheduler.getInstance().schedule("Transaction Maid", new Runnable() {
                         public void run() {
                             clean();
                         }   
-                    };  
-                    maid.setDaemon(true);
-                    maid.setPriority(Thread.MIN_PRIORITY + 1);
-                    maid.setName("Transaction Maid");
-                    maid.start();
+                    }, 1000L);
                 }
             }
         }
         return xaction;
     }
 
+    /**
+     * @return how long each transaction holding a connection has held it, in milliseconds
+     */
+    static long[] getOpenTransactionAges() {
+        synchronized( transactions ) {
+            long now = System.currentTimeMillis();
+            long[] ages = new long[transactions.size()];
+            int i = 0;
+
+            for( Transaction xaction : transactions.values() ) {
+                ages[i++] = now - xaction.openTime;
+            }
+            return ages;
+        }
+    }
+
+    /**
+     * Logs a summary of connection, pool, statement, and memory use at INFO. The same figures are available
+     * without parsing logs from {@link TransactionStatistics} and the platform MXBeans.
+     */
     static public void report() {
+        if( !logger.isInfoEnabled() ) {
+            return;
+        }
         MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
-        
-        System.out.println("\n\nDasein Connection Report (" + new Date() + "):");
-        System.out.println("\tOpen connections: " + connections);
-        System.out.println("\tHigh connections: " + highPoint);
-        System.out.println("\tTransaction cache size: " + transactions.size());
-        System.out.println("\tEvent cache size: " + eventCache.size());
-        System.out.println("\tHeap memory usage: " + bean.getHeapMemoryUsage());
-        System.out.println("\tNon-heap memory usage: " + bean.getNonHeapMemoryUsage());
-        System.out.println("\tFree memory: " + (Runtime.getRuntime().freeMemory()/1024000) + "MB");
-        System.out.println("\tTotal memory: " + (Runtime.getRuntime().totalMemory()/1024000) + "MB");
-        System.out.println("\tMax memory: " + (Runtime.getRuntime().maxMemory()/1024000) + "MB");
-        System.out.println("\n");
+        TransactionStatistics stats = TransactionStatistics.getInstance();
+        StringBuilder str = new StringBuilder();
+
+        str.append("Dasein Connection Report:");
+        str.append("\n\tOpen connections: ").append(stats.getOpenConnections());
+        str.append("\n\tHigh connections: ").append(stats.getHighPoint());
+        str.append("\n\tOpen transactions: ").append(stats.getOpenTransactions());
+        str.append("\n\tOldest open transaction: ").append(stats.getOpenTransactionAgeMax()).append("ms");
+        str.append("\n\tCommits/rollbacks: ").append(stats.getCommitCount()).append("/").append(stats.getRollbackCount());
+        for( DataSourceStatistics ds : stats.getDataSourceStatistics().values() ) {
+            str.append("\n\t").append(ds);
+        }
+        str.append("\n\tIdle pooled events: ").append(ExecutionPool.getIdleCount());
+        str.append("\n\tEvent pool hit rate: ").append(ExecutionPool.getHitRate());
+        str.append("\n\tStatement cache hits/misses: ").append(StatementCache.getHits()).append("/").append(StatementCache.getMisses());
+        for( StatementStatistics statement : StatementStatistics.getTop(5) ) {
+            str.append("\n\t").append(statement);
+        }
+        str.append("\n\tHeap memory usage: ").append(bean.getHeapMemoryUsage());
+        str.append("\n\tNon-heap memory usage: ").append(bean.getNonHeapMemoryUsage());
+        str.append("\n\tFree memory: ").append(Runtime.getRuntime().freeMemory()/1024000).append("MB");
+        str.append("\n\tTotal memory: ").append(Runtime.getRuntime().totalMemory()/1024000).append("MB");
+        str.append("\n\tMax memory: ").append(Runtime.getRuntime().maxMemory()/1024000).append("MB");
+        logger.info(str.toString());
     }
     
+    /**
+     * Work to be done once this transaction commits.
+     */
+    private ArrayList<Runnable> commitHooks = null;
     /**
      * A connection object for this transaction.
      */
     private Connection connection = null;
+    /**
+     * When this transaction was created, for measuring the time to commit.
+     */
+    private long       createdNanos = System.nanoTime();
+    /**
+     * The data source of the current connection.
+     */
+    private String     dataSource   = null;
     /**
      * Marks the transaction as dirty and no longer able to be used.
      */
@@ -201,10 +236,22 @@ public class Transaction {
     private Stack<Execution> events     = new Stack<Execution>();
     
     private Stack<String> statements = new Stack<String>();
+    /**
+     * The replica serving the current connection when its DSN names a {@link ReplicaSet}.
+     */
+    private ReplicaSet.Replica replica = null;
+    /**
+     * Idle prepared statements for the current connection.
+     */
+    private StatementCache statementCache = null;
     /**
      * Marks the time the transaction was opened so it can be closed.
      */
     private long       openTime   = 0L;
+    /**
+     * Marks the time the connection was opened with a precise clock, for measuring how long it is held.
+     */
+    private long       openNanos  = 0L;
     /**
      * Defines this transaction as being a read-only transaction.
      */
@@ -231,6 +278,35 @@ public class Transaction {
         this.readOnly = readOnly;
     }
     
+    /**
+     * Registers work to run once this transaction commits successfully, such as telling other
+     * nodes about the changes it made. The work is discarded if the transaction rolls back.
+     * Failures in the work are logged and do not affect the commit.
+     * @param hook the work to run after the commit
+     */
+    public void afterCommit(Runnable hook) {
+        if( commitHooks == null ) {
+            commitHooks = new ArrayList<Runnable>();
+        }
+        commitHooks.add(hook);
+    }
+    
+    private void runCommitHooks() {
+        ArrayList<Runnable> hooks = commitHooks;
+        
+        commitHooks = null;
+        if( hooks != null ) {
+            for( Runnable hook : hooks ) {
+                try {
+                    hook.run();
+                }
+                catch( Throwable t ) {
+                    logger.error("Post-commit work failed for transaction " + transactionId + ": " + t.getMessage(), t);
+                }
+            }
+        }
+    }
+    
     /**
      * Closes the transaction. If the transaction has not been committed,
      * it is rolled back.
@@ -245,18 +321,18 @@ public class Transaction {
             }
             logger.debug("Closing all open events.");
             if( !events.empty() ) {
+                // an event executed more than once in this transaction must go back to its pool only once
+                Set<Execution> closed = Collections.newSetFromMap(new IdentityHashMap<Execution,Boolean>());
+                
                 state = "CLOSING EVENTS";
                 do {
                     Execution exec = (Execution)events.pop();
                 
+                    if( !closed.add(exec) ) {
+                        continue;
+                    }
                     try {
-                        Stack<Execution> stack;
-                        
                         exec.close();
-                        stack = eventCache.get(exec.getClass().getName());
-                        if( stack != null ) {
-                            stack.push(exec);
-                        }
                     }
                     catch( Throwable t ) {
                         t.printStackTrace();
@@ -296,6 +372,7 @@ public class Transaction {
                     throw new PersistenceException("Attempt to commit a committed or aborted transaction.");
                 }       
                 logger.debug("return as no-op - commit()");
+                runCommitHooks();
                 return;
             }
             state = "COMMITTING";
@@ -305,16 +382,19 @@ public class Transaction {
                 }
                 connection.commit();
                 state = "CLOSING CONNECTIONS";
+                clearStatements();
                 connection.close();
                 connection = null;
-                if( logger.isInfoEnabled() ) {
-                    logger.info("Reducing the number of connections from " + connections + " due to commit.");
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Releasing the connection for " + transactionId + " due to commit.");
                 }
-                connections--;
+                TransactionStatistics.getInstance().connectionClosed(dataSource, System.nanoTime() - openNanos, true, System.nanoTime() - createdNanos);
+                releaseReplica();
                 if( logger.isDebugEnabled() ) {
                     logger.debug("Releasing: " + transactionId);
                 }
                 close();
+                runCommitHooks();
                 logger.debug("return - commit()");
             }
             catch( SQLException e ) {
@@ -423,6 +503,87 @@ public class Transaction {
         }
     }
     
+    public Map<String,Object> execute(ExecutionTemplate template, Map<String,Object> args) throws PersistenceException {
+        return execute(template, args, null);
+    }
+    
+    /**
+     * Executes an execution configured by the specified template as part of this transaction.
+     * @param template the template for the event to execute
+     * @param args the values to be used by the event
+     * @param dsn the data source to use if this transaction has no connection yet, may be null
+     * @return the results of the execution
+     * @throws org.dasein.persist.PersistenceException an error occurred interacting with the database
+     */
+    public Map<String,Object> execute(ExecutionTemplate template, Map<String,Object> args, String dsn) throws PersistenceException {
+        Execution event;
+        
+        try {
+            event = template.newInstance();
+        }
+        catch( PersistenceException e ) {
+            logger.error("Unable to create " + template + ": " + e.getMessage());
+            rollback();
+            throw e;
+        }
+        return execute(event, args, dsn);
+    }
+    
+    /**
+     * Builds the SQL for an execution configured by the specified template and has the database
+     * prepare it, without running it. The execution returns to the template's pool with its SQL
+     * built when this transaction closes, so later executions of the statement skip that work.
+     * @param template the template for the statement to prepare
+     * @param dsn the data source to use if this transaction has no connection yet, may be null
+     * @throws org.dasein.persist.PersistenceException an error occurred building or preparing the statement
+     */
+    public void prepare(ExecutionTemplate template, String dsn) throws PersistenceException {
+        logger.debug("enter - prepare(ExecutionTemplate,String)");
+        try {
+            boolean success = false;
+            Execution event;
+            
+            try {
+                event = template.newInstance();
+            }
+            catch( PersistenceException e ) {
+                logger.error("Unable to create " + template + ": " + e.getMessage());
+                rollback();
+                throw e;
+            }
+            executionThread = Thread.currentThread();
+            state = "PREPARING " + template;
+            try {
+                String sql;
+                
+                if( connection == null ) {
+                    open(event, dsn);
+                }
+                sql = event.loadStatement(connection, new HashMap<String,Object>());
+                if( sql != null ) {
+                    releaseStatement(sql, prepareStatement(sql), true);
+                }
+                events.push(event);
+                statements.push(sql == null ? template.getName() : sql);
+                success = true;
+                state = "AWAITING COMMIT: " + template;
+            }
+            catch( SQLException e ) {
+                logger.warn("SQLException preparing " + template + ": " + e.getMessage());
+                throw new PersistenceException(e);
+            }
+            finally {
+                if( !success ) {
+                    rollback();
+                }
+                executionThread = null;
+            }
+        }
+        finally {
+            logger.debug("exit - prepare(ExecutionTemplate,String)");
+        }
+    }
+    
     public Map<String,Object> execute(Execution event, Map<String,Object> args, String dsn) throws PersistenceException {
         logger.debug("enter - execute(Class,Map)");
         try {
@@ -486,6 +647,129 @@ public class Transaction {
         }
     }
     
+    public int[] executeBatch(Class<? extends Execution> cls, List<Map<String,Object>> rows, String dsn) throws PersistenceException {
+        return executeBatch(cls, rows, dsn, Execution.getDefaultBatchSize());
+    }
+    
+    public int[] executeBatch(Class<? extends Execution> cls, List<Map<String,Object>> rows, String dsn, int batchSize) throws PersistenceException {
+        Execution event;
+        
+        try {
+            event = getEvent(cls);
+        }
+        catch( InstantiationException e ) {
+            logger.error("Instantiation exception: " + e.getMessage());
+            rollback();
+            throw new PersistenceException(e);
+        }
+        catch( IllegalAccessException e ) {
+            logger.error("IllegalAccessException: " + e.getMessage());
+            rollback();
+            throw new PersistenceException(e);
+        }
+        return executeBatch(event, rows, dsn, batchSize);
+    }
+    
+    public int[] executeBatch(ExecutionTemplate template, List<Map<String,Object>> rows, String dsn, int batchSize) throws PersistenceException {
+        Execution event;
+        
+        try {
+            event = template.newInstance();
+        }
+        catch( PersistenceException e ) {
+            logger.error("Unable to create " + template + ": " + e.getMessage());
+            rollback();
+            throw e;
+        }
+        return executeBatch(event, rows, dsn, batchSize);
+    }
+    
+    public int[] executeBatch(Execution event, List<Map<String,Object>> rows, String dsn) throws PersistenceException {
+        return executeBatch(event, rows, dsn, Execution.getDefaultBatchSize());
+    }
+    
+    /**
+     * Executes the specified event once for each of the specified rows as part of this
+     * transaction, sending the rows to the database in JDBC batches of at most
+     * <code>batchSize</code> rows. Events that do not support batching are executed
+     * row by row.
+     * @param event the event to execute in this transaction context
+     * @param rows the values to be used by each execution of the event
+     * @param dsn the data source to use if this transaction has no connection yet, may be null
+     * @param batchSize the maximum number of rows per batch
+     * @return the update count for each row
+     * @throws org.dasein.persist.PersistenceException an error occurred interacting with the database
+     */
+    public int[] executeBatch(Execution event, List<Map<String,Object>> rows, String dsn, int batchSize) throws PersistenceException {
+        logger.debug("enter - executeBatch(Execution,List)");
+        try {
+            StringBuilder holder = new StringBuilder();
+            boolean success = false;
+            
+            executionThread = Thread.currentThread();
+            state = "PREPARING";
+            try {
+                int[] res;
+                
+                if( connection == null ) {
+                    if( logger.isDebugEnabled() ) {
+                        logger.debug("New connection: " + transactionId);
+                    }
+                    open(event, dsn);
+                }
+                state = "EXECUTING BATCH " + event.getClass().getName();
+                stackTrace = Thread.currentThread().getStackTrace();
+                if( event.isBatchSupported() ) {
+                    res = event.executeBatchEvent(this, rows, batchSize, holder);
+                }
+                else {
+                    res = new int[rows.size()];
+                    for( int i=0; i<rows.size(); i++ ) {
+                        event.executeEvent(this, rows.get(i), (i == 0 ? holder : null));
+                        res[i] = Statement.SUCCESS_NO_INFO;
+                    }
+                }
+                events.push(event);
+                statements.push(holder.toString());
+                success = true;
+                state = "AWAITING COMMIT: " + holder.toString();
+                logger.debug("return - executeBatch(Execution,List)");
+                return res;
+            }
+            catch( SQLException e ) {
+                logger.warn("SQLException: " + e.getMessage());
+                if( logger.isDebugEnabled() ) {
+                    e.printStackTrace();
+                }
+                throw new PersistenceException(e);
+            }
+            catch( RuntimeException e ) {
+                logger.error("RuntimeException: " + e.getMessage());
+                if( logger.isDebugEnabled() ) {
+                    e.printStackTrace();
+                }
+                throw new PersistenceException(e);
+            }
+            catch( Error e ) {
+                logger.error("Error: " + e.getMessage());
+                if( logger.isDebugEnabled() ) {
+                    e.printStackTrace();
+                }
+                throw new PersistenceException(new RuntimeException(e));
+            }
+            finally {
+                if( !success ) {
+                    logger.warn("FAILED TRANSACTION (" + transactionId + "): " + holder.toString());
+                    rollback();
+                }
+                executionThread = null;
+            }
+        }
+        finally {
+            logger.debug("exit - executeBatch(Execution,List)");
+        }
+    }
+    
     /**
      * Executes the specified event as part of this transaction.
      * @param event the event to execute in this transaction context
@@ -522,25 +806,49 @@ public class Transaction {
     }
 
     private Execution getEvent(Class<? extends Execution> cls) throws InstantiationException, IllegalAccessException {
-        Stack<Execution> stack = eventCache.get(cls.getName());
-        Execution event;
-        
-        if( stack != null ) {
-            // by not checking for empty, we can skip synchronization
-            try { event = stack.pop(); }
-            catch( EmptyStackException e ) { event = null; }
-            if( event != null ) {
-                return event;
-            }
+        return ExecutionPool.acquire(cls);
+    }
+    
+    /**
+     * Provides a prepared statement for the specified SQL on this transaction's connection,
+     * reusing one prepared earlier in the transaction if possible.
+     * @param sql the SQL to prepare
+     * @return a prepared statement for the SQL
+     * @throws SQLException an error occurred preparing the statement
+     */
+    PreparedStatement prepareStatement(String sql) throws SQLException {
+        if( statementCache == null ) {
+            return connection.prepareStatement(sql);
+        }
+        return statementCache.checkout(sql);
+    }
+
+    /**
+     * Hands a statement obtained from {@link #prepareStatement(String)} back to this transaction.
+     * @param sql the SQL the statement was prepared from
+     * @param stmt the statement being released
+     * @param reusable false if the execution failed and the statement should be closed
+     */
+    void releaseStatement(String sql, PreparedStatement stmt, boolean reusable) {
+        if( statementCache == null ) {
+            try { stmt.close(); }
+            catch( Throwable ignore ) { /* ignore */ }
+        }
+        else if( reusable ) {
+            statementCache.release(sql, stmt);
         }
         else {
-            stack = new Stack<Execution>();
-            eventCache.put(cls.getName(), stack);
+            statementCache.discard(stmt);
         }
-        event = cls.newInstance();
-        return event;
     }
-    
+
+    private void clearStatements() {
+        if( statementCache != null ) {
+            statementCache.clear();
+            statementCache = null;
+        }
+    }
+
     /**
      * Each transaction has a number that helps identify it for debugging purposes.
      * @return the identifier for this transaction
@@ -576,16 +884,32 @@ public class Transaction {
                 logger.debug("Opening " + transactionId);
             }
             try {
-                InitialContext ctx = new InitialContext();
-                DataSource ds;
+                ReplicaSet replicas;
                 
                 if( dsn == null ) {
                     dsn = event.getDataSource();
                 }
                 state = "LOOKING UP";
-                ds = (DataSource)ctx.lookup(dsn);
-                conn = ds.getConnection();
+                replicas = ReplicaSet.getReplicaSet(dsn);
+                try {
+                    if( replicas == null ) {
+                        conn = connect(dsn);
+                    }
+                    else {
+                        conn = connect(replicas);
+                    }
+                }
+                catch( SQLException e ) {
+                    TransactionStatistics.getInstance().connectFailed(dsn);
+                    throw e;
+                }
+                catch( NamingException e ) {
+                    TransactionStatistics.getInstance().connectFailed(dsn);
+                    throw e;
+                }
                 openTime = System.currentTimeMillis();
+                openNanos = System.nanoTime();
+                dataSource = dsn;
                 if( logger.isDebugEnabled() ) {
                     logger.debug("Got connection for " + transactionId + ": " + conn);
                 }            
@@ -595,19 +919,25 @@ public class Transaction {
                 e.printStackTrace();
                 throw new PersistenceException(e.getMessage());
             }
-            conn.setAutoCommit(false);
-            conn.setReadOnly(readOnly);
-            connection = conn;
-            if( logger.isInfoEnabled() ) {
-                logger.info("Incrementing connection count from " + connections);
+            boolean ready = false;
+            
+            try {
+                conn.setAutoCommit(false);
+                conn.setReadOnly(readOnly);
+                ready = true;
             }
-            connections++;
-            if( connections > highPoint ) {
-                highPoint = connections;
-                if( logger.isInfoEnabled() ) {
-                    logger.info("A NEW CONNECTION HIGH POINT HAS BEEN REACHED: " + highPoint);
+            finally {
+                if( !ready ) {
+                    // connection is not yet assigned, so rollback() would never give back the replica
+                    try { conn.close(); }
+                    catch( SQLException e ) { logger.warn("Unable to close connection for " + transactionId + ": " + e.getMessage()); }
+                    releaseReplica();
+                    state = "CONNECT FAILED";
                 }
             }
+            connection = conn;
+            statementCache = new StatementCache(conn);
+            TransactionStatistics.getInstance().connectionOpened(dataSource);
             synchronized( transactions ) {
                 transactions.put(new Integer(transactionId), this);
             }
@@ -618,6 +948,61 @@ public class Transaction {
         }
     }
     
+    private Connection connect(String dsn) throws NamingException, SQLException {
+        DataSource ds = DataSourceResolver.getDataSource(dsn);
+
+        try {
+            return ds.getConnection();
+        }
+        catch( SQLException e ) {
+            // the data source may have been rebound, so look it up again next time
+            DataSourceResolver.invalidate(dsn);
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to a member of a replica set, ejecting and skipping members that fail.
+     */
+    private Connection connect(ReplicaSet replicas) throws NamingException, SQLException {
+        ArrayList<ReplicaSet.Replica> tried = new ArrayList<ReplicaSet.Replica>();
+        ReplicaSet.Replica r;
+        Exception last = null;
+
+        while( (r = replicas.choose(tried)) != null ) {
+            tried.add(r);
+            try {
+                Connection conn = connect(r.getDsn());
+
+                r.acquire();
+                replica = r;
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Using replica " + r.getDsn() + " of " + replicas.getName() + " for " + transactionId);
+                }
+                return conn;
+            }
+            catch( SQLException e ) {
+                replicas.eject(r);
+                last = e;
+            }
+            catch( NamingException e ) {
+                replicas.eject(r);
+                last = e;
+            }
+        }
+        if( last instanceof NamingException ) {
+            throw (NamingException)last;
+        }
+        throw (SQLException)last;
+    }
+
+    private void releaseReplica() {
+        if( replica != null ) {
+            replica.release();
+            replica = null;
+        }
+    }
+
     private void printElement(StackTraceElement element) {
         int no = element.getLineNumber();
         String ln;
@@ -637,12 +1022,12 @@ public class Transaction {
         else {
             ln = " " + no;
         }
-        System.out.println("\t" + ln + " " + element.getFileName() + ": " + element.getClassName() + "." + element.getMethodName());
+        logger.warn("\t" + ln + " " + element.getFileName() + ": " + element.getClassName() + "." + element.getMethodName());
     }
     
     private void printStackTrace() {
         if( stackTrace == null ) {
-            System.out.println("\t--> No stack trace <--");
+            logger.warn("\t--> No stack trace <--");
         }
         else {
             for( StackTraceElement element : stackTrace ) {
@@ -657,6 +1042,7 @@ public class Transaction {
     public void rollback() {
         logger.debug("enter - rollback()");
         try {
+            commitHooks = null;
             if( connection == null ) {
                 return;
             }
@@ -664,13 +1050,15 @@ public class Transaction {
             logger.debug("Rolling back JDBC connection: " + transactionId);
             try { connection.rollback(); }
             catch( SQLException e ) { e.printStackTrace(); }
+            clearStatements();
             try { connection.close(); }
             catch( SQLException e ) { e.printStackTrace(); }
             connection = null;
-            if( logger.isInfoEnabled() ) {
-                logger.info("Reducing the number of connections from " + connections + " due to rollback.");
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Releasing the connection for " + transactionId + " due to rollback.");
             }
-            connections--;
+            TransactionStatistics.getInstance().connectionClosed(dataSource, System.nanoTime() - openNanos, false, System.nanoTime() - createdNanos);
+            releaseReplica();
             close();
             dirty = true;
             logger.debug("return - rollback()");
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>
+ * Receives transaction events as they happen, for alerting on connection pool saturation and long-running
+ * transactions. Listeners are registered with {@link TransactionStatistics#addListener(TransactionListener)}
+ * and are called on the thread that caused the event, often while it holds a connection, so they must return
+ * quickly and hand any real work off to another thread. Exceptions thrown by listeners are logged and ignored.
+ * </p>
+ * <p>
+ * Extend {@link TransactionListener.Adapter} to handle only some events.
+ * </p>
+ */
+public interface TransactionListener {
+    /**
+     * Does nothing for every event.
+     */
+    static public class Adapter implements TransactionListener {
+        public void connectionClosed(@Nonnull String dataSource, boolean committed, long heldMillis, int openConnections) { }
+
+        public void connectionOpened(@Nonnull String dataSource, int openConnections) { }
+
+        public void connectionThresholdExceeded(int openConnections, int threshold) { }
+
+        public void staleTransaction(int transactionId, @Nonnull String dataSource, long ageMillis) { }
+    }
+
+    /**
+     * A transaction released its connection.
+     * @param dataSource the data source the connection came from
+     * @param committed true if the transaction committed, false if it rolled back
+     * @param heldMillis how long the connection was held
+     * @param openConnections the number of connections open across all data sources afterwards
+     */
+    public void connectionClosed(@Nonnull String dataSource, boolean committed, long heldMillis, int openConnections);
+
+    /**
+     * A transaction opened a connection.
+     * @param dataSource the data source the connection came from
+     * @param openConnections the number of connections open across all data sources, including this one
+     */
+    public void connectionOpened(@Nonnull String dataSource, int openConnections);
+
+    /**
+     * The number of open connections rose above the configured threshold. This is sent once each time the
+     * count crosses the threshold, not for every connection opened above it.
+     * @param openConnections the number of connections open across all data sources
+     * @param threshold the threshold that was crossed
+     */
+    public void connectionThresholdExceeded(int openConnections, int threshold);
+
+    /**
+     * The transaction maid found a transaction that has held its connection for more than ten seconds. It is
+     * sent each time the maid runs for as long as the transaction stays open.
+     * @param transactionId the ID of the transaction
+     * @param dataSource the data source of its connection
+     * @param ageMillis how long the connection has been held
+     */
+    public void staleTransaction(int transactionId, @Nonnull String dataSource, long ageMillis);
+}
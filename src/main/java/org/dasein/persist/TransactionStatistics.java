@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Telemetry for database transactions: open connections and their high point, commits, rollbacks, failed
+ * connects, and the ages of the transactions open right now, with per data source detail in
+ * {@link DataSourceStatistics}. The totals are registered with JMX as
+ * <code>org.dasein.persist:type=TransactionStatistics,name=Transactions</code>.
+ * </p>
+ * <p>
+ * To be warned before the connection pool is exhausted, set <code>dasein.persist.connections.threshold</code>
+ * in <i>dasein-persistence.properties</i> to a number of connections somewhat below the pool size and register
+ * a {@link TransactionListener}. The threshold can also be changed at runtime through JMX.
+ * </p>
+ */
+public final class TransactionStatistics implements TransactionStatisticsMBean {
+    static private final Logger logger = Logger.getLogger(TransactionStatistics.class);
+
+    static private final String DEFAULT_DSN = "default";
+
+    static private final TransactionStatistics instance = new TransactionStatistics();
+
+    static {
+        try {
+            Jmx.register(instance, Jmx.getObjectName("TransactionStatistics", "Transactions"));
+        }
+        catch( PersistenceException e ) {
+            logger.warn("Unable to register transaction statistics with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the transaction statistics for this JVM
+     */
+    static public @Nonnull TransactionStatistics getInstance() {
+        return instance;
+    }
+
+    static private int getThreshold() {
+        return PersistenceConfig.getInt("dasein.persist.connections.threshold", null, 0);
+    }
+
+    private final AtomicBoolean                                  aboveThreshold  = new AtomicBoolean(false);
+    private final LongAdder                                      commits         = new LongAdder();
+    private final LongAdder                                      connectFailures = new LongAdder();
+    private final ConcurrentHashMap<String,DataSourceStatistics> dataSources     = new ConcurrentHashMap<String,DataSourceStatistics>();
+    private final AtomicInteger                                  highPoint       = new AtomicInteger(0);
+    private final CopyOnWriteArrayList<TransactionListener>      listeners       = new CopyOnWriteArrayList<TransactionListener>();
+    private final AtomicInteger                                  open            = new AtomicInteger(0);
+    private final LongAdder                                      rollbacks       = new LongAdder();
+    private final LongAdder                                      stale           = new LongAdder();
+    private volatile int                                         threshold       = getThreshold();
+
+    private TransactionStatistics() { }
+
+    /**
+     * Registers a listener for transaction events.
+     * @param listener the listener to notify
+     */
+    public void addListener(@Nonnull TransactionListener listener) {
+        listeners.add(listener);
+    }
+
+    void connectionClosed(@Nullable String dsn, long heldNanos, boolean committed, long sinceCreatedNanos) {
+        String name = (dsn == null ? DEFAULT_DSN : dsn);
+        int count = open.decrementAndGet();
+
+        getDataSource(name).closed(heldNanos, committed, sinceCreatedNanos);
+        if( committed ) {
+            commits.increment();
+        }
+        else {
+            rollbacks.increment();
+        }
+        if( count <= threshold ) {
+            aboveThreshold.set(false);
+        }
+        if( !listeners.isEmpty() ) {
+            long held = heldNanos/1000000L;
+
+            for( TransactionListener listener : listeners ) {
+                try {
+                    listener.connectionClosed(name, committed, held, count);
+                }
+                catch( Throwable t ) {
+                    logger.error("Transaction listener failed: " + t.getMessage(), t);
+                }
+            }
+        }
+    }
+
+    void connectionOpened(@Nullable String dsn) {
+        String name = (dsn == null ? DEFAULT_DSN : dsn);
+        int count = open.incrementAndGet();
+        int high = highPoint.get();
+
+        getDataSource(name).opened();
+        while( count > high && !highPoint.compareAndSet(high, count) ) {
+            high = highPoint.get();
+        }
+        if( count > high && logger.isInfoEnabled() ) {
+            logger.info("A new connection high point has been reached: " + count);
+        }
+        int limit = threshold;
+        boolean crossed = (limit > 0 && count > limit && aboveThreshold.compareAndSet(false, true));
+
+        if( crossed ) {
+            logger.warn(count + " connections are open, above the threshold of " + limit);
+        }
+        if( !listeners.isEmpty() ) {
+            for( TransactionListener listener : listeners ) {
+                try {
+                    listener.connectionOpened(name, count);
+                    if( crossed ) {
+                        listener.connectionThresholdExceeded(count, limit);
+                    }
+                }
+                catch( Throwable t ) {
+                    logger.error("Transaction listener failed: " + t.getMessage(), t);
+                }
+            }
+        }
+    }
+
+    void connectFailed(@Nullable String dsn) {
+        connectFailures.increment();
+        getDataSource(dsn == null ? DEFAULT_DSN : dsn).connectFailed();
+    }
+
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    public long getConnectFailureCount() {
+        return connectFailures.sum();
+    }
+
+    public int getConnectionThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Provides the statistics for a data source, creating and registering them on first use.
+     * @param dsn the data source name
+     * @return the statistics for the data source
+     */
+    public @Nonnull DataSourceStatistics getDataSource(@Nonnull String dsn) {
+        DataSourceStatistics stats = dataSources.get(dsn);
+
+        if( stats == null ) {
+            DataSourceStatistics created = new DataSourceStatistics(dsn);
+
+            stats = dataSources.putIfAbsent(dsn, created);
+            if( stats == null ) {
+                stats = created;
+                try {
+                    Jmx.register(stats, Jmx.getObjectName("DataSourceStatistics", dsn));
+                }
+                catch( PersistenceException e ) {
+                    logger.warn("Unable to register statistics for " + dsn + " with JMX: " + e.getMessage());
+                }
+            }
+        }
+        return stats;
+    }
+
+    public @Nonnull String[] getDataSources() {
+        String[] names = dataSources.keySet().toArray(new String[0]);
+
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * @return the statistics for every data source used so far, by data source name
+     */
+    public @Nonnull Map<String,DataSourceStatistics> getDataSourceStatistics() {
+        return Collections.unmodifiableMap(new TreeMap<String,DataSourceStatistics>(dataSources));
+    }
+
+    public int getHighPoint() {
+        return highPoint.get();
+    }
+
+    public int getOpenConnections() {
+        return open.get();
+    }
+
+    private long getOpenTransactionAge(double percentile) {
+        long[] ages = Transaction.getOpenTransactionAges();
+
+        if( ages.length < 1 ) {
+            return 0L;
+        }
+        Arrays.sort(ages);
+        int index = (int)Math.ceil((percentile/100.0) * ages.length) - 1;
+
+        return ages[Math.max(0, Math.min(ages.length - 1, index))];
+    }
+
+    public long getOpenTransactionAgeMax() {
+        return getOpenTransactionAge(100.0);
+    }
+
+    public long getOpenTransactionAge50thPercentile() {
+        return getOpenTransactionAge(50.0);
+    }
+
+    public long getOpenTransactionAge95thPercentile() {
+        return getOpenTransactionAge(95.0);
+    }
+
+    public long getOpenTransactionAge99thPercentile() {
+        return getOpenTransactionAge(99.0);
+    }
+
+    public int getOpenTransactions() {
+        return Transaction.getOpenTransactionAges().length;
+    }
+
+    public long getRollbackCount() {
+        return rollbacks.sum();
+    }
+
+    public double getRollbackRate() {
+        long r = rollbacks.sum();
+        long total = r + commits.sum();
+
+        return (total == 0L ? 0.0 : ((double)r)/total);
+    }
+
+    public long getStaleTransactionCount() {
+        return stale.sum();
+    }
+
+    /**
+     * Removes a listener registered with {@link #addListener(TransactionListener)}.
+     * @param listener the listener to remove
+     */
+    public void removeListener(@Nonnull TransactionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Resets the counters and histograms to zero, including those of every data source. The open connection
+     * count is not affected, and the high point is reset to it.
+     */
+    public void reset() {
+        commits.reset();
+        rollbacks.reset();
+        connectFailures.reset();
+        stale.reset();
+        highPoint.set(open.get());
+        for( DataSourceStatistics stats : dataSources.values() ) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Sets the number of open connections above which listeners are warned.
+     * @param threshold the number of connections, or 0 for no warning
+     */
+    public void setConnectionThreshold(int threshold) {
+        this.threshold = threshold;
+        aboveThreshold.set(false);
+    }
+
+    void staleTransaction(int transactionId, @Nullable String dsn, long ageMillis) {
+        String name = (dsn == null ? DEFAULT_DSN : dsn);
+
+        stale.increment();
+        for( TransactionListener listener : listeners ) {
+            try {
+                listener.staleTransaction(transactionId, name, ageMillis);
+            }
+            catch( Throwable t ) {
+                logger.error("Transaction listener failed: " + t.getMessage(), t);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Transactions[open=" + getOpenConnections() + ",high=" + getHighPoint() + ",commits=" + getCommitCount() +
+                ",rollbacks=" + getRollbackCount() + ",connectFailures=" + getConnectFailureCount() +
+                ",oldestOpen=" + getOpenTransactionAgeMax() + "ms]";
+    }
+}
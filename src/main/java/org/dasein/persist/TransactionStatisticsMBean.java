@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+/**
+ * The JMX view of the {@link TransactionStatistics}. Times are in milliseconds.
+ */
+public interface TransactionStatisticsMBean {
+    public long getCommitCount();
+
+    public long getConnectFailureCount();
+
+    public int getConnectionThreshold();
+
+    public String[] getDataSources();
+
+    public int getHighPoint();
+
+    public int getOpenConnections();
+
+    public long getOpenTransactionAgeMax();
+
+    public long getOpenTransactionAge50thPercentile();
+
+    public long getOpenTransactionAge95thPercentile();
+
+    public long getOpenTransactionAge99thPercentile();
+
+    public int getOpenTransactions();
+
+    public long getRollbackCount();
+
+    public double getRollbackRate();
+
+    public long getStaleTransactionCount();
+
+    public void reset();
+
+    public void setConnectionThreshold(int threshold);
+}
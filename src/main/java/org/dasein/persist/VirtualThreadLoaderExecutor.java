@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link LoaderExecutor} that runs each task on its own virtual thread. It is only available
+ * on JVMs that provide <code>Executors.newVirtualThreadPerTaskExecutor()</code>. That method is
+ * located reflectively so the library still builds and runs on older JVMs.
+ */
+public class VirtualThreadLoaderExecutor extends LoaderExecutor {
+    static private final Method factory;
+
+    static {
+        Method m = null;
+
+        try {
+            m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch( NoSuchMethodException ignore ) {
+            // not supported
+        }
+        factory = m;
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads
+     */
+    static public boolean isSupported() {
+        return (factory != null);
+    }
+
+    private final AtomicInteger   active = new AtomicInteger(0);
+    private final ExecutorService executor;
+
+    public VirtualThreadLoaderExecutor() {
+        if( factory == null ) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        try {
+            executor = (ExecutorService)factory.invoke(null);
+        }
+        catch( Exception e ) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread executor: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected boolean dispatch(@Nonnull final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    active.incrementAndGet();
+                    try {
+                        task.run();
+                    }
+                    finally {
+                        active.decrementAndGet();
+                    }
+                }
+            });
+            return true;
+        }
+        catch( RejectedExecutionException e ) {
+            return false;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return 0;
+    }
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+import org.dasein.util.CachedItem;
+
+/**
+ * <p>
+ * Prepares query statements and loads frequently used objects before an application takes traffic,
+ * so that the first requests after a deploy do not pay for building SQL and filling caches. A
+ * warm-up is given the query signatures to prepare for each entity, either declared directly or read
+ * from a signature log, along with any primary keys to load, and then runs everything in parallel.
+ * </p>
+ * <pre>
+ * Warmup warmup = new Warmup();
+ *
+ * warmup.add(employees, QuerySignature.find(new SearchTerm[] { new SearchTerm("lastName", null) }, null));
+ * warmup.readSignatures(new FileReader("signatures.log"));
+ * warmup.prime(employees, hotIds);
+ * warmup.run();
+ * </pre>
+ * <p>
+ * Every signature a {@link RelationalCache} or {@link PersistentFactory} builds a statement for is
+ * recorded as it is first used. {@link #writeSignatures(Writer)} saves the recorded signatures as a
+ * signature log, one <code>ENTITY SIGNATURE</code> line per signature, for replay at the next start.
+ * </p>
+ */
+public class Warmup {
+    static private final Logger logger = Logger.getLogger(Warmup.class);
+
+    static private final ConcurrentHashMap<String,Set<QuerySignature>> observed = new ConcurrentHashMap<String,Set<QuerySignature>>();
+
+    /**
+     * Notes that a statement was built for a query signature on the specified entity.
+     * @param entity the entity class the query is against
+     * @param signature the shape of the query
+     */
+    static void record(@Nonnull Class<?> entity, @Nonnull QuerySignature signature) {
+        Set<QuerySignature> signatures = observed.get(entity.getName());
+
+        if( signatures == null ) {
+            Set<QuerySignature> created = Collections.newSetFromMap(new ConcurrentHashMap<QuerySignature,Boolean>());
+
+            signatures = observed.putIfAbsent(entity.getName(), created);
+            if( signatures == null ) {
+                signatures = created;
+            }
+        }
+        signatures.add(signature);
+    }
+
+    /**
+     * @return the signatures recorded so far in this JVM, keyed by entity class name
+     */
+    static public @Nonnull Map<String,Collection<QuerySignature>> getRecordedSignatures() {
+        TreeMap<String,Collection<QuerySignature>> signatures = new TreeMap<String,Collection<QuerySignature>>();
+
+        for( Map.Entry<String,Set<QuerySignature>> entry : observed.entrySet() ) {
+            signatures.put(entry.getKey(), new ArrayList<QuerySignature>(entry.getValue()));
+        }
+        return signatures;
+    }
+
+    /**
+     * Writes the signatures recorded so far in this JVM as a signature log suitable for {@link #readSignatures(Reader)}.
+     * @param out the destination for the log
+     * @throws IOException an error occurred writing the log
+     */
+    static public void writeSignatures(@Nonnull Writer out) throws IOException {
+        PrintWriter writer = new PrintWriter(out);
+
+        for( Map.Entry<String,Collection<QuerySignature>> entry : getRecordedSignatures().entrySet() ) {
+            TreeSet<String> lines = new TreeSet<String>();
+
+            for( QuerySignature signature : entry.getValue() ) {
+                lines.add(entry.getKey() + " " + signature);
+            }
+            for( String line : lines ) {
+                writer.println(line);
+            }
+        }
+        writer.flush();
+        if( writer.checkError() ) {
+            throw new IOException("Unable to write query signatures");
+        }
+    }
+
+    /**
+     * The outcome of a warm-up.
+     */
+    static public class Report {
+        private final long         elapsed;
+        private final List<String> failures;
+        private final int          loaded;
+        private final int          prepared;
+
+        private Report(int prepared, int loaded, List<String> failures, long elapsed) {
+            this.prepared = prepared;
+            this.loaded = loaded;
+            this.failures = Collections.unmodifiableList(failures);
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * @return the wall clock time the warm-up took, in milliseconds
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return a description of each step that failed
+         */
+        public @Nonnull List<String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the number of objects loaded
+         */
+        public int getLoaded() {
+            return loaded;
+        }
+
+        /**
+         * @return the number of query signatures prepared
+         */
+        public int getPrepared() {
+            return prepared;
+        }
+
+        @Override
+        public String toString() {
+            return "Prepared " + prepared + " queries and loaded " + loaded + " objects in " + elapsed + " ms (" + failures.size() + " failures)";
+        }
+    }
+
+    static private abstract class Step {
+        private final String  name;
+        private final boolean prepare;
+
+        private Step(String name, boolean prepare) {
+            this.name = name;
+            this.prepare = prepare;
+        }
+
+        public abstract void run() throws PersistenceException;
+    }
+
+    private final HashMap<String,PersistentFactory<?>> factories   = new HashMap<String,PersistentFactory<?>>();
+    private int                                        parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private final ArrayList<Step>                      steps       = new ArrayList<Step>();
+
+    public Warmup() { }
+
+    private synchronized void add(Step step) {
+        steps.add(step);
+    }
+
+    /**
+     * Adds query signatures to be prepared against the specified cache.
+     * @param cache the cache to prepare the queries in
+     * @param signatures the shapes of the queries
+     */
+    public void add(@Nonnull final PersistentCache<?> cache, @Nonnull QuerySignature ... signatures) {
+        for( final QuerySignature signature : signatures ) {
+            add(new Step(cache.getEntityClassName() + " " + signature, true) {
+                public void run() throws PersistenceException {
+                    cache.prepare(signature);
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds query signatures to be prepared against the specified factory. The factory is also used
+     * for any signatures for its class read from a signature log after this call.
+     * @param factory the factory to prepare the queries in
+     * @param signatures the shapes of the queries
+     */
+    public void add(@Nonnull final PersistentFactory<?> factory, @Nonnull QuerySignature ... signatures) {
+        synchronized( this ) {
+            factories.put(factory.getTarget().getName(), factory);
+        }
+        for( final QuerySignature signature : signatures ) {
+            add(new Step(factory.getTarget().getName() + " " + signature, true) {
+                public void run() throws PersistenceException {
+                    factory.prepare(signature);
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds objects to be loaded into the specified cache.
+     * @param cache the cache to load the objects into
+     * @param keys the primary key values of the objects
+     */
+    public void prime(@Nonnull final PersistentCache<?> cache, @Nonnull Collection<?> keys) {
+        for( final Object key : keys ) {
+            add(new Step(cache.getEntityClassName() + " " + key, false) {
+                public void run() throws PersistenceException {
+                    cache.get(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds objects to be loaded into the specified factory's cache.
+     * @param factory the factory to load the objects through
+     * @param keys the primary key values of the objects
+     */
+    public void prime(@Nonnull final PersistentFactory<?> factory, @Nonnull Collection<?> keys) {
+        for( final Object key : keys ) {
+            add(new Step(factory.getTarget().getName() + " " + key, false) {
+                public void run() throws PersistenceException {
+                    factory.get(factory.getKey(), key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds the signatures from a signature log. Signatures for classes added through
+     * {@link #add(PersistentFactory, QuerySignature...)} are prepared in that factory, and the rest
+     * in the persistent cache for their class. Blank lines and lines starting with <code>#</code>
+     * are ignored.
+     * @param in the signature log
+     * @throws IOException an error occurred reading the log
+     * @throws PersistenceException the log contains an invalid signature or an entity with no persistent cache
+     */
+    @SuppressWarnings("unchecked")
+    public void readSignatures(@Nonnull Reader in) throws IOException, PersistenceException {
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+
+        while( (line = reader.readLine()) != null ) {
+            line = line.trim();
+            if( line.length() < 1 || line.startsWith("#") ) {
+                continue;
+            }
+            int idx = line.indexOf(' ');
+
+            if( idx < 1 ) {
+                throw new PersistenceException("Invalid signature log entry: " + line);
+            }
+            String entity = line.substring(0, idx);
+            QuerySignature signature = QuerySignature.parse(line.substring(idx+1));
+            PersistentFactory<?> factory;
+
+            synchronized( this ) {
+                factory = factories.get(entity);
+            }
+            if( factory != null ) {
+                add(factory, signature);
+                continue;
+            }
+            Class<?> cls;
+
+            try {
+                cls = Class.forName(entity);
+            }
+            catch( ClassNotFoundException e ) {
+                throw new PersistenceException("Unknown entity in signature log: " + entity);
+            }
+            if( !CachedItem.class.isAssignableFrom(cls) ) {
+                throw new PersistenceException("No persistent cache or factory for " + entity);
+            }
+            add(PersistentCache.getCache((Class<? extends CachedItem>)cls), signature);
+        }
+    }
+
+    /**
+     * Sets the number of threads used to run the warm-up.
+     * @param parallelism the number of threads
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Prepares every query and loads every object added to this warm-up, waiting for all of them
+     * to finish. Individual failures are logged and reported rather than stopping the warm-up.
+     * @return a report of what was done and how long it took
+     * @throws PersistenceException the warm-up was interrupted
+     */
+    public @Nonnull Report run() throws PersistenceException {
+        logger.debug("enter - run()");
+        try {
+            final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+            final AtomicInteger loaded = new AtomicInteger(0);
+            final AtomicInteger prepared = new AtomicInteger(0);
+            final AtomicInteger count = new AtomicInteger(0);
+            ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            long start = System.currentTimeMillis();
+
+            synchronized( this ) {
+                for( final Step step : steps ) {
+                    tasks.add(new Callable<Object>() {
+                        public Object call() {
+                            try {
+                                step.run();
+                                (step.prepare ? prepared : loaded).incrementAndGet();
+                            }
+                            catch( Throwable t ) {
+                                logger.warn("Warm-up failed for " + step.name + ": " + t.getMessage());
+                                failures.add(step.name + ": " + t.getMessage());
+                            }
+                            return null;
+                        }
+                    });
+                }
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, tasks.size())), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+
+                    t.setName("Warmup-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+            try {
+                pool.invokeAll(tasks);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted during warm-up");
+            }
+            finally {
+                pool.shutdownNow();
+            }
+            Report report = new Report(prepared.get(), loaded.get(), new ArrayList<String>(failures), System.currentTimeMillis() - start);
+
+            logger.info("Warm-up complete: " + report);
+            return report;
+        }
+        finally {
+            logger.debug("exit - run()");
+        }
+    }
+}
@@ -35,4 +35,19 @@ public @interface Schema {
     public String value();
 
     public Class<? extends SchemaMapper>[] mappers() default {};
+
+    /**
+     * @return the most objects of this entity to hold in memory, 0 for no limit
+     */
+    public int maxEntries() default 0;
+
+    /**
+     * @return milliseconds after loading that a cached object is reloaded, 0 for never
+     */
+    public long expireAfterWrite() default 0L;
+
+    /**
+     * @return milliseconds without a read after which a cached object is dropped, 0 for never
+     */
+    public long expireAfterAccess() default 0L;
 }
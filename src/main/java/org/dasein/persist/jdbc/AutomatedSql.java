@@ -37,6 +37,7 @@ import java.util.UUID;
 import org.apache.log4j.Logger;
 
 import org.dasein.persist.Execution;
+import org.dasein.persist.ExecutionTemplate;
 import org.dasein.persist.PersistenceException;
 import org.dasein.persist.PersistentFactory;
 import org.dasein.persist.Transaction;
@@ -201,6 +202,11 @@ public class AutomatedSql extends Execution {
     public Class<?> getTarget() {
         return target;
     }
+
+    @Override
+    protected String getStatementEntity() {
+        return (target == null ? null : target.getName());
+    }
     
     public TranslationMethod getTranslationMethod() {
         return translationMethod;
@@ -569,7 +575,7 @@ public class AutomatedSql extends Execution {
         return new HashMap<String,Translator<String>>();
     }
 
-    private transient Class<? extends Execution> xloader = null;
+    private transient ExecutionTemplate xloader = null;
 
     @SuppressWarnings("unchecked")
     private Map<String,Translator<String>> loadCustomTranslations(Transaction xaction, String id) throws PersistenceException, SQLException {
@@ -581,7 +587,7 @@ public class AutomatedSql extends Execution {
 
             criteria.put("ownerId", id);
             if( xloader == null ) {
-                xloader = PersistentFactory.compileTranslator(cls, "Loader");
+                xloader = PersistentFactory.getTranslator(cls, "Loader");
             }
             criteria = xaction.execute(xloader, criteria, Execution.getDataSourceName(cls.getName()));
             // a retarded side-effect of the lame-ass implementation of generics in Java
@@ -606,7 +612,7 @@ public class AutomatedSql extends Execution {
         }
     }
 
-    private transient Class<? extends Execution> xdeleter = null;
+    private transient ExecutionTemplate xdeleter = null;
 
     private void removeCustomTranslations(Transaction xaction, String id) throws PersistenceException, SQLException {
         Map<String,Object> state = new HashMap<String,Object>();
@@ -614,7 +620,7 @@ public class AutomatedSql extends Execution {
 
         state.put("ownerId", id);
         if( xdeleter == null ) {
-            xdeleter = PersistentFactory.compileTranslator(cls, "Deleter");
+            xdeleter = PersistentFactory.getTranslator(cls, "Deleter");
         }
         xaction.execute(xdeleter, state, Execution.getDataSourceName(cls.getName()));
     }
@@ -631,7 +637,7 @@ public class AutomatedSql extends Execution {
         }
     }
 
-    private transient Class<? extends Execution> xupdater = null;
+    private transient ExecutionTemplate xupdater = null;
 
     private void saveCustomTranslations(Transaction xaction, String id, String attr, Translator<String> t ) throws PersistenceException, SQLException {
         Map<String,Object> state = new HashMap<String,Object>();
@@ -641,7 +647,7 @@ public class AutomatedSql extends Execution {
         state.put("attribute", attr);
         state.put("translation", t);
         if( xupdater == null ) {
-            xupdater = PersistentFactory.compileTranslator(cls, "Updater");
+            xupdater = PersistentFactory.getTranslator(cls, "Updater");
         }
         xaction.execute(xupdater, state, Execution.getDataSourceName(cls.getName()));
     }
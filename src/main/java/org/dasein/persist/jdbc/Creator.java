@@ -75,10 +75,31 @@ public class Creator extends AutomatedSql {
         }
     }
     
-    @SuppressWarnings("unchecked")
     public Map<String,Object> run(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
         prepare(params);
         statement.executeUpdate();
+        saveTranslations(xaction, params);
+        return params;
+    }
+    
+    @Override
+    public boolean isBatchSupported() {
+        return true;
+    }
+    
+    @Override
+    public void addBatch(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
+        prepare(params);
+        statement.addBatch();
+    }
+    
+    @Override
+    public void completeBatch(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
+        saveTranslations(xaction, params);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void saveTranslations(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
         if( isTranslating() ) {
             Collection<String> translators = getTranslators();
             Object key = params.get((String)params.get("--key--"));
@@ -94,6 +115,5 @@ public class Creator extends AutomatedSql {
                 }
             }
         }
-        return params;
     }
 }
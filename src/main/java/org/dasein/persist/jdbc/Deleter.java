@@ -83,9 +83,25 @@ public class Deleter extends AutomatedSql {
     public Map<String,Object> run(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
         prepare(params);
         statement.executeUpdate();
+        completeBatch(xaction, params);
+        return params;
+    }
+    
+    @Override
+    public boolean isBatchSupported() {
+        return true;
+    }
+    
+    @Override
+    public void addBatch(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
+        prepare(params);
+        statement.addBatch();
+    }
+    
+    @Override
+    public void completeBatch(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
         if( isTranslating() ) {
             removeStringTranslations(xaction, getTarget(), params.get(params.keySet().iterator().next()).toString());
         }
-        return params;
     }
 }
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist.jdbc;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the rows matching any of a list of values for a single column, generally the primary key,
+ * with one <code>IN</code> query. The values are passed as a list under {@link #KEYS}. A loader has
+ * a fixed number of placeholders so that its statement can be reused; shorter lists fill the
+ * remaining placeholders by repeating their last value.
+ */
+public class KeyLoader extends Loader {
+    static public final String KEYS = "--keys--";
+
+    private int    keyCount  = 0;
+    private String keyColumn = null;
+    private String sql       = null;
+
+    public KeyLoader() {
+        super();
+    }
+
+    /**
+     * @return the maximum number of values this loader accepts
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public synchronized String getStatement() throws SQLException {
+        if( sql == null ) {
+            StringBuilder str = new StringBuilder();
+
+            str.append(super.getStatement());
+            str.append(" WHERE ");
+            str.append(getIdentifier(getTableName(), getSqlName(keyColumn)));
+            str.append(" IN (");
+            for( int i=0; i<keyCount; i++ ) {
+                if( i > 0 ) {
+                    str.append(", ");
+                }
+                str.append("?");
+            }
+            str.append(")");
+            sql = str.toString();
+        }
+        return sql;
+    }
+
+    public void prepare(Map<String,Object> params) throws SQLException {
+        List<?> keys = (List<?>)params.get(KEYS);
+
+        if( keys == null || keys.isEmpty() || keys.size() > keyCount ) {
+            throw new SQLException("Expected between 1 and " + keyCount + " values for " + keyColumn);
+        }
+        for( int i=0; i<keyCount; i++ ) {
+            prepare(keyColumn, i+1, keys.get(Math.min(i, keys.size()-1)));
+        }
+    }
+
+    /**
+     * Sets the column to match and the number of values to match against. Call this from {@link #init()}.
+     * @param column the field name of the column to match
+     * @param count the number of placeholders in the statement
+     */
+    protected void setKeys(String column, int count) {
+        keyColumn = column;
+        keyCount = count;
+    }
+}
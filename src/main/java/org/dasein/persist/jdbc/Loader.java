@@ -20,34 +20,45 @@
 /* Copyright (c) 2006 Valtira Corporation, All Rights Reserved */
 package org.dasein.persist.jdbc;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 import org.apache.log4j.Logger;
+import org.dasein.persist.ConverterRegistry;
+import org.dasein.persist.Execution;
 import org.dasein.persist.PersistenceException;
 import org.dasein.persist.PersistentCache.EntityJoin;
 import org.dasein.persist.Transaction;
-import org.dasein.persist.l10n.LocalizationGroup;
 import org.dasein.util.CachedItem;
-import org.dasein.util.uom.Measured;
-import org.dasein.util.uom.UnitOfMeasure;
 
 public class Loader extends AutomatedSql {
     static public final Logger logger = Logger.getLogger(Loader.class);
     
     static public final String LISTING = "listing";
+    static public final String STREAMED = "streamed";
+    
+    /**
+     * Receives rows one at a time from a loader running in streaming mode.
+     */
+    static public interface RowHandler {
+        /**
+         * Handles a single row as it is read from the result set.
+         * @param state the column values for the row
+         * @return false if no further rows are wanted
+         * @throws PersistenceException an error occurred processing the row
+         */
+        public boolean handle(Map<String,Object> state) throws PersistenceException;
+    }
     
     private boolean                                     descending;
+    private int                                         fetchSize = Execution.getDefaultFetchSize();
     private ArrayList<String>                           order;
+    private RowHandler                                  rowHandler;
     private String                                      sql;
     
     public Loader() {
@@ -172,36 +183,73 @@ public class Loader extends AutomatedSql {
         }
     }
     
+    /**
+     * Sets the JDBC fetch size hint used when executing this query. Use
+     * <code>Integer.MIN_VALUE</code> for MySQL row-by-row streaming.
+     * @param fetchSize the fetch size, or 0 for the driver default
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    
+    /**
+     * Puts this loader into streaming mode. Rather than collecting the results under {@link #LISTING},
+     * each row is handed to the specified handler as soon as it is read. Streaming does not load
+     * string translations.
+     * @param handler the handler to receive rows, or null to collect rows as usual
+     */
+    public void setRowHandler(RowHandler handler) {
+        rowHandler = handler;
+    }
+    
+    @Override
+    public void close() {
+        // pooled loaders must not hand the next caller's rows to this caller's handler
+        rowHandler = null;
+        super.close();
+    }
+
     public Map<String,Object> run(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
+        if( rowHandler != null ) {
+            return stream(params);
+        }
         ArrayList<Map<String,Object>> list = new ArrayList<Map<String,Object>>();
         HashMap<String,Object> map = new HashMap<String,Object>();
-        int count = getColumns().size();
-        long startTimestamp = System.currentTimeMillis();
+        List<String> columns = getColumns();
+        ConverterRegistry.ColumnReader[] readers = getReaders();
+        int count = columns.size();
         
         map.put(LISTING, list);
+        long bind = System.nanoTime();
+        
         prepare(params);
-        ResultSet results = statement.executeQuery();
+        long start = System.nanoTime();
+        ResultSet results = executeQuery();
+        long executed = System.nanoTime();
+        long hydrate = 0L;
         
         try {
             while( results.next() ) {
                 HashMap<String,Object> state = new HashMap<String,Object>();
+                long row = System.nanoTime();
                 
                 for( int i=1; i<=count; i++) {
-                    Object ob = getValue(getColumns().get(i-1), i, results);
+                    Object ob = readers[i-1].read(results, i);
                     
-                    state.put(getColumns().get(i-1), ob);
+                    state.put(columns.get(i-1), ob);
                 }
+                hydrate += System.nanoTime() - row;
                 list.add(state);
             }
         }
         finally {
             try { results.close(); }
             catch( SQLException e ) { }
+            resetFetchSize();
         }
-        long endTimestamp = System.currentTimeMillis();
-        if( (endTimestamp - startTimestamp) > (2000L) ) {
-            logger.warn("SLOW QUERY: " + sql);
-        }
+        long fetched = System.nanoTime();
+        long fetch = Math.max(0L, fetched - executed - hydrate);
+        
         if( isTranslating() ) {
             for( Map<String,Object> item : list ) {
                 Object key = item.get((String)params.get("--key--"));
@@ -209,198 +257,97 @@ public class Loader extends AutomatedSql {
                 item.putAll(loadStringTranslations(xaction, getTarget(), key.toString()));
             }            
         }
+        hydrate += System.nanoTime() - fetched;
+        recordPhases(start - bind, executed - start, fetch, hydrate, list.size());
         return map;
     }
     
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    public Object getValue(String col, int i, ResultSet rs) throws SQLException {
-        Class<?> type = getTypes().get(col);
-        Object ob;
-
-        if( type.equals(String.class) ) {
-            String str = rs.getString(i);
-            
-            if( rs.wasNull() || str == null ) {
-                ob = null;
-            }
-            else {
-                ob = str.trim();
-            }
-        }
-        else if( type.equals(Boolean.class) || type.equals(boolean.class)) {
-            String str = rs.getString(i);
-            
-            ob = (!rs.wasNull() && str != null && str.equalsIgnoreCase("Y"));
-        }
-        else if( type.equals(Locale.class) ) {
-            String str = rs.getString(i);
-            
-            if( rs.wasNull() || str == null ) {
-                ob = null;
-            }
-            else {
-                String[] parts = str.split("_");
+    private Map<String,Object> stream(Map<String,Object> params) throws SQLException, PersistenceException {
+        HashMap<String,Object> map = new HashMap<String,Object>();
+        List<String> columns = getColumns();
+        ConverterRegistry.ColumnReader[] readers = getReaders();
+        int count = columns.size();
+        long rows = 0L;
+        
+        long bind = System.nanoTime();
+        
+        prepare(params);
+        long start = System.nanoTime();
+        ResultSet results = executeQuery();
+        long executed = System.nanoTime();
+        long hydrate = 0L;
+        long handling = 0L;
+        
+        try {
+            while( results.next() ) {
+                HashMap<String,Object> state = new HashMap<String,Object>();
+                long row = System.nanoTime();
                 
-                if( parts != null && parts.length > 1 ) {
-                    ob = new Locale(parts[0], parts[1]);
-                }
-                else {
-                    ob = new Locale(parts[0]);
-                }
-            }
-        }
-        else if( type.equals(LocalizationGroup.class) ) {
-            String str = rs.getString(i);
-            
-            if( rs.wasNull() || str == null ) {
-                ob = null;
-            }
-            else {
-                ob = LocalizationGroup.valueOf(str);
-            }
-        }
-        else if( Measured.class.isAssignableFrom(type) ) {
-            ParameterizedType pt = getParameterizedTypes().get(col);
-            Number num;
-            
-            try {
-                num = loadNumber(double.class, rs, i);
-                if( num == null ) {
-                    ob = null;
-                }
-                else {
-                    Constructor<? extends Measured> constructor = null;
+                for( int i=1; i<=count; i++) {
+                    Object ob = readers[i-1].read(results, i);
                     
-                    for( Constructor<?> c : type.getDeclaredConstructors() ) {
-                        Class[] args = c.getParameterTypes();
-                        
-                        if( args != null && args.length == 2 && Number.class.isAssignableFrom(args[0]) && UnitOfMeasure.class.isAssignableFrom(args[1]) ) {
-                            constructor = (Constructor<? extends Measured>)c;
-                            break;
-                        }
-                    }
-                    if( constructor == null ) {
-                        throw new SQLException("Unable to map with no proper constructor");
-                    }
-                    else {
-                        ob = constructor.newInstance(num, ((Class<?>)pt.getActualTypeArguments()[0]).newInstance());
-                    }
+                    state.put(columns.get(i-1), ob);
                 }
-            }
-            catch( SQLException e ) {
-                try {
-                    Method m = type.getDeclaredMethod("valueOf", String.class);
-                    String str = rs.getString(i);
-                    
-                    if( rs.wasNull() ) {
-                        ob = null;
-                    }
-                    else {
-                        ob = m.invoke(null, str);
+                long read = System.nanoTime();
+                
+                hydrate += read - row;
+                rows++;
+                boolean more = rowHandler.handle(state);
+                
+                // time spent by the caller with each row is not the statement's
+                handling += System.nanoTime() - read;
+                if( !more ) {
+                    if( logger.isDebugEnabled() ) {
+                        logger.debug("Stream abandoned after " + rows + " rows: " + sql);
                     }
+                    break;
                 }
-                catch( Exception more ) {
-                    logger.error("I have no idea how to map to " + type.getName() + " / " + pt + ": " + e.getMessage());
-                    e.printStackTrace();
-                    throw new SQLException("I have no idea how to map to " + type.getName() + " / " + pt + ": " + e.getMessage());
-                }
-            }
-            catch( Exception e ) {
-                logger.error("Unable to load data for type " + type + " - " + pt + ": " + e.getMessage());
-                e.printStackTrace();
-                throw new SQLException("Unable to load data for type " + type + " - " + pt + ": " + e.getMessage());
-            }
-        }
-        else if( Number.class.isAssignableFrom(type) || type.equals(long.class) || type.equals(int.class) || type.equals(short.class) || type.equals(float.class) || type.equals(double.class) ) {
-            ob = loadNumber(type, rs, i);
-        }
-        else if( Enum.class.isAssignableFrom(type) ) {
-            String str = rs.getString(i);
-            
-            if( str == null || rs.wasNull() ) {
-                ob = null;
-            }
-            else {
-                ob = Enum.valueOf((Class<? extends Enum>)type, str);
-            }
-        }
-        else if( type.equals(UUID.class) ) {
-            String str = rs.getString(i);
-            
-            if( rs.wasNull() || str == null ) {
-                ob = null;
-            }
-            else {
-                ob = UUID.fromString(str);
             }
         }
-        else if( type.getName().startsWith("java.") ){
-            ob = rs.getObject(i);
-            if( rs.wasNull() ) {
-                ob = null;
-            }
-        }
-        else {
-            String str = rs.getString(i);
-
-            if( str == null || rs.wasNull() ) {
-                ob = null;
-            }
-            else {
-                try {
-                    Method m = type.getDeclaredMethod("valueOf", String.class);
-                    
-                    ob = m.invoke(null, str);
-                }
-                catch( Exception e ) {
-                    throw new SQLException("I have no idea how to map to " + type.getName());
-                }
-            }
+        finally {
+            try { results.close(); }
+            catch( SQLException e ) { }
+            resetFetchSize();
         }
-        return ob;
+        long fetched = System.nanoTime();
+        
+        recordPhases(start - bind, executed - start, Math.max(0L, fetched - executed - hydrate - handling), hydrate, rows);
+        map.put(STREAMED, rows);
+        return map;
     }
     
-    private Number loadNumber(Class<?> type, ResultSet rs, int i) throws SQLException {
-        if( type.getName().equals(Long.class.getName()) || type.equals(long.class) ) {
-            long l = rs.getLong(i);
-            
-            if( rs.wasNull() ) {
-                return null;
-            }
-            else {
-                return l;
-            }
-        }
-        else if( type.getName().equals(Integer.class.getName()) || type.getName().equals(Short.class.getName()) || type.equals(int.class) || type.equals(short.class) ) {
-            int x = rs.getInt(i);
-            
-            if( rs.wasNull() ) {
-                return null;
-            }
-            else {
-                return x;
-            }
+    private ResultSet executeQuery() throws SQLException {
+        if( fetchSize != 0 ) {
+            statement.setFetchSize(fetchSize);
         }
-        else if( type.getName().equals(Double.class.getName()) || type.equals(double.class) ) {
-            double x = rs.getDouble(i);
-
-            if( rs.wasNull() ) {
-                return null;
-            }
-            else {
-                return x;
-            }
+        return statement.executeQuery();
+    }
+    
+    private void resetFetchSize() {
+        // the statement may be reused from the transaction's statement cache
+        if( fetchSize != 0 ) {
+            try { statement.setFetchSize(0); }
+            catch( SQLException ignore ) { }
         }
-        else if( type.getName().equals(Float.class.getName()) || type.equals(float.class) ) {
-            float f = rs.getFloat(i);
+    }
+    
+    public Object getValue(String col, int i, ResultSet rs) throws SQLException {
+        return ConverterRegistry.getReader(getTypes().get(col), getParameterizedTypes().get(col)).read(rs, i);
+    }
+    
+    /**
+     * Resolves the reader for each selected column once per query rather than once per value.
+     * @return the column readers, in column order
+     */
+    private ConverterRegistry.ColumnReader[] getReaders() {
+        List<String> columns = getColumns();
+        ConverterRegistry.ColumnReader[] readers = new ConverterRegistry.ColumnReader[columns.size()];
+        
+        for( int i=0; i<readers.length; i++ ) {
+            String col = columns.get(i);
             
-            if( rs.wasNull() ) {
-                return null;
-            }
-            else {
-                return f;
-            }
+            readers[i] = ConverterRegistry.getReader(getTypes().get(col), getParameterizedTypes().get(col));
         }
-        return rs.getBigDecimal(i);
+        return readers;
     }
 }
@@ -20,8 +20,13 @@
 /* Copyright (c) 2006 Valtira Corporation, All Rights Reserved */
 package org.dasein.persist.jdbc;
 
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.dasein.persist.PersistenceException;
@@ -29,7 +34,14 @@ import org.dasein.persist.Transaction;
 import org.dasein.util.Translator;
 
 public class Updater extends AutomatedSql {
-    private String  sql        = null;
+    /**
+     * Parameter naming the fields that changed, as a collection of field names. When present, only
+     * the matching columns are written.
+     */
+    static public final String CHANGED = "--changed--";
+    
+    private HashMap<String,String> partial    = new HashMap<String,String>();
+    private String                 sql        = null;
     
     public Updater() {
         super();
@@ -37,55 +49,102 @@ public class Updater extends AutomatedSql {
     
     public synchronized String getStatement() throws SQLException {
         if( sql == null ) {
-            StringBuilder str = new StringBuilder();
-            Iterator<String> it = getColumns().iterator();
+            sql = buildStatement(getColumns());
+        }
+        return sql;
+    }
+    
+    @Override
+    public synchronized String getStatement(Connection conn, Map<String,Object> params) throws SQLException {
+        List<String> columns = getColumns(params);
+        
+        if( columns == getColumns() ) {
+            return getStatement(conn);
+        }
+        String key = columns.toString();
+        String stmt = partial.get(key);
+        
+        if( stmt == null ) {
+            stmt = buildStatement(columns);
+            partial.put(key, stmt);
+        }
+        return stmt;
+    }
+    
+    private String buildStatement(List<String> columns) throws SQLException {
+        StringBuilder str = new StringBuilder();
+        Iterator<String> it = columns.iterator();
+        
+        str.append("UPDATE ");
+        str.append(getIdentifier(getTableName()));
+        str.append(" SET ");
+        while( it.hasNext() ) {
+            String col = it.next();
             
-            str.append("UPDATE ");
-            str.append(getIdentifier(getTableName()));
-            str.append(" SET ");
-            while( it.hasNext() ) {
-                String col = it.next();
-                
-                str.append(getIdentifier(getSqlName(col)));
-                str.append(" = ?");
-                if( it.hasNext() ) {
-                    str.append(", ");
-                }
+            str.append(getIdentifier(getSqlName(col)));
+            str.append(" = ?");
+            if( it.hasNext() ) {
+                str.append(", ");
             }
-            if( !getCriteria().isEmpty() ) {
-                Iterator<Criterion> criteria;
-                
-                str.append(" WHERE ");
-                criteria = getCriteria().iterator();
-                while( criteria.hasNext() ) {
-                    Criterion criterion = criteria.next();
-                    String col = criterion.column;
-             
-                    if( col.equals("timestamp") ) {
-                        str.append(getIdentifier("last_modified"));
-                    }
-                    else {
-                        str.append(getIdentifier(getSqlName(col)));
-                    }
+        }
+        if( !getCriteria().isEmpty() ) {
+            Iterator<Criterion> criteria;
+            
+            str.append(" WHERE ");
+            criteria = getCriteria().iterator();
+            while( criteria.hasNext() ) {
+                Criterion criterion = criteria.next();
+                String col = criterion.column;
+         
+                if( col.equals("timestamp") ) {
+                    str.append(getIdentifier("last_modified"));
+                }
+                else {
+                    str.append(getIdentifier(getSqlName(col)));
+                }
+                str.append(" ");
+                str.append(criterion.operator.toString());
+                str.append(" ?");
+                if( criteria.hasNext() ) {
+                    str.append(" ");
+                    str.append(getJoin().toString());
                     str.append(" ");
-                    str.append(criterion.operator.toString());
-                    str.append(" ?");
-                    if( criteria.hasNext() ) {
-                        str.append(" ");
-                        str.append(getJoin().toString());
-                        str.append(" ");
-                    }
                 }
             }
-            sql = str.toString();
         }
-        return sql;
+        return str.toString();
+    }
+    
+    /**
+     * Narrows the columns to be written down to those named in the {@link #CHANGED} parameter.
+     * All columns are written if the parameter is absent or names no column, as happens when
+     * only translations changed.
+     * @param params the parameters for this update
+     * @return the columns to write, in table order
+     */
+    private List<String> getColumns(Map<String,Object> params) {
+        Collection<?> changed = (Collection<?>)params.get(CHANGED);
+        
+        if( changed == null ) {
+            return getColumns();
+        }
+        ArrayList<String> columns = new ArrayList<String>();
+        
+        for( String col : getColumns() ) {
+            if( changed.contains(col) ) {
+                columns.add(col);
+            }
+        }
+        if( columns.isEmpty() || columns.size() == getColumns().size() ) {
+            return getColumns();
+        }
+        return columns;
     }
     
     public void prepare(Map<String,Object> params) throws SQLException {
         int i = 1;
         
-        for( String col : getColumns() ) {
+        for( String col : getColumns(params) ) {
             prepare(col, i++, params.get(col));
         }
         for( Criterion criterion : getCriteria() ) {
@@ -101,11 +160,46 @@ public class Updater extends AutomatedSql {
     }
     
     @Override
-    @SuppressWarnings("unchecked")
     public Map<String,Object> run(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
         prepare(params);
         statement.executeUpdate();
-        if( isTranslating() ) {
+        saveTranslations(xaction, params);
+        return params;
+    }
+    
+    @Override
+    public boolean isBatchSupported() {
+        return true;
+    }
+    
+    @Override
+    public void addBatch(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
+        prepare(params);
+        statement.addBatch();
+    }
+    
+    @Override
+    public void completeBatch(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
+        saveTranslations(xaction, params);
+    }
+    
+    private boolean isTranslationChanged(Map<String,Object> params) {
+        Collection<?> changed = (Collection<?>)params.get(CHANGED);
+        
+        if( changed == null ) {
+            return true;
+        }
+        for( String field : getTranslators() ) {
+            if( changed.contains(field) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void saveTranslations(Transaction xaction, Map<String,Object> params) throws SQLException, PersistenceException {
+        if( isTranslating() && isTranslationChanged(params) ) {
             Object key = params.get((String)params.get("--key--"));
             
             this.removeStringTranslations(xaction, getTarget(), key.toString());
@@ -115,6 +209,5 @@ public class Updater extends AutomatedSql {
                 this.saveStringTranslation(xaction, getTarget(), key.toString(), field, t);
             }
         }
-        return params;
     }
 }
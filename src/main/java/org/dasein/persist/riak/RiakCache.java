@@ -34,6 +34,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.httpclient.Header;
@@ -47,7 +48,9 @@ import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.log4j.Logger;
 import org.dasein.persist.DaseinSequencer;
 import org.dasein.persist.Key;
+import org.dasein.persist.LoaderExecutor;
 import org.dasein.persist.Memento;
+import org.dasein.persist.NegativeCache;
 import org.dasein.persist.PersistenceException;
 import org.dasein.persist.PersistentCache;
 import org.dasein.persist.SearchTerm;
@@ -62,7 +65,6 @@ import org.dasein.util.Jiterator;
 import org.dasein.util.JiteratorFilter;
 import org.dasein.util.JiteratorLoadException;
 import org.dasein.util.JiteratorPopulator;
-import org.dasein.util.PopulatorThread;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -209,7 +211,7 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
         return endpoint;
     }
     
-    private String buildMapFunction(boolean forCounting, SearchTerm ... terms) throws PersistenceException {
+    String buildMapFunction(boolean forCounting, SearchTerm ... terms) throws PersistenceException {
         StringBuilder script = new StringBuilder();
 
 
@@ -301,8 +303,7 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
         return script.toString();
     }
     
-    @Override 
-    public long count() throws PersistenceException {
+    private long countKeys() throws PersistenceException {
         JSONObject ob = findKeysInBucketAsJSON();
         
         if( ob.has("keys") ) {
@@ -317,9 +318,9 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
     }
     
     @Override
-    public long count(SearchTerm ... terms) throws PersistenceException {
+    protected long countInStore(SearchTerm ... terms) throws PersistenceException {
         if( terms == null || terms.length < 1 ) {
-            return count();
+            return countKeys();
         }
         if( wire.isDebugEnabled() ) {
             startCall("count");
@@ -719,6 +720,10 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                         std.warn("Failed attempt to create Riak object (" + code + "): " + body);
                         throw new PersistenceException(code + ": " + body);
                     }
+                    invalidateMissing(keyValue);
+                    // Riak writes take effect immediately rather than at commit
+                    adjustCount(null, 1L);
+                    publishInvalidation(null, keyValue);
                     return get(keyValue);
                 }
                 catch( IOException e ) {
@@ -966,14 +971,15 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                             }
                         };
 
-                        populator.populate();
+                        ForwardCursor<T> populated = LoaderExecutor.getInstance().populate(populator);
+
                         if( filter == null ) {
-                            populator.setSize(len);
+                            populated.setSize(len);
                         }
-                        return populator.getCursor();
+                        return populated;
                     }
                     else {
-                        PopulatorThread<T> populator = new PopulatorThread<T>(new JiteratorPopulator<T>() {
+                        return LoaderExecutor.getInstance().populate(getTarget().getName() + ".find", null, new JiteratorPopulator<T>() {
                             @Override
                             public void populate(@Nonnull Jiterator<T> iterator) throws Exception {
                                 for( int i=0; i<len; i++ ) {
@@ -1010,12 +1016,7 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                                     }
                                 }
                             }
-                        });
-                        populator.populate();
-                        if( filter == null ) {
-                            populator.setSize(len);
-                        }
-                        return populator.getResult();
+                        }, (filter == null ? len : -1));
                     }
                 }
                 catch( Exception e ) {
@@ -1114,7 +1115,7 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                 Memento<?> memento = new Memento(item);
 
                 memento.save(state);
-                update(xaction, item, memento.getState());
+                write(xaction, item, memento.getState());
                 xaction.commit();
             }
             catch( Throwable t ) {
@@ -1216,6 +1217,12 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
             
             loader = new CacheLoader<T>() {
                 public T load(Object ... args ) {
+                    NegativeCache missing = getNegativeCache();
+                    long generation = (missing == null ? 0L : missing.getGeneration());
+                    
+                    if( missing != null && missing.contains(primaryKey) ) {
+                        return null;
+                    }
                     startCall("loadObject");
                     try {
                         if( std.isDebugEnabled() ) {
@@ -1275,6 +1282,9 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                             }
                             if( code != HttpStatus.SC_OK ) {
                                 if( code == HttpStatus.SC_NOT_FOUND ) {
+                                    if( missing != null ) {
+                                        missing.add(primaryKey, generation);
+                                    }
                                     return null;
                                 }
                                 throw new RuntimeException(code + ": " + body);
@@ -1556,16 +1566,15 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                                 }
                             };
 
-                            populator.populate();
+                            ForwardCursor<T> populated = LoaderExecutor.getInstance().populate(populator);
+
                             if( filter == null ) {
-                                populator.setSize(len);
+                                populated.setSize(len);
                             }
-                            return populator.getCursor();
+                            return populated;
                         }
                         else {
-                            PopulatorThread<T> populator;
-
-                            populator = new PopulatorThread<T>(new JiteratorPopulator<T>() {
+                            return LoaderExecutor.getInstance().populate(getTarget().getName() + ".list", null, new JiteratorPopulator<T>() {
                                 public void populate(@Nonnull Jiterator<T> iterator) throws Exception {
                                     for( int i=0; i<len; i++ ) {
                                         String key = keys.getString(i);
@@ -1584,12 +1593,7 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                                         }
                                     }
                                 }
-                            });
-                            populator.populate();
-                            if( filter == null ) {
-                                populator.setSize(len);
-                            }
-                            return populator.getResult();
+                            }, (filter == null ? len : -1));
                         }
                     }
                     return Collections.emptyList();
@@ -1803,6 +1807,10 @@ public class RiakCache<T extends CachedItem> extends PersistentCache<T> {
                     throw new PersistenceException(code + ": " + body);
                 }
                 getCache().release(item);
+                if( code == HttpStatus.SC_NO_CONTENT ) {
+                    adjustCount(null, -1L);
+                }
+                publishInvalidation(null, getValue(item, getPrimaryKeyField()));
             }
             catch( IOException e ) {
                 throw new PersistenceException(e);
@@ -1909,6 +1917,16 @@ todo: remap
 
     @Override
     public void update(Transaction xaction, T item, Map<String, Object> state) throws PersistenceException {
+        Set<String> changes = getChanges(item, state);
+        
+        // Riak has no partial update, so a changed document is still written whole
+        if( changes != null && changes.isEmpty() ) {
+            return;
+        }
+        write(xaction, item, state);
+    }
+    
+    private void write(Transaction xaction, T item, Map<String, Object> state) throws PersistenceException {
         String newKey = getKeyValue(state, getPrimaryKey());
         String oldKey = getKeyValue(item);
         
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.dasein.util.CacheLoader;
+import org.dasein.util.CachedItem;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedMultiCacheTest extends TestCase {
+    static public class Item implements CachedItem {
+        private String id;
+
+        public Item() { }
+
+        public Item(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public boolean isValidForCache() {
+            return true;
+        }
+    }
+
+    private long          clock;
+    private AtomicInteger loads;
+
+    private BoundedMultiCache<Item> create(int maxEntries, long expireAfterWrite, long expireAfterAccess, boolean admission) {
+        CachePolicy policy = new CachePolicy(maxEntries, expireAfterWrite, expireAfterAccess, admission);
+
+        return new BoundedMultiCache<Item>(Item.class, "id", policy, CacheStatistics.getInstance(Item.class.getName() + "." + getName())) {
+            @Override
+            long now() {
+                return clock;
+            }
+        };
+    }
+
+    private Item get(BoundedMultiCache<Item> cache, String id) {
+        return cache.find("id", id, new CacheLoader<Item>() {
+            public Item load(Object ... args) {
+                loads.incrementAndGet();
+                return new Item((String)args[0]);
+            }
+        }, id);
+    }
+
+    private boolean isCached(BoundedMultiCache<Item> cache, String id) {
+        return (cache.find("id", id, null) != null);
+    }
+
+    @Before
+    @Override
+    public void setUp() {
+        clock = 1000000L;
+        loads = new AtomicInteger(0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        BoundedMultiCache<Item> cache = create(3, 0L, 0L, false);
+
+        try {
+            get(cache, "a");
+            get(cache, "b");
+            get(cache, "c");
+            get(cache, "a");
+            get(cache, "d");
+            assertEquals("Cache exceeded its limit", 3, cache.getSize());
+            assertEquals("Wrong number of evictions", 1L, cache.getEvictionCount());
+            assertFalse("Least recently used object was kept", isCached(cache, "b"));
+            assertTrue("Recently used object was evicted", isCached(cache, "a"));
+            assertTrue("Recently used object was evicted", isCached(cache, "c"));
+            assertTrue("New object was not kept", isCached(cache, "d"));
+            assertEquals("Cached objects were loaded again", 4, loads.get());
+        }
+        finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testLimitHeldAcrossSegments() {
+        BoundedMultiCache<Item> cache = create(1024, 0L, 0L, false);
+
+        try {
+            for( int i=0; i<5000; i++ ) {
+                get(cache, String.valueOf(i));
+            }
+            assertEquals("Cache did not hold its limit", 1024, cache.getSize());
+            assertEquals("Wrong number of evictions", 5000L - 1024L, cache.getEvictionCount());
+            assertTrue("Most recent object was evicted", isCached(cache, "4999"));
+            assertFalse("Oldest object was kept", isCached(cache, "0"));
+        }
+        finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testAdmissionRejectsOneOffs() {
+        BoundedMultiCache<Item> cache = create(2, 0L, 0L, true);
+
+        try {
+            for( int i=0; i<4; i++ ) {
+                get(cache, "a");
+                get(cache, "b");
+            }
+            Item scanned = get(cache, "c");
+
+            assertNotNull("Rejected object was not returned to the caller", scanned);
+            assertEquals("One-off object was not rejected", 1L, cache.getRejectionCount());
+            assertFalse("One-off object was kept", isCached(cache, "c"));
+            assertTrue("Popular object was evicted", isCached(cache, "a"));
+            assertTrue("Popular object was evicted", isCached(cache, "b"));
+
+            int attempts = 0;
+
+            while( !isCached(cache, "c") && attempts++ < 10 ) {
+                get(cache, "c");
+            }
+            assertTrue("Object asked for more often than the eldest was never admitted", isCached(cache, "c"));
+            assertEquals("Admitting an object did not evict exactly one", 1L, cache.getEvictionCount() - cache.getRejectionCount());
+            assertEquals("Cache exceeded its limit", 2, cache.getSize());
+        }
+        finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testExpireAfterWrite() {
+        BoundedMultiCache<Item> cache = create(0, 50L, 0L, false);
+
+        try {
+            get(cache, "a");
+            get(cache, "a");
+            assertEquals("Fresh object was loaded again", 1, loads.get());
+            clock += 49L;
+            get(cache, "a");
+            assertEquals("Object was loaded again before it expired", 1, loads.get());
+            clock += 2L;
+            get(cache, "a");
+            assertEquals("Expired object was not loaded again", 2, loads.get());
+            assertEquals("Wrong number of expirations", 1L, cache.getExpirationCount());
+
+            get(cache, "b");
+            clock += 51L;
+            cache.cleanUp();
+            assertEquals("Expired objects survived a clean up", 0, cache.getSize());
+            assertFalse("Expired object is still cached", isCached(cache, "b"));
+        }
+        finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testExpireAfterAccess() {
+        BoundedMultiCache<Item> cache = create(0, 0L, 150L, false);
+
+        try {
+            get(cache, "a");
+            for( int i=0; i<4; i++ ) {
+                clock += 100L;
+                get(cache, "a");
+            }
+            assertEquals("Object read within its idle time was loaded again", 1, loads.get());
+            clock += 151L;
+            get(cache, "a");
+            assertEquals("Idle object was not loaded again", 2, loads.get());
+        }
+        finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testClearedReferencesDropped() {
+        BoundedMultiCache<Item> cache = create(100, 0L, 0L, false);
+
+        try {
+            for( int i=0; i<10; i++ ) {
+                get(cache, String.valueOf(i));
+            }
+            assertEquals("Objects were not tracked", 10, cache.getSize());
+            cache.clearReferences();
+            cache.cleanUp();
+            assertEquals("Collected objects are still tracked", 0, cache.getSize());
+            assertEquals("Collected objects were counted as evictions", 0L, cache.getEvictionCount());
+            assertEquals("Collected objects were counted as expirations", 0L, cache.getExpirationCount());
+            get(cache, "0");
+            assertEquals("Object read again after collection is not tracked", 1, cache.getSize());
+        }
+        finally {
+            cache.close();
+        }
+    }
+}
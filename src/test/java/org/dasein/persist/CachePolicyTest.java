@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import junit.framework.TestCase;
+
+import org.dasein.persist.annotations.Schema;
+import org.junit.Test;
+
+public class CachePolicyTest extends TestCase {
+    static public class Unbounded { }
+
+    @Schema(value="0", maxEntries=50, expireAfterWrite=1000L)
+    static public class Annotated { }
+
+    // dasein-persistence.properties overrides maxEntries and admission for this entity
+    @Schema(value="0", maxEntries=50, expireAfterAccess=2000L)
+    static public class Overridden { }
+
+    // dasein-persistence.properties sets expireAfterWrite for this entity
+    static public class Configured { }
+
+    @Test
+    public void testUnboundedByDefault() {
+        assertNull("Entity without limits has a policy", CachePolicy.getInstance(Unbounded.class));
+    }
+
+    @Test
+    public void testAnnotation() {
+        CachePolicy policy = CachePolicy.getInstance(Annotated.class);
+
+        assertNotNull("Annotated entity has no policy", policy);
+        assertEquals("Wrong maxEntries", 50, policy.getMaxEntries());
+        assertEquals("Wrong expireAfterWrite", 1000L, policy.getExpireAfterWrite());
+        assertEquals("Wrong expireAfterAccess", 0L, policy.getExpireAfterAccess());
+        assertTrue("Admission is not on by default", policy.isAdmission());
+    }
+
+    @Test
+    public void testPropertyOverridesAnnotation() {
+        CachePolicy policy = CachePolicy.getInstance(Overridden.class);
+
+        assertNotNull("Overridden entity has no policy", policy);
+        assertEquals("Entity property did not override the annotation", 25, policy.getMaxEntries());
+        assertEquals("Annotation was ignored", 2000L, policy.getExpireAfterAccess());
+        assertFalse("Entity property did not turn admission off", policy.isAdmission());
+    }
+
+    @Test
+    public void testPropertyWithoutAnnotation() {
+        CachePolicy policy = CachePolicy.getInstance(Configured.class);
+
+        assertNotNull("Configured entity has no policy", policy);
+        assertEquals("Wrong maxEntries", 0, policy.getMaxEntries());
+        assertEquals("Entity property was ignored", 5000L, policy.getExpireAfterWrite());
+    }
+
+    @Test
+    public void testNegativeValuesIgnored() {
+        CachePolicy policy = new CachePolicy(-1, -1L, -1L, true);
+
+        assertEquals("Negative maxEntries was kept", 0, policy.getMaxEntries());
+        assertEquals("Negative expireAfterWrite was kept", 0L, policy.getExpireAfterWrite());
+        assertEquals("Negative expireAfterAccess was kept", 0L, policy.getExpireAfterAccess());
+    }
+}
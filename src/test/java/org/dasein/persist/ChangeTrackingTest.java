@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.dasein.persist.annotations.Index;
+import org.dasein.persist.annotations.IndexType;
+import org.dasein.util.CachedItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs change-tracked updates through {@link RelationalCache} against a stand-in data source that records
+ * the statements it is asked to run. dasein-persistence.properties maps {@link Widget} to a relational
+ * cache on the <code>changeTrackingTest</code> DSN.
+ */
+public class ChangeTrackingTest extends TestCase {
+    static public class Widget implements CachedItem {
+        private String color;
+        @Index(type=IndexType.PRIMARY)
+        private long   widgetId;
+
+        public Widget() { }
+
+        public String getColor() {
+            return color;
+        }
+
+        public long getWidgetId() {
+            return widgetId;
+        }
+
+        public boolean isValidForCache() {
+            return true;
+        }
+    }
+
+    /**
+     * Stands in for the data source, its connections, and their metadata, answering every call with a
+     * default value and recording the update statements run.
+     */
+    static private class Recorder implements InvocationHandler {
+        public final List<String> updates = new ArrayList<String>();
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if( name.equals("getConnection") ) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, this);
+            }
+            if( name.equals("getMetaData") ) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DatabaseMetaData.class }, this);
+            }
+            if( name.equals("getIdentifierQuoteString") ) {
+                return "\"";
+            }
+            if( name.equals("prepareStatement") ) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, new StatementHandler(this, (String)args[0]));
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * Stands in for a prepared statement, recording the statement with its parameters when it is an update.
+     */
+    static private class StatementHandler implements InvocationHandler {
+        private final Recorder            connection;
+        private final Map<Integer,Object> params = new HashMap<Integer,Object>();
+        private final String              sql;
+
+        public StatementHandler(Recorder connection, String sql) {
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if( name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer ) {
+                params.put((Integer)args[0], args[1]);
+                return null;
+            }
+            if( name.equals("executeUpdate") || name.equals("execute") ) {
+                if( sql.trim().toUpperCase().startsWith("UPDATE") ) {
+                    connection.updates.add(sql + " " + params.values());
+                }
+                params.clear();
+                return (name.equals("execute") ? Boolean.FALSE : Integer.valueOf(1));
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    static private Object defaultValue(Class<?> type) {
+        if( type.equals(boolean.class) ) {
+            return Boolean.FALSE;
+        }
+        if( type.equals(int.class) ) {
+            return Integer.valueOf(0);
+        }
+        if( type.equals(long.class) ) {
+            return Long.valueOf(0L);
+        }
+        if( type.isArray() && type.getComponentType().equals(int.class) ) {
+            return new int[0];
+        }
+        return null;
+    }
+
+    private RelationalCache<Widget> cache;
+    private Recorder                recorder;
+
+    private void update(Widget item, String color) throws PersistenceException {
+        HashMap<String,Object> state = new HashMap<String,Object>();
+        Transaction xaction = Transaction.getInstance();
+
+        state.put("widgetId", item.getWidgetId());
+        state.put("color", color);
+        try {
+            cache.update(xaction, item, state);
+            xaction.commit();
+        }
+        finally {
+            xaction.rollback();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Before
+    @Override
+    public void setUp() throws PersistenceException {
+        recorder = new Recorder();
+        DataSourceResolver.register("changeTrackingTest", (DataSource)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, recorder));
+        cache = (RelationalCache<Widget>)PersistentCache.getCache(Widget.class);
+        cache.setChangeTracking(true);
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        cache.releaseAll();
+        DataSourceResolver.unregister("changeTrackingTest");
+    }
+
+    @Test
+    public void testRevertedUpdateWritten() throws PersistenceException {
+        HashMap<String,Object> state = new HashMap<String,Object>();
+        Transaction xaction = Transaction.getInstance();
+        Widget item;
+
+        state.put("widgetId", 1L);
+        state.put("color", "red");
+        try {
+            item = cache.create(xaction, state);
+            xaction.commit();
+        }
+        finally {
+            xaction.rollback();
+        }
+        update(item, "blue");
+        assertEquals("Change was not written", 1, recorder.updates.size());
+        assertEquals("Cached instance does not reflect the committed update", "blue", item.getColor());
+        update(item, "red");
+        assertEquals("Change back to the original value was skipped", 2, recorder.updates.size());
+        assertTrue("Wrong value written: " + recorder.updates.get(1), recorder.updates.get(1).contains("red"));
+        assertEquals("Cached instance does not reflect the committed update", "red", item.getColor());
+        update(item, "red");
+        assertEquals("Update changing nothing was written", 2, recorder.updates.size());
+    }
+
+    @Test
+    public void testRolledBackUpdateNotApplied() throws PersistenceException {
+        HashMap<String,Object> state = new HashMap<String,Object>();
+        Transaction xaction = Transaction.getInstance();
+        Widget item;
+
+        state.put("widgetId", 2L);
+        state.put("color", "red");
+        try {
+            item = cache.create(xaction, state);
+            xaction.commit();
+        }
+        finally {
+            xaction.rollback();
+        }
+        state = new HashMap<String,Object>();
+        state.put("widgetId", 2L);
+        state.put("color", "blue");
+        xaction = Transaction.getInstance();
+        try {
+            cache.update(xaction, item, state);
+        }
+        finally {
+            xaction.rollback();
+        }
+        assertEquals("Rolled back update was applied to the cached instance", "red", item.getColor());
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+import junit.framework.TestCase;
+
+import org.dasein.persist.ChangeTrackingTest.Widget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link PersistentCache#fetchConcurrently(List, PersistentCache.Fetcher)} finishes even when the
+ * loader executor never gets around to the work handed to it, as happens when every loader thread is
+ * itself waiting on a fetch. Borrows the {@link Widget} cache set up for {@link ChangeTrackingTest}.
+ */
+public class FetchConcurrentlyTest extends TestCase {
+    /**
+     * Accepts every task and never runs any of them.
+     */
+    static private class StalledLoaderExecutor extends LoaderExecutor {
+        public final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        protected synchronized boolean dispatch(@Nonnull Runnable task) {
+            tasks.add(task);
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+            // NO-OP
+        }
+    }
+
+    private PersistentCache<Widget> cache;
+    private StalledLoaderExecutor   executor;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    @Override
+    public void setUp() throws PersistenceException {
+        cache = (PersistentCache<Widget>)PersistentCache.getCache(Widget.class);
+        executor = new StalledLoaderExecutor();
+        LoaderExecutor.setInstance(executor);
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        LoaderExecutor.setInstance(new PooledLoaderExecutor());
+    }
+
+    @Test
+    public void testStalledExecutor() throws InterruptedException {
+        final AtomicReference<Collection<Widget>> result = new AtomicReference<Collection<Widget>>();
+        Thread caller = new Thread() {
+            public void run() {
+                try {
+                    result.set(cache.fetchConcurrently(Arrays.<Object>asList(1L, 2L, 3L, 4L), new PersistentCache.Fetcher<Widget>() {
+                        public Widget fetch(@Nonnull Object keyValue) {
+                            return new Widget();
+                        }
+                    }));
+                }
+                catch( PersistenceException e ) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        caller.setDaemon(true);
+        caller.start();
+        caller.join(10000L);
+        assertFalse("Caller is still waiting on the stalled executor", caller.isAlive());
+        assertNotNull("Fetch failed", result.get());
+        assertEquals("Wrong number of objects fetched", 4, result.get().size());
+        assertEquals("Work was not offered to the executor", 3, executor.tasks.size());
+    }
+}
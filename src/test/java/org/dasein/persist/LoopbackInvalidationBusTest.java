@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoopbackInvalidationBusTest extends TestCase {
+    static private final String ENTITY = "org.dasein.persist.PersistentObject";
+
+    static private class Recorder implements InvalidationBus.Listener {
+        public final List<Set<String>> batches = new ArrayList<Set<String>>();
+
+        public synchronized void invalidate(String entity, Set<String> keys) {
+            assertEquals("Invalidation delivered for the wrong entity", ENTITY, entity);
+            batches.add(new HashSet<String>(keys));
+        }
+    }
+
+    private LoopbackInvalidationBus local;
+    private Recorder                localRecorder;
+    private LoopbackInvalidationBus remote;
+    private Recorder                remoteRecorder;
+
+    private Set<String> keys(String ... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+
+    @Before
+    @Override
+    public void setUp() {
+        // loads the batch size and flush delay from dasein-persistence.properties; no shared bus is configured
+        assertNull("A shared bus is configured for the tests", InvalidationBus.getInstance());
+        local = new LoopbackInvalidationBus();
+        remote = new LoopbackInvalidationBus();
+        localRecorder = new Recorder();
+        remoteRecorder = new Recorder();
+        local.subscribe(ENTITY, localRecorder);
+        remote.subscribe(ENTITY, remoteRecorder);
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        local.close();
+        remote.close();
+    }
+
+    @Test
+    public void testInvalidationsCoalesced() {
+        local.publish(ENTITY, 1L);
+        local.publish(ENTITY, 1L);
+        local.publish(ENTITY, 2L);
+        assertTrue("Invalidations were sent before the flush", remoteRecorder.batches.isEmpty());
+        local.flush();
+        assertEquals("Invalidations were not sent as one batch", Collections.singletonList(keys("1", "2")), remoteRecorder.batches);
+        assertEquals("Repeated key was sent twice", 2L, local.getSentCount());
+        assertEquals("Wrong number of keys received", 2L, remote.getReceivedCount());
+
+        local.publish(ENTITY, 3L);
+        local.publish(ENTITY, null);
+        local.publish(ENTITY, 4L);
+        local.flush();
+        assertEquals("Keys were sent alongside an invalidation of every object", keys(InvalidationBus.ALL), remoteRecorder.batches.get(1));
+        assertEquals("Wrong number of keys sent", 3L, local.getSentCount());
+    }
+
+    @Test
+    public void testFullBatchSent() {
+        // dasein-persistence.properties sets a batch size of 10
+        for( int i=0; i<9; i++ ) {
+            local.publish(ENTITY, i);
+        }
+        assertTrue("Invalidations were sent before the batch was full", remoteRecorder.batches.isEmpty());
+        local.publish(ENTITY, 9);
+        assertEquals("Full batch was not sent", 1, remoteRecorder.batches.size());
+        assertEquals("Full batch was incomplete", 10, remoteRecorder.batches.get(0).size());
+    }
+
+    @Test
+    public void testOwnInvalidationsIgnored() {
+        local.publish(ENTITY, 1L);
+        local.flush();
+        assertTrue("Node received its own invalidation", localRecorder.batches.isEmpty());
+        assertEquals("Node counted its own invalidation as received", 0L, local.getReceivedCount());
+        assertEquals("Other node did not receive the invalidation", 1, remoteRecorder.batches.size());
+        assertFalse("Nodes share an ID", local.getNodeId().equals(remote.getNodeId()));
+    }
+
+    @Test
+    public void testUnsubscribedListenerIgnored() {
+        remote.unsubscribe(ENTITY, remoteRecorder);
+        local.publish(ENTITY, 1L);
+        local.flush();
+        assertTrue("Unsubscribed listener received an invalidation", remoteRecorder.batches.isEmpty());
+        assertEquals("Invalidation was not received", 1L, remote.getReceivedCount());
+    }
+
+    @Test
+    public void testRolledBackChangesNotPublished() throws PersistenceException {
+        Runnable publish = new Runnable() {
+            public void run() {
+                local.publish(ENTITY, 1L);
+            }
+        };
+        Transaction xaction = Transaction.getInstance();
+
+        xaction.afterCommit(publish);
+        xaction.rollback();
+        local.flush();
+        assertTrue("Rolled back change was published", remoteRecorder.batches.isEmpty());
+
+        xaction = Transaction.getInstance();
+        xaction.afterCommit(publish);
+        try {
+            xaction.commit();
+        }
+        finally {
+            xaction.rollback();
+        }
+        local.flush();
+        assertEquals("Committed change was not published", Collections.singletonList(keys("1")), remoteRecorder.batches);
+    }
+}
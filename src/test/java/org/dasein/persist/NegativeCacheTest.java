@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class NegativeCacheTest extends TestCase {
+    @Test
+    public void testLeastRecentlyUsedDropped() {
+        NegativeCache cache = new NegativeCache(2, 60000L);
+
+        cache.add(1L, cache.getGeneration());
+        cache.add(2L, cache.getGeneration());
+        assertTrue("Missing key was not remembered", cache.contains(1L));
+        cache.add(3L, cache.getGeneration());
+        assertEquals("Cache exceeded its size", 2, cache.getSize());
+        assertFalse("Least recently used key was kept", cache.contains(2L));
+        assertTrue("Recently used key was dropped", cache.contains(1L));
+        assertTrue("New key was not remembered", cache.contains(3L));
+    }
+
+    @Test
+    public void testKeysComparedAsStrings() {
+        NegativeCache cache = new NegativeCache(10, 60000L);
+
+        cache.add(42L, cache.getGeneration());
+        assertTrue("Key of another type with the same string form was not found", cache.contains("42"));
+        assertFalse("Null key was found", cache.contains(null));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        NegativeCache cache = new NegativeCache(10, 50L);
+
+        cache.add(1L, cache.getGeneration());
+        assertTrue("Fresh key was not found", cache.contains(1L));
+        Thread.sleep(100L);
+        assertFalse("Expired key was found", cache.contains(1L));
+        assertEquals("Expired key was not dropped", 0, cache.getSize());
+        assertEquals("Wrong number of hits", 1L, cache.getHits());
+        assertEquals("Wrong number of misses", 1L, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidateForgetsKey() {
+        NegativeCache cache = new NegativeCache(10, 60000L);
+
+        cache.add(1L, cache.getGeneration());
+        cache.add(2L, cache.getGeneration());
+        cache.invalidate(1L);
+        assertFalse("Created key is still missing", cache.contains(1L));
+        assertTrue("Other key was forgotten", cache.contains(2L));
+    }
+
+    @Test
+    public void testStaleMissIgnored() {
+        NegativeCache cache = new NegativeCache(10, 60000L);
+        long asOf = cache.getGeneration();
+
+        // the object is created while the lookup that missed it is still at the data store
+        cache.invalidate(1L);
+        cache.add(1L, asOf);
+        assertFalse("Miss read before a create was recorded", cache.contains(1L));
+
+        asOf = cache.getGeneration();
+        cache.clear();
+        cache.add(1L, asOf);
+        assertFalse("Miss read before a clear was recorded", cache.contains(1L));
+
+        cache.add(1L, cache.getGeneration());
+        assertTrue("Current miss was not recorded", cache.contains(1L));
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.dasein.persist.jdbc.AutomatedSql.Operator;
+import org.junit.Test;
+
+public class QueryCacheTest extends TestCase {
+    static private final List<Object> KEYS = Arrays.<Object>asList(1L, 2L, 3L);
+
+    private QueryCache.Key key(QueryCache cache, String field, Object value) {
+        return cache.getKey(new SearchTerm[] { new SearchTerm(field, Operator.EQUALS, value) }, null);
+    }
+
+    private void put(QueryCache cache, QueryCache.Key key) {
+        cache.put(key, KEYS, cache.getGeneration());
+    }
+
+    @Test
+    public void testTermOrderIgnored() {
+        QueryCache cache = new QueryCache(10, 60000L, 100);
+        SearchTerm owner = new SearchTerm("owner", Operator.EQUALS, "bob");
+        SearchTerm status = new SearchTerm("status", Operator.NOT_EQUAL, "DELETED");
+        SearchTerm after = new SearchTerm("created", Operator.GREATER_THAN, 100L);
+        QueryCache.Key key = cache.getKey(new SearchTerm[] { owner, status, after }, Boolean.TRUE, "created");
+        QueryCache.Key permuted = cache.getKey(new SearchTerm[] { after, owner, status }, Boolean.TRUE, "created");
+
+        assertEquals("Permuted terms gave a different key", key, permuted);
+        assertEquals("Permuted terms gave a different hash", key.hashCode(), permuted.hashCode());
+        put(cache, key);
+        assertEquals("Search with permuted terms was not answered from the cache", KEYS, cache.get(permuted));
+        assertFalse("Different values gave the same key", key.equals(cache.getKey(new SearchTerm[] { owner, status, new SearchTerm("created", Operator.GREATER_THAN, 200L) }, Boolean.TRUE, "created")));
+        assertFalse("Different ordering gave the same key", key.equals(cache.getKey(new SearchTerm[] { owner, status, after }, Boolean.FALSE, "created")));
+    }
+
+    @Test
+    public void testJoinsNotCached() {
+        QueryCache cache = new QueryCache(10, 60000L, 100);
+
+        assertNull("Search on a joined entity was given a key", cache.getKey(new SearchTerm[] { new SearchTerm(PersistentObject.class, "name", Operator.EQUALS, "x") }, null));
+    }
+
+    @Test
+    public void testFieldInvalidation() {
+        QueryCache cache = new QueryCache(10, 60000L, 100);
+        QueryCache.Key byName = key(cache, "name", "a");
+        QueryCache.Key byStatus = key(cache, "status", "ACTIVE");
+        QueryCache.Key orderedByName = cache.getKey(new SearchTerm[] { new SearchTerm("status", Operator.EQUALS, "ACTIVE") }, Boolean.FALSE, "name");
+
+        put(cache, byName);
+        put(cache, byStatus);
+        put(cache, orderedByName);
+        cache.invalidate(Collections.singleton("name"));
+        assertNull("Search filtering on a changed field was kept", cache.get(byName));
+        assertNull("Search ordering on a changed field was kept", cache.get(orderedByName));
+        assertEquals("Search on an unchanged field was forgotten", KEYS, cache.get(byStatus));
+        cache.invalidate(null);
+        assertNull("Invalidating every field kept a search", cache.get(byStatus));
+        assertEquals("Searches are still remembered", 0, cache.getSize());
+    }
+
+    @Test
+    public void testPutAfterInvalidationIgnored() {
+        QueryCache cache = new QueryCache(10, 60000L, 100);
+        QueryCache.Key key = key(cache, "name", "a");
+        long asOf = cache.getGeneration();
+
+        // a write lands while the search is at the data store
+        cache.invalidate(Collections.singleton("description"));
+        cache.put(key, KEYS, asOf);
+        assertNull("Result read before an invalidation was stored", cache.get(key));
+
+        asOf = cache.getGeneration();
+        cache.clear();
+        cache.put(key, KEYS, asOf);
+        assertNull("Result read before a clear was stored", cache.get(key));
+
+        put(cache, key);
+        assertEquals("Current result was not stored", KEYS, cache.get(key));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        QueryCache cache = new QueryCache(10, 50L, 100);
+        QueryCache.Key key = key(cache, "name", "a");
+
+        put(cache, key);
+        assertEquals("Fresh result was not returned", KEYS, cache.get(key));
+        Thread.sleep(100L);
+        assertNull("Expired result was returned", cache.get(key));
+        assertEquals("Expired result was not dropped", 0, cache.getSize());
+        assertEquals("Wrong number of hits", 1L, cache.getHits());
+        assertEquals("Wrong number of misses", 1L, cache.getMisses());
+    }
+
+    @Test
+    public void testLargeResultsNotKept() {
+        QueryCache cache = new QueryCache(10, 60000L, 2);
+        QueryCache.Key large = key(cache, "name", "a");
+        QueryCache.Key small = key(cache, "name", "b");
+
+        put(cache, large);
+        assertNull("Result over maxRows was kept", cache.get(large));
+        cache.put(small, KEYS.subList(0, 2), cache.getGeneration());
+        assertEquals("Result at maxRows was not kept", KEYS.subList(0, 2), cache.get(small));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDropped() {
+        QueryCache cache = new QueryCache(2, 60000L, 100);
+        QueryCache.Key a = key(cache, "name", "a");
+        QueryCache.Key b = key(cache, "name", "b");
+        QueryCache.Key c = key(cache, "name", "c");
+
+        put(cache, a);
+        put(cache, b);
+        cache.get(a);
+        put(cache, c);
+        assertEquals("Cache exceeded its size", 2, cache.getSize());
+        assertNull("Least recently used search was kept", cache.get(b));
+        assertNotNull("Recently used search was dropped", cache.get(a));
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 1998-2011 enStratusNetworks LLC
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.persist;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.dasein.util.JiteratorLoadException;
+import org.junit.Test;
+
+public class StreamingCollectionTest extends TestCase {
+    @Test
+    public void testCompleteStream() {
+        StreamingCollection<String> stream = new StreamingCollection<String>(4, 1000L);
+        ArrayList<String> items = new ArrayList<String>();
+
+        assertTrue("Push was refused", stream.push("a"));
+        assertTrue("Push was refused", stream.push("b"));
+        stream.complete();
+        for( String item : stream ) {
+            items.add(item);
+        }
+        assertEquals("Wrong items streamed", 2, items.size());
+    }
+
+    @Test
+    public void testLoadErrorRaised() {
+        StreamingCollection<String> stream = new StreamingCollection<String>(4, 1000L);
+        Iterator<String> it;
+
+        stream.push("a");
+        stream.setLoadException(new PersistenceException("broken"));
+        it = stream.iterator();
+        assertEquals("Item before the error was lost", "a", it.next());
+        try {
+            it.hasNext();
+            fail("Load error was not raised");
+        }
+        catch( JiteratorLoadException expected ) {
+            assertEquals("Wrong cause", "broken", expected.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testAbandonedStreamRaised() {
+        StreamingCollection<String> stream = new StreamingCollection<String>(1, 10L);
+
+        assertTrue("Push was refused", stream.push("a"));
+        assertFalse("Push into a full buffer nobody reads was accepted", stream.push("b"));
+        assertTrue("Abandoned stream is not closed", stream.isClosed());
+        try {
+            stream.iterator().hasNext();
+            fail("Abandoned stream looked like a complete one");
+        }
+        catch( JiteratorLoadException expected ) {
+            assertTrue("Wrong cause", expected.getCause() instanceof PersistenceException);
+        }
+    }
+
+    @Test
+    public void testInterruptedLoaderRaised() {
+        StreamingCollection<String> stream = new StreamingCollection<String>(1, 60000L);
+
+        stream.push("a");
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse("Interrupted push was accepted", stream.push("b"));
+        }
+        finally {
+            Thread.interrupted();
+        }
+        try {
+            stream.iterator().hasNext();
+            fail("Interrupted stream looked like a complete one");
+        }
+        catch( JiteratorLoadException expected ) {
+            assertTrue("Wrong cause", expected.getCause() instanceof PersistenceException);
+        }
+    }
+
+    @Test
+    public void testClosedByConsumer() {
+        StreamingCollection<String> stream = new StreamingCollection<String>(4, 1000L);
+        Iterator<String> it = stream.iterator();
+
+        stream.push("a");
+        stream.close();
+        assertFalse("Closed stream has more items", it.hasNext());
+        assertFalse("Push to a closed stream was accepted", stream.push("b"));
+    }
+
+    @Test
+    public void testWaitingConsumerReleasedOnAbandon() throws InterruptedException {
+        final StreamingCollection<String> stream = new StreamingCollection<String>(1, 60000L);
+        final Throwable[] raised = new Throwable[1];
+        Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    stream.iterator().hasNext();
+                }
+                catch( Throwable t ) {
+                    raised[0] = t;
+                }
+            }
+        };
+
+        consumer.start();
+        // the loader is interrupted while the consumer waits on an empty buffer
+        Thread.currentThread().interrupt();
+        try {
+            stream.complete();
+        }
+        finally {
+            Thread.interrupted();
+        }
+        consumer.join(10000L);
+        assertFalse("Consumer is still waiting", consumer.isAlive());
+        assertTrue("Consumer did not see the failure", raised[0] instanceof JiteratorLoadException);
+    }
+}